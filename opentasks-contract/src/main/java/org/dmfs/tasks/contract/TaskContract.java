@@ -57,9 +57,42 @@ public final class TaskContract
 
     /**
      * URI parameter to signal the request of the extended properties of a task.
+     * <p>
+     * By default the result contains one row per task and property. If the value is {@link #LOAD_PROPERTIES_BATCHED} the result contains each task only
+     * once and the properties are returned in {@link TaskColumns#ENCODED_PROPERTIES}.
+     * </p>
      */
     public static final String LOAD_PROPERTIES = "load_properties";
 
+    /**
+     * Value of {@link #LOAD_PROPERTIES} to load the properties of all tasks of a result in one go and return them in {@link TaskColumns#ENCODED_PROPERTIES}
+     * instead of returning one row per property.
+     */
+    public static final String LOAD_PROPERTIES_BATCHED = "batched";
+
+    /**
+     * URI parameter to limit the number of rows returned by {@link Tasks} and {@link Instances} queries. Use it in combination with {@link #CONTINUE_AFTER}
+     * to page through large result sets.
+     * <p>
+     * Note, when this or {@link #CONTINUE_AFTER} is present, results are always sorted by the paging key of the respective table, requesting any other sort
+     * order results in an {@link IllegalArgumentException}. For {@link Instances} the paging key is {@link Instances#INSTANCE_DUE_SORTING} and {@link
+     * Instances#_ID}, for {@link Tasks} it's {@link Tasks#_ID}.
+     * </p>
+     * <p>
+     * Paging can't be combined with {@link #LOAD_PROPERTIES}, unless the properties are loaded with {@link #LOAD_PROPERTIES_BATCHED}.
+     * </p>
+     * <p>
+     * Value: Integer &gt; 0
+     * </p>
+     */
+    public static final String LIMIT = "limit";
+
+    /**
+     * URI parameter to continue a {@link Tasks} or {@link Instances} query after a specific row. The value must be created with {@link
+     * Instances#getContinuationToken(Long, long)} or {@link Tasks#getContinuationToken(long)} from the last row of the previous page. See {@link #LIMIT}.
+     */
+    public static final String CONTINUE_AFTER = "continue_after";
+
     /**
      * URI parameter to submit the account name of the account we operate on.
      */
@@ -847,6 +880,19 @@ public final class TaskContract
          * </p>
          */
         String PINNED = "pinned";
+
+        /**
+         * The extended properties of this task, encoded as a JSON array. Each element is a JSON object which maps the names of the non-null {@link
+         * PropertyColumns} of a property to their values. <code>null</code> if the task has no properties. This column is only present if {@link
+         * TaskContract#LOAD_PROPERTIES} is {@link TaskContract#LOAD_PROPERTIES_BATCHED}.
+         * <p>
+         * Value: String
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        String ENCODED_PROPERTIES = "encoded_properties";
     }
 
 
@@ -959,6 +1005,87 @@ public final class TaskContract
 
         public static final String SEARCH_QUERY_PARAMETER = "q";
 
+        /**
+         * Optional search URI parameter to limit the number of results. The provider computes only the top results, so small limits make searches on large
+         * databases considerably cheaper.
+         * <p>
+         * Value: Integer &gt; 0
+         * </p>
+         */
+        public static final String SEARCH_LIMIT_PARAMETER = "limit";
+
+        /**
+         * Optional search URI parameter to skip the given number of results. This is only taken into account if {@link #SEARCH_LIMIT_PARAMETER} is present
+         * too. Prefer {@link #SEARCH_CONTINUATION_PARAMETER} when paging through long result lists.
+         * <p>
+         * Value: Integer &gt;= 0
+         * </p>
+         */
+        public static final String SEARCH_OFFSET_PARAMETER = "offset";
+
+        /**
+         * Optional search URI parameter to specify the minimum {@link #SCORE} of the results. If absent the provider falls back to a default score.
+         * <p>
+         * Value: Float in (0, 1.0]
+         * </p>
+         */
+        public static final String SEARCH_MIN_SCORE_PARAMETER = "min_score";
+
+        /**
+         * Optional search URI parameter to continue a search after a specific result. The value must be created with {@link
+         * #getSearchContinuationToken(double, long)} from the {@link #SCORE} and the {@code task_id} of the last result of the previous page.
+         * <p>
+         * Note, when this parameter is present, results are always sorted by {@link #SCORE} (descending) and task id (ascending), any other sort order is
+         * ignored.
+         * </p>
+         */
+        public static final String SEARCH_CONTINUATION_PARAMETER = "continue_after";
+
+        /**
+         * Optional search URI parameter to identify a search session. Clients which update a search with every key stroke should pass the same value for
+         * all queries of such a series. The provider reuses the results of previous queries in the same session, which makes subsequent queries a lot
+         * cheaper. Sessions expire after a short time of inactivity and whenever the tasks change, so this never affects the results.
+         * <p>
+         * Value: any String chosen by the client
+         * </p>
+         */
+        public static final String SEARCH_SESSION_PARAMETER = "session";
+
+        /**
+         * Optional search URI parameter to refine the order of the top results. If {@code true} the provider re-ranks the top results taking field
+         * importance, word and prefix matches, word proximity and small typos into account. The {@link #SCORE} column still contains the original score.
+         * <p>
+         * Since this changes the order of the results, it's ignored if {@link #SEARCH_CONTINUATION_PARAMETER} is present. Don't use it when paging with
+         * continuation tokens.
+         * </p>
+         * <p>
+         * Value: Boolean
+         * </p>
+         */
+        public static final String SEARCH_RERANK_PARAMETER = "rerank";
+
+        /**
+         * The path segment to append to the {@link Uri} of a task to get all of its descendants, see {@link #getDescendantsContentUri(String, long)}.
+         */
+        public static final String DESCENDANTS_URI_PATH = "descendants";
+
+        /**
+         * The path segment to append to the {@link Uri} of a task to get all of its ancestors, see {@link #getAncestorsContentUri(String, long)}.
+         */
+        public static final String ANCESTORS_URI_PATH = "ancestors";
+
+        /**
+         * The number of levels between a task and the task that has been given in a descendants or ancestors {@link Uri}. Children and parents have a
+         * distance of 1. This is available via {@link #getDescendantsContentUri(String, long)} and {@link #getAncestorsContentUri(String, long)} only.
+         * <p>
+         * Value: Integer
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String HIERARCHY_DISTANCE = "hierarchy_distance";
+
         public static final String DEFAULT_SORT_ORDER = DUE;
 
         public static final String[] SYNC_ADAPTER_COLUMNS = new String[] {
@@ -986,6 +1113,89 @@ public final class TaskContract
             builder.appendQueryParameter(SEARCH_QUERY_PARAMETER, Uri.encode(query));
             return builder.build();
         }
+
+
+        /**
+         * Get a search {@link Uri} that returns at most {@code limit} results.
+         *
+         * @param authority
+         *         The authority.
+         * @param query
+         *         The search query.
+         * @param limit
+         *         The maximum number of results to return.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getSearchUri(String authority, String query, int limit)
+        {
+            return getSearchUri(authority, query).buildUpon().appendQueryParameter(SEARCH_LIMIT_PARAMETER, String.valueOf(limit)).build();
+        }
+
+
+        /**
+         * Returns a value for {@link #SEARCH_CONTINUATION_PARAMETER} which continues a search after the result with the given score and task id.
+         *
+         * @param score
+         *         The {@link #SCORE} of the last result.
+         * @param taskId
+         *         The {@code task_id} of the last result.
+         *
+         * @return A continuation token.
+         */
+        public static String getSearchContinuationToken(double score, long taskId)
+        {
+            return score + ":" + taskId;
+        }
+
+
+        /**
+         * Returns a value for {@link TaskContract#CONTINUE_AFTER} which continues a task query after the task with the given id.
+         *
+         * @param id
+         *         The {@link #_ID} of the last task.
+         *
+         * @return A continuation token.
+         */
+        public static String getContinuationToken(long id)
+        {
+            return String.valueOf(id);
+        }
+
+
+        /**
+         * Get the {@link Uri} of all descendants of a task, i.e. its children, the children of its children and so on. The task itself is not included.
+         * <p>
+         * Besides queries this {@link Uri} supports updates and deletes, so an entire subtree can be completed or deleted with a single operation.
+         *
+         * @param authority
+         *         The authority.
+         * @param taskId
+         *         The id of the root of the subtree.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getDescendantsContentUri(String authority, long taskId)
+        {
+            return getContentUri(authority).buildUpon().appendPath(String.valueOf(taskId)).appendPath(DESCENDANTS_URI_PATH).build();
+        }
+
+
+        /**
+         * Get the {@link Uri} of all ancestors of a task, i.e. its parent, the parent of its parent and so on. The number of rows is the depth of the task
+         * in its tree, top level tasks don't have any ancestors.
+         *
+         * @param authority
+         *         The authority.
+         * @param taskId
+         *         The id of the task.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getAncestorsContentUri(String authority, long taskId)
+        {
+            return getContentUri(authority).buildUpon().appendPath(String.valueOf(taskId)).appendPath(ANCESTORS_URI_PATH).build();
+        }
     }
 
 
@@ -1222,8 +1432,87 @@ public final class TaskContract
 
         public static final String CONTENT_URI_PATH = "instances";
 
+        public static final String LIST_ROWS_URI_PATH = "instance_list_rows";
+
+        /**
+         * Optional parameter of the list rows {@link Uri} to assign each instance to a time range. The value is the column to compare with the boundaries
+         * in {@link #BUCKET_BOUNDARIES_PARAMETER}, either {@link #INSTANCE_DUE} or {@link #INSTANCE_START}. The result will contain an additional {@link
+         * #BUCKET} column and is sorted by that column first. On the aggregate {@link Uri} it makes {@link #BUCKET} available for grouping and projection.
+         */
+        public static final String BUCKET_BY_PARAMETER = "bucket_by";
+
+        /**
+         * Parameter of the list rows {@link Uri} which contains the comma separated, ascending boundaries of the time ranges in milliseconds since the epoch.
+         * See {@link #BUCKET_BY_PARAMETER}.
+         */
+        public static final String BUCKET_BOUNDARIES_PARAMETER = "bucket_boundaries";
+
+        /**
+         * The time range of an instance if {@link #BUCKET_BY_PARAMETER} is present. That's the number of boundaries which are less than or equal to the
+         * respective value or {@code -1} if the value is <code>null</code>. All-day values are compared with the boundaries in the local time zone.
+         * <p>
+         * Value: Integer
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String BUCKET = "bucket";
+
+        public static final String AGGREGATE_URI_PATH = "instances_aggregate";
+
+        /**
+         * Optional parameter of the aggregate {@link Uri} which contains the comma separated group-by columns. Allowed columns are {@link #LIST_ID}, {@link
+         * #ACCOUNT_NAME}, {@link #ACCOUNT_TYPE}, {@link #STATUS} and {@link #BUCKET}, any other column results in an {@link IllegalArgumentException}. Grouping
+         * by {@link #BUCKET} requires the {@link #BUCKET_BY_PARAMETER} and {@link #BUCKET_BOUNDARIES_PARAMETER} parameters. Add the same columns to the
+         * projection to get the value of the group in the result. Without this parameter the result contains a single row, aggregating all matching instances.
+         */
+        public static final String AGGREGATE_GROUP_BY_PARAMETER = "group_by";
+
+        /**
+         * The number of distinct tasks in a group. This is available via {@link #getAggregateContentUri(String, String)} only. The number of instances is
+         * available in {@link #_COUNT}.
+         * <p>
+         * Value: Integer
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String AGGREGATE_TASK_COUNT = "task_count";
+
+        /**
+         * The smallest {@link #INSTANCE_DUE_SORTING} value in a group. This is available via {@link #getAggregateContentUri(String, String)} only.
+         * <p>
+         * Value: Long
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String AGGREGATE_MIN_DUE = "min_due";
+
+        /**
+         * The largest {@link #INSTANCE_DUE_SORTING} value in a group. This is available via {@link #getAggregateContentUri(String, String)} only.
+         * <p>
+         * Value: Long
+         * </p>
+         * <p>
+         * read-only
+         * </p>
+         */
+        public static final String AGGREGATE_MAX_DUE = "max_due";
+
         public static final String DEFAULT_SORT_ORDER = INSTANCE_DUE_SORTING;
 
+        /**
+         * The columns available via {@link #getListRowsContentUri(String)}. This is the subset of the instance columns required to render task lists.
+         */
+        public static final String[] LIST_ROW_COLUMNS = new String[] {
+                _ID, TASK_ID, INSTANCE_START, INSTANCE_DUE, INSTANCE_DURATION, INSTANCE_START_SORTING, INSTANCE_DUE_SORTING, DISTANCE_FROM_CURRENT, LIST_ID,
+                TITLE, DESCRIPTION, IS_ALLDAY, TZ, STATUS, COMPLETED, IS_CLOSED, PRIORITY, PERCENT_COMPLETE, PINNED, _DELETED, LIST_COLOR, ACCOUNT_NAME,
+                ACCOUNT_TYPE, VISIBLE };
+
 
         /**
          * Get the instances content {@link Uri} using the given authority.
@@ -1238,6 +1527,88 @@ public final class TaskContract
             return getUriFactory(authority).getUri(CONTENT_URI_PATH);
         }
 
+
+        /**
+         * Get a read-only instances {@link Uri} which returns only the {@link #LIST_ROW_COLUMNS}. These are served from a table which is kept up to date by the
+         * provider, so it's much cheaper to query than {@link #getContentUri(String)}. Use it for task lists, which don't need any of the other columns.
+         *
+         * @param authority
+         *         The authority.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getListRowsContentUri(String authority)
+        {
+            return getUriFactory(authority).getUri(LIST_ROWS_URI_PATH);
+        }
+
+
+        /**
+         * Get a read-only {@link Uri} which returns aggregated values of the instances instead of the instances themselves. Selections may use any of the
+         * {@link #LIST_ROW_COLUMNS}. The projection may contain {@link #_COUNT}, {@link #AGGREGATE_TASK_COUNT}, {@link #AGGREGATE_MIN_DUE}, {@link
+         * #AGGREGATE_MAX_DUE} and the group-by columns. The default projection contains all of the aggregates.
+         * <p>
+         * This allows to show the number of tasks in a group without loading the tasks.
+         *
+         * @param authority
+         *         The authority.
+         * @param groupBy
+         *         The comma separated group-by columns, see {@link #AGGREGATE_GROUP_BY_PARAMETER}, or <code>null</code> to aggregate all matching instances.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getAggregateContentUri(String authority, String groupBy)
+        {
+            Uri uri = getUriFactory(authority).getUri(AGGREGATE_URI_PATH);
+            return groupBy == null ? uri : uri.buildUpon().appendQueryParameter(AGGREGATE_GROUP_BY_PARAMETER, groupBy).build();
+        }
+
+
+        /**
+         * Get a list rows {@link Uri} which assigns each instance to one of the time ranges defined by the given boundaries. See {@link #BUCKET}.
+         *
+         * @param authority
+         *         The authority.
+         * @param column
+         *         The column to compare, either {@link #INSTANCE_DUE} or {@link #INSTANCE_START}.
+         * @param boundaries
+         *         The ascending boundaries of the time ranges.
+         *
+         * @return A {@link Uri}.
+         */
+        public static Uri getBucketedListRowsContentUri(String authority, String column, long... boundaries)
+        {
+            StringBuilder boundariesBuilder = new StringBuilder(boundaries.length * 14);
+            for (long boundary : boundaries)
+            {
+                if (boundariesBuilder.length() > 0)
+                {
+                    boundariesBuilder.append(',');
+                }
+                boundariesBuilder.append(boundary);
+            }
+            return getListRowsContentUri(authority).buildUpon()
+                    .appendQueryParameter(BUCKET_BY_PARAMETER, column)
+                    .appendQueryParameter(BUCKET_BOUNDARIES_PARAMETER, boundariesBuilder.toString())
+                    .build();
+        }
+
+
+        /**
+         * Returns a value for {@link TaskContract#CONTINUE_AFTER} which continues an instance query after the instance with the given values.
+         *
+         * @param instanceDueSorting
+         *         The {@link #INSTANCE_DUE_SORTING} of the last instance, may be <code>null</code>.
+         * @param id
+         *         The {@link #_ID} of the last instance.
+         *
+         * @return A continuation token.
+         */
+        public static String getContinuationToken(Long instanceDueSorting, long id)
+        {
+            return (instanceDueSorting == null ? "" : instanceDueSorting.toString()) + ":" + id;
+        }
+
     }
 
 
@@ -1716,6 +2087,8 @@ public final class TaskContract
             uriFactory.addUri(Tasks.CONTENT_URI_PATH);
             uriFactory.addUri(Tasks.SEARCH_URI_PATH);
             uriFactory.addUri(Instances.CONTENT_URI_PATH);
+            uriFactory.addUri(Instances.LIST_ROWS_URI_PATH);
+            uriFactory.addUri(Instances.AGGREGATE_URI_PATH);
             uriFactory.addUri(Categories.CONTENT_URI_PATH);
             uriFactory.addUri(Alarms.CONTENT_URI_PATH);
             uriFactory.addUri(Properties.CONTENT_URI_PATH);
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSContentColumns;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.NGramColumns;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * Tests the maintenance of the search index in {@link FTSDatabaseHelper}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class FTSDatabaseHelperTest
+{
+    private final static String SQL_ORPHANED_NGRAMS = "SELECT count(*) FROM " + FTSDatabaseHelper.FTS_NGRAM_TABLE + " WHERE " + NGramColumns.NGRAM_ID
+            + " NOT IN (SELECT " + FTSContentColumns.NGRAM_ID + " FROM " + FTSDatabaseHelper.FTS_CONTENT_TABLE + ")";
+
+    private SQLiteDatabase mDb;
+    private long mListId;
+
+
+    @Before
+    public void setUp()
+    {
+        // create a fresh in-memory database with the current schema
+        mDb = SQLiteDatabase.create(null);
+        new TaskDatabaseHelper(InstrumentationRegistry.getTargetContext(), null).onCreate(mDb);
+
+        ContentValues values = new ContentValues();
+        values.put(TaskLists.LIST_NAME, "list");
+        mListId = mDb.insert(Tables.LISTS, null, values);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mDb.close();
+    }
+
+
+    @Test
+    public void testDeleteOrphanedNgrams()
+    {
+        long apple = task("apple pie");
+        long banana = task("banana bread");
+        assertThat(FTSDatabaseHelper.rebuildTaskFTSEntries(mDb, -1, 10), is(banana));
+
+        long appleRelations = relations(apple);
+        long ngrams = DatabaseUtils.queryNumEntries(mDb, FTSDatabaseHelper.FTS_NGRAM_TABLE);
+        assertThat(appleRelations, greaterThan(0L));
+        assertThat(orphanedNgrams(), is(0L));
+
+        // nothing to delete yet
+        assertThat(FTSDatabaseHelper.deleteOrphanedNgrams(mDb, 1000), is(0));
+        assertThat(DatabaseUtils.queryNumEntries(mDb, FTSDatabaseHelper.FTS_NGRAM_TABLE), is(ngrams));
+
+        // removing a task only removes its relations, the n-grams remain
+        mDb.delete(Tables.TASKS, Tasks._ID + "=" + banana, null);
+        long orphaned = orphanedNgrams();
+        assertThat(orphaned, greaterThan(1L));
+
+        // chunks are respected
+        assertThat(FTSDatabaseHelper.deleteOrphanedNgrams(mDb, 1), is(1));
+        assertThat(orphanedNgrams(), is(orphaned - 1));
+
+        assertThat(FTSDatabaseHelper.deleteOrphanedNgrams(mDb, 1000), is((int) orphaned - 1));
+        assertThat(orphanedNgrams(), is(0L));
+        assertThat(DatabaseUtils.queryNumEntries(mDb, FTSDatabaseHelper.FTS_NGRAM_TABLE), is(ngrams - orphaned));
+
+        // the n-grams of the remaining task are still there
+        assertThat(relations(apple), is(appleRelations));
+    }
+
+
+    @Test
+    public void testRebuildResume()
+    {
+        long task1 = task("first task");
+        long task2 = task("second task");
+        long task3 = task("third task");
+        long task4 = task("fourth task");
+        long task5 = task("fifth task");
+
+        // each call returns the position to resume from
+        long position = FTSDatabaseHelper.rebuildTaskFTSEntries(mDb, -1, 2);
+        assertThat(position, is(task2));
+        assertThat(indexed(task1), is(true));
+        assertThat(indexed(task2), is(true));
+        assertThat(indexed(task3), is(false));
+
+        position = FTSDatabaseHelper.rebuildTaskFTSEntries(mDb, position, 2);
+        assertThat(position, is(task4));
+        assertThat(indexed(task3), is(true));
+        assertThat(indexed(task4), is(true));
+        assertThat(indexed(task5), is(false));
+
+        position = FTSDatabaseHelper.rebuildTaskFTSEntries(mDb, position, 2);
+        assertThat(position, is(task5));
+        assertThat(indexed(task5), is(true));
+
+        assertThat(FTSDatabaseHelper.rebuildTaskFTSEntries(mDb, position, 2), is(-1L));
+
+        // rebuilding an indexed task doesn't duplicate its entries
+        long relations = relations(task1);
+        assertThat(FTSDatabaseHelper.rebuildTaskFTSEntries(mDb, -1, 1), is(task1));
+        assertThat(relations(task1), is(relations));
+    }
+
+
+    /**
+     * Test that a limited search only passes the best scored tasks on to the instance view join.
+     */
+    @Test
+    public void testSearchScoresLimit()
+    {
+        for (int i = 0; i < 200; ++i)
+        {
+            task("meeting " + i);
+        }
+        FTSDatabaseHelper.rebuildTaskFTSEntries(mDb, -1, 1000);
+
+        // all n-grams match, so every task has a score
+        String allScores = String.format(Locale.ENGLISH, FTSDatabaseHelper.SQL_SEARCH_SCORES, NGramColumns.TEXT + " is not null", "0", "");
+        String limitedScores = String.format(Locale.ENGLISH, FTSDatabaseHelper.SQL_SEARCH_SCORES, NGramColumns.TEXT + " is not null", "0",
+                String.format(Locale.ENGLISH, FTSDatabaseHelper.SQL_SEARCH_SCORES_LIMIT, 10));
+
+        assertThat(DatabaseUtils.longForQuery(mDb, "SELECT count(*) FROM (" + allScores + ")", new String[] { "1" }), is(200L));
+        assertThat(DatabaseUtils.longForQuery(mDb, "SELECT count(*) FROM (" + limitedScores + ")", new String[] { "1" }), is(10L));
+
+        // the limited scores are the top of the full ranking
+        assertThat(scoredTasks(limitedScores),
+                is(scoredTasks(allScores + " order by " + Tasks.SCORE + " desc, " + FTSContentColumns.TASK_ID).subList(0, 10)));
+    }
+
+
+    private List<Long> scoredTasks(String query)
+    {
+        List<Long> result = new ArrayList<>();
+        try (Cursor cursor = mDb.rawQuery(query, new String[] { "1" }))
+        {
+            while (cursor.moveToNext())
+            {
+                result.add(cursor.getLong(0));
+            }
+        }
+        return result;
+    }
+
+
+    private long task(String title)
+    {
+        ContentValues values = new ContentValues();
+        values.put(Tasks.LIST_ID, mListId);
+        values.put(Tasks.TITLE, title);
+        return mDb.insert(Tables.TASKS, null, values);
+    }
+
+
+    private long relations(long taskId)
+    {
+        return DatabaseUtils.queryNumEntries(mDb, FTSDatabaseHelper.FTS_CONTENT_TABLE, FTSContentColumns.TASK_ID + "=" + taskId);
+    }
+
+
+    private boolean indexed(long taskId)
+    {
+        return relations(taskId) > 0;
+    }
+
+
+    private long orphanedNgrams()
+    {
+        return DatabaseUtils.longForQuery(mDb, SQL_ORPHANED_NGRAMS, null);
+    }
+}
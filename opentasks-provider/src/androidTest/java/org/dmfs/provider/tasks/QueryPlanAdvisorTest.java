@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.hamcrest.Matchers.startsWith;
+
+
+/**
+ * Checks the query plans of the frequently executed queries, so missing indices are detected early.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanAdvisorTest
+{
+    private SQLiteDatabase mDb;
+
+
+    @Before
+    public void setUp()
+    {
+        // create a fresh in-memory database with the current schema
+        mDb = SQLiteDatabase.create(null);
+        new TaskDatabaseHelper(InstrumentationRegistry.getTargetContext(), null).onCreate(mDb);
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        mDb.close();
+    }
+
+
+    @Test
+    public void testHotQueries()
+    {
+        assertThat(QueryPlanAdvisor.fullTableScans(mDb, QueryPlanAdvisor.HOT_QUERIES), emptyIterable());
+    }
+
+
+    @Test
+    public void testFullTableScan()
+    {
+        // make sure the advisor actually detects full table scans
+        assertThat(QueryPlanAdvisor.fullTableScans(mDb, Collections.singletonList("SELECT * FROM Tasks WHERE title = ?")),
+                contains(startsWith("SELECT * FROM Tasks WHERE title = ?")));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.iterables.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListScoped;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.opentaskspal.tasks.DueData;
+import org.dmfs.opentaskspal.tasks.TitleData;
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.TimeZone;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * Tests for the instances aggregate Uri of {@link TaskProvider}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderAggregateTest
+{
+    private String mAuthority;
+    private Context mContext;
+    private ContentProviderClient mClient;
+    private DateTime mDue;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(mContext);
+        mClient = mContext.getContentResolver().acquireContentProviderClient(mAuthority);
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+
+        // 3 tasks in list 1, one of them with a due date, and 1 task in list 2
+        mDue = DateTime.now(TimeZone.getTimeZone("UTC"));
+        RowSnapshot<TaskLists> taskList1 = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        RowSnapshot<TaskLists> taskList2 = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList1, new NameData("list1")),
+                new Put<>(taskList2, new NameData("list2")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList1, new TasksTable(mAuthority))), new TitleData("task1")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList1, new TasksTable(mAuthority))), new TitleData("task2")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList1, new TasksTable(mAuthority))), new DueData<>(mDue)),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList2, new TasksTable(mAuthority))), new TitleData("task4"))));
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new BulkDelete<>(new LocalTaskListsTable(mAuthority))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    @Test
+    public void testTotal() throws Exception
+    {
+        try (Cursor cursor = mClient.query(Instances.getAggregateContentUri(mAuthority, null), null, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(1));
+            cursor.moveToFirst();
+            assertThat(cursor.getInt(cursor.getColumnIndex(Instances._COUNT)), is(4));
+            assertThat(cursor.getInt(cursor.getColumnIndex(Instances.AGGREGATE_TASK_COUNT)), is(4));
+            assertThat(cursor.getLong(cursor.getColumnIndex(Instances.AGGREGATE_MIN_DUE)), is(mDue.getTimestamp()));
+            assertThat(cursor.getLong(cursor.getColumnIndex(Instances.AGGREGATE_MAX_DUE)), is(mDue.getTimestamp()));
+        }
+    }
+
+
+    @Test
+    public void testGroupByList() throws Exception
+    {
+        try (Cursor cursor = mClient.query(Instances.getAggregateContentUri(mAuthority, Instances.LIST_ID),
+                new String[] { Instances.LIST_ID, Instances._COUNT, Instances.AGGREGATE_MAX_DUE }, null, null, Instances._COUNT + " DESC"))
+        {
+            assertThat(cursor.getCount(), is(2));
+            cursor.moveToFirst();
+            assertThat(cursor.getInt(1), is(3));
+            assertThat(cursor.getLong(2), is(mDue.getTimestamp()));
+            cursor.moveToNext();
+            assertThat(cursor.getInt(1), is(1));
+            assertThat(cursor.isNull(2), is(true));
+        }
+    }
+
+
+    @Test
+    public void testSelection() throws Exception
+    {
+        try (Cursor cursor = mClient.query(Instances.getAggregateContentUri(mAuthority, null), new String[] { Instances._COUNT },
+                Tasks.TITLE + " like ?", new String[] { "task%" }, null))
+        {
+            cursor.moveToFirst();
+            assertThat(cursor.getInt(0), is(3));
+        }
+    }
+
+
+    @Test
+    public void testGroupByStatus() throws Exception
+    {
+        try (Cursor cursor = mClient.query(Instances.getAggregateContentUri(mAuthority, Instances.STATUS),
+                new String[] { Instances.STATUS, Instances._COUNT }, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(1));
+            cursor.moveToFirst();
+            assertThat(cursor.getInt(0), is(Tasks.STATUS_DEFAULT));
+            assertThat(cursor.getInt(1), is(4));
+        }
+    }
+
+
+    @Test
+    public void testGroupByBucket() throws Exception
+    {
+        Uri uri = Instances.getAggregateContentUri(mAuthority, Instances.BUCKET).buildUpon()
+                .appendQueryParameter(Instances.BUCKET_BY_PARAMETER, Instances.INSTANCE_DUE)
+                .appendQueryParameter(Instances.BUCKET_BOUNDARIES_PARAMETER, String.valueOf(mDue.getTimestamp() + 1))
+                .build();
+        try (Cursor cursor = mClient.query(uri, new String[] { Instances.BUCKET, Instances._COUNT }, null, null, Instances.BUCKET))
+        {
+            // 3 tasks without due date and 1 task before the boundary
+            assertThat(cursor.getCount(), is(2));
+            cursor.moveToFirst();
+            assertThat(cursor.getInt(0), is(-1));
+            assertThat(cursor.getInt(1), is(3));
+            cursor.moveToNext();
+            assertThat(cursor.getInt(0), is(0));
+            assertThat(cursor.getInt(1), is(1));
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGroupByBucketWithoutBoundaries() throws Exception
+    {
+        mClient.query(Instances.getAggregateContentUri(mAuthority, Instances.BUCKET), null, null, null, null);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGroupByExpression() throws Exception
+    {
+        mClient.query(Instances.getAggregateContentUri(mAuthority, "case when priority between 1 and 4 then 1 else 0 end"), null, null, null, null);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.iterables.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListScoped;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.opentaskspal.tasks.TitleData;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+
+/**
+ * Tests for loading properties with {@link TaskContract#LOAD_PROPERTIES_BATCHED}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderBatchedPropertiesTest
+{
+    private String mAuthority;
+    private Context mContext;
+    private ContentProviderClient mClient;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(mContext);
+        mClient = mContext.getContentResolver().acquireContentProviderClient(mAuthority);
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+
+        // one task with three comments and one task without any properties
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, new NameData("list1")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("with comments")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("without comments"))));
+        queue.flush();
+
+        long taskId = taskId("with comments");
+        for (int i = 0; i < 3; ++i)
+        {
+            ContentValues values = new ContentValues();
+            values.put(Properties.TASK_ID, taskId);
+            values.put(Properties.MIMETYPE, Property.Comment.CONTENT_ITEM_TYPE);
+            values.put(Property.Comment.COMMENT, "comment " + i);
+            mClient.insert(Properties.getContentUri(mAuthority), values);
+        }
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new BulkDelete<>(new LocalTaskListsTable(mAuthority))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    @Test
+    public void testTasks() throws Exception
+    {
+        assertProperties(Tasks.getContentUri(mAuthority));
+    }
+
+
+    @Test
+    public void testInstances() throws Exception
+    {
+        assertProperties(Instances.getContentUri(mAuthority));
+    }
+
+
+    private void assertProperties(Uri uri) throws Exception
+    {
+        try (Cursor cursor = mClient.query(uri.buildUpon().appendQueryParameter(TaskContract.LOAD_PROPERTIES, TaskContract.LOAD_PROPERTIES_BATCHED).build(),
+                new String[] { Tasks.TITLE, Tasks.ENCODED_PROPERTIES }, null, null, Tasks.TITLE))
+        {
+            // every task is returned only once
+            assertThat(cursor.getCount(), is(2));
+
+            cursor.moveToFirst();
+            assertThat(cursor.getString(0), is("with comments"));
+            JSONArray properties = new JSONArray(cursor.getString(cursor.getColumnIndex(Tasks.ENCODED_PROPERTIES)));
+            assertThat(properties.length(), is(3));
+            for (int i = 0; i < 3; ++i)
+            {
+                assertThat(properties.getJSONObject(i).getString(Properties.MIMETYPE), is(Property.Comment.CONTENT_ITEM_TYPE));
+                assertThat(properties.getJSONObject(i).getString(Property.Comment.COMMENT), is("comment " + i));
+            }
+
+            cursor.moveToNext();
+            assertThat(cursor.getString(0), is("without comments"));
+            assertThat(cursor.getString(cursor.getColumnIndex(Tasks.ENCODED_PROPERTIES)), nullValue());
+        }
+    }
+
+
+    private long taskId(String title) throws Exception
+    {
+        try (Cursor cursor = mClient.query(Tasks.getContentUri(mAuthority), new String[] { Tasks._ID }, Tasks.TITLE + "=?", new String[] { title }, null))
+        {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2021 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.jems.iterable.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSContentColumns;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.NGramColumns;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.utils.RowValues;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * Tests updates of many tasks at once, which share a single {@link RowValues} copy of the caller's values.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderBulkUpdateTest
+{
+    private final static long START = 1546300800000L; // 2019-01-01T00:00:00Z
+    private final static long HOUR = 3600 * 1000L;
+
+    private String mAuthority;
+    private ContentProviderClient mClient;
+    private SQLiteOpenHelper mDatabaseHelper;
+    private long mListId;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(context);
+        mClient = context.getContentResolver().acquireContentProviderClient(mAuthority);
+        mDatabaseHelper = ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper();
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.enqueue(new Seq<Operation<?>>(new Put<>(new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority)), new NameData("list"))));
+        queue.flush();
+        mListId = DatabaseUtils.longForQuery(mDatabaseHelper.getReadableDatabase(), "select " + TaskLists._ID + " from " + Tables.LISTS, null);
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new BulkDelete<>(new LocalTaskListsTable(mAuthority))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    /**
+     * Test that updating several recurring tasks at once updates the instances of each task. Only the changed instance values are written, the unchanged
+     * ones are removed from the values of each instance in place.
+     */
+    @Test
+    public void testUpdateRecurringTasks() throws Exception
+    {
+        long task1 = insertRecurringTask("task1", START);
+        long task2 = insertRecurringTask("task2", START + 2 * HOUR);
+        List<Long> starts1 = instanceStarts(task1);
+        List<Long> starts2 = instanceStarts(task2);
+        assertThat(starts1.isEmpty(), is(false));
+        assertThat(starts2.isEmpty(), is(false));
+
+        ContentValues values = new ContentValues();
+        values.put(Tasks.DURATION, "PT1H");
+        assertThat(mClient.update(Tasks.getContentUri(mAuthority), values, Tasks.LIST_ID + "=" + mListId, null), is(2));
+        // the caller's values are not modified by the update
+        assertThat(values.size(), is(1));
+
+        // the start times remain, every instance is due an hour after its start
+        assertThat(instanceStarts(task1), is(starts1));
+        assertThat(instanceStarts(task2), is(starts2));
+        assertThat(DatabaseUtils.queryNumEntries(mDatabaseHelper.getReadableDatabase(), Tables.INSTANCES,
+                Instances.INSTANCE_DUE + " = " + Instances.INSTANCE_START + " + " + HOUR), is((long) (starts1.size() + starts2.size())));
+    }
+
+
+    /**
+     * Test that updating the texts of several tasks at once results in the same n-gram relations as inserting tasks with these texts.
+     */
+    @Test
+    public void testUpdateSearchableTexts() throws Exception
+    {
+        long task1 = insertTask("apple pie", "kitchen", "bake an apple pie");
+        long task2 = insertTask("apple cake", "kitchen", "bake an apple cake");
+
+        ContentValues values = new ContentValues();
+        values.put(Tasks.TITLE, "banana bread");
+        values.put(Tasks.LOCATION, "bakery");
+        values.put(Tasks.DESCRIPTION, "buy a loaf of banana bread");
+        assertThat(mClient.update(Tasks.getContentUri(mAuthority), values, Tasks._ID + " in (" + task1 + ", " + task2 + ")", null), is(2));
+
+        long task3 = insertTask("banana bread", "bakery", "buy a loaf of banana bread");
+
+        assertThat(ngrams(task1), is(ngrams(task3)));
+        assertThat(ngrams(task2), is(ngrams(task3)));
+        assertThat(searchResults("banana"), is(3));
+        assertThat(searchResults("bakery"), is(3));
+        assertThat(searchResults("apple"), is(0));
+    }
+
+
+    /**
+     * Measures a single update of 10k tasks. This only runs when the instrumentation argument {@code benchmark} is {@code true}, e.g. {@code adb shell am
+     * instrument -e benchmark true ...}.
+     */
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testBulkUpdateBenchmark() throws Exception
+    {
+        assumeTrue("true".equals(InstrumentationRegistry.getArguments().getString("benchmark")));
+        int tasks = 10000;
+        ContentValues[] inserts = new ContentValues[tasks];
+        for (int i = 0; i < tasks; ++i)
+        {
+            inserts[i] = new ContentValues();
+            inserts[i].put(Tasks.LIST_ID, mListId);
+            inserts[i].put(Tasks.TITLE, "task " + i);
+        }
+        assertThat(mClient.bulkInsert(Tasks.getContentUri(mAuthority), inserts), is(tasks));
+
+        ContentValues values = new ContentValues();
+        values.put(Tasks.PRIORITY, 1);
+        values.put(Tasks.PERCENT_COMPLETE, 50);
+
+        // the local provider runs the update on this thread, so the thread allocation count covers the whole update
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        int count = mClient.update(Tasks.getContentUri(mAuthority), values, Tasks.LIST_ID + "=" + mListId, null);
+        long nanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+
+        assertThat(count, is(tasks));
+        Log.i("BulkUpdateBenchmark", String.format(Locale.ENGLISH, "updated %d tasks in %d ms, %d allocations, %d bytes", tasks,
+                TimeUnit.NANOSECONDS.toMillis(nanos), Debug.getThreadAllocCount(), Debug.getThreadAllocSize()));
+    }
+
+
+    private long insertRecurringTask(String title, long start) throws Exception
+    {
+        ContentValues values = new ContentValues();
+        values.put(Tasks.LIST_ID, mListId);
+        values.put(Tasks.TITLE, title);
+        values.put(Tasks.DTSTART, start);
+        values.put(Tasks.TZ, "UTC");
+        values.put(Tasks.IS_ALLDAY, 0);
+        values.put(Tasks.RRULE, "FREQ=DAILY;COUNT=5");
+        return ContentUris.parseId(mClient.insert(Tasks.getContentUri(mAuthority), values));
+    }
+
+
+    private long insertTask(String title, String location, String description) throws Exception
+    {
+        ContentValues values = new ContentValues();
+        values.put(Tasks.LIST_ID, mListId);
+        values.put(Tasks.TITLE, title);
+        values.put(Tasks.LOCATION, location);
+        values.put(Tasks.DESCRIPTION, description);
+        return ContentUris.parseId(mClient.insert(Tasks.getContentUri(mAuthority), values));
+    }
+
+
+    private List<Long> instanceStarts(long taskId)
+    {
+        List<Long> result = new ArrayList<>();
+        try (Cursor cursor = mDatabaseHelper.getReadableDatabase().query(Tables.INSTANCES, new String[] { Instances.INSTANCE_START },
+                Instances.TASK_ID + "=" + taskId, null, null, null, Instances.INSTANCE_START))
+        {
+            while (cursor.moveToNext())
+            {
+                result.add(cursor.getLong(0));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the n-gram relations of the given task as sorted strings of type and n-gram.
+     */
+    private List<String> ngrams(long taskId)
+    {
+        List<String> result = new ArrayList<>();
+        try (Cursor cursor = mDatabaseHelper.getReadableDatabase().rawQuery(
+                "select " + FTSContentColumns.TYPE + ", " + NGramColumns.TEXT + " from " + FTSDatabaseHelper.FTS_CONTENT_TABLE + " join "
+                        + FTSDatabaseHelper.FTS_NGRAM_TABLE + " on (" + FTSContentColumns.NGRAM_ID + " = " + NGramColumns.NGRAM_ID + ") where "
+                        + FTSContentColumns.TASK_ID + " = ? order by 1, 2",
+                new String[] { String.valueOf(taskId) }))
+        {
+            while (cursor.moveToNext())
+            {
+                result.add(cursor.getInt(0) + ":" + cursor.getString(1));
+            }
+        }
+        return result;
+    }
+
+
+    private int searchResults(String query) throws Exception
+    {
+        try (Cursor cursor = mClient.query(Tasks.getSearchUri(mAuthority, query), new String[] { Instances.TASK_ID }, null, null, null))
+        {
+            return cursor.getCount();
+        }
+    }
+}
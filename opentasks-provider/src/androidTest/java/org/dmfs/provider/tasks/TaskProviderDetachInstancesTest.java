@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.OperationApplicationException;
 import android.os.Build;
 import android.os.RemoteException;
+import android.util.Log;
 
 import org.dmfs.android.contentpal.Operation;
 import org.dmfs.android.contentpal.OperationsQueue;
@@ -73,7 +74,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import androidx.test.InstrumentationRegistry;
 import androidx.test.runner.AndroidJUnit4;
@@ -81,6 +84,7 @@ import androidx.test.runner.AndroidJUnit4;
 import static org.dmfs.android.contenttestpal.ContentMatcher.resultsIn;
 import static org.dmfs.jems.optional.elementary.Absent.absent;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
 
 
 /**
@@ -749,4 +753,89 @@ public class TaskProviderDetachInstancesTest
                                         new EqArg<>(Tasks._DELETED, 1)))));
     }
 
+
+    /**
+     * Test detaching a series with 10 completed instances at once. All but the first instance are completed first, completing the first one detaches all of
+     * them.
+     */
+    @Test
+    public void testDetachAll() throws InvalidRecurrenceRuleException, RemoteException, OperationApplicationException
+    {
+        detachAll(10);
+    }
+
+
+    /**
+     * Benchmark detaching series with 10 to 1000 completed instances at once. This only runs when the instrumentation argument {@code benchmark} is {@code
+     * true}, e.g. {@code adb shell am instrument -e benchmark true ...}.
+     */
+    @Test
+    public void testDetachBenchmark() throws InvalidRecurrenceRuleException, RemoteException, OperationApplicationException
+    {
+        assumeTrue("true".equals(InstrumentationRegistry.getArguments().getString("benchmark")));
+        for (int instances : new int[] { 10, 100, 1000 })
+        {
+            Log.i("DetachBenchmark", String.format(Locale.ENGLISH, "detached %d instances in %d ms", instances,
+                    TimeUnit.NANOSECONDS.toMillis(detachAll(instances))));
+        }
+    }
+
+
+    /**
+     * Creates a series with the given number of instances, completes all of them and asserts that they have been detached. The series is removed afterwards.
+     *
+     * @return The time it took to detach the instances in nanoseconds.
+     */
+    private long detachAll(int instances) throws InvalidRecurrenceRuleException, RemoteException, OperationApplicationException
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new Synced<>(mTestAccount, new TaskListsTable(mAuthority)));
+        Table<Instances> instancesTable = new InstanceTable(mAuthority);
+        RowSnapshot<Tasks> task = new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority)));
+
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<>(
+                new Put<>(taskList, new EmptyRowData<>()),
+                new Put<>(task,
+                        new Composite<>(
+                                new TitleData("Test-Task"),
+                                new TimeData<>(DateTime.parse("20180104T123456Z"), DateTime.parse("20180104T133456Z")),
+                                new RRuleTaskData(new RecurrenceRule("FREQ=DAILY;COUNT=" + instances, RecurrenceRule.RfcMode.RFC2445_LAX)))),
+                // complete all instances but the first one
+                new BulkUpdate<>(instancesTable, new StatusData<>(Tasks.STATUS_COMPLETED),
+                        new AllOf<>(new ReferringTo<>(Instances.TASK_ID, task),
+                                new Not<>(new EqArg<>(Instances.DISTANCE_FROM_CURRENT, 0))))
+        ));
+        queue.flush();
+
+        long start = System.nanoTime();
+        queue.enqueue(new SingletonIterable<>(
+                // complete the first instance, this detaches all instances
+                new BulkUpdate<>(instancesTable, new StatusData<>(Tasks.STATUS_COMPLETED),
+                        new AllOf<>(new ReferringTo<>(Instances.TASK_ID, task),
+                                new EqArg<>(Instances.DISTANCE_FROM_CURRENT, 0)))));
+        queue.flush();
+        long duration = System.nanoTime() - start;
+
+        assertThat(new Seq<Operation<?>>(),
+                resultsIn(queue,
+                        // all instances have been detached
+                        new Counted<>(0, new AssertRelated<>(instancesTable, Instances.TASK_ID, task)),
+                        new Counted<>(instances,
+                                new BulkAssert<>(
+                                        new Synced<>(mTestAccount, instancesTable),
+                                        new CharSequenceRowData<>(Tasks.STATUS, String.valueOf(Tasks.STATUS_COMPLETED)),
+                                        new Not<>(new ReferringTo<>(Instances.TASK_ID, task)))),
+                        // the master and a deleted clone of each instance
+                        new Counted<>(instances + 1,
+                                new BulkAssert<>(
+                                        new Synced<>(mTestAccount, new TasksTable(mAuthority)),
+                                        new TitleData("Test-Task"),
+                                        new AllOf<>(
+                                                new ReferringTo<>(Tasks.LIST_ID, taskList),
+                                                new EqArg<>(Tasks._DELETED, 1))))));
+
+        queue.enqueue(new SingletonIterable<>(new BulkDelete<>(new Synced<>(mTestAccount, new TaskListsTable(mAuthority)))));
+        queue.flush();
+        return duration;
+    }
 }
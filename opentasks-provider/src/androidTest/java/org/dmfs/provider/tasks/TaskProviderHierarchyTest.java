@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.iterables.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * Tests for the descendants and ancestors {@link Uri}s of {@link TaskProvider}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderHierarchyTest
+{
+    private String mAuthority;
+    private Context mContext;
+    private ContentProviderClient mClient;
+    private long mListId;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(mContext);
+        mClient = mContext.getContentResolver().acquireContentProviderClient(mAuthority);
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        queue.enqueue(new Seq<Operation<?>>(new Put<>(taskList, new NameData("list1"))));
+        queue.flush();
+
+        try (Cursor cursor = mClient.query(TaskLists.getContentUri(mAuthority), new String[] { TaskLists._ID }, null, null, null))
+        {
+            cursor.moveToFirst();
+            mListId = cursor.getLong(0);
+        }
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new BulkDelete<>(new LocalTaskListsTable(mAuthority))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    @Test
+    public void testDescendantsAndAncestors() throws Exception
+    {
+        long root = insertTask("root", null);
+        long child = insertTask("child", root);
+        long grandChild = insertTask("grandchild", child);
+        insertTask("other", null);
+
+        assertHierarchy(Tasks.getDescendantsContentUri(mAuthority, root), new String[] { "child", "grandchild" }, new int[] { 1, 2 });
+        assertHierarchy(Tasks.getDescendantsContentUri(mAuthority, child), new String[] { "grandchild" }, new int[] { 1 });
+        assertHierarchy(Tasks.getAncestorsContentUri(mAuthority, grandChild), new String[] { "child", "root" }, new int[] { 1, 2 });
+        assertHierarchy(Tasks.getAncestorsContentUri(mAuthority, root), new String[0], new int[0]);
+    }
+
+
+    @Test
+    public void testMoveSubtree() throws Exception
+    {
+        long root = insertTask("root", null);
+        long child = insertTask("child", root);
+        long grandChild = insertTask("grandchild", child);
+        long otherRoot = insertTask("other", null);
+
+        // move the child with its subtree to the other root
+        ContentValues values = new ContentValues();
+        values.put(Tasks.PARENT_ID, otherRoot);
+        mClient.update(ContentUris.withAppendedId(Tasks.getContentUri(mAuthority), child), values, null, null);
+
+        assertHierarchy(Tasks.getDescendantsContentUri(mAuthority, root), new String[0], new int[0]);
+        assertHierarchy(Tasks.getDescendantsContentUri(mAuthority, otherRoot), new String[] { "child", "grandchild" }, new int[] { 1, 2 });
+        assertHierarchy(Tasks.getAncestorsContentUri(mAuthority, grandChild), new String[] { "child", "other" }, new int[] { 1, 2 });
+    }
+
+
+    @Test
+    public void testDeleteSubtree() throws Exception
+    {
+        long root = insertTask("root", null);
+        long child = insertTask("child", root);
+        insertTask("grandchild", child);
+
+        assertThat(mClient.delete(Tasks.getDescendantsContentUri(mAuthority, root), null, null), is(2));
+
+        try (Cursor cursor = mClient.query(Tasks.getContentUri(mAuthority), new String[] { Tasks.TITLE }, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(1));
+            cursor.moveToFirst();
+            assertThat(cursor.getString(0), is("root"));
+        }
+    }
+
+
+    private long insertTask(String title, Long parentId) throws Exception
+    {
+        ContentValues values = new ContentValues();
+        values.put(Tasks.LIST_ID, mListId);
+        values.put(Tasks.TITLE, title);
+        values.put(Tasks.PARENT_ID, parentId);
+        return ContentUris.parseId(mClient.insert(Tasks.getContentUri(mAuthority), values));
+    }
+
+
+    private void assertHierarchy(Uri uri, String[] titles, int[] distances) throws Exception
+    {
+        try (Cursor cursor = mClient.query(uri, new String[] { Tasks.TITLE, Tasks.HIERARCHY_DISTANCE }, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(titles.length));
+            for (int i = 0; i < titles.length; ++i)
+            {
+                cursor.moveToNext();
+                assertThat(cursor.getString(0), is(titles[i]));
+                assertThat(cursor.getInt(1), is(distances[i]));
+            }
+        }
+    }
+}
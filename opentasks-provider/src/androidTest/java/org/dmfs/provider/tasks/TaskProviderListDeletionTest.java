@@ -0,0 +1,209 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Delete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.iterables.SingletonIterable;
+import org.dmfs.jems.iterable.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListScoped;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.opentaskspal.tasks.TitleData;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.utils.LatencyHistogram;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * Tests the deferred removal of the tasks of deleted lists, see {@link ListCleaner}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderListDeletionTest
+{
+    /**
+     * The number of tasks in the deleted list, more than the cleaner removes in one chunk.
+     */
+    private final static int TASK_COUNT = 250;
+
+    /**
+     * The maximum time to wait for the cleaner to finish.
+     */
+    private final static long TIMEOUT = 10000;
+
+    private String mAuthority;
+    private ContentProviderClient mClient;
+    private SQLiteDatabase mDb;
+    private ListCleaner mListCleaner;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(context);
+        mClient = context.getContentResolver().acquireContentProviderClient(mAuthority);
+        SQLiteOpenHelper databaseHelper = ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper();
+        mDb = databaseHelper.getReadableDatabase();
+        // only used to read the progress, it's never scheduled
+        mListCleaner = new ListCleaner(databaseHelper, new Handler(Looper.getMainLooper()), new LatencyHistogram());
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new SingletonIterable<Operation<?>>(new BulkDelete<>(new LocalTaskListsTable(mAuthority))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    /**
+     * Delete a list and check that its tasks disappear right away and are removed by the cleaner, while the tasks of other lists remain.
+     */
+    @Test
+    public void testDeleteList() throws Exception
+    {
+        RowSnapshot<TaskLists> deletedList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        RowSnapshot<TaskLists> otherList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+
+        List<Operation<?>> operations = new ArrayList<>(TASK_COUNT + 3);
+        operations.add(new Put<>(deletedList, new NameData("deleted")));
+        operations.add(new Put<>(otherList, new NameData("other")));
+        operations.add(new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(otherList, new TasksTable(mAuthority))), new TitleData("other task")));
+        for (int i = 0; i < TASK_COUNT; ++i)
+        {
+            operations.add(new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(deletedList, new TasksTable(mAuthority))), new TitleData("task " + i)));
+        }
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(operations);
+        queue.flush();
+
+        long deletedListId = listId("deleted");
+        long otherListId = listId("other");
+        assertThat(count(Tasks.getContentUri(mAuthority), new String[] { Tasks._ID }, Tasks.LIST_ID + "=" + deletedListId), is(TASK_COUNT));
+        assertThat(count(Instances.getContentUri(mAuthority), new String[] { Instances._ID }, Instances.LIST_ID + "=" + deletedListId), is(TASK_COUNT));
+        assertThat(count(Instances.getListRowsContentUri(mAuthority), Instances.LIST_ROW_COLUMNS, Instances.LIST_ID + "=" + deletedListId), is(TASK_COUNT));
+
+        queue.enqueue(new SingletonIterable<Operation<?>>(new Delete<>(deletedList)));
+        queue.flush();
+
+        // the cleaner may have started already
+        assertThat(mListCleaner.remainingTasks() <= TASK_COUNT, is(true));
+
+        // the tasks are gone right away, no matter whether the cleaner has removed them yet
+        assertThat(count(Tasks.getContentUri(mAuthority), new String[] { Tasks._ID }, Tasks.LIST_ID + "=" + deletedListId), is(0));
+        assertThat(count(Instances.getContentUri(mAuthority), new String[] { Instances._ID }, Instances.LIST_ID + "=" + deletedListId), is(0));
+        assertThat(count(Instances.getListRowsContentUri(mAuthority), Instances.LIST_ROW_COLUMNS, Instances.LIST_ID + "=" + deletedListId), is(0));
+
+        // wait for the cleaner to remove the tasks physically
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (mListCleaner.pendingLists() > 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+
+        assertThat(mListCleaner.pendingLists(), is(0L));
+        assertThat(mListCleaner.remainingTasks(), is(0L));
+        assertThat(DatabaseUtils.queryNumEntries(mDb, Tables.TASKS, Tasks.LIST_ID + "=" + deletedListId), is(0L));
+        assertThat(DatabaseUtils.queryNumEntries(mDb, Tables.INSTANCES,
+                Instances.TASK_ID + " not in (select " + Tasks._ID + " from " + Tables.TASKS + ")"), is(0L));
+
+        // the other list is not affected
+        assertThat(count(Tasks.getContentUri(mAuthority), new String[] { Tasks._ID }, Tasks.LIST_ID + "=" + otherListId), is(1));
+        assertThat(count(Instances.getContentUri(mAuthority), new String[] { Instances._ID }, Instances.LIST_ID + "=" + otherListId), is(1));
+        assertThat(count(Instances.getListRowsContentUri(mAuthority), Instances.LIST_ROW_COLUMNS, Instances.LIST_ID + "=" + otherListId), is(1));
+    }
+
+
+    private long listId(String name) throws Exception
+    {
+        try (Cursor cursor = mClient.query(TaskLists.getContentUri(mAuthority), new String[] { TaskLists._ID }, TaskLists.LIST_NAME + "=?",
+                new String[] { name }, null))
+        {
+            assertThat(cursor.moveToFirst(), is(true));
+            return cursor.getLong(0);
+        }
+    }
+
+
+    private int count(Uri uri, String[] projection, String selection) throws Exception
+    {
+        try (Cursor cursor = mClient.query(uri, projection, selection, null, null))
+        {
+            return cursor.getCount();
+        }
+    }
+}
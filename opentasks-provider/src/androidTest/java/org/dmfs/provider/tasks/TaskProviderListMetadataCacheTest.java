@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Build;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Delete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contentpal.tables.Synced;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.jems.iterable.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * Tests that the {@link ListMetadataCache} of the {@link TaskProvider} follows the changes of the task lists.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderListMetadataCacheTest
+{
+    private String mAuthority;
+    private Context mContext;
+    private ContentProviderClient mClient;
+    private SQLiteOpenHelper mDatabaseHelper;
+    private ListMetadataCache mListCache;
+    private final Account mTestAccount = new Account("foo", "bar");
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(mContext);
+        mClient = mContext.getContentResolver().acquireContentProviderClient(mAuthority);
+        TaskProvider provider = (TaskProvider) mClient.getLocalContentProvider();
+        mDatabaseHelper = provider.getDatabaseHelper();
+        mListCache = provider.listMetadataCache();
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new BulkDelete<>(new LocalTaskListsTable(mAuthority)),
+                new BulkDelete<>(new Synced<>(mTestAccount, new TaskListsTable(mAuthority)))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    /**
+     * Test that a list created after the cache has been loaded accepts tasks right away.
+     */
+    @Test
+    public void testInsertIntoNewList() throws Exception
+    {
+        long listId1 = createLocalList("list1");
+        insertTask(listId1, "task1");
+
+        long listId2 = createLocalList("list2");
+        insertTask(listId2, "task2");
+
+        assertThat(DatabaseUtils.queryNumEntries(mDatabaseHelper.getReadableDatabase(), Tables.TASKS, Tasks.LIST_ID + "=" + listId2), is(1L));
+    }
+
+
+    /**
+     * Test that a deleted list no longer accepts tasks, even though it has been cached before.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertIntoDeletedList() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new Put<>(taskList, new NameData("list1"))));
+        queue.flush();
+        long listId = listId("list1");
+        insertTask(listId, "task1");
+
+        queue.enqueue(new Seq<Operation<?>>(new Delete<>(taskList)));
+        queue.flush();
+        assertThat(mListCache.list(mDatabaseHelper.getReadableDatabase(), listId), nullValue());
+
+        insertTask(listId, "task2");
+    }
+
+
+    /**
+     * Test that the lists of a removed account no longer accept tasks, even though they have been cached before.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertIntoListOfRemovedAccount() throws Exception
+    {
+        ContentValues values = new ContentValues();
+        values.put(TaskLists.LIST_NAME, "list1");
+        mClient.insert(syncAdapterUri(TaskLists.getContentUri(mAuthority)), values);
+        long listId = listId("list1");
+        insertTask(listId, "task1");
+
+        Utils.cleanUpLists(mContext, mDatabaseHelper.getWritableDatabase(), new Account[0], mAuthority, mListCache);
+        assertThat(mListCache.list(mDatabaseHelper.getReadableDatabase(), listId), nullValue());
+
+        insertTask(listId, "task2");
+    }
+
+
+    /**
+     * Test that a changed access level of a list is visible in the cache right after the update.
+     */
+    @Test
+    public void testAccessLevelChange() throws Exception
+    {
+        ContentValues values = new ContentValues();
+        values.put(TaskLists.LIST_NAME, "list1");
+        values.put(TaskLists.ACCESS_LEVEL, 0);
+        mClient.insert(syncAdapterUri(TaskLists.getContentUri(mAuthority)), values);
+        long listId = listId("list1");
+
+        ListMetadataCache.ListMetadata list = mListCache.list(mDatabaseHelper.getReadableDatabase(), listId);
+        assertThat(list, notNullValue());
+        assertThat(list.accessLevel, is(0));
+
+        ContentValues update = new ContentValues();
+        update.put(TaskLists.ACCESS_LEVEL, 500);
+        assertThat(mClient.update(syncAdapterUri(TaskLists.getContentUri(mAuthority)), update, TaskLists._ID + "=" + listId, null), is(1));
+
+        assertThat(mListCache.list(mDatabaseHelper.getReadableDatabase(), listId).accessLevel, is(500));
+    }
+
+
+    private long createLocalList(String name) throws Exception
+    {
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new Put<>(new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority)), new NameData(name))));
+        queue.flush();
+        return listId(name);
+    }
+
+
+    private void insertTask(long listId, String title) throws Exception
+    {
+        ContentValues values = new ContentValues();
+        values.put(Tasks.LIST_ID, listId);
+        values.put(Tasks.TITLE, title);
+        mClient.insert(Tasks.getContentUri(mAuthority), values);
+    }
+
+
+    private long listId(String name)
+    {
+        return DatabaseUtils.longForQuery(mDatabaseHelper.getReadableDatabase(),
+                "select " + TaskLists._ID + " from " + Tables.LISTS + " where " + TaskLists.LIST_NAME + "=?", new String[] { name });
+    }
+
+
+    private Uri syncAdapterUri(Uri uri)
+    {
+        return uri.buildUpon()
+                .appendQueryParameter(TaskContract.CALLER_IS_SYNCADAPTER, "true")
+                .appendQueryParameter(TaskContract.ACCOUNT_NAME, mTestAccount.name)
+                .appendQueryParameter(TaskContract.ACCOUNT_TYPE, mTestAccount.type)
+                .build();
+    }
+}
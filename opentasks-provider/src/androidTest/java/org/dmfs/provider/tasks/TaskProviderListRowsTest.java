@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.iterables.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListScoped;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.opentaskspal.tasks.DueData;
+import org.dmfs.opentaskspal.tasks.TitleData;
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.rfc5545.Duration;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.TimeZone;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+
+/**
+ * Tests for the instance list rows Uri of {@link TaskProvider}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderListRowsTest
+{
+    private String mAuthority;
+    private Context mContext;
+    private ContentProviderClient mClient;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(mContext);
+        mClient = mContext.getContentResolver().acquireContentProviderClient(mAuthority);
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new BulkDelete<>(new LocalTaskListsTable(mAuthority))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    /**
+     * Insert a task, change the task and its list and check that the list rows follow.
+     */
+    @Test
+    public void testListRows() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, new NameData("list1")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("task1"))));
+        queue.flush();
+
+        assertThat(listRow(Tasks.TITLE), is("task1"));
+        assertThat(listRow(Instances.VISIBLE), is("1"));
+
+        ContentValues values = new ContentValues();
+        values.put(Tasks.TITLE, "task2");
+        mClient.update(Tasks.getContentUri(mAuthority), values, null, null);
+        assertThat(listRow(Tasks.TITLE), is("task2"));
+
+        values = new ContentValues();
+        values.put(TaskLists.VISIBLE, 0);
+        mClient.update(TaskLists.getContentUri(mAuthority), values, null, null);
+        assertThat(listRow(Instances.VISIBLE), is("0"));
+
+        mClient.delete(Tasks.getContentUri(mAuthority), null, null);
+        try (Cursor cursor = mClient.query(Instances.getListRowsContentUri(mAuthority), Instances.LIST_ROW_COLUMNS, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(0));
+        }
+    }
+
+
+    /**
+     * Insert tasks with different due dates and check that they are assigned to the correct time ranges.
+     */
+    @Test
+    public void testBuckets() throws Exception
+    {
+        DateTime now = DateTime.now(TimeZone.getTimeZone("UTC"));
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, new NameData("list1")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("no due")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))),
+                        new DueData<>(now.addDuration(new Duration(1, 0, 3600)))),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))),
+                        new DueData<>(now.addDuration(new Duration(1, 3, 0)))),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))),
+                        new DueData<>(now.addDuration(new Duration(-1, 1, 0))))));
+        queue.flush();
+
+        long nowMillis = now.getTimestamp();
+        try (Cursor cursor = mClient.query(
+                Instances.getBucketedListRowsContentUri(mAuthority, Instances.INSTANCE_DUE, nowMillis, nowMillis + 24L * 3600L * 1000L),
+                new String[] { Instances.INSTANCE_DUE }, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(4));
+            int bucketColumn = cursor.getColumnIndex(Instances.BUCKET);
+            // the result is sorted by bucket
+            for (int bucket = -1; bucket <= 2; ++bucket)
+            {
+                cursor.moveToNext();
+                assertThat(cursor.getInt(bucketColumn), is(bucket));
+            }
+        }
+    }
+
+
+    /**
+     * Returns the value of the given column of the only list row.
+     */
+    private String listRow(String column) throws Exception
+    {
+        try (Cursor cursor = mClient.query(Instances.getListRowsContentUri(mAuthority), Instances.LIST_ROW_COLUMNS, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(1));
+            cursor.moveToFirst();
+            return cursor.getString(cursor.getColumnIndex(column));
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Delete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contentpal.tables.Synced;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.jems.iterable.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListScoped;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.opentaskspal.tasklists.SyncStatusData;
+import org.dmfs.opentaskspal.tasks.TitleData;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tombstones;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * Tests the tombstone purge policy of {@link Maintenance}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderMaintenanceTest
+{
+    private final static long MAX_TOMBSTONE_AGE = TimeUnit.DAYS.toMillis(90);
+
+    private String mAuthority;
+    private ContentProviderClient mClient;
+    private SQLiteOpenHelper mDatabaseHelper;
+    private final Account mTestAccount = new Account("foo", "bar");
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(context);
+        mClient = context.getContentResolver().acquireContentProviderClient(mAuthority);
+        mDatabaseHelper = ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper();
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new BulkDelete<>(new LocalTaskListsTable(mAuthority)),
+                new BulkDelete<>(new Synced<>(mTestAccount, new TaskListsTable(mAuthority)))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    /**
+     * Test that tombstones of a list with sync disabled are purged once they are older than the limit, but not a moment earlier.
+     */
+    @Test
+    public void testPurgeSyncDisabledList() throws Exception
+    {
+        long taskId = tombstone(new SyncStatusData(false), "testPurgeSyncDisabledList");
+        long deletedTime = deletedTime(taskId);
+        Maintenance maintenance = maintenance(true);
+
+        assertThat(maintenance.purgeTombstones(mDatabaseHelper.getWritableDatabase(), deletedTime + MAX_TOMBSTONE_AGE), is(0L));
+        assertThat(exists(taskId), is(true));
+
+        assertThat(maintenance.purgeTombstones(mDatabaseHelper.getWritableDatabase(), deletedTime + MAX_TOMBSTONE_AGE + 1), is(1L));
+        assertThat(exists(taskId), is(false));
+        assertThat(DatabaseUtils.queryNumEntries(mDatabaseHelper.getReadableDatabase(), Tables.TOMBSTONES, Tombstones.TASK_ID + "=" + taskId), is(0L));
+    }
+
+
+    /**
+     * Test that old tombstones of a list of an account which is not synced anymore are purged.
+     */
+    @Test
+    public void testPurgeUnsyncedAccount() throws Exception
+    {
+        long taskId = tombstone(new SyncStatusData(true), "testPurgeUnsyncedAccount");
+
+        assertThat(maintenance(false).purgeTombstones(mDatabaseHelper.getWritableDatabase(), deletedTime(taskId) + MAX_TOMBSTONE_AGE + 1), is(1L));
+        assertThat(exists(taskId), is(false));
+    }
+
+
+    /**
+     * Test that tombstones of a synced list are never purged, no matter how old they are.
+     */
+    @Test
+    public void testKeepSyncedList() throws Exception
+    {
+        long taskId = tombstone(new SyncStatusData(true), "testKeepSyncedList");
+
+        assertThat(maintenance(true).purgeTombstones(mDatabaseHelper.getWritableDatabase(), deletedTime(taskId) + 10 * MAX_TOMBSTONE_AGE), is(0L));
+        assertThat(exists(taskId), is(true));
+    }
+
+
+    /**
+     * Test that tombstones of a local list are never purged.
+     */
+    @Test
+    public void testKeepLocalList() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        RowSnapshot<Tasks> task = new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority)));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, new NameData("list")),
+                new Put<>(task, new TitleData("testKeepLocalList"))));
+        queue.flush();
+
+        // local tasks are removed right away, so there are usually no local tombstones, mark the task as deleted directly
+        long taskId = taskId("testKeepLocalList");
+        ContentValues values = new ContentValues();
+        values.put(Tasks._DELETED, 1);
+        mDatabaseHelper.getWritableDatabase().update(Tables.TASKS, values, Tasks._ID + "=" + taskId, null);
+
+        assertThat(maintenance(false).purgeTombstones(mDatabaseHelper.getWritableDatabase(), deletedTime(taskId) + 10 * MAX_TOMBSTONE_AGE), is(0L));
+        assertThat(exists(taskId), is(true));
+    }
+
+
+    /**
+     * Creates a task with the given title in a new list of the test account and deletes it as a regular client, which leaves a tombstone.
+     *
+     * @return The id of the tombstone.
+     */
+    private long tombstone(SyncStatusData syncStatus, String title) throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new Synced<>(mTestAccount, new TaskListsTable(mAuthority)));
+        RowSnapshot<Tasks> task = new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority)));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, syncStatus),
+                new Put<>(task, new TitleData(title))));
+        queue.flush();
+        queue.enqueue(new Seq<Operation<?>>(new Delete<>(task)));
+        queue.flush();
+        return taskId(title);
+    }
+
+
+    private Maintenance maintenance(boolean accountSynced)
+    {
+        return new Maintenance(mDatabaseHelper, new Handler(Looper.getMainLooper()), account -> accountSynced);
+    }
+
+
+    private long taskId(String title)
+    {
+        return DatabaseUtils.longForQuery(mDatabaseHelper.getReadableDatabase(),
+                "select " + Tasks._ID + " from " + Tables.TASKS + " where " + Tasks.TITLE + "=?", new String[] { title });
+    }
+
+
+    private long deletedTime(long taskId)
+    {
+        return DatabaseUtils.longForQuery(mDatabaseHelper.getReadableDatabase(),
+                "select " + Tombstones.DELETED_TIME + " from " + Tables.TOMBSTONES + " where " + Tombstones.TASK_ID + "=" + taskId, null);
+    }
+
+
+    private boolean exists(long taskId)
+    {
+        return DatabaseUtils.queryNumEntries(mDatabaseHelper.getReadableDatabase(), Tables.TASKS, Tasks._ID + "=" + taskId) > 0;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2021 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package org.dmfs.provider.tasks;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Build;
+import android.text.TextUtils;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.tables.Synced;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.jems.iterable.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.processors.tasks.Moving;
+import org.dmfs.provider.tasks.utils.LatencyHistogram;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * Tests that moving a task with a plain {@link Tasks#LIST_ID} update, which is handled by the {@link TaskMover}, has the same result as moving it through
+ * the {@link Moving} processor.
+ * <p>
+ * Each test creates the same series in two lists. One is moved by an update which contains {@link Tasks#LIST_ID} only, the other one by an update which
+ * also contains the (unchanged) title and therefore goes through the processor chain. Afterwards both pairs of lists must contain the same tasks.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderMoveTest
+{
+    private final static long START = 1546300800000L; // 2019-01-01T00:00:00Z
+    private final static long DAY = 24 * 3600 * 1000L;
+
+    private final static int MASTER = 0;
+    private final static int OVERRIDE = 1;
+
+    private String mAuthority;
+    private ContentProviderClient mClient;
+    private SQLiteOpenHelper mDatabaseHelper;
+    private LatencyHistogram mMoverHistogram;
+    private final Account mTestAccount = new Account("foo", "bar");
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(context);
+        mClient = context.getContentResolver().acquireContentProviderClient(mAuthority);
+        TaskProvider provider = (TaskProvider) mClient.getLocalContentProvider();
+        mDatabaseHelper = provider.getDatabaseHelper();
+        mMoverHistogram = provider.statistics().histogram("tasks.TaskMover.update");
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new BulkDelete<>(new Synced<>(mTestAccount, new TaskListsTable(mAuthority)))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    /**
+     * Test moving the master of a series which has never been synced.
+     */
+    @Test
+    public void testMoveUnsyncedMaster() throws Exception
+    {
+        assertMovesLikeProcessorChain(false, MASTER);
+    }
+
+
+    /**
+     * Test moving an exception of a series which has never been synced.
+     */
+    @Test
+    public void testMoveUnsyncedException() throws Exception
+    {
+        assertMovesLikeProcessorChain(false, OVERRIDE);
+    }
+
+
+    /**
+     * Test moving the master of a synced series.
+     */
+    @Test
+    public void testMoveSyncedMaster() throws Exception
+    {
+        assertMovesLikeProcessorChain(true, MASTER);
+    }
+
+
+    /**
+     * Test moving an exception of a synced series.
+     */
+    @Test
+    public void testMoveSyncedException() throws Exception
+    {
+        assertMovesLikeProcessorChain(true, OVERRIDE);
+    }
+
+
+    /**
+     * Creates a series in two lists each, moves one with a plain {@link Tasks#LIST_ID} update and the other one through the processor chain and asserts
+     * that the result is the same.
+     */
+    private void assertMovesLikeProcessorChain(boolean synced, int movedTask) throws Exception
+    {
+        long moverList = createList("mover-old");
+        long moverTarget = createList("mover-new");
+        long chainList = createList("chain-old");
+        long chainTarget = createList("chain-new");
+
+        long[] moverSeries = insertSeries(moverList, synced);
+        long[] chainSeries = insertSeries(chainList, synced);
+
+        long moves = mMoverHistogram.count();
+
+        ContentValues move = new ContentValues();
+        move.put(Tasks.LIST_ID, moverTarget);
+        assertThat(mClient.update(Tasks.getContentUri(mAuthority), move, Tasks._ID + "=" + moverSeries[movedTask], null), is(1));
+        assertThat(mMoverHistogram.count(), is(moves + 1));
+
+        // the unchanged title makes this update go through the processor chain
+        ContentValues chainMove = new ContentValues();
+        chainMove.put(Tasks.LIST_ID, chainTarget);
+        chainMove.put(Tasks.TITLE, movedTask == MASTER ? "master" : "override");
+        assertThat(mClient.update(Tasks.getContentUri(mAuthority), chainMove, Tasks._ID + "=" + chainSeries[movedTask], null), is(1));
+        assertThat(mMoverHistogram.count(), is(moves + 1));
+
+        List<String> chainResult = snapshot(chainList, chainTarget);
+        assertThat(snapshot(moverList, moverTarget), is(chainResult));
+        // the whole series has moved, only deleted copies are left behind
+        assertThat(DatabaseUtils.queryNumEntries(mDatabaseHelper.getReadableDatabase(), Tables.TASKS,
+                Tasks.LIST_ID + "=" + moverList + " and not " + Tasks._DELETED), is(0L));
+        assertThat(DatabaseUtils.queryNumEntries(mDatabaseHelper.getReadableDatabase(), Tables.TASKS, Tasks.LIST_ID + "=" + moverTarget), is(3L));
+        assertThat(DatabaseUtils.queryNumEntries(mDatabaseHelper.getReadableDatabase(), Tables.TASKS, Tasks.LIST_ID + "=" + moverList), is(synced ? 3L : 0L));
+    }
+
+
+    /**
+     * Inserts a daily recurring master with an overridden and a deleted exception and returns the ids of the master and the overridden exception.
+     */
+    private long[] insertSeries(long listId, boolean synced) throws Exception
+    {
+        ContentValues master = new ContentValues();
+        master.put(Tasks.LIST_ID, listId);
+        master.put(Tasks.TITLE, "master");
+        master.put(Tasks.DTSTART, START);
+        master.put(Tasks.TZ, "UTC");
+        master.put(Tasks.IS_ALLDAY, 0);
+        master.put(Tasks.RRULE, "FREQ=DAILY;COUNT=5");
+        if (synced)
+        {
+            master.put(Tasks._SYNC_ID, "master");
+            master.put(Tasks.SYNC_VERSION, "1");
+            master.put(Tasks.SYNC1, "etag");
+        }
+        long masterId = ContentUris.parseId(mClient.insert(syncAdapterUri(Tasks.getContentUri(mAuthority)), master));
+
+        long overrideId = insertException(listId, masterId, "override", 1, synced);
+        long deletedId = insertException(listId, masterId, "deleted", 2, synced);
+        // a local deletion in a synced list leaves a deleted exception
+        assertThat(mClient.delete(Tasks.getContentUri(mAuthority), Tasks._ID + "=" + deletedId, null), is(1));
+        return new long[] { masterId, overrideId };
+    }
+
+
+    private long insertException(long listId, long masterId, String title, int instance, boolean synced) throws Exception
+    {
+        ContentValues exception = new ContentValues();
+        exception.put(Tasks.LIST_ID, listId);
+        exception.put(Tasks.TITLE, title);
+        exception.put(Tasks.DTSTART, START + instance * DAY);
+        exception.put(Tasks.TZ, "UTC");
+        exception.put(Tasks.IS_ALLDAY, 0);
+        exception.put(Tasks.ORIGINAL_INSTANCE_ID, masterId);
+        exception.put(Tasks.ORIGINAL_INSTANCE_TIME, START + instance * DAY);
+        exception.put(Tasks.ORIGINAL_INSTANCE_ALLDAY, 0);
+        if (synced)
+        {
+            exception.put(Tasks.SYNC_VERSION, "1");
+            exception.put(Tasks.SYNC1, "etag-" + instance);
+        }
+        return ContentUris.parseId(mClient.insert(syncAdapterUri(Tasks.getContentUri(mAuthority)), exception));
+    }
+
+
+    /**
+     * Returns all tasks of the given old and new list with all the values a move may change, but without the row ids, versions and modification times.
+     * Originals are represented by their list, title and deleted flag. The dirty flag of deleted tasks is left out, the sync adapter handles deleted tasks
+     * either way.
+     */
+    private List<String> snapshot(long oldList, long newList)
+    {
+        List<String> result = new ArrayList<>();
+        try (Cursor cursor = mDatabaseHelper.getReadableDatabase().rawQuery(
+                "select t.list_id, t.title, t._deleted, t._dirty, t._sync_id, t.sync_version, t.sync1, t.original_instance_sync_id, t.original_instance_time, "
+                        + "o.list_id, o.title, o._deleted from " + Tables.TASKS + " t left join " + Tables.TASKS
+                        + " o on (o._id = t.original_instance_id) where t.list_id in (?, ?)",
+                new String[] { String.valueOf(oldList), String.valueOf(newList) }))
+        {
+            while (cursor.moveToNext())
+            {
+                boolean deleted = cursor.getInt(2) != 0;
+                result.add(TextUtils.join("|", new Object[] {
+                        cursor.getLong(0) == oldList ? "old" : "new",
+                        cursor.getString(1),
+                        deleted,
+                        deleted ? "-" : cursor.getString(3),
+                        cursor.getString(4),
+                        cursor.getString(5),
+                        cursor.getString(6),
+                        cursor.getString(7),
+                        cursor.getString(8),
+                        cursor.isNull(9) ? null : (cursor.getLong(9) == oldList ? "old" : "new") + ":" + cursor.getString(10) + ":" + cursor.getInt(11) }));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+
+    private long createList(String name) throws Exception
+    {
+        ContentValues values = new ContentValues();
+        values.put(TaskLists.LIST_NAME, name);
+        values.put(TaskLists.SYNC_ENABLED, 1);
+        values.put(TaskLists.VISIBLE, 1);
+        return ContentUris.parseId(mClient.insert(syncAdapterUri(TaskLists.getContentUri(mAuthority)), values));
+    }
+
+
+    private Uri syncAdapterUri(Uri uri)
+    {
+        return uri.buildUpon()
+                .appendQueryParameter(TaskContract.CALLER_IS_SYNCADAPTER, "true")
+                .appendQueryParameter(TaskContract.ACCOUNT_NAME, mTestAccount.name)
+                .appendQueryParameter(TaskContract.ACCOUNT_TYPE, mTestAccount.type)
+                .build();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Delete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.iterables.SingletonIterable;
+import org.dmfs.jems.iterable.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListScoped;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.opentaskspal.tasks.TimeData;
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.TimeZone;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * Tests the seek for the next notification alarm of {@link ContentOperation#UPDATE_NOTIFICATION_ALARM}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderNotificationAlarmTest
+{
+    private final static long HOUR = 3600 * 1000;
+
+    private String mAuthority;
+    private ContentProviderClient mClient;
+    private SQLiteDatabase mDb;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(context);
+        mClient = context.getContentResolver().acquireContentProviderClient(mAuthority);
+        mDb = ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper().getReadableDatabase();
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new SingletonIterable<Operation<?>>(new BulkDelete<>(new LocalTaskListsTable(mAuthority))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    /**
+     * Test that the next alarm is the first start or due date of all instances.
+     */
+    @Test
+    public void testNextAlarm() throws Exception
+    {
+        long now = System.currentTimeMillis();
+        DateTime lastAlarm = utc(now);
+
+        RowSnapshot<TaskLists> taskList1 = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        RowSnapshot<TaskLists> taskList2 = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        RowSnapshot<Tasks> task1 = new VirtualRowSnapshot<>(new TaskListScoped(taskList1, new TasksTable(mAuthority)));
+        RowSnapshot<Tasks> task2 = new VirtualRowSnapshot<>(new TaskListScoped(taskList2, new TasksTable(mAuthority)));
+
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList1, new NameData("list1")),
+                new Put<>(taskList2, new NameData("list2")),
+                new Put<>(task1, new TimeData<>(utc(now + 2 * HOUR), utc(now + 4 * HOUR))),
+                new Put<>(task2, new TimeData<>(utc(now + HOUR), utc(now + 3 * HOUR)))));
+        queue.flush();
+
+        assertThat(ContentOperation.nextAlarm(mDb, lastAlarm).getTimestamp(), is(now + HOUR));
+        assertThat(ContentOperation.nextAlarm(mDb, utc(now + HOUR)).getTimestamp(), is(now + 2 * HOUR));
+        assertThat(ContentOperation.nextAlarm(mDb, utc(now + 2 * HOUR)).getTimestamp(), is(now + 3 * HOUR));
+        assertThat(ContentOperation.nextAlarm(mDb, utc(now + 3 * HOUR)).getTimestamp(), is(now + 4 * HOUR));
+        assertThat(ContentOperation.nextAlarm(mDb, utc(now + 4 * HOUR)), nullValue());
+    }
+
+
+    /**
+     * Test that the instances of a deleted list don't result in an alarm, even if the {@link ListCleaner} didn't remove them yet.
+     */
+    @Test
+    public void testNextAlarmDeletedList() throws Exception
+    {
+        long now = System.currentTimeMillis();
+        DateTime lastAlarm = utc(now);
+
+        RowSnapshot<TaskLists> taskList1 = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        RowSnapshot<TaskLists> taskList2 = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        RowSnapshot<Tasks> task1 = new VirtualRowSnapshot<>(new TaskListScoped(taskList1, new TasksTable(mAuthority)));
+        RowSnapshot<Tasks> task2 = new VirtualRowSnapshot<>(new TaskListScoped(taskList2, new TasksTable(mAuthority)));
+
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList1, new NameData("list1")),
+                new Put<>(taskList2, new NameData("list2")),
+                new Put<>(task1, new TimeData<>(utc(now + 2 * HOUR), utc(now + 4 * HOUR))),
+                new Put<>(task2, new TimeData<>(utc(now + HOUR), utc(now + 3 * HOUR)))));
+        queue.flush();
+
+        queue.enqueue(new SingletonIterable<Operation<?>>(new Delete<>(taskList2)));
+        queue.flush();
+
+        // the tasks of list2 may or may not have been removed yet, either way they must not be considered
+        assertThat(ContentOperation.nextAlarm(mDb, lastAlarm).getTimestamp(), is(now + 2 * HOUR));
+        assertThat(ContentOperation.nextAlarm(mDb, utc(now + 2 * HOUR)).getTimestamp(), is(now + 4 * HOUR));
+        assertThat(ContentOperation.nextAlarm(mDb, utc(now + 4 * HOUR)), nullValue());
+
+        // deleting the remaining list leaves no alarm at all
+        queue.enqueue(new SingletonIterable<Operation<?>>(new Delete<>(taskList1)));
+        queue.flush();
+
+        assertThat(ContentOperation.nextAlarm(mDb, lastAlarm), nullValue());
+    }
+
+
+    private static DateTime utc(long timestamp)
+    {
+        return new DateTime(TimeZone.getTimeZone("UTC"), timestamp);
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.iterables.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListScoped;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.opentaskspal.tasks.DueData;
+import org.dmfs.opentaskspal.tasks.TitleData;
+import org.dmfs.rfc5545.DateTime;
+import org.dmfs.rfc5545.Duration;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TimeZone;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+
+/**
+ * Tests for paging through {@link Tasks} and {@link Instances} with {@link TaskContract#LIMIT} and {@link TaskContract#CONTINUE_AFTER}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderPagingTest
+{
+    private String mAuthority;
+    private Context mContext;
+    private ContentProviderClient mClient;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(mContext);
+        mClient = mContext.getContentResolver().acquireContentProviderClient(mAuthority);
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+
+        // insert a couple of tasks with and without due date
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        queue.enqueue(new Seq<Operation<?>>(new Put<>(taskList, new NameData("list1"))));
+        DateTime due = DateTime.now(TimeZone.getTimeZone("UTC"));
+        for (int i = 0; i < 4; ++i)
+        {
+            queue.enqueue(new Seq<Operation<?>>(
+                    new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("task " + i)),
+                    // the due dates are in descending order, so the order of the instances differs from the order of the tasks
+                    new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))),
+                            new DueData<>(due.addDuration(new Duration(1, 10 - i, 0))))));
+        }
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new BulkDelete<>(new LocalTaskListsTable(mAuthority))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    @Test
+    public void testInstancesPaging() throws Exception
+    {
+        for (Uri uri : new Uri[] { Instances.getContentUri(mAuthority), Instances.getListRowsContentUri(mAuthority) })
+        {
+            List<Long> ids = new ArrayList<>();
+            Long lastDue = null;
+            String token = null;
+            int pages = 0;
+            do
+            {
+                Uri.Builder builder = uri.buildUpon().appendQueryParameter(TaskContract.LIMIT, "3");
+                if (token != null)
+                {
+                    builder.appendQueryParameter(TaskContract.CONTINUE_AFTER, token);
+                }
+                try (Cursor cursor = mClient.query(builder.build(), new String[] { Instances._ID, Instances.INSTANCE_DUE_SORTING }, null, null, null))
+                {
+                    assertThat(cursor.getCount(), lessThanOrEqualTo(3));
+                    token = null;
+                    while (cursor.moveToNext())
+                    {
+                        Long due = cursor.isNull(1) ? null : cursor.getLong(1);
+                        if (lastDue != null)
+                        {
+                            // results are always sorted by due date, instances without due date come first
+                            assertThat(due != null && lastDue <= due, is(true));
+                        }
+                        lastDue = due;
+                        ids.add(cursor.getLong(0));
+                        token = Instances.getContinuationToken(due, cursor.getLong(0));
+                    }
+                }
+                pages++;
+            }
+            while (token != null);
+
+            assertThat(ids.size(), is(8));
+            assertThat(new HashSet<>(ids).size(), is(8));
+            assertThat(pages, is(4));
+        }
+    }
+
+
+    @Test
+    public void testTasksPaging() throws Exception
+    {
+        List<Long> ids = new ArrayList<>();
+        String token = null;
+        do
+        {
+            Uri.Builder builder = Tasks.getContentUri(mAuthority).buildUpon().appendQueryParameter(TaskContract.LIMIT, "5");
+            if (token != null)
+            {
+                builder.appendQueryParameter(TaskContract.CONTINUE_AFTER, token);
+            }
+            try (Cursor cursor = mClient.query(builder.build(), new String[] { Tasks._ID }, null, null, null))
+            {
+                token = null;
+                while (cursor.moveToNext())
+                {
+                    ids.add(cursor.getLong(0));
+                    token = Tasks.getContinuationToken(cursor.getLong(0));
+                }
+            }
+        }
+        while (token != null);
+
+        assertThat(ids.size(), is(8));
+        for (int i = 1; i < ids.size(); ++i)
+        {
+            assertThat(ids.get(i - 1) < ids.get(i), is(true));
+        }
+    }
+
+
+    /**
+     * Page through tasks and instances with batched properties, one row per page, so the task with properties ends up at a page boundary.
+     */
+    @Test
+    public void testPagingWithProperties() throws Exception
+    {
+        long taskId = taskId("task 0");
+        for (int i = 0; i < 3; ++i)
+        {
+            ContentValues values = new ContentValues();
+            values.put(Properties.TASK_ID, taskId);
+            values.put(Properties.MIMETYPE, Property.Comment.CONTENT_ITEM_TYPE);
+            values.put(Property.Comment.COMMENT, "comment " + i);
+            mClient.insert(Properties.getContentUri(mAuthority), values);
+        }
+
+        // tasks
+        List<Long> ids = new ArrayList<>();
+        String token = null;
+        do
+        {
+            Uri.Builder builder = Tasks.getContentUri(mAuthority).buildUpon()
+                    .appendQueryParameter(TaskContract.LOAD_PROPERTIES, TaskContract.LOAD_PROPERTIES_BATCHED)
+                    .appendQueryParameter(TaskContract.LIMIT, "1");
+            if (token != null)
+            {
+                builder.appendQueryParameter(TaskContract.CONTINUE_AFTER, token);
+            }
+            try (Cursor cursor = mClient.query(builder.build(), new String[] { Tasks._ID, Tasks.ENCODED_PROPERTIES }, null, null, null))
+            {
+                token = null;
+                while (cursor.moveToNext())
+                {
+                    ids.add(cursor.getLong(0));
+                    token = Tasks.getContinuationToken(cursor.getLong(0));
+                    assertThat(cursor.isNull(1) ? 0 : new JSONArray(cursor.getString(1)).length(), is(cursor.getLong(0) == taskId ? 3 : 0));
+                }
+            }
+        }
+        while (token != null);
+        assertThat(ids.size(), is(8));
+        assertThat(new HashSet<>(ids).size(), is(8));
+
+        // instances
+        ids.clear();
+        token = null;
+        do
+        {
+            Uri.Builder builder = Instances.getContentUri(mAuthority).buildUpon()
+                    .appendQueryParameter(TaskContract.LOAD_PROPERTIES, TaskContract.LOAD_PROPERTIES_BATCHED)
+                    .appendQueryParameter(TaskContract.LIMIT, "1");
+            if (token != null)
+            {
+                builder.appendQueryParameter(TaskContract.CONTINUE_AFTER, token);
+            }
+            try (Cursor cursor = mClient.query(builder.build(),
+                    new String[] { Instances._ID, Instances.INSTANCE_DUE_SORTING, Instances.TASK_ID, Tasks.ENCODED_PROPERTIES }, null, null, null))
+            {
+                token = null;
+                while (cursor.moveToNext())
+                {
+                    ids.add(cursor.getLong(0));
+                    token = Instances.getContinuationToken(cursor.isNull(1) ? null : cursor.getLong(1), cursor.getLong(0));
+                    assertThat(cursor.isNull(3) ? 0 : new JSONArray(cursor.getString(3)).length(), is(cursor.getLong(2) == taskId ? 3 : 0));
+                }
+            }
+        }
+        while (token != null);
+        assertThat(ids.size(), is(8));
+        assertThat(new HashSet<>(ids).size(), is(8));
+    }
+
+
+    /**
+     * Paging can't return one row per property.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPagingWithPropertyRows() throws Exception
+    {
+        mClient.query(Instances.getContentUri(mAuthority).buildUpon()
+                .appendQueryParameter(TaskContract.LOAD_PROPERTIES, "1")
+                .appendQueryParameter(TaskContract.LIMIT, "3").build(), null, null, null, null);
+    }
+
+
+    /**
+     * Paged results can't be sorted by anything but the paging key.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPagingWithSortOrder() throws Exception
+    {
+        mClient.query(Tasks.getContentUri(mAuthority).buildUpon().appendQueryParameter(TaskContract.LIMIT, "3").build(), null, null, null, Tasks.TITLE);
+    }
+
+
+    /**
+     * The paging key itself is a valid sort order.
+     */
+    @Test
+    public void testPagingWithKeySortOrder() throws Exception
+    {
+        try (Cursor cursor = mClient.query(Tasks.getContentUri(mAuthority).buildUpon().appendQueryParameter(TaskContract.LIMIT, "3").build(),
+                new String[] { Tasks._ID }, null, null, Tasks._ID))
+        {
+            assertThat(cursor.getCount(), is(3));
+        }
+    }
+
+
+    private long taskId(String title) throws Exception
+    {
+        try (Cursor cursor = mClient.query(Tasks.getContentUri(mAuthority), new String[] { Tasks._ID }, Tasks.TITLE + "=?", new String[] { title }, null))
+        {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -181,4 +181,53 @@ public class TaskProviderRelatingTest
                                 )))
                 ));
     }
+
+
+    /**
+     * Create a child Task related to a parent UID and a sibling of that child before the parent. Both must have the parent once it's been synced.
+     */
+    @Test
+    public void testRelateSiblings()
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new Synced<>(testAccount, new TaskListsTable(mAuthority)));
+        RowSnapshot<Tasks> taskChild = new VirtualRowSnapshot<>(new TaskListScoped(taskList, new Synced<>(testAccount, new TasksTable(mAuthority))));
+        RowSnapshot<Tasks> taskSibling = new VirtualRowSnapshot<>(new TaskListScoped(taskList, new Synced<>(testAccount, new TasksTable(mAuthority))));
+        RowSnapshot<Tasks> taskParent = new VirtualRowSnapshot<>(new TaskListScoped(taskList, new Synced<>(testAccount, new TasksTable(mAuthority))));
+
+        assertThat(new Seq<>(
+                        new Put<>(taskList, new NameData("list1")),
+                        new Put<>(taskChild, new Composite<>(
+                                new TitleData("child"),
+                                new CharSequenceRowData<>(Tasks._UID, "childUID"))),
+                        new Insert<>(new PropertiesTable(mAuthority), new Composite<>(
+                                new CharSequenceRowData<>(TaskContract.Property.Relation.MIMETYPE, TaskContract.Property.Relation.CONTENT_ITEM_TYPE),
+                                new Referring<>(TaskContract.Property.Relation.TASK_ID, taskChild),
+                                new CharSequenceRowData<>(TaskContract.Property.Relation.RELATED_UID, "parentUID"),
+                                new CharSequenceRowData<>(TaskContract.Property.Relation.RELATED_TYPE, String.valueOf(TaskContract.Property.Relation.RELTYPE_PARENT))
+                        )),
+                        new Put<>(taskSibling, new Composite<>(
+                                new TitleData("sibling"),
+                                new CharSequenceRowData<>(Tasks._UID, "siblingUID"))),
+                        new Insert<>(new PropertiesTable(mAuthority), new Composite<>(
+                                new CharSequenceRowData<>(TaskContract.Property.Relation.MIMETYPE, TaskContract.Property.Relation.CONTENT_ITEM_TYPE),
+                                new Referring<>(TaskContract.Property.Relation.TASK_ID, taskSibling),
+                                new CharSequenceRowData<>(TaskContract.Property.Relation.RELATED_UID, "childUID"),
+                                new CharSequenceRowData<>(TaskContract.Property.Relation.RELATED_TYPE, String.valueOf(TaskContract.Property.Relation.RELTYPE_SIBLING))
+                        )),
+                        new Put<>(taskParent, new Composite<>(
+                                new TitleData("parent"),
+                                new CharSequenceRowData<>(Tasks._UID, "parentUID")))
+                ),
+                resultsIn(mClient,
+                        new Assert<>(taskChild, new Composite<>(
+                                new TitleData("child"),
+                                new Referring<>(Tasks.PARENT_ID, taskParent))),
+                        new Assert<>(taskSibling, new Composite<>(
+                                new TitleData("sibling"),
+                                new Referring<>(Tasks.PARENT_ID, taskParent))),
+                        new Assert<>(taskParent, new Composite<>(
+                                new CharSequenceRowData<>(Tasks._UID, "parentUID"),
+                                new TitleData("parent")))
+                ));
+    }
 }
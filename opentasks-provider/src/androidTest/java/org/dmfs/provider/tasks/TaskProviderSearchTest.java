@@ -0,0 +1,373 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.accounts.Account;
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import org.dmfs.android.contentpal.Operation;
+import org.dmfs.android.contentpal.OperationsQueue;
+import org.dmfs.android.contentpal.RowSnapshot;
+import org.dmfs.android.contentpal.operations.BulkDelete;
+import org.dmfs.android.contentpal.operations.Put;
+import org.dmfs.android.contentpal.queues.BasicOperationsQueue;
+import org.dmfs.android.contentpal.rowsnapshots.VirtualRowSnapshot;
+import org.dmfs.android.contentpal.tables.Synced;
+import org.dmfs.android.contenttestpal.operations.AssertEmptyTable;
+import org.dmfs.iterables.elementary.Seq;
+import org.dmfs.opentaskspal.tables.InstanceTable;
+import org.dmfs.opentaskspal.tables.LocalTaskListsTable;
+import org.dmfs.opentaskspal.tables.TaskListScoped;
+import org.dmfs.opentaskspal.tables.TaskListsTable;
+import org.dmfs.opentaskspal.tables.TasksTable;
+import org.dmfs.opentaskspal.tasklists.NameData;
+import org.dmfs.opentaskspal.tasks.TitleData;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+
+/**
+ * Tests for the search Uri of {@link TaskProvider}.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderSearchTest
+{
+    private final static String[] SEARCH_PROJECTION = { Instances.TASK_ID, Tasks.SCORE };
+
+    private String mAuthority;
+    private Context mContext;
+    private ContentProviderClient mClient;
+    private final Account testAccount = new Account("foo", "bar");
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mAuthority = AuthorityUtil.taskAuthority(mContext);
+        mClient = mContext.getContentResolver().acquireContentProviderClient(mAuthority);
+
+        // Assert that tables are empty:
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new AssertEmptyTable<>(new TasksTable(mAuthority)),
+                new AssertEmptyTable<>(new TaskListsTable(mAuthority)),
+                new AssertEmptyTable<>(new InstanceTable(mAuthority))));
+        queue.flush();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        // Clear the DB:
+        BasicOperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new BulkDelete<>(new LocalTaskListsTable(mAuthority)),
+                new BulkDelete<>(new Synced<>(testAccount, new TaskListsTable(mAuthority)))));
+        queue.flush();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+        {
+            mClient.close();
+        }
+        else
+        {
+            mClient.release();
+        }
+    }
+
+
+    /**
+     * Insert a couple of tasks and page through the search results using limit and continuation tokens.
+     */
+    @Test
+    public void testSearchPaging() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new Put<>(taskList, new NameData("list1"))));
+        for (int i = 0; i < 7; ++i)
+        {
+            queue.enqueue(new Seq<Operation<?>>(
+                    new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("meeting " + i))));
+        }
+        queue.flush();
+
+        // all results at once
+        Set<Long> all = taskIds(Tasks.getSearchUri(mAuthority, "meeting"), Integer.MAX_VALUE);
+        assertThat(all.size(), is(7));
+
+        // the first page
+        assertThat(taskIds(Tasks.getSearchUri(mAuthority, "meeting", 3), 3).size(), is(3));
+
+        // page through the results using continuation tokens
+        Set<Long> paged = new HashSet<>();
+        String continuation = null;
+        int pages = 0;
+        do
+        {
+            Uri uri = Tasks.getSearchUri(mAuthority, "meeting", 3);
+            if (continuation != null)
+            {
+                uri = uri.buildUpon().appendQueryParameter(Tasks.SEARCH_CONTINUATION_PARAMETER, continuation).build();
+            }
+            try (Cursor cursor = mClient.query(uri, SEARCH_PROJECTION, null, null, null))
+            {
+                assertThat(cursor.getCount(), lessThanOrEqualTo(3));
+                continuation = null;
+                while (cursor.moveToNext())
+                {
+                    // every task must show up only once
+                    assertThat(paged.add(cursor.getLong(cursor.getColumnIndex(Instances.TASK_ID))), is(true));
+                    continuation = Tasks.getSearchContinuationToken(cursor.getDouble(cursor.getColumnIndex(Tasks.SCORE)),
+                            cursor.getLong(cursor.getColumnIndex(Instances.TASK_ID)));
+                }
+            }
+            pages++;
+        }
+        while (continuation != null);
+
+        assertThat(paged, is(all));
+        assertThat(pages, greaterThanOrEqualTo(3));
+    }
+
+
+    /**
+     * Test that limited searches return the top of the full result, even if most of the best scored tasks are filtered by the selection.
+     */
+    @Test
+    public void testLimitedSearch() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList1 = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        RowSnapshot<TaskLists> taskList2 = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(new Put<>(taskList1, new NameData("list1")), new Put<>(taskList2, new NameData("list2"))));
+        // more tasks than the limited scores of a small page contain, all of them score the same, so the ones inserted first rank first
+        for (int i = 0; i < 100; ++i)
+        {
+            queue.enqueue(new Seq<Operation<?>>(
+                    new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList1, new TasksTable(mAuthority))), new TitleData("meeting " + i))));
+        }
+        for (int i = 0; i < 3; ++i)
+        {
+            queue.enqueue(new Seq<Operation<?>>(
+                    new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList2, new TasksTable(mAuthority))), new TitleData("meeting " + i))));
+        }
+        queue.flush();
+
+        for (Uri uri : new Uri[] { Tasks.getSearchUri(mAuthority, "meeting"), sessionUri("meeting") })
+        {
+            List<Long> all = rankedTaskIds(uri, null);
+            assertThat(all.size(), is(103));
+            assertThat(rankedTaskIds(limited(uri, 3), null), is(all.subList(0, 3)));
+            assertThat(rankedTaskIds(limited(uri, 3).buildUpon().appendQueryParameter(Tasks.SEARCH_OFFSET_PARAMETER, "20").build(), null),
+                    is(all.subList(20, 23)));
+
+            // the best scored tasks are all in list1
+            List<Long> list2 = rankedTaskIds(uri, "list2");
+            assertThat(list2.size(), is(3));
+            assertThat(rankedTaskIds(limited(uri, 3), "list2"), is(list2));
+            assertThat(rankedTaskIds(limited(uri, 2), "list2"), is(list2.subList(0, 2)));
+        }
+    }
+
+
+    /**
+     * Test that a search session picks up the changes of a search index rebuild.
+     */
+    @Test
+    public void testSearchSessionAfterIndexRebuild() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, new NameData("list1")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("meeting"))));
+        queue.flush();
+
+        // wipe the search index, the session remembers that there are no hits
+        ((TaskProvider) mClient.getLocalContentProvider()).getDatabaseHelper().getWritableDatabase().delete(FTSDatabaseHelper.FTS_CONTENT_TABLE, null, null);
+        assertThat(taskIds(sessionUri("meeting"), Integer.MAX_VALUE).size(), is(0));
+
+        ContentOperation.REBUILD_SEARCH_INDEX.fire(mContext, null);
+
+        // the rebuild runs in the background
+        long deadline = System.currentTimeMillis() + 5000;
+        while (taskIds(sessionUri("meeting"), Integer.MAX_VALUE).isEmpty() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        assertThat(taskIds(sessionUri("meeting"), Integer.MAX_VALUE).size(), is(1));
+    }
+
+
+    /**
+     * Test that the minimum score parameter filters the results.
+     */
+    @Test
+    public void testSearchMinScore() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, new NameData("list1")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("meeting")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("meet"))));
+        queue.flush();
+
+        assertThat(taskIds(Tasks.getSearchUri(mAuthority, "meeting"), Integer.MAX_VALUE).size(), is(2));
+        assertThat(taskIds(Tasks.getSearchUri(mAuthority, "meeting").buildUpon().appendQueryParameter(Tasks.SEARCH_MIN_SCORE_PARAMETER, "1").build(),
+                Integer.MAX_VALUE).size(), is(1));
+    }
+
+
+    /**
+     * Test that searches within a search session return the same results as regular searches, even if the tasks change in between.
+     */
+    @Test
+    public void testSearchSession() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, new NameData("list1")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("meeting")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("meet")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("greeting"))));
+        queue.flush();
+
+        // simulate typing a search query
+        for (String query : new String[] { "me", "mee", "meet", "meeti", "meetin", "meeting" })
+        {
+            assertThat(taskIds(sessionUri(query), Integer.MAX_VALUE), is(taskIds(Tasks.getSearchUri(mAuthority, query), Integer.MAX_VALUE)));
+        }
+
+        // add another match, the session must not return stale results
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("meeting 2"))));
+        queue.flush();
+
+        assertThat(taskIds(sessionUri("meeting"), Integer.MAX_VALUE), is(taskIds(Tasks.getSearchUri(mAuthority, "meeting"), Integer.MAX_VALUE)));
+        assertThat(taskIds(sessionUri("meeting"), Integer.MAX_VALUE).size(), is(3));
+    }
+
+
+    /**
+     * Test that searches within a search session return the same rows and column values as regular searches.
+     */
+    @Test
+    public void testSearchSessionCursor() throws Exception
+    {
+        RowSnapshot<TaskLists> taskList = new VirtualRowSnapshot<>(new LocalTaskListsTable(mAuthority));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+        queue.enqueue(new Seq<Operation<?>>(
+                new Put<>(taskList, new NameData("list1")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("meeting")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("team meeting")),
+                new Put<>(new VirtualRowSnapshot<>(new TaskListScoped(taskList, new TasksTable(mAuthority))), new TitleData("greeting"))));
+        queue.flush();
+
+        for (String query : new String[] { "mee", "meeting", "eeting", "team" })
+        {
+            try (Cursor regular = mClient.query(Tasks.getSearchUri(mAuthority, query), null, null, null, null);
+                 Cursor session = mClient.query(sessionUri(query), null, null, null, null))
+            {
+                assertThat(session.getColumnNames(), is(regular.getColumnNames()));
+                assertThat(session.getCount(), is(regular.getCount()));
+                while (regular.moveToNext())
+                {
+                    session.moveToNext();
+                    for (int i = 0; i < regular.getColumnCount(); ++i)
+                    {
+                        assertThat(regular.getColumnName(i), session.getType(i), is(regular.getType(i)));
+                        assertThat(regular.getColumnName(i), session.getString(i), is(regular.getString(i)));
+                    }
+                }
+            }
+        }
+    }
+
+
+    private Uri sessionUri(String query)
+    {
+        return Tasks.getSearchUri(mAuthority, query).buildUpon().appendQueryParameter(Tasks.SEARCH_SESSION_PARAMETER, "test").build();
+    }
+
+
+    private Uri limited(Uri uri, int limit)
+    {
+        return uri.buildUpon().appendQueryParameter(Tasks.SEARCH_LIMIT_PARAMETER, String.valueOf(limit)).build();
+    }
+
+
+    /**
+     * Returns the ids of the search results in the order of the result, optionally restricted to the list with the given name.
+     */
+    private List<Long> rankedTaskIds(Uri uri, String listName) throws Exception
+    {
+        List<Long> result = new ArrayList<>();
+        try (Cursor cursor = mClient.query(uri, SEARCH_PROJECTION, listName == null ? null : Tasks.LIST_NAME + "=?",
+                listName == null ? null : new String[] { listName }, null))
+        {
+            while (cursor.moveToNext())
+            {
+                result.add(cursor.getLong(cursor.getColumnIndex(Instances.TASK_ID)));
+            }
+        }
+        return result;
+    }
+
+
+    private Set<Long> taskIds(Uri uri, int maxCount) throws Exception
+    {
+        Set<Long> result = new HashSet<>();
+        try (Cursor cursor = mClient.query(uri, SEARCH_PROJECTION, null, null, null))
+        {
+            assertThat(cursor.getCount(), lessThanOrEqualTo(maxCount));
+            while (cursor.moveToNext())
+            {
+                result.add(cursor.getLong(cursor.getColumnIndex(Instances.TASK_ID)));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks;
+
+import android.accounts.AccountManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.mock.MockContentResolver;
+
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * Tests that {@link TaskProvider#onCreate()} doesn't touch the database and that the deferred background work starts exactly once, when the database is
+ * used for the first time.
+ * <p>
+ * The tests run a separate provider instance on an {@link IsolatedContext}, which has its own database and preferences and records database and account
+ * manager access.
+ *
+ * @author Marten Gajda
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskProviderStartupTest
+{
+    private final static long TIMEOUT = 10000;
+
+    private IsolatedContext mContext;
+    private TaskProvider mProvider;
+    private String mAuthority;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mContext = new IsolatedContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase("tasks.db");
+        mAuthority = AuthorityUtil.taskAuthority(mContext);
+
+        ProviderInfo providerInfo = new ProviderInfo();
+        providerInfo.authority = mAuthority;
+        mProvider = new TaskProvider();
+        mProvider.attachInfo(mContext, providerInfo);
+        mContext.mResolver.addProvider(mAuthority, mProvider);
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        AccountManager.get(mContext).removeOnAccountsUpdatedListener(mProvider);
+        mProvider.getDatabaseHelper().close();
+        mContext.deleteDatabase("tasks.db");
+        mContext.getSharedPreferences("org.dmfs.provider.tasks", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+
+    /**
+     * Test that onCreate doesn't access the database and the account manager.
+     */
+    @Test
+    public void testOnCreate() throws Exception
+    {
+        assertThat(mContext.mDatabaseAccess.get(), is(0));
+        assertThat(mContext.mAccountManagerAccess.get(), is(0));
+    }
+
+
+    /**
+     * Test that the notification alarm is planned when the provider is used for the first time and that reopening the database doesn't start the background
+     * work again.
+     */
+    @Test
+    public void testFirstUse() throws Exception
+    {
+        SharedPreferences prefs = mContext.getSharedPreferences("org.dmfs.provider.tasks", Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+
+        try (Cursor cursor = mProvider.query(Tasks.getContentUri(mAuthority), null, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(0));
+        }
+        assertThat(mContext.mAccountManagerAccess.get(), is(1));
+
+        // the alarm update runs in the background and stores the time of the last alarm when there is no upcoming alarm
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (prefs.getAll().isEmpty() && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+        }
+        assertThat(prefs.getAll().isEmpty(), is(false));
+
+        // close and reopen the database
+        mProvider.getDatabaseHelper().close();
+        try (Cursor cursor = mProvider.query(Tasks.getContentUri(mAuthority), null, null, null, null))
+        {
+            assertThat(cursor.getCount(), is(0));
+        }
+        assertThat(mContext.mAccountManagerAccess.get(), is(1));
+    }
+
+
+    /**
+     * A {@link ContextWrapper} with its own database, preferences and {@link ContentResolver}. It counts database and account manager access.
+     */
+    private final static class IsolatedContext extends ContextWrapper
+    {
+        private final static String PREFIX = "startup_test_";
+
+        private final MockContentResolver mResolver;
+        private final AtomicInteger mDatabaseAccess = new AtomicInteger();
+        private final AtomicInteger mAccountManagerAccess = new AtomicInteger();
+
+
+        IsolatedContext(Context base)
+        {
+            super(base);
+            mResolver = new MockContentResolver(this);
+        }
+
+
+        @Override
+        public Context getApplicationContext()
+        {
+            return this;
+        }
+
+
+        @Override
+        public ContentResolver getContentResolver()
+        {
+            return mResolver;
+        }
+
+
+        @Override
+        public File getDatabasePath(String name)
+        {
+            mDatabaseAccess.incrementAndGet();
+            return super.getDatabasePath(PREFIX + name);
+        }
+
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory)
+        {
+            mDatabaseAccess.incrementAndGet();
+            return super.openOrCreateDatabase(PREFIX + name, mode, factory);
+        }
+
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler)
+        {
+            mDatabaseAccess.incrementAndGet();
+            return super.openOrCreateDatabase(PREFIX + name, mode, factory, errorHandler);
+        }
+
+
+        @Override
+        public boolean deleteDatabase(String name)
+        {
+            return super.deleteDatabase(PREFIX + name);
+        }
+
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode)
+        {
+            return super.getSharedPreferences(PREFIX + name, mode);
+        }
+
+
+        @Override
+        public Object getSystemService(String name)
+        {
+            if (Context.ACCOUNT_SERVICE.equals(name))
+            {
+                mAccountManagerAccess.incrementAndGet();
+            }
+            return super.getSystemService(name);
+        }
+    }
+}
@@ -908,6 +908,54 @@ public class TaskProviderTest
     }
 
 
+    /**
+     * Move multiple tasks to another list with a single update.
+     */
+    @Test
+    public void testBulkMoveTasks() throws Exception
+    {
+        Table<TaskLists> taskListsTable = new Synced<>(testAccount, new TaskListsTable(mAuthority));
+        Table<Tasks> tasksTable = new Synced<>(testAccount, new TasksTable(mAuthority));
+
+        RowSnapshot<TaskLists> taskListOld = new VirtualRowSnapshot<>(taskListsTable);
+        RowSnapshot<TaskLists> taskListNew = new VirtualRowSnapshot<>(taskListsTable);
+        RowSnapshot<Tasks> syncedTask = new VirtualRowSnapshot<>(new TaskListScoped(taskListOld, tasksTable));
+        RowSnapshot<Tasks> newTask = new VirtualRowSnapshot<>(new TaskListScoped(taskListOld, tasksTable));
+        OperationsQueue queue = new BasicOperationsQueue(mClient);
+
+        // create two lists, a synced and a new task in the first list
+        queue.enqueue(new Seq<>(
+                new Put<>(taskListOld, new NameData("list1")),
+                new Put<>(taskListNew, new NameData("list2")),
+                new Put<>(syncedTask, new Composite<>(
+                        new SyncIdData("syncid"),
+                        new TitleData("synced"))),
+                new Put<>(newTask, new TitleData("new"))));
+        queue.flush();
+
+        assertThat(new SingletonIterable<>(
+                // move all tasks of the old list to the new list, not as a sync adapter
+                new BulkUpdate<>(new TasksTable(mAuthority), new Referring<>(Tasks.LIST_ID, taskListNew), new ReferringTo<>(Tasks.LIST_ID, taskListOld))
+        ), resultsIn(queue,
+                // assert the old list contains a deleted entry for the synced task only
+                new Counted<>(1,
+                        new AssertRelated<>(
+                                tasksTable,
+                                Tasks.LIST_ID,
+                                taskListOld,
+                                new Composite<>(
+                                        new TitleData("synced"),
+                                        new SyncIdData("syncid"),
+                                        new CharSequenceRowData<>(Tasks._DELETED, "1")))),
+                // assert the new list contains both tasks without sync id
+                new Counted<>(2, new AssertRelated<>(tasksTable, Tasks.LIST_ID, taskListNew, new CharSequenceRowData<>(Tasks._DIRTY, "1"))),
+                new Counted<>(1, new AssertRelated<>(tasksTable, Tasks.LIST_ID, taskListNew, new TitleData("synced"))),
+                new Counted<>(0, new AssertRelated<>(tasksTable, Tasks.LIST_ID, taskListNew, new SyncIdData("syncid"))),
+                new Counted<>(2, new AssertRelated<>(new InstanceTable(mAuthority), Tasks.LIST_ID, taskListNew))
+        ));
+    }
+
+
     /**
      * Create task with start and due, check datetime values including generated duration.
      */
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.TaskColumns;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A {@link CursorWrapper} which adds a {@link TaskColumns#ENCODED_PROPERTIES} column to a task or instance {@link Cursor}.
+ * <p>
+ * The properties of all tasks in the {@link Cursor} are loaded with a few <code>IN</code> queries, so each task is returned only once, no matter how many
+ * properties it has.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class BatchedPropertiesCursor extends CursorWrapper
+{
+    /**
+     * The maximum number of task ids per query.
+     */
+    private final static int CHUNK_SIZE = 500;
+
+    private final Map<Long, String> mProperties;
+    private final int mTaskIdColumn;
+    private final int mPropertiesColumn;
+    private final String[] mColumnNames;
+
+
+    /**
+     * Creates a {@link BatchedPropertiesCursor}.
+     *
+     * @param db
+     *         The database to load the properties from.
+     * @param cursor
+     *         The task or instance {@link Cursor}.
+     * @param taskIdColumn
+     *         The index of the column that contains the task id.
+     */
+    BatchedPropertiesCursor(SQLiteDatabase db, Cursor cursor, int taskIdColumn)
+    {
+        super(cursor);
+        mTaskIdColumn = taskIdColumn;
+        mPropertiesColumn = cursor.getColumnCount();
+        mColumnNames = Arrays.copyOf(cursor.getColumnNames(), mPropertiesColumn + 1);
+        mColumnNames[mPropertiesColumn] = TaskColumns.ENCODED_PROPERTIES;
+
+        // collect the task ids, instances of the same task share the same properties
+        long[] taskIds = new long[cursor.getCount()];
+        int count = 0;
+        for (int i = 0; cursor.moveToPosition(i); ++i)
+        {
+            if (!cursor.isNull(taskIdColumn))
+            {
+                taskIds[count++] = cursor.getLong(taskIdColumn);
+            }
+        }
+        cursor.moveToPosition(-1);
+        Arrays.sort(taskIds, 0, count);
+
+        Map<Long, JSONArray> properties = new HashMap<>(count * 2);
+        StringBuilder selection = new StringBuilder(CHUNK_SIZE * 8);
+        int i = 0;
+        while (i < count)
+        {
+            selection.setLength(0);
+            selection.append(Properties.TASK_ID).append(" in (");
+            for (int chunk = 0; chunk < CHUNK_SIZE && i < count; ++i)
+            {
+                if (i > 0 && taskIds[i] == taskIds[i - 1])
+                {
+                    // skip duplicates
+                    continue;
+                }
+                if (chunk++ > 0)
+                {
+                    selection.append(',');
+                }
+                selection.append(taskIds[i]);
+            }
+            selection.append(')');
+
+            Cursor propertyCursor = db.query(Tables.PROPERTIES, null, selection.toString(), null, null, null, Properties.PROPERTY_ID);
+            try
+            {
+                loadProperties(propertyCursor, properties);
+            }
+            finally
+            {
+                propertyCursor.close();
+            }
+        }
+
+        mProperties = new HashMap<>(properties.size() * 2);
+        for (Map.Entry<Long, JSONArray> entry : properties.entrySet())
+        {
+            mProperties.put(entry.getKey(), entry.getValue().toString());
+        }
+    }
+
+
+    private static void loadProperties(Cursor propertyCursor, Map<Long, JSONArray> properties)
+    {
+        int taskIdColumn = propertyCursor.getColumnIndex(Properties.TASK_ID);
+        String[] columns = propertyCursor.getColumnNames();
+        while (propertyCursor.moveToNext())
+        {
+            JSONObject property = new JSONObject();
+            try
+            {
+                for (int column = 0; column < columns.length; ++column)
+                {
+                    if (column == taskIdColumn)
+                    {
+                        continue;
+                    }
+                    switch (propertyCursor.getType(column))
+                    {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            property.put(columns[column], propertyCursor.getLong(column));
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            property.put(columns[column], propertyCursor.getDouble(column));
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            property.put(columns[column], propertyCursor.getString(column));
+                            break;
+                        default:
+                            // null values are omitted, properties don't contain any blobs
+                            break;
+                    }
+                }
+            }
+            catch (JSONException e)
+            {
+                throw new RuntimeException("Can't encode property", e);
+            }
+
+            long taskId = propertyCursor.getLong(taskIdColumn);
+            JSONArray taskProperties = properties.get(taskId);
+            if (taskProperties == null)
+            {
+                taskProperties = new JSONArray();
+                properties.put(taskId, taskProperties);
+            }
+            taskProperties.put(property);
+        }
+    }
+
+
+    @Override
+    public int getColumnCount()
+    {
+        return mColumnNames.length;
+    }
+
+
+    @Override
+    public String[] getColumnNames()
+    {
+        return mColumnNames.clone();
+    }
+
+
+    @Override
+    public String getColumnName(int columnIndex)
+    {
+        return columnIndex == mPropertiesColumn ? TaskColumns.ENCODED_PROPERTIES : super.getColumnName(columnIndex);
+    }
+
+
+    @Override
+    public int getColumnIndex(String columnName)
+    {
+        return TaskColumns.ENCODED_PROPERTIES.equals(columnName) ? mPropertiesColumn : super.getColumnIndex(columnName);
+    }
+
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException
+    {
+        return TaskColumns.ENCODED_PROPERTIES.equals(columnName) ? mPropertiesColumn : super.getColumnIndexOrThrow(columnName);
+    }
+
+
+    @Override
+    public int getType(int columnIndex)
+    {
+        if (columnIndex == mPropertiesColumn)
+        {
+            return isNull(columnIndex) ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_STRING;
+        }
+        return super.getType(columnIndex);
+    }
+
+
+    @Override
+    public boolean isNull(int columnIndex)
+    {
+        return columnIndex == mPropertiesColumn ? getString(columnIndex) == null : super.isNull(columnIndex);
+    }
+
+
+    @Override
+    public String getString(int columnIndex)
+    {
+        if (columnIndex == mPropertiesColumn)
+        {
+            return super.isNull(mTaskIdColumn) ? null : mProperties.get(super.getLong(mTaskIdColumn));
+        }
+        return super.getString(columnIndex);
+    }
+}
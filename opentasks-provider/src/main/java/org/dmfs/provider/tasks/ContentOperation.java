@@ -29,6 +29,7 @@ import android.net.Uri;
 import android.os.Handler;
 import android.util.Log;
 
+import org.dmfs.provider.tasks.TaskDatabaseHelper.UpcomingTriggers;
 import org.dmfs.provider.tasks.model.CursorContentValuesInstanceAdapter;
 import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
 import org.dmfs.provider.tasks.model.InstanceAdapter;
@@ -37,8 +38,10 @@ import org.dmfs.provider.tasks.processors.tasks.Instantiating;
 import org.dmfs.rfc5545.DateTime;
 import org.dmfs.tasks.contract.TaskContract;
 import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 
+import java.util.List;
 import java.util.TimeZone;
 
 
@@ -90,11 +93,11 @@ public enum ContentOperation
             String lastAlarmString = Long.toString(lastAlarm.getInstance());
             String nowString = Long.toString(now.getInstance());
 
-            // load all tasks that have started or became due since the last time we've shown a notification.
-            Cursor instancesCursor = db.query(TaskDatabaseHelper.Tables.INSTANCE_VIEW, null, "((" + TaskContract.Instances.INSTANCE_DUE_SORTING + ">? and "
-                    + TaskContract.Instances.INSTANCE_DUE_SORTING + "<=?) or (" + TaskContract.Instances.INSTANCE_START_SORTING + ">? and "
-                    + TaskContract.Instances.INSTANCE_START_SORTING + "<=?)) and " + Instances.IS_CLOSED + " = 0 and " + Tasks._DELETED + "=0", new String[] {
-                    lastAlarmString, nowString, lastAlarmString, nowString }, null, null, null);
+            // load all tasks that have started or became due since the last time we've shown a notification, the upcoming triggers contain open tasks only
+            Cursor instancesCursor = db.query(TaskDatabaseHelper.Tables.INSTANCE_VIEW, null,
+                    Instances._ID + " in (select " + UpcomingTriggers.INSTANCE_ID + " from " + TaskDatabaseHelper.Tables.UPCOMING_TRIGGERS + " where "
+                            + UpcomingTriggers.TRIGGER_TIME + ">? and " + UpcomingTriggers.TRIGGER_TIME + "<=?)",
+                    new String[] { lastAlarmString, nowString }, null, null, null);
 
             try
             {
@@ -198,59 +201,12 @@ public enum ContentOperation
                 saveLastAlarmTime(context, now);
             }
 
-            String lastAlarmString = Long.toString(lastAlarm.getInstance());
-
-            DateTime nextAlarm = null;
+            // find the next visible task instance that starts or becomes due
+            DateTime nextAlarm = nextAlarm(db, lastAlarm);
 
-            // find the next task that starts
-            Cursor nextInstanceStartCursor = db.query(TaskDatabaseHelper.Tables.INSTANCE_VIEW, null, TaskContract.Instances.INSTANCE_START_SORTING + ">? and "
-                            + Instances.IS_CLOSED + " = 0 and " + Tasks._DELETED + "=0", new String[] { lastAlarmString }, null, null,
-                    TaskContract.Instances.INSTANCE_START_SORTING, "1");
-
-            try
-            {
-                if (nextInstanceStartCursor.moveToNext())
-                {
-                    TaskAdapter task = new CursorContentValuesTaskAdapter(TaskAdapter.INSTANCE_TASK_ID.getFrom(nextInstanceStartCursor),
-                            nextInstanceStartCursor, null);
-                    nextAlarm = task.valueOf(TaskAdapter.INSTANCE_START);
-                    if (!nextAlarm.isFloating())
-                    {
-                        nextAlarm = nextAlarm.shiftTimeZone(localTimeZone);
-                    }
-                }
-            }
-            finally
+            if (nextAlarm != null && !nextAlarm.isFloating())
             {
-                nextInstanceStartCursor.close();
-            }
-
-            // find the next task that's due
-            Cursor nextInstanceDueCursor = db.query(TaskDatabaseHelper.Tables.INSTANCE_VIEW, null, TaskContract.Instances.INSTANCE_DUE_SORTING + ">? and "
-                            + Instances.IS_CLOSED + " = 0 and " + Tasks._DELETED + "=0", new String[] { lastAlarmString }, null, null,
-                    TaskContract.Instances.INSTANCE_DUE_SORTING, "1");
-
-            try
-            {
-                if (nextInstanceDueCursor.moveToNext())
-                {
-                    TaskAdapter task = new CursorContentValuesTaskAdapter(TaskAdapter.INSTANCE_TASK_ID.getFrom(nextInstanceDueCursor), nextInstanceDueCursor,
-                            null);
-                    DateTime nextDue = task.valueOf(TaskAdapter.INSTANCE_DUE);
-                    if (!nextDue.isFloating())
-                    {
-                        nextDue = nextDue.shiftTimeZone(localTimeZone);
-                    }
-
-                    if (nextAlarm == null || nextAlarm.getInstance() > nextDue.getInstance())
-                    {
-                        nextAlarm = nextDue;
-                    }
-                }
-            }
-            finally
-            {
-                nextInstanceDueCursor.close();
+                nextAlarm = nextAlarm.shiftTimeZone(localTimeZone);
             }
 
             if (nextAlarm != null)
@@ -280,6 +236,75 @@ public enum ContentOperation
             return new DateTime(TimeZone.getDefault(), prefs.getLong(PREFS_KEY_LAST_ALARM_TIMESTAMP, System.currentTimeMillis()));
         }
 
+    }),
+
+    /**
+     * Rebuilds the search index entries of all tasks. Each run processes only a chunk of tasks and then enqueues the next run. The progress is persisted,
+     * so an interrupted rebuild is resumed by {@link #resumeSearchIndexRebuild(Context)} when the provider starts. Firing this while a rebuild is in progress
+     * continues that rebuild. N-grams which are no longer used after the rebuild are removed by the next {@link Maintenance} run.
+     * <p>
+     * The chunks are written outside of any provider transaction, so the {@link TaskProvider} drops its search sessions and notifies the observers of the
+     * tasks after each run.
+     */
+    REBUILD_SEARCH_INDEX(new OperationHandler()
+    {
+        @Override
+        public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
+        {
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            long position = prefs.getLong(PREFS_KEY_SEARCH_INDEX_REBUILD_POSITION, -1);
+
+            if (values != null && values.containsKey(KEY_SEARCH_INDEX_REBUILD_POSITION)
+                    && values.getAsLong(KEY_SEARCH_INDEX_REBUILD_POSITION) != position)
+            {
+                // this continues a rebuild which has been taken over (or finished) by another run already
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            db.beginTransaction();
+            try
+            {
+                position = FTSDatabaseHelper.rebuildTaskFTSEntries(db, position, SEARCH_INDEX_CHUNK_SIZE);
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+            Log.i("TaskProvider", "time to rebuild search index chunk: " + (System.currentTimeMillis() - start) + " ms");
+
+            if (position < 0)
+            {
+                // done
+                prefs.edit().remove(PREFS_KEY_SEARCH_INDEX_REBUILD_POSITION).apply();
+            }
+            else
+            {
+                // store the progress and enqueue the next chunk, this gives other operations a chance to run in between
+                prefs.edit().putLong(PREFS_KEY_SEARCH_INDEX_REBUILD_POSITION, position).apply();
+                ContentValues next = new ContentValues(1);
+                next.put(KEY_SEARCH_INDEX_REBUILD_POSITION, position);
+                REBUILD_SEARCH_INDEX.fire(context, next);
+            }
+        }
+    }),
+
+    /**
+     * A developer tool which logs all frequently executed queries that result in a full table scan on the current database. See {@link QueryPlanAdvisor}.
+     */
+    ADVISE_INDICES(new OperationHandler()
+    {
+        @Override
+        public void handleOperation(Context context, Uri uri, SQLiteDatabase db, ContentValues values)
+        {
+            List<String> scans = QueryPlanAdvisor.fullTableScans(db, QueryPlanAdvisor.HOT_QUERIES);
+            for (String scan : scans)
+            {
+                Log.w("TaskProvider", "full table scan: " + scan);
+            }
+            Log.i("TaskProvider", scans.size() + " of " + QueryPlanAdvisor.HOT_QUERIES.size() + " frequent queries result in a full table scan");
+        }
     });
 
     /**
@@ -299,6 +324,17 @@ public enum ContentOperation
 
     private static final String PREFS_NAME = "org.dmfs.provider.tasks";
     private static final String PREFS_KEY_LAST_ALARM_TIMESTAMP = "org.dmfs.provider.tasks.prefs.LAST_ALARM_TIMESTAMP";
+    private static final String PREFS_KEY_SEARCH_INDEX_REBUILD_POSITION = "org.dmfs.provider.tasks.prefs.SEARCH_INDEX_REBUILD_POSITION";
+
+    /**
+     * The key of the position value passed to subsequent runs of {@link #REBUILD_SEARCH_INDEX}.
+     */
+    private static final String KEY_SEARCH_INDEX_REBUILD_POSITION = "position";
+
+    /**
+     * The number of tasks to process in a single transaction when rebuilding the search index.
+     */
+    private static final int SEARCH_INDEX_CHUNK_SIZE = 200;
 
 
     ContentOperation(OperationHandler handler)
@@ -321,6 +357,84 @@ public enum ContentOperation
     }
 
 
+    /**
+     * Resumes an interrupted rebuild of the search index. Does nothing if no rebuild is in progress.
+     *
+     * @param context
+     *         A {@link Context}.
+     */
+    static void resumeSearchIndexRebuild(Context context)
+    {
+        if (context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).contains(PREFS_KEY_SEARCH_INDEX_REBUILD_POSITION))
+        {
+            REBUILD_SEARCH_INDEX.fire(context, null);
+        }
+    }
+
+
+    /**
+     * Returns the start or due date-time of the first instance that starts or becomes due after the given date-time, or {@code null} if there is no such
+     * instance.
+     * <p>
+     * The upcoming triggers are joined with the instances, tasks and lists, so the seek never returns an instance which is not visible in the instances view,
+     * like the instances of a deleted list which have not been removed by the {@link ListCleaner} yet.
+     *
+     * @param db
+     *         The task database.
+     * @param lastAlarm
+     *         The date-time of the last alarm.
+     *
+     * @return The date-time of the next alarm or {@code null}.
+     */
+    static DateTime nextAlarm(SQLiteDatabase db, DateTime lastAlarm)
+    {
+        Cursor nextTriggerCursor = db.query(TaskDatabaseHelper.Tables.UPCOMING_TRIGGERS
+                        + " JOIN " + TaskDatabaseHelper.Tables.INSTANCES + " ON (" + UpcomingTriggers.INSTANCE_ID + "="
+                        + TaskDatabaseHelper.Tables.INSTANCES + "." + Instances._ID + ")"
+                        + " JOIN " + TaskDatabaseHelper.Tables.TASKS + " ON (" + TaskDatabaseHelper.Tables.INSTANCES + "." + Instances.TASK_ID + "="
+                        + TaskDatabaseHelper.Tables.TASKS + "." + Tasks._ID + ")"
+                        + " JOIN " + TaskDatabaseHelper.Tables.LISTS + " ON (" + TaskDatabaseHelper.Tables.TASKS + "." + Tasks.LIST_ID + "="
+                        + TaskDatabaseHelper.Tables.LISTS + "." + TaskLists._ID + ")",
+                new String[] { UpcomingTriggers.INSTANCE_ID, UpcomingTriggers.TRIGGER_TYPE }, UpcomingTriggers.TRIGGER_TIME + ">?",
+                new String[] { Long.toString(lastAlarm.getInstance()) }, null, null, UpcomingTriggers.TRIGGER_TIME, "1");
+
+        try
+        {
+            if (!nextTriggerCursor.moveToNext())
+            {
+                return null;
+            }
+            return instanceTrigger(db, nextTriggerCursor.getLong(0), nextTriggerCursor.getInt(1) == UpcomingTriggers.TYPE_START);
+        }
+        finally
+        {
+            nextTriggerCursor.close();
+        }
+    }
+
+
+    /**
+     * Returns the start or due date of the given instance.
+     */
+    private static DateTime instanceTrigger(SQLiteDatabase db, long instanceId, boolean start)
+    {
+        Cursor instanceCursor = db.query(TaskDatabaseHelper.Tables.INSTANCE_VIEW, null, Instances._ID + "=" + instanceId, null, null, null, null);
+        try
+        {
+            if (!instanceCursor.moveToNext())
+            {
+                return null;
+            }
+            TaskAdapter task = new CursorContentValuesTaskAdapter(TaskAdapter.INSTANCE_TASK_ID.getFrom(instanceCursor), instanceCursor, null);
+            return task.valueOf(start ? TaskAdapter.INSTANCE_START : TaskAdapter.INSTANCE_DUE);
+        }
+        finally
+        {
+            instanceCursor.close();
+        }
+    }
+
+
     /**
      * Run the operation on the given handler.
      *
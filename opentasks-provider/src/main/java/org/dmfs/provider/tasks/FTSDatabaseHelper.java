@@ -18,7 +18,9 @@ package org.dmfs.provider.tasks;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
 import org.dmfs.jems.iterable.decorators.Chunked;
@@ -31,9 +33,15 @@ import org.dmfs.tasks.contract.TaskContract.TaskColumns;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 
@@ -51,7 +59,29 @@ public class FTSDatabaseHelper
      */
     private final static int NGRAM_SEARCH_CHUNK_SIZE = 500;
 
-    private final static float SEARCH_RESULTS_MIN_SCORE = 0.33f;
+    /**
+     * The minimum score of search results, unless the caller asks for a different one.
+     */
+    public final static float DEFAULT_SEARCH_RESULTS_MIN_SCORE = 0.33f;
+
+    /**
+     * The tolerance to use when comparing the score of a continuation token. Scores are fractions of the number of search n-grams, so two different scores
+     * are always much further apart than this.
+     */
+    private final static double SCORE_EPSILON = 1e-9;
+
+    /**
+     * The number of scored tasks to join with the instance view in addition to twice the requested number of results. Some of the best scored tasks may be
+     * filtered by the selection of the caller or may not be visible, the headroom usually leaves enough tasks to fill the page anyway.
+     */
+    private final static int SCORES_LIMIT_HEADROOM = 50;
+
+    /**
+     * The database version which introduced the current content of the search index. The search index of databases which are upgraded from an older
+     * version is rebuilt in the background, see {@link ContentOperation#REBUILD_SEARCH_INDEX}. Bump this whenever the way searchable texts are split into
+     * n-grams changes.
+     */
+    public final static int SEARCH_INDEX_VERSION = 8;
 
     /**
      * A Generator for 3-grams.
@@ -135,20 +165,88 @@ public class FTSDatabaseHelper
             + ") REFERENCES " + Tables.TASKS + "(" + TaskColumns._ID + ") UNIQUE (" + FTSContentColumns.TASK_ID + ", " + FTSContentColumns.TYPE + ", "
             + FTSContentColumns.PROPERTY_ID + ") ON CONFLICT IGNORE )";
 
+    /**
+     * SQL command to insert a relation between an ngram and a task. Duplicates are ignored by the unique constraint of the table.
+     */
+    private final static String SQL_INSERT_NGRAM_RELATION = "INSERT INTO " + FTS_CONTENT_TABLE + " (" + FTSContentColumns.TASK_ID + ", "
+            + FTSContentColumns.NGRAM_ID + ", " + FTSContentColumns.TYPE + ", " + FTSContentColumns.PROPERTY_ID + ") VALUES (?, ?, ?, ?)";
+
     /**
      * SQL command to create the table that stores the NGRAMS
      */
     private final static String SQL_CREATE_NGRAM_TABLE = "CREATE TABLE " + FTS_NGRAM_TABLE + "( " + NGramColumns.NGRAM_ID
             + " Integer PRIMARY KEY AUTOINCREMENT, " + NGramColumns.TEXT + " Text)";
 
-    // FIXME: at present the minimum score is hard coded can we leave that decision to the caller?
-    private final static String SQL_RAW_QUERY_SEARCH_TASK = "SELECT %s " + ", (1.0*count(DISTINCT " + NGramColumns.NGRAM_ID + ")/?) as " + TaskContract.Tasks.SCORE + " from "
+    /**
+     * Alias of the sub-query which calculates the scores of the matching tasks.
+     */
+    private final static String SEARCH_SCORES = "search_scores";
+
+    /**
+     * SQL query to calculate the scores of the tasks matching an n-gram selection. The having clause can be extended, e.g. by {@link
+     * #SQL_SEARCH_SCORES_LIMIT}.
+     */
+    final static String SQL_SEARCH_SCORES = "SELECT " + FTSContentColumns.TASK_ID + ", min(" + NGramColumns.TEXT + ") as " + NGramColumns.TEXT
+            + ", (1.0*count(DISTINCT " + FTS_NGRAM_TABLE + "." + NGramColumns.NGRAM_ID + ")/?) as " + TaskContract.Tasks.SCORE + " from " + FTS_NGRAM_TABLE
+            + " join " + FTS_CONTENT_TABLE + " on (" + FTS_NGRAM_TABLE + "." + NGramColumns.NGRAM_ID + "=" + FTS_CONTENT_TABLE + "."
+            + FTSContentColumns.NGRAM_ID + ") where %s group by " + FTSContentColumns.TASK_ID + " having " + TaskContract.Tasks.SCORE + " >= %s%s";
+
+    /**
+     * The clause to limit the scores of the search query to the best scored tasks. This is appended to the having clause of {@link #SQL_SEARCH_SCORES}.
+     */
+    final static String SQL_SEARCH_SCORES_LIMIT = " order by " + TaskContract.Tasks.SCORE + " desc, " + FTSContentColumns.TASK_ID + " limit %d";
+
+    /**
+     * SQL query to search for tasks. The scores are calculated on the narrow FTS tables first, only the tasks with a sufficient score are joined with the
+     * instance view. This way the wide view rows are not multiplied by the number of matching n-grams. With the default order a limited result also limits
+     * the scores, so only the best scored tasks are joined.
+     */
+    private final static String SQL_RAW_QUERY_SEARCH_TASK = "SELECT %s from (" + SQL_SEARCH_SCORES + ") as " + SEARCH_SCORES + " join "
+            + Tables.INSTANCE_VIEW + " on (" + Tables.INSTANCE_VIEW + "." + TaskContract.Instances.TASK_ID + " = " + SEARCH_SCORES + "."
+            + FTSContentColumns.TASK_ID + ") where %s group by " + TaskContract.Instances.TASK_ID + " having " + Tasks.VISIBLE + " = 1%s order by %s%s;";
+
+    /**
+     * SQL query to load the search results of a {@link SearchSession}. The smallest n-gram hit and the score of each task have already been calculated by the
+     * session, they are passed in as case expressions.
+     */
+    private final static String SQL_RAW_QUERY_SESSION_SEARCH_TASK = "SELECT " + Tables.INSTANCE_VIEW + ".*, (%s) as " + NGramColumns.TEXT + ", (%s) as "
+            + TaskContract.Tasks.SCORE + " from " + Tables.INSTANCE_VIEW + " where " + TaskContract.Instances.TASK_ID + " in (%s) and %s group by "
+            + TaskContract.Instances.TASK_ID + " having " + Tasks.VISIBLE + " = 1%s order by %s%s;";
+
+    /**
+     * SQL query to load the tasks containing specific n-grams.
+     */
+    private final static String SQL_RAW_QUERY_NGRAM_HITS = "SELECT DISTINCT " + NGramColumns.TEXT + ", " + FTSContentColumns.TASK_ID + " from "
             + FTS_NGRAM_TABLE + " join " + FTS_CONTENT_TABLE + " on (" + FTS_NGRAM_TABLE + "." + NGramColumns.NGRAM_ID + "=" + FTS_CONTENT_TABLE + "."
-            + FTSContentColumns.NGRAM_ID + ") join " + Tables.INSTANCE_VIEW + " on (" + Tables.INSTANCE_VIEW + "." + TaskContract.Instances.TASK_ID + " = " + FTS_CONTENT_TABLE + "."
-            + FTSContentColumns.TASK_ID + ") where %s group by " + TaskContract.Instances.TASK_ID + " having " + TaskContract.Tasks.SCORE + " >= " + SEARCH_RESULTS_MIN_SCORE
-            + " and " + Tasks.VISIBLE + " = 1 order by %s;";
+            + FTSContentColumns.NGRAM_ID + ") where " + NGramColumns.TEXT + " in (%s);";
+
+    /**
+     * The maximum number of results of a {@link SearchSession} we load by id. Sessions returning more results fall back to a regular search query.
+     */
+    private final static int MAX_SESSION_RESULTS = 500;
+
+    /**
+     * The having clause to continue a search after a specific result, i.e. to return only results with a lower score or the same score and a larger task id.
+     */
+    private final static String SQL_SEARCH_CONTINUATION_CLAUSE = " and (" + TaskContract.Tasks.SCORE + " < %s or (" + TaskContract.Tasks.SCORE + " <= %s and "
+            + "%s > %d))";
+
+    private final static String SQL_RAW_QUERY_SEARCH_TASK_DEFAULT_PROJECTION = Tables.INSTANCE_VIEW + ".*, " + SEARCH_SCORES + "." + NGramColumns.TEXT + ", "
+            + SEARCH_SCORES + "." + TaskContract.Tasks.SCORE;
+
+    /**
+     * SQL command to delete a chunk of n-grams which are no longer referenced by any task.
+     */
+    private final static String SQL_DELETE_ORPHANED_NGRAMS = "DELETE FROM " + FTS_NGRAM_TABLE + " WHERE " + NGramColumns.NGRAM_ID + " IN (SELECT "
+            + NGramColumns.NGRAM_ID + " FROM " + FTS_NGRAM_TABLE + " WHERE NOT EXISTS (SELECT 1 FROM " + FTS_CONTENT_TABLE + " WHERE "
+            + FTS_CONTENT_TABLE + "." + FTSContentColumns.NGRAM_ID + " = " + FTS_NGRAM_TABLE + "." + NGramColumns.NGRAM_ID + ") LIMIT %d)";
 
-    private final static String SQL_RAW_QUERY_SEARCH_TASK_DEFAULT_PROJECTION = Tables.INSTANCE_VIEW + ".* ," + FTS_NGRAM_TABLE + "." + NGramColumns.TEXT;
+    /**
+     * SQL query to count the n-grams which are no longer referenced by any task.
+     */
+    private final static String SQL_COUNT_ORPHANED_NGRAMS = "SELECT count(*) FROM " + FTS_NGRAM_TABLE + " WHERE NOT EXISTS (SELECT 1 FROM "
+            + FTS_CONTENT_TABLE + " WHERE " + FTS_CONTENT_TABLE + "." + FTSContentColumns.NGRAM_ID + " = " + FTS_NGRAM_TABLE + "." + NGramColumns.NGRAM_ID
+            + ")";
 
     private final static String SQL_CREATE_SEARCH_TASK_DELETE_TRIGGER = "CREATE TRIGGER search_task_delete_trigger AFTER DELETE ON " + Tables.TASKS + " BEGIN "
             + " DELETE FROM " + FTS_CONTENT_TABLE + " WHERE " + FTSContentColumns.TASK_ID + " =  old." + Tasks._ID + "; END";
@@ -199,8 +297,8 @@ public class FTSDatabaseHelper
     {
         if (oldVersion < 8)
         {
+            // the content is added by the background rebuild, see SEARCH_INDEX_VERSION
             initializeFTS(db);
-            initializeFTSContent(db);
         }
         if (oldVersion < 16)
         {
@@ -237,20 +335,91 @@ public class FTSDatabaseHelper
 
 
     /**
-     * Creates the FTS entries for the existing tasks.
+     * Deletes up to {@code chunkSize} n-grams which are no longer referenced by any task. The triggers only remove the relations of deleted tasks and
+     * properties, so n-grams would otherwise accumulate forever.
      *
      * @param db
      *         The writable {@link SQLiteDatabase}.
+     * @param chunkSize
+     *         The maximum number of n-grams to delete.
+     *
+     * @return The number of deleted n-grams. If this is less than {@code chunkSize} there are no more orphaned n-grams.
      */
-    private static void initializeFTSContent(SQLiteDatabase db)
+    public static int deleteOrphanedNgrams(SQLiteDatabase db, int chunkSize)
     {
-        String[] task_projection = new String[] { Tasks._ID, Tasks.TITLE, Tasks.DESCRIPTION, Tasks.LOCATION };
-        Cursor c = db.query(Tables.TASKS_PROPERTY_VIEW, task_projection, null, null, null, null, null);
-        while (c.moveToNext())
+        if (chunkSize <= 0)
         {
-            insertTaskFTSEntries(db, c.getLong(0), c.getString(1), c.getString(2), c.getString(3));
+            throw new IllegalArgumentException("Chunk size must be > 0");
+        }
+
+        SQLiteStatement statement = db.compileStatement(String.format(Locale.ENGLISH, SQL_DELETE_ORPHANED_NGRAMS, chunkSize));
+        try
+        {
+            return statement.executeUpdateDelete();
+        }
+        finally
+        {
+            statement.close();
         }
-        c.close();
+    }
+
+
+    /**
+     * Rebuilds the searchable entries of up to {@code chunkSize} tasks with a row id larger than {@code lastTaskId}. Tasks are processed in the order of
+     * their row ids, so a rebuild can be resumed at any time by passing the result of the previous call.
+     * <p>
+     * Note, this only rebuilds the entries of title, location and description. The entries of properties are maintained by their {@link
+     * org.dmfs.provider.tasks.handler.PropertyHandler}s.
+     *
+     * @param db
+     *         The writable {@link SQLiteDatabase}.
+     * @param lastTaskId
+     *         The row id of the last task that has been processed or {@code -1} to start with the first task.
+     * @param chunkSize
+     *         The maximum number of tasks to process.
+     *
+     * @return The row id of the last task that has been processed or {@code -1} if there are no more tasks.
+     */
+    public static long rebuildTaskFTSEntries(SQLiteDatabase db, long lastTaskId, int chunkSize)
+    {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Chunk size must be > 0");
+        }
+
+        long result = -1;
+        try (Cursor c = db.query(Tables.TASKS, new String[] { Tasks._ID, Tasks.TITLE, Tasks.DESCRIPTION, Tasks.LOCATION }, Tasks._ID + " > ?",
+                new String[] { String.valueOf(lastTaskId) }, null, null, Tasks._ID, String.valueOf(chunkSize)))
+        {
+            while (c.moveToNext())
+            {
+                result = c.getLong(0);
+                // update all entries, so entries of values which have been removed are removed too
+                updateEntry(db, result, -1, SearchableTypes.TITLE, c.getString(1));
+                updateEntry(db, result, -1, SearchableTypes.DESCRIPTION, c.getString(2));
+                updateEntry(db, result, -1, SearchableTypes.LOCATION, c.getString(3));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns a human readable summary of the size of the search index.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     *
+     * @return A String with the size statistics of the search index.
+     */
+    public static String indexStatistics(SQLiteDatabase db)
+    {
+        long tasks = DatabaseUtils.queryNumEntries(db, Tables.TASKS);
+        long ngrams = DatabaseUtils.queryNumEntries(db, FTS_NGRAM_TABLE);
+        long relations = DatabaseUtils.queryNumEntries(db, FTS_CONTENT_TABLE);
+        long orphaned = DatabaseUtils.longForQuery(db, SQL_COUNT_ORPHANED_NGRAMS, null);
+        return String.format(Locale.ENGLISH, "%d tasks, %d n-grams (%d orphaned), %d relations (%.1f per task)", tasks, ngrams, orphaned, relations,
+                tasks == 0 ? 0.0 : 1.0 * relations / tasks);
     }
 
 
@@ -439,23 +608,30 @@ public class FTSDatabaseHelper
      */
     private static void addNgrams(SQLiteDatabase db, Set<Long> ngramIds, long taskId, Long propertyId, int contentType)
     {
-        ContentValues values = new ContentValues(4);
-        for (Long ngramId : ngramIds)
+        // bind the values directly instead of boxing them into ContentValues for every ngram, task, type and property are bound only once
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_NGRAM_RELATION);
+        try
         {
-            values.put(FTSContentColumns.TASK_ID, taskId);
-            values.put(FTSContentColumns.NGRAM_ID, ngramId);
-            values.put(FTSContentColumns.TYPE, contentType);
+            insert.bindLong(1, taskId);
+            insert.bindLong(3, contentType);
             if (contentType == SearchableTypes.PROPERTY)
             {
-                values.put(FTSContentColumns.PROPERTY_ID, propertyId);
+                insert.bindLong(4, propertyId);
             }
             else
             {
-                values.putNull(FTSContentColumns.PROPERTY_ID);
+                insert.bindNull(4);
+            }
+            for (Long ngramId : ngramIds)
+            {
+                insert.bindLong(2, ngramId);
+                insert.executeInsert();
             }
-            db.insert(FTS_CONTENT_TABLE, null, values);
         }
-
+        finally
+        {
+            insert.close();
+        }
     }
 
 
@@ -520,6 +696,15 @@ public class FTSDatabaseHelper
      *         The {@link SQLiteDatabase}.
      * @param searchString
      *         The search query string.
+     * @param session
+     *         An optional {@link SearchSession} to reuse the n-gram hits of previous queries, may be <code>null</code>.
+     * @param minScore
+     *         The minimum score of the results.
+     * @param continuation
+     *         An optional continuation token as returned by {@link Tasks#getSearchContinuationToken(double, long)}, may be <code>null</code>.
+     * @param limit
+     *         An optional limit clause in the format of {@link SQLiteDatabase#query(String, String[], String, String[], String, String, String, String)},
+     *         may be <code>null</code>.
      * @param projection
      *         The database projection for the query.
      * @param selection
@@ -531,100 +716,324 @@ public class FTSDatabaseHelper
      *
      * @return A cursor of the task database with the search result.
      */
-    public static Cursor getTaskSearchCursor(SQLiteDatabase db, String searchString, String[] projection, String selection, String[] selectionArgs,
-                                             String sortOrder)
+    public static Cursor getTaskSearchCursor(SQLiteDatabase db, String searchString, SearchSession session, float minScore, String continuation, String limit,
+                                             String[] projection, String selection, String[] selectionArgs, String sortOrder)
     {
-
-        StringBuilder selectionBuilder = new StringBuilder(1024);
-
-        if (!TextUtils.isEmpty(selection))
+        String continuationClause = "";
+        // with the default order we only need the best scored tasks to fill a limited result
+        int resultLimit = continuation != null || sortOrder == null ? resultLimit(limit) : 0;
+        if (continuation != null)
         {
-            selectionBuilder.append(" (");
-            selectionBuilder.append(selection);
-            selectionBuilder.append(") AND (");
+            // keyset paging only works with a well defined order, so we ignore any other sort order in this case
+            continuationClause = continuationClause(continuation, TaskContract.Instances.TASK_ID);
+            sortOrder = Tasks.SCORE + " desc, " + TaskContract.Instances.TASK_ID;
+        }
+        else if (sortOrder == null)
+        {
+            sortOrder = Tasks.SCORE + " desc, " + TaskContract.Instances.TASK_ID;
         }
         else
         {
-            selectionBuilder.append(" (");
+            sortOrder = Tasks.SCORE + " desc, " + sortOrder + ", " + TaskContract.Instances.TASK_ID;
+        }
+        String limitClause = limit == null ? "" : " limit " + limit;
+
+        if (session != null && searchString != null && searchString.length() > 1)
+        {
+            Cursor sessionCursor = getSessionSearchCursor(db, searchString, session, minScore, continuation == null ? resultLimit : 0, continuationClause,
+                    limit, selection, selectionArgs, sortOrder);
+            if (sessionCursor != null)
+            {
+                return sessionCursor;
+            }
+            // too many results for the session, fall back to a regular search
         }
 
         Set<String> ngrams = TRIGRAM_GENERATOR.getNgrams(searchString);
         ngrams.addAll(TETRAGRAM_GENERATOR.getNgrams(searchString));
 
-        String[] queryArgs;
+        // the arguments of the n-gram selection come first, followed by the selection arguments of the caller
+        List<String> queryArgs = new ArrayList<>(ngrams.size() + (selectionArgs == null ? 0 : selectionArgs.length) + 1);
+        queryArgs.add(String.valueOf(ngrams.size()));
 
+        StringBuilder ngramSelection = new StringBuilder(ngrams.size() * 2 + 32);
+        ngramSelection.append(NGramColumns.TEXT);
         if (searchString != null && searchString.length() > 1)
         {
-
-            selectionBuilder.append(NGramColumns.TEXT);
-            selectionBuilder.append(" in (");
-
-            for (int i = 0, count = ngrams.size(); i < count; ++i)
+            ngramSelection.append(" in (");
+            for (String ngram : ngrams)
             {
-                if (i > 0)
+                if (queryArgs.size() > 1)
                 {
-                    selectionBuilder.append(",");
+                    ngramSelection.append(",");
                 }
-                selectionBuilder.append("?");
-
+                ngramSelection.append("?");
+                queryArgs.add(ngram);
             }
+            ngramSelection.append(")");
+        }
+        else
+        {
+            ngramSelection.append(" like ?");
+            queryArgs.add(" " + searchString + "%");
+        }
+
+        StringBuilder selectionBuilder = new StringBuilder(256);
+        if (!TextUtils.isEmpty(selection))
+        {
+            selectionBuilder.append("(").append(selection).append(") AND ");
+        }
+        selectionBuilder.append(Tasks._DELETED).append(" = 0");
+        if (selectionArgs != null)
+        {
+            Collections.addAll(queryArgs, selectionArgs);
+        }
 
-            // selection arguments
-            if (selectionArgs != null && selectionArgs.length > 0)
+        String[] args = queryArgs.toArray(new String[0]);
+        if (resultLimit > 0)
+        {
+            // the continuation only depends on the scores, so it can be applied to the scores as well
+            String scoresClause = (continuation == null ? "" : continuationClause(continuation, FTSContentColumns.TASK_ID))
+                    + String.format(Locale.ENGLISH, SQL_SEARCH_SCORES_LIMIT, 2 * resultLimit + SCORES_LIMIT_HEADROOM);
+            Cursor c = db.rawQueryWithFactory(null,
+                    String.format(Locale.ENGLISH, SQL_RAW_QUERY_SEARCH_TASK, SQL_RAW_QUERY_SEARCH_TASK_DEFAULT_PROJECTION, ngramSelection.toString(),
+                            String.valueOf(minScore), scoresClause, selectionBuilder.toString(), continuationClause, sortOrder, limitClause), args, null);
+            if (c.getCount() >= pageSize(limit))
             {
-                queryArgs = new String[selectionArgs.length + ngrams.size() + 1];
-                queryArgs[0] = String.valueOf(ngrams.size());
-                System.arraycopy(selectionArgs, 0, queryArgs, 1, selectionArgs.length);
-                String[] ngramArray = ngrams.toArray(new String[ngrams.size()]);
-                System.arraycopy(ngramArray, 0, queryArgs, selectionArgs.length + 1, ngramArray.length);
+                // the page is full, any task beyond the limited scores would have been sorted after these
+                return c;
             }
-            else
-            {
-                String[] temp = ngrams.toArray(new String[ngrams.size()]);
+            // too many of the best scored tasks have been filtered, the page may be incomplete
+            c.close();
+        }
+        return db.rawQueryWithFactory(null,
+                String.format(Locale.ENGLISH, SQL_RAW_QUERY_SEARCH_TASK, SQL_RAW_QUERY_SEARCH_TASK_DEFAULT_PROJECTION, ngramSelection.toString(),
+                        String.valueOf(minScore), "", selectionBuilder.toString(), continuationClause, sortOrder, limitClause), args, null);
+    }
 
-                queryArgs = new String[temp.length + 1];
-                queryArgs[0] = String.valueOf(ngrams.size());
-                System.arraycopy(temp, 0, queryArgs, 1, temp.length);
-            }
-            selectionBuilder.append(" ) ");
+
+    /**
+     * Returns the search results using the n-gram hits of the given {@link SearchSession}. Only n-grams which are not known to the session yet are looked up
+     * in the database. The scores are calculated in memory and only the matching tasks are loaded from the instance view.
+     *
+     * @param resultLimit
+     *         The number of results required to fill the requested page if the results are sorted by score, only the best scored tasks are loaded in this
+     *         case. <code>0</code> to load all matching tasks.
+     *
+     * @return A {@link Cursor} with the search results or <code>null</code> if the session can not handle this query.
+     */
+    private static Cursor getSessionSearchCursor(SQLiteDatabase db, String searchString, SearchSession session, float minScore, int resultLimit,
+                                                 String continuationClause, String limit, String selection, String[] selectionArgs, String sortOrder)
+    {
+        Set<String> ngrams = TRIGRAM_GENERATOR.getNgrams(searchString);
+        ngrams.addAll(TETRAGRAM_GENERATOR.getNgrams(searchString));
+
+        if (ngrams.isEmpty())
+        {
+            return null;
+        }
+
+        Set<String> missing = session.missing(ngrams);
+        if (!missing.isEmpty() && !session.put(ngrams, ngramHits(db, missing)))
+        {
+            return null;
+        }
+
+        // calculate the score of each task and build case expressions with the smallest n-gram hits and the scores of the matching tasks
+        int ngramCount = ngrams.size();
+        Map<Long, String> minHits = session.minHits(ngrams);
+        StringBuilder texts = new StringBuilder(64 * 1024);
+        StringBuilder scores = new StringBuilder(64 * 1024);
+        StringBuilder taskIds = new StringBuilder(16 * 1024);
+        int results = 0;
+        texts.append("case ").append(TaskContract.Instances.TASK_ID);
+        scores.append("case ").append(TaskContract.Instances.TASK_ID);
+        Map<Long, Integer> hitCounts = session.hitCounts(ngrams);
+        Collection<Map.Entry<Long, Integer>> candidates = hitCounts.entrySet();
+        if (resultLimit > 0 && hitCounts.size() > 2 * resultLimit + SCORES_LIMIT_HEADROOM)
+        {
+            candidates = mostHits(hitCounts, 2 * resultLimit + SCORES_LIMIT_HEADROOM);
         }
         else
         {
-            selectionBuilder.append(NGramColumns.TEXT);
-            selectionBuilder.append(" like ?");
+            resultLimit = 0;
+        }
+        for (Map.Entry<Long, Integer> hits : candidates)
+        {
+            // note: this must result in the exact same value as the score calculated by the regular query
+            double score = 1.0 * hits.getValue() / ngramCount;
+            if (score >= minScore)
+            {
+                if (++results > MAX_SESSION_RESULTS)
+                {
+                    return null;
+                }
+                texts.append(" when ").append(hits.getKey()).append(" then ").append(DatabaseUtils.sqlEscapeString(minHits.get(hits.getKey())));
+                scores.append(" when ").append(hits.getKey()).append(" then ").append(score);
+                if (taskIds.length() > 0)
+                {
+                    taskIds.append(",");
+                }
+                taskIds.append(hits.getKey());
+            }
+        }
+        texts.append(" end");
+        scores.append(" end");
+
+        StringBuilder selectionBuilder = new StringBuilder(256);
+        if (!TextUtils.isEmpty(selection))
+        {
+            selectionBuilder.append("(").append(selection).append(") AND ");
+        }
+        selectionBuilder.append(Tasks._DELETED).append(" = 0");
+
+        Cursor c = db.rawQueryWithFactory(null,
+                String.format(Locale.ENGLISH, SQL_RAW_QUERY_SESSION_SEARCH_TASK, results == 0 ? "null" : texts.toString(),
+                        results == 0 ? "0" : scores.toString(), taskIds.toString(),
+                        selectionBuilder.toString(), continuationClause, sortOrder, limit == null ? "" : " limit " + limit),
+                selectionArgs, null);
+        if (resultLimit > 0 && c.getCount() < pageSize(limit))
+        {
+            // too many of the best scored tasks have been filtered, the page may be incomplete, let the regular search handle this
+            c.close();
+            return null;
+        }
+        return c;
+    }
 
-            // selection arguments
-            if (selectionArgs != null && selectionArgs.length > 0)
+
+    /**
+     * Returns the given number of entries with the most hits. Entries with the same number of hits are taken in the order of their task id, just like the
+     * results are sorted by score and task id.
+     */
+    private static Collection<Map.Entry<Long, Integer>> mostHits(Map<Long, Integer> hitCounts, int count)
+    {
+        // the head of the queue is the entry to drop first
+        Comparator<Map.Entry<Long, Integer>> worstFirst = (left, right) -> left.getValue().equals(right.getValue())
+                ? Long.compare(right.getKey(), left.getKey())
+                : Integer.compare(left.getValue(), right.getValue());
+        PriorityQueue<Map.Entry<Long, Integer>> result = new PriorityQueue<>(count + 1, worstFirst);
+        for (Map.Entry<Long, Integer> entry : hitCounts.entrySet())
+        {
+            result.add(entry);
+            if (result.size() > count)
             {
-                queryArgs = new String[selectionArgs.length + 2];
-                queryArgs[0] = String.valueOf(ngrams.size());
-                System.arraycopy(selectionArgs, 0, queryArgs, 1, selectionArgs.length);
-                queryArgs[queryArgs.length - 1] = " " + searchString + "%";
+                result.poll();
             }
-            else
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the number of results needed to fill the page of the given limit clause, i.e. the offset plus the number of results on the page.
+     *
+     * @param limit
+     *         A limit clause, either just a number or an offset and a number separated by a comma, may be <code>null</code>.
+     *
+     * @return The number of results or <code>0</code> if the result is not limited.
+     */
+    private static int resultLimit(String limit)
+    {
+        if (limit == null)
+        {
+            return 0;
+        }
+        int separator = limit.indexOf(',');
+        return separator < 0 ? pageSize(limit) : Integer.parseInt(limit.substring(0, separator).trim()) + pageSize(limit);
+    }
+
+
+    /**
+     * Returns the number of results on the page of the given limit clause.
+     */
+    private static int pageSize(String limit)
+    {
+        return Integer.parseInt(limit.substring(limit.indexOf(',') + 1).trim());
+    }
+
+
+    /**
+     * Returns the ids of the tasks containing each of the given n-grams. N-grams without any hits are not contained in the result.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase}.
+     * @param ngrams
+     *         The n-grams to look up.
+     *
+     * @return A {@link Map} from n-gram to the ids of the tasks containing it.
+     */
+    private static Map<String, Set<Long>> ngramHits(SQLiteDatabase db, Set<String> ngrams)
+    {
+        Map<String, Set<Long>> result = new HashMap<>(ngrams.size() * 2);
+        for (Iterable<String> chunk : new Chunked<>(NGRAM_SEARCH_CHUNK_SIZE, ngrams))
+        {
+            StringBuilder placeholders = new StringBuilder(NGRAM_SEARCH_CHUNK_SIZE * 2);
+            List<String> arguments = new ArrayList<>(NGRAM_SEARCH_CHUNK_SIZE);
+            for (String ngram : chunk)
             {
-                queryArgs = new String[2];
-                queryArgs[0] = String.valueOf(ngrams.size());
-                queryArgs[1] = " " + searchString + "%";
+                if (placeholders.length() > 0)
+                {
+                    placeholders.append(",");
+                }
+                placeholders.append("?");
+                arguments.add(ngram);
             }
 
+            try (Cursor c = db.rawQuery(String.format(SQL_RAW_QUERY_NGRAM_HITS, placeholders), arguments.toArray(new String[0])))
+            {
+                while (c.moveToNext())
+                {
+                    String ngram = c.getString(0);
+                    Set<Long> taskIds = result.get(ngram);
+                    if (taskIds == null)
+                    {
+                        taskIds = new HashSet<>(64);
+                        result.put(ngram, taskIds);
+                    }
+                    taskIds.add(c.getLong(1));
+                }
+            }
         }
+        return result;
+    }
 
-        selectionBuilder.append(") AND ");
-        selectionBuilder.append(Tasks._DELETED);
-        selectionBuilder.append(" = 0");
 
-        if (sortOrder == null)
+    /**
+     * Returns the having clause that continues a search after the result identified by the given continuation token.
+     *
+     * @param continuation
+     *         A token as returned by {@link Tasks#getSearchContinuationToken(double, long)}.
+     * @param taskIdColumn
+     *         The name of the task id column of the query.
+     *
+     * @return An SQL fragment to append to the having clause.
+     *
+     * @throws IllegalArgumentException
+     *         if the token is malformed.
+     */
+    private static String continuationClause(String continuation, String taskIdColumn)
+    {
+        int separator = continuation.indexOf(':');
+        if (separator < 0)
         {
-            sortOrder = Tasks.SCORE + " desc";
+            throw new IllegalArgumentException(String.format("Invalid search continuation token \"%s\"", continuation));
         }
-        else
+        try
         {
-            sortOrder = Tasks.SCORE + " desc, " + sortOrder;
+            // all values are numbers, so it's safe to put them into the query directly
+            double score = Double.parseDouble(continuation.substring(0, separator));
+            long taskId = Long.parseLong(continuation.substring(separator + 1));
+            if (Double.isNaN(score) || Double.isInfinite(score))
+            {
+                throw new IllegalArgumentException(String.format("Invalid search continuation token \"%s\"", continuation));
+            }
+            return String.format(Locale.ENGLISH, SQL_SEARCH_CONTINUATION_CLAUSE, String.valueOf(score - SCORE_EPSILON), String.valueOf(score + SCORE_EPSILON),
+                    taskIdColumn, taskId);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(String.format("Invalid search continuation token \"%s\"", continuation), e);
         }
-        Cursor c = db.rawQueryWithFactory(null,
-                String.format(SQL_RAW_QUERY_SEARCH_TASK, SQL_RAW_QUERY_SEARCH_TASK_DEFAULT_PROJECTION, selectionBuilder.toString(), sortOrder), queryArgs,
-                null);
-        return c;
     }
 }
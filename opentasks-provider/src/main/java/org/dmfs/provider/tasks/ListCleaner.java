@@ -0,0 +1,221 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.util.Log;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.PendingListDeletions;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.utils.LatencyHistogram;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Removes the tasks of deleted lists in the background.
+ * <p>
+ * Deleting a list only records it in {@link Tables#PENDING_LIST_DELETIONS}, the tasks of the list are hidden by the views right away. This job removes the
+ * tasks in chunks of {@link #CHUNK_SIZE}, each in its own short transaction, so other writers don't have to wait until all tasks of a large list have been
+ * removed. The job posts itself to the {@link Handler} after each chunk, giving other jobs on the same thread a chance to run. The pending deletions are stored
+ * in the database, so the job can continue with the remaining tasks after a restart.
+ * <p>
+ * The progress can be read with {@link #pendingLists()} and {@link #remainingTasks()}, it's also included in the dump of the provider.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class ListCleaner implements Runnable
+{
+    private final static String TAG = "ListCleaner";
+
+    /**
+     * The maximum number of tasks to remove in one transaction. Each task takes its instances, properties and search index entries with it.
+     */
+    private final static int CHUNK_SIZE = 200;
+
+    /**
+     * The delay before trying again after a chunk failed.
+     */
+    private final static long RETRY_DELAY = TimeUnit.MINUTES.toMillis(10);
+
+    private final static String SQL_NEXT_LIST = String.format(Locale.ENGLISH, "select %1$s from %2$s order by %1$s limit 1",
+            PendingListDeletions.LIST_ID, Tables.PENDING_LIST_DELETIONS);
+
+    private final static String SQL_REMAINING_TASKS = String.format(Locale.ENGLISH, "select count(*) from %1$s where %2$s in (select %3$s from %4$s)",
+            Tables.TASKS, Tasks.LIST_ID, PendingListDeletions.LIST_ID, Tables.PENDING_LIST_DELETIONS);
+
+    private final static String SQL_DELETE_CHUNK = String.format(Locale.ENGLISH,
+            "delete from %1$s where %2$s in (select %2$s from %1$s where %3$s = ? limit %4$d)",
+            Tables.TASKS, Tasks._ID, Tasks.LIST_ID, CHUNK_SIZE);
+
+    private final SQLiteOpenHelper mDatabaseHelper;
+    private final Handler mHandler;
+    private final LatencyHistogram mChunkHistogram;
+
+    private volatile long mRemoved;
+
+
+    /**
+     * Creates a {@link ListCleaner}.
+     *
+     * @param databaseHelper
+     *         The {@link SQLiteOpenHelper} of the task database.
+     * @param handler
+     *         The {@link Handler} to run the job on.
+     * @param chunkHistogram
+     *         A {@link LatencyHistogram} to record the time each chunk takes.
+     */
+    ListCleaner(SQLiteOpenHelper databaseHelper, Handler handler, LatencyHistogram chunkHistogram)
+    {
+        mDatabaseHelper = databaseHelper;
+        mHandler = handler;
+        mChunkHistogram = chunkHistogram;
+    }
+
+
+    /**
+     * Schedules the removal of the tasks of all deleted lists. This can be called at any time, if there are no pending deletions the job returns right away.
+     */
+    public void schedule()
+    {
+        mHandler.post(this);
+    }
+
+
+    /**
+     * Returns the number of deleted lists whose tasks have not been removed completely yet.
+     */
+    long pendingLists()
+    {
+        return DatabaseUtils.queryNumEntries(mDatabaseHelper.getReadableDatabase(), Tables.PENDING_LIST_DELETIONS);
+    }
+
+
+    /**
+     * Returns the number of tasks of deleted lists which have not been removed yet.
+     */
+    long remainingTasks()
+    {
+        return DatabaseUtils.longForQuery(mDatabaseHelper.getReadableDatabase(), SQL_REMAINING_TASKS, null);
+    }
+
+
+    /**
+     * Writes the progress of the removal.
+     */
+    public void dump(PrintWriter writer)
+    {
+        writer.println(String.format(Locale.ENGLISH, "list cleanup: %d deleted lists with %d tasks pending, %d tasks removed since start", pendingLists(),
+                remainingTasks(), mRemoved));
+    }
+
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            if (removeChunk())
+            {
+                // release the thread before continuing with the next chunk
+                schedule();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // the pending deletions are still in the database, just try again later
+            Log.e(TAG, "Removing the tasks of deleted lists failed", e);
+            mHandler.postDelayed(this, RETRY_DELAY);
+        }
+    }
+
+
+    /**
+     * Removes the next chunk of tasks of a deleted list.
+     *
+     * @return {@code true} if there may be more tasks to remove, {@code false} if there are no pending deletions left.
+     */
+    private boolean removeChunk()
+    {
+        SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+        long start = System.nanoTime();
+        long listId;
+        int removed;
+        db.beginTransaction();
+        try
+        {
+            Cursor cursor = db.rawQuery(SQL_NEXT_LIST, null);
+            try
+            {
+                if (!cursor.moveToFirst())
+                {
+                    // nothing (left) to do
+                    return false;
+                }
+                listId = cursor.getLong(0);
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            SQLiteStatement deleteChunk = db.compileStatement(SQL_DELETE_CHUNK);
+            try
+            {
+                deleteChunk.bindLong(1, listId);
+                removed = deleteChunk.executeUpdateDelete();
+            }
+            finally
+            {
+                deleteChunk.close();
+            }
+
+            if (removed < CHUNK_SIZE)
+            {
+                // that was the last chunk of this list
+                db.delete(Tables.PENDING_LIST_DELETIONS, PendingListDeletions.LIST_ID + "=" + listId, null);
+            }
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+        mChunkHistogram.record(System.nanoTime() - start);
+        // only written by the handler thread
+        mRemoved += removed;
+
+        if (removed < CHUNK_SIZE)
+        {
+            Log.i(TAG, String.format(Locale.ENGLISH, "Removed the last %d tasks of deleted list %d", removed, listId));
+        }
+        else
+        {
+            Log.d(TAG, String.format(Locale.ENGLISH, "Removed %d tasks of deleted list %d", removed, listId));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * A provider wide cache of the metadata of all task lists. Task operations look up their lists here instead of querying the lists table for every task.
+ * <p>
+ * The cache holds an immutable snapshot of all lists, so it can be read without any locks. It's reloaded on demand after it has been invalidated and
+ * whenever a list can't be found, so a stale snapshot never rejects a valid list. Every writer of the lists table must call {@link #invalidate()}.
+ * Since a snapshot may contain uncommitted lists, the provider calls {@link #onEndTransaction()} at the end of every transaction to drop such a snapshot
+ * in case the transaction has been rolled back.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class ListMetadataCache
+{
+    /**
+     * The metadata of a task list.
+     */
+    public static final class ListMetadata
+    {
+        public final long id;
+        public final String accountName;
+        public final String accountType;
+        public final Integer accessLevel;
+        public final boolean visible;
+        public final boolean syncEnabled;
+
+
+        ListMetadata(long id, String accountName, String accountType, Integer accessLevel, boolean visible, boolean syncEnabled)
+        {
+            this.id = id;
+            this.accountName = accountName;
+            this.accountType = accountType;
+            this.accessLevel = accessLevel;
+            this.visible = visible;
+            this.syncEnabled = syncEnabled;
+        }
+    }
+
+
+    private final static String[] PROJECTION = {
+            TaskLists._ID, TaskLists.ACCOUNT_NAME, TaskLists.ACCOUNT_TYPE, TaskLists.ACCESS_LEVEL, TaskLists.VISIBLE, TaskLists.SYNC_ENABLED };
+
+    private volatile Map<Long, ListMetadata> mLists;
+    private volatile boolean mChangedInTransaction;
+
+
+    /**
+     * Returns the metadata of the list with the given id.
+     *
+     * @param db
+     *         The database to load the lists from if necessary.
+     * @param listId
+     *         The id of the list.
+     *
+     * @return The {@link ListMetadata} or <code>null</code> if no such list exists.
+     */
+    public ListMetadata list(SQLiteDatabase db, long listId)
+    {
+        Map<Long, ListMetadata> lists = mLists;
+        ListMetadata result = lists == null ? null : lists.get(listId);
+        if (result == null)
+        {
+            // the list might have been added since the snapshot has been taken
+            result = reload(db).get(listId);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the metadata of all lists.
+     *
+     * @param db
+     *         The database to load the lists from if necessary.
+     *
+     * @return A {@link Collection} of {@link ListMetadata}.
+     */
+    public Collection<ListMetadata> lists(SQLiteDatabase db)
+    {
+        Map<Long, ListMetadata> lists = mLists;
+        return (lists == null ? reload(db) : lists).values();
+    }
+
+
+    /**
+     * Invalidates the cache. This must be called whenever a list is inserted, updated or removed.
+     */
+    public void invalidate()
+    {
+        mLists = null;
+        mChangedInTransaction = true;
+    }
+
+
+    /**
+     * Drops any snapshot that has been taken after a list has been changed in the current transaction, because it may contain values which have been
+     * rolled back.
+     */
+    public void onEndTransaction()
+    {
+        if (mChangedInTransaction)
+        {
+            mChangedInTransaction = false;
+            mLists = null;
+        }
+    }
+
+
+    private Map<Long, ListMetadata> reload(SQLiteDatabase db)
+    {
+        Map<Long, ListMetadata> lists = new HashMap<>(16);
+        Cursor cursor = db.query(Tables.LISTS, PROJECTION, null, null, null, null, null);
+        try
+        {
+            while (cursor.moveToNext())
+            {
+                long id = cursor.getLong(0);
+                lists.put(id, new ListMetadata(id, cursor.getString(1), cursor.getString(2), cursor.isNull(3) ? null : cursor.getInt(3),
+                        cursor.getInt(4) != 0, cursor.getInt(5) != 0));
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        lists = Collections.unmodifiableMap(lists);
+        mLists = lists;
+        return lists;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.util.Log;
+
+import org.dmfs.jems.predicate.Predicate;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.PendingListDeletions;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tombstones;
+import org.dmfs.tasks.contract.TaskContract;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.TaskLists;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A periodic maintenance job which keeps the size of the database bounded.
+ * <p>
+ * Tasks which are deleted by the user are only marked as deleted until the sync adapter has removed them (or the tasks have been moved to another list).
+ * If the sync adapter never gets a chance to do that, these tombstones stay in the database forever. This job removes tombstones which have been deleted
+ * more than {@link #MAX_TOMBSTONE_AGE} ago, according to the {@link Tombstones} table, from lists which are not synced anymore, i.e. lists that have sync
+ * disabled and lists of accounts which are not synced automatically or not syncable at all. Then it removes the n-grams which are no longer used by any task
+ * from the search index. Afterwards it returns the free pages to the file system with an incremental vacuum.
+ * <p>
+ * Each run writes a report to the log, the last report is included in the dump of the provider. Besides the counts it contains the space released by the
+ * purge, which is estimated from the number of used pages before and after.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class Maintenance implements Runnable
+{
+    private final static String TAG = "Maintenance";
+
+    /**
+     * The delay of the first run after the provider has been started.
+     */
+    private final static long INITIAL_DELAY = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * The interval between two runs.
+     */
+    private final static long INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The minimum age of tombstones to be removed.
+     */
+    private final static long MAX_TOMBSTONE_AGE = TimeUnit.DAYS.toMillis(90);
+
+    /**
+     * The maximum number of tombstones or n-grams to remove in one transaction.
+     */
+    private final static int CHUNK_SIZE = 200;
+
+    /**
+     * The maximum number of pages to free in one incremental vacuum step.
+     */
+    private final static int VACUUM_PAGES = 256;
+
+    /**
+     * The value of {@code PRAGMA auto_vacuum} in incremental mode.
+     */
+    private final static int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Selects the tombstones, except for those of deleted lists, which are removed by the {@link ListCleaner} anyway.
+     */
+    private final static String TOMBSTONE_SELECTION = String.format(Locale.ENGLISH, "%s = 1 and %s", Tasks._DELETED,
+            PendingListDeletions.NOT_PENDING_SELECTION);
+
+    private final static String SQL_TOMBSTONES = String.format(Locale.ENGLISH, "select %s from %s where %s", Tasks._ID, Tables.TASKS, TOMBSTONE_SELECTION);
+
+    /**
+     * Removes a chunk of tombstones of a list which have been deleted before a given time. Only tasks with a row in the {@link Tombstones} table are removed.
+     */
+    private final static String SQL_PURGE_CHUNK = String.format(Locale.ENGLISH,
+            "delete from %1$s where %2$s in (select %3$s from %4$s join %1$s on (%3$s = %2$s) where %5$s = ? and %6$s < ? limit %7$d)",
+            Tables.TASKS, Tasks._ID, Tombstones.TASK_ID, Tables.TOMBSTONES, Tasks.LIST_ID, Tombstones.DELETED_TIME, CHUNK_SIZE);
+
+    private final SQLiteOpenHelper mDatabaseHelper;
+    private final Handler mHandler;
+    private final Predicate<Account> mSyncedAccount;
+
+    private volatile String mReport = "no maintenance run yet";
+
+
+    /**
+     * Creates a {@link Maintenance} job.
+     *
+     * @param databaseHelper
+     *         The {@link SQLiteOpenHelper} of the task database.
+     * @param handler
+     *         The {@link Handler} to run the job on.
+     * @param authority
+     *         The authority of the task provider.
+     */
+    Maintenance(SQLiteOpenHelper databaseHelper, Handler handler, String authority)
+    {
+        this(databaseHelper, handler,
+                account -> ContentResolver.getSyncAutomatically(account, authority) && ContentResolver.getIsSyncable(account, authority) > 0);
+    }
+
+
+    /**
+     * Creates a {@link Maintenance} job.
+     *
+     * @param databaseHelper
+     *         The {@link SQLiteOpenHelper} of the task database.
+     * @param handler
+     *         The {@link Handler} to run the job on.
+     * @param syncedAccount
+     *         A {@link Predicate} which is satisfied by the accounts which are still synced.
+     */
+    Maintenance(SQLiteOpenHelper databaseHelper, Handler handler, Predicate<Account> syncedAccount)
+    {
+        mDatabaseHelper = databaseHelper;
+        mHandler = handler;
+        mSyncedAccount = syncedAccount;
+    }
+
+
+    /**
+     * Schedules the first run of this job. Subsequent runs are scheduled by the job itself.
+     */
+    public void schedule()
+    {
+        mHandler.postDelayed(this, INITIAL_DELAY);
+    }
+
+
+    /**
+     * Writes the report of the last run.
+     */
+    public void dump(PrintWriter writer)
+    {
+        writer.println("maintenance: " + mReport);
+    }
+
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+
+            long tombstones = DatabaseUtils.queryNumEntries(db, Tables.TASKS, TOMBSTONE_SELECTION);
+            long tombstoneInstances = DatabaseUtils.queryNumEntries(db, Tables.INSTANCES, Instances.TASK_ID + " in (" + SQL_TOMBSTONES + ")");
+            long tombstoneProperties = DatabaseUtils.queryNumEntries(db, Tables.PROPERTIES, Properties.TASK_ID + " in (" + SQL_TOMBSTONES + ")");
+
+            long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            long usedPagesBefore = usedPages(db);
+
+            long purged = purgeTombstones(db, System.currentTimeMillis());
+            // removing tasks leaves unused n-grams behind, so this comes after the purge
+            long ngrams = removeOrphanedNgrams(db);
+            // the pages released by the purge, including indexes, instances, properties and n-grams, that's the space the purged tombstones took
+            // concurrent writes make this a rough estimate, they may even outweigh the purge
+            long purgedPages = Math.max(0, usedPagesBefore - usedPages(db));
+
+            long freedPages = vacuum(db);
+            long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+
+            mReport = String.format(Locale.ENGLISH,
+                    "%d tombstones with %d instances and %d properties, %d tombstones purged, %d orphaned n-grams removed, %d kB released by the purge, "
+                            + "search index: %s, %d kB freed, database size %d kB",
+                    tombstones, tombstoneInstances, tombstoneProperties, purged, ngrams, purgedPages * pageSize / 1024, FTSDatabaseHelper.indexStatistics(db),
+                    freedPages * pageSize / 1024, pageCount * pageSize / 1024);
+            Log.i(TAG, mReport);
+        }
+        catch (RuntimeException e)
+        {
+            // maintenance is not essential, just try again next time
+            Log.e(TAG, "Maintenance failed", e);
+        }
+        finally
+        {
+            mHandler.postDelayed(this, INTERVAL);
+        }
+    }
+
+
+    /**
+     * Removes the tombstones which have been deleted more than {@link #MAX_TOMBSTONE_AGE} before the given time from all lists which are not synced
+     * anymore.
+     *
+     * @return The number of removed tombstones.
+     */
+    long purgeTombstones(SQLiteDatabase db, long now)
+    {
+        long purged = 0;
+        for (long listId : unsyncedLists(db))
+        {
+            purged += purge(db, listId, now - MAX_TOMBSTONE_AGE);
+        }
+        return purged;
+    }
+
+
+    /**
+     * Returns the ids of all non-local lists which are not synced anymore.
+     */
+    private List<Long> unsyncedLists(SQLiteDatabase db)
+    {
+        List<Long> result = new ArrayList<>();
+        try (Cursor cursor = db.query(Tables.LISTS, new String[] { TaskLists._ID, TaskLists.ACCOUNT_NAME, TaskLists.ACCOUNT_TYPE, TaskLists.SYNC_ENABLED },
+                TaskLists.ACCOUNT_TYPE + "!=?", new String[] { TaskContract.LOCAL_ACCOUNT_TYPE }, null, null, null))
+        {
+            while (cursor.moveToNext())
+            {
+                Account account = new Account(cursor.getString(1), cursor.getString(2));
+                if (cursor.getInt(3) == 0 || !mSyncedAccount.satisfiedBy(account))
+                {
+                    result.add(cursor.getLong(0));
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Removes the tombstones of the given list which have been deleted before the given time. Each chunk is removed in its own transaction.
+     *
+     * @return The number of removed tombstones.
+     */
+    private long purge(SQLiteDatabase db, long listId, long before)
+    {
+        long purged = 0;
+        int removed;
+        do
+        {
+            db.beginTransaction();
+            try
+            {
+                SQLiteStatement purgeChunk = db.compileStatement(SQL_PURGE_CHUNK);
+                try
+                {
+                    purgeChunk.bindLong(1, listId);
+                    purgeChunk.bindLong(2, before);
+                    removed = purgeChunk.executeUpdateDelete();
+                }
+                finally
+                {
+                    purgeChunk.close();
+                }
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+            purged += removed;
+        }
+        while (removed == CHUNK_SIZE);
+        return purged;
+    }
+
+
+    /**
+     * Removes the n-grams which are no longer used by any task from the search index, {@link #CHUNK_SIZE} at a time, each chunk in its own transaction.
+     *
+     * @return The number of removed n-grams.
+     */
+    private long removeOrphanedNgrams(SQLiteDatabase db)
+    {
+        long removed = 0;
+        int count;
+        do
+        {
+            db.beginTransaction();
+            try
+            {
+                count = FTSDatabaseHelper.deleteOrphanedNgrams(db, CHUNK_SIZE);
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+            removed += count;
+        }
+        while (count == CHUNK_SIZE);
+        return removed;
+    }
+
+
+    /**
+     * Returns the number of pages of the database which are in use, i.e. not on the free list. {@code dbstat} would give a breakdown per table, but it's not
+     * available on all devices.
+     */
+    private long usedPages(SQLiteDatabase db)
+    {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+
+    /**
+     * Returns the free pages to the file system, {@link #VACUUM_PAGES} at a time. Nothing is done if the database doesn't use incremental vacuum, which is
+     * the case if the conversion in {@link TaskDatabaseHelper} didn't succeed. A full {@code VACUUM} is deliberately not run here, because it blocks all
+     * other database operations for too long.
+     *
+     * @return The number of freed pages.
+     */
+    private long vacuum(SQLiteDatabase db)
+    {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL)
+        {
+            return 0;
+        }
+
+        long freed = 0;
+        long free;
+        while ((free = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null)) > 0)
+        {
+            try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + Math.min(free, VACUUM_PAGES) + ")", null))
+            {
+                // the pages are freed while the statement is being stepped
+                cursor.getCount();
+            }
+            long remaining = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (remaining >= free)
+            {
+                // no progress, don't loop forever
+                break;
+            }
+            freed += free - remaining;
+        }
+        return freed;
+    }
+}
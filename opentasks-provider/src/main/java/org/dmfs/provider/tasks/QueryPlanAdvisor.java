@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.FTSDatabaseHelper.FTSContentColumns;
+import org.dmfs.provider.tasks.FTSDatabaseHelper.NGramColumns;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.PendingListDeletions;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.TaskHierarchy;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.UpcomingTriggers;
+import org.dmfs.tasks.contract.TaskContract.Instances;
+import org.dmfs.tasks.contract.TaskContract.Properties;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A developer tool to find frequently executed queries which are not supported by an index. It runs {@code EXPLAIN QUERY PLAN} on the shapes of the queries
+ * the provider and its processors run all the time and reports every query which results in a full table scan.
+ * <p>
+ * When adding a query to a hot path, add its shape to {@link #HOT_QUERIES}.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class QueryPlanAdvisor
+{
+    /**
+     * The shapes of the queries which run all the time. Updates and deletes are represented by selects with the same where clause.
+     */
+    static final List<String> HOT_QUERIES = Collections.unmodifiableList(Arrays.asList(
+            // Moving, moving an instance of a recurring task
+            String.format(Locale.ENGLISH, "SELECT * FROM %s WHERE %s = ? and %s != ?", Tables.TASKS, Tasks.ORIGINAL_INSTANCE_ID, Tasks._ID),
+            // Instantiating, loading the overrides of a recurring task
+            String.format(Locale.ENGLISH, "SELECT * FROM %s WHERE %s = ? AND %s != 1", Tables.TASKS, Tasks.ORIGINAL_INSTANCE_ID, Tasks._DELETED),
+            // AutoCompleting & Originating, updating overrides by the sync id of their master
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ? and %s is null", Tasks._ID, Tables.TASKS, Tasks.ORIGINAL_INSTANCE_SYNC_ID,
+                    Tasks.ORIGINAL_INSTANCE_ID),
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ?", Tasks._ID, Tables.TASKS, Tasks.ORIGINAL_INSTANCE_SYNC_ID),
+            // AutoCompleting, resolving a sync id
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ?", Tasks._ID, Tables.TASKS, Tasks._SYNC_ID),
+            // Relating, updating relations by UID and by ID
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ? AND %s = ?", Relation.PROPERTY_ID, Tables.PROPERTIES, Relation.MIMETYPE,
+                    Relation.RELATED_UID),
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ? AND %s = ?", Relation.PROPERTY_ID, Tables.PROPERTIES, Relation.MIMETYPE,
+                    Relation.RELATED_ID),
+            // RelationHandler & RelationResolver, resolving a UID
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ? AND %s", Tasks._ID, Tables.TASKS, Tasks._UID,
+                    PendingListDeletions.NOT_PENDING_SELECTION),
+            // task hierarchy triggers and the descendants and ancestors URIs
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ?", TaskHierarchy.DESCENDANT_ID, Tables.TASK_HIERARCHY, TaskHierarchy.ANCESTOR_ID),
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ?", TaskHierarchy.ANCESTOR_ID, Tables.TASK_HIERARCHY, TaskHierarchy.DESCENDANT_ID),
+            // loading the properties of a task
+            String.format(Locale.ENGLISH, "SELECT * FROM %s WHERE %s = ?", Tables.PROPERTIES, Properties.TASK_ID),
+            String.format(Locale.ENGLISH, "SELECT * FROM %s WHERE %s = ? AND %s = ?", Tables.PROPERTIES, Properties.MIMETYPE, Properties.TASK_ID),
+            // loading the instances of a task
+            String.format(Locale.ENGLISH, "SELECT %s FROM %s WHERE %s = ?", Instances._ID, Tables.INSTANCES, Instances.TASK_ID),
+            // notifications, finding the next trigger and updating the triggers of an instance
+            String.format(Locale.ENGLISH, "SELECT * FROM %s WHERE %s > ? ORDER BY %s LIMIT 1", Tables.UPCOMING_TRIGGERS, UpcomingTriggers.TRIGGER_TIME,
+                    UpcomingTriggers.TRIGGER_TIME),
+            String.format(Locale.ENGLISH, "SELECT * FROM %s WHERE %s = ?", Tables.UPCOMING_TRIGGERS, UpcomingTriggers.INSTANCE_ID),
+            // FTS, updating the search index of a task
+            String.format(Locale.ENGLISH, "SELECT _rowid_, %s FROM %s WHERE %s = ? AND %s = ? AND %s is null", FTSContentColumns.NGRAM_ID,
+                    FTSDatabaseHelper.FTS_CONTENT_TABLE, FTSContentColumns.TASK_ID, FTSContentColumns.TYPE, FTSContentColumns.PROPERTY_ID),
+            String.format(Locale.ENGLISH, "SELECT %s, %s FROM %s WHERE %s in (?, ?, ?)", NGramColumns.NGRAM_ID, NGramColumns.TEXT,
+                    FTSDatabaseHelper.FTS_NGRAM_TABLE, NGramColumns.TEXT),
+            // FTS, scoring the best search results before they are joined with the instance view
+            String.format(Locale.ENGLISH, FTSDatabaseHelper.SQL_SEARCH_SCORES, NGramColumns.TEXT + " in (?, ?, ?)", "0.33",
+                    String.format(Locale.ENGLISH, FTSDatabaseHelper.SQL_SEARCH_SCORES_LIMIT, 100))));
+
+
+    private QueryPlanAdvisor()
+    {
+    }
+
+
+    /**
+     * Returns all queries of the given list which result in a full table scan, along with the respective query plan step.
+     *
+     * @param db
+     *         The {@link SQLiteDatabase} to check the queries against.
+     * @param queries
+     *         The queries to check.
+     *
+     * @return A list of the offending queries and query plan steps, empty if all queries are supported by an index.
+     */
+    static List<String> fullTableScans(SQLiteDatabase db, Iterable<String> queries)
+    {
+        List<String> result = new ArrayList<>();
+        for (String query : queries)
+        {
+            try (Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + query, null))
+            {
+                while (c.moveToNext())
+                {
+                    // the detail is always in the last column, regardless of the SQLite version
+                    String detail = c.getString(c.getColumnCount() - 1);
+                    if (detail != null && detail.startsWith("SCAN "))
+                    {
+                        result.add(String.format(Locale.ENGLISH, "%s -> %s", query, detail));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
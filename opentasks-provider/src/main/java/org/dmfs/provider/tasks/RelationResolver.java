@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.PendingListDeletions;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Property.Relation;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+
+/**
+ * Resolves the relations which refer to newly synced tasks by their UID. Instead of updating the relations of every task when it's inserted, the UIDs are
+ * collected and all of them are resolved with a few set based statements when the transaction ends. That way the order in which the tasks of a tree are
+ * synced doesn't matter.
+ * <p>
+ * Resolving a UID updates {@link Relation#RELATED_ID} of all relations referring to it and the {@link Tasks#PARENT_ID} of all tasks which are affected
+ * by these relations, including siblings.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class RelationResolver implements SQLiteContentProvider.TransactionEndTask
+{
+    private final static String PENDING_TABLE = "temp.pending_relation_uids";
+    private final static String UID = "uid";
+
+    private final static String PENDING_UIDS = String.format(Locale.ENGLISH, "(select %s from %s)", UID, PENDING_TABLE);
+
+    /**
+     * Updates the related ids of all relations to a pending UID. Overrides share the UID of their master, so the master is preferred. Tasks of deleted lists
+     * which have not been removed yet are ignored.
+     */
+    private final static String SQL_RESOLVE_RELATED_IDS = String.format(Locale.ENGLISH,
+            "update %1$s set %2$s = (select %3$s from %4$s where %5$s = %1$s.%6$s and %10$s order by %7$s is not null, %3$s limit 1) "
+                    + "where %8$s = ? and %6$s in %9$s",
+            Tables.PROPERTIES, Relation.RELATED_ID, Tasks._ID, Tables.TASKS, Tasks._UID, Relation.RELATED_UID, Tasks.ORIGINAL_INSTANCE_ID, Relation.MIMETYPE,
+            PENDING_UIDS, PendingListDeletions.NOT_PENDING_SELECTION);
+
+    /**
+     * Sets the parent id of all tasks with a parent relation to a pending UID.
+     */
+    private final static String SQL_RESOLVE_PARENTS = String.format(Locale.ENGLISH,
+            "update %1$s set %2$s = (select %3$s from %4$s where %5$s = %1$s.%6$s and %7$s = ? and %8$s = %9$d and %10$s in %11$s and %3$s is not null limit 1) "
+                    + "where %6$s in (select %5$s from %4$s where %7$s = ? and %8$s = %9$d and %10$s in %11$s and %3$s is not null)",
+            Tables.TASKS, Tasks.PARENT_ID, Relation.RELATED_ID, Tables.PROPERTIES, Relation.TASK_ID, Tasks._ID, Relation.MIMETYPE, Relation.RELATED_TYPE,
+            Relation.RELTYPE_PARENT, Relation.RELATED_UID, PENDING_UIDS);
+
+    /**
+     * Sets the parent id of all tasks which are referred to as a child by a relation to a pending UID.
+     */
+    private final static String SQL_RESOLVE_CHILDREN = String.format(Locale.ENGLISH,
+            "update %1$s set %2$s = (select %3$s from %4$s where %5$s = %1$s.%6$s and %7$s = ? and %8$s = %9$d and %10$s in %11$s limit 1) "
+                    + "where %6$s in (select %5$s from %4$s where %7$s = ? and %8$s = %9$d and %10$s in %11$s)",
+            Tables.TASKS, Tasks.PARENT_ID, Relation.TASK_ID, Tables.PROPERTIES, Relation.RELATED_ID, Tasks._ID, Relation.MIMETYPE, Relation.RELATED_TYPE,
+            Relation.RELTYPE_CHILD, Relation.RELATED_UID, PENDING_UIDS);
+
+    /**
+     * Copies the parent id to all siblings of the tasks which have been resolved or which got a new parent. Siblings of tasks without a parent keep their
+     * parent.
+     */
+    private final static String SQL_RESOLVE_SIBLINGS = String.format(Locale.ENGLISH,
+            "update %1$s set %2$s = coalesce((select t.%2$s from %3$s p join %1$s t on (t.%4$s = p.%5$s) where p.%6$s = %1$s.%4$s and p.%7$s = ? "
+                    + "and p.%8$s = %9$d and t.%2$s is not null limit 1), %2$s) "
+                    + "where %4$s in (select %6$s from %3$s where %7$s = ? and %8$s = %9$d and (%10$s in %11$s "
+                    // siblings of tasks which got a new parent
+                    + "or %5$s in (select %6$s from %3$s where %7$s = ? and %8$s = %12$d and %10$s in %11$s) "
+                    + "or %5$s in (select %5$s from %3$s where %7$s = ? and %8$s = %13$d and %10$s in %11$s)))",
+            Tables.TASKS, Tasks.PARENT_ID, Tables.PROPERTIES, Tasks._ID, Relation.RELATED_ID, Relation.TASK_ID, Relation.MIMETYPE, Relation.RELATED_TYPE,
+            Relation.RELTYPE_SIBLING, Relation.RELATED_UID, PENDING_UIDS, Relation.RELTYPE_PARENT, Relation.RELTYPE_CHILD);
+
+    private final Set<String> mPendingUids = new HashSet<>();
+
+
+    /**
+     * Resolve all relations to the given UID when the current transaction ends.
+     *
+     * @param uid
+     *         The UID of a task that has been synced.
+     */
+    public void resolveLater(String uid)
+    {
+        synchronized (mPendingUids)
+        {
+            mPendingUids.add(uid);
+        }
+    }
+
+
+    @Override
+    public void execute(SQLiteDatabase database)
+    {
+        Set<String> uids;
+        synchronized (mPendingUids)
+        {
+            if (mPendingUids.isEmpty())
+            {
+                return;
+            }
+            uids = new HashSet<>(mPendingUids);
+            mPendingUids.clear();
+        }
+
+        database.execSQL(String.format(Locale.ENGLISH, "create temp table if not exists %s (%s text primary key)", PENDING_TABLE, UID));
+        SQLiteStatement insert = database.compileStatement(String.format(Locale.ENGLISH, "insert or ignore into %s (%s) values (?)", PENDING_TABLE, UID));
+        try
+        {
+            for (String uid : uids)
+            {
+                insert.bindString(1, uid);
+                insert.executeInsert();
+            }
+        }
+        finally
+        {
+            insert.close();
+        }
+
+        String mimeType = Relation.CONTENT_ITEM_TYPE;
+        database.execSQL(SQL_RESOLVE_RELATED_IDS, new String[] { mimeType });
+        database.execSQL(SQL_RESOLVE_PARENTS, new String[] { mimeType, mimeType });
+        database.execSQL(SQL_RESOLVE_CHILDREN, new String[] { mimeType, mimeType });
+        database.execSQL(SQL_RESOLVE_SIBLINGS, new String[] { mimeType, mimeType, mimeType, mimeType });
+        database.execSQL(String.format(Locale.ENGLISH, "delete from %s", PENDING_TABLE));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * A {@link CursorWrapper} which re-orders the top results of a search {@link Cursor} using a {@link SearchReranker}. Results beyond the top results are
+ * returned in their original order.
+ * <p>
+ * Note, the {@link Tasks#SCORE} column still contains the n-gram score.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class RerankedSearchCursor extends CursorWrapper
+{
+    /**
+     * Maps the positions of the top results to the positions in the wrapped {@link Cursor}.
+     */
+    private final Integer[] mPositions;
+    private int mPosition = -1;
+
+
+    /**
+     * Creates a {@link RerankedSearchCursor}.
+     *
+     * @param cursor
+     *         A search result {@link Cursor}, sorted by descending score.
+     * @param reranker
+     *         The {@link SearchReranker} for the search query.
+     * @param topK
+     *         The number of results to re-rank.
+     */
+    RerankedSearchCursor(Cursor cursor, SearchReranker reranker, int topK)
+    {
+        super(cursor);
+        int count = Math.min(topK, cursor.getCount());
+        final double[] scores = new double[count];
+        mPositions = new Integer[count];
+
+        int scoreColumn = cursor.getColumnIndex(Tasks.SCORE);
+        int titleColumn = cursor.getColumnIndex(Tasks.TITLE);
+        int locationColumn = cursor.getColumnIndex(Tasks.LOCATION);
+        int descriptionColumn = cursor.getColumnIndex(Tasks.DESCRIPTION);
+        for (int i = 0; i < count && cursor.moveToPosition(i); ++i)
+        {
+            mPositions[i] = i;
+            scores[i] = reranker.score(scoreColumn < 0 ? 0 : cursor.getDouble(scoreColumn), string(cursor, titleColumn), string(cursor, locationColumn),
+                    string(cursor, descriptionColumn));
+        }
+        cursor.moveToPosition(-1);
+
+        // this sort is stable, results with equal scores keep their order
+        Arrays.sort(mPositions, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer lhs, Integer rhs)
+            {
+                return Double.compare(scores[rhs], scores[lhs]);
+            }
+        });
+    }
+
+
+    @Override
+    public int getPosition()
+    {
+        return mPosition;
+    }
+
+
+    @Override
+    public boolean moveToPosition(int position)
+    {
+        int count = getCount();
+        if (position >= count)
+        {
+            mPosition = count;
+            super.moveToPosition(count);
+            return false;
+        }
+        if (position < 0)
+        {
+            mPosition = -1;
+            super.moveToPosition(-1);
+            return false;
+        }
+        mPosition = position;
+        return super.moveToPosition(position < mPositions.length ? mPositions[position] : position);
+    }
+
+
+    @Override
+    public boolean move(int offset)
+    {
+        return moveToPosition(mPosition + offset);
+    }
+
+
+    @Override
+    public boolean moveToFirst()
+    {
+        return moveToPosition(0);
+    }
+
+
+    @Override
+    public boolean moveToLast()
+    {
+        return moveToPosition(getCount() - 1);
+    }
+
+
+    @Override
+    public boolean moveToNext()
+    {
+        return moveToPosition(mPosition + 1);
+    }
+
+
+    @Override
+    public boolean moveToPrevious()
+    {
+        return moveToPosition(mPosition - 1);
+    }
+
+
+    @Override
+    public boolean isFirst()
+    {
+        return mPosition == 0 && getCount() != 0;
+    }
+
+
+    @Override
+    public boolean isLast()
+    {
+        int count = getCount();
+        return mPosition == count - 1 && count != 0;
+    }
+
+
+    @Override
+    public boolean isBeforeFirst()
+    {
+        return getCount() == 0 || mPosition == -1;
+    }
+
+
+    @Override
+    public boolean isAfterLast()
+    {
+        return getCount() == 0 || mPosition == getCount();
+    }
+
+
+    private static String string(Cursor cursor, int column)
+    {
+        return column < 0 ? null : cursor.getString(column);
+    }
+}
@@ -26,11 +26,13 @@ import android.content.OperationApplicationException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.text.TextUtils;
 
 import org.dmfs.iterables.SingletonIterable;
 import org.dmfs.jems.fragile.Fragile;
 import org.dmfs.jems.iterable.composite.Joined;
 import org.dmfs.jems.single.Single;
+import org.dmfs.provider.tasks.utils.LatencyStatistics;
 import org.dmfs.provider.tasks.utils.Profiled;
 
 import java.util.ArrayList;
@@ -75,6 +77,11 @@ abstract class SQLiteContentProvider extends ContentProvider
 
     private final Iterable<TransactionEndTask> mTransactionEndTasks;
 
+    /**
+     * The latencies of all operations.
+     */
+    private final LatencyStatistics mStatistics = new LatencyStatistics();
+
 
     protected SQLiteContentProvider(Iterable<TransactionEndTask> transactionEndTasks)
     {
@@ -137,6 +144,29 @@ abstract class SQLiteContentProvider extends ContentProvider
     }
 
 
+    /**
+     * Returns the {@link LatencyStatistics} of this provider. Operations are recorded per {@link Uri} path with ids replaced by <code>#</code>.
+     */
+    protected LatencyStatistics statistics()
+    {
+        return mStatistics;
+    }
+
+
+    /**
+     * Returns the name of the histogram of the given operation on the given {@link Uri}.
+     */
+    static String statisticsKey(String operation, Uri uri)
+    {
+        StringBuilder key = new StringBuilder(operation).append(' ');
+        for (String segment : uri.getPathSegments())
+        {
+            key.append('/').append(TextUtils.isDigitsOnly(segment) ? "#" : segment);
+        }
+        return key.toString();
+    }
+
+
     private boolean applyingBatch()
     {
         return mApplyingBatch.get() != null && mApplyingBatch.get();
@@ -148,6 +178,7 @@ abstract class SQLiteContentProvider extends ContentProvider
     {
         return new Profiled("Insert").run((Single<Uri>) () ->
         {
+            long start = System.nanoTime();
             Uri result;
             boolean callerIsSyncAdapter = isCallerSyncAdapter(uri);
             boolean applyingBatch = applyingBatch();
@@ -170,6 +201,7 @@ abstract class SQLiteContentProvider extends ContentProvider
             {
                 result = insertInTransaction(db, uri, values, callerIsSyncAdapter);
             }
+            mStatistics.histogram(statisticsKey("insert", uri)).record(System.nanoTime() - start);
             return result;
         });
     }
@@ -208,6 +240,7 @@ abstract class SQLiteContentProvider extends ContentProvider
     {
         return new Profiled("Update").run((Single<Integer>) () ->
         {
+            long start = System.nanoTime();
             int count;
             boolean callerIsSyncAdapter = isCallerSyncAdapter(uri);
             boolean applyingBatch = applyingBatch();
@@ -230,6 +263,7 @@ abstract class SQLiteContentProvider extends ContentProvider
             {
                 count = updateInTransaction(db, uri, values, selection, selectionArgs, callerIsSyncAdapter);
             }
+            mStatistics.histogram(statisticsKey("update", uri)).record(System.nanoTime() - start);
             return count;
         });
     }
@@ -240,6 +274,7 @@ abstract class SQLiteContentProvider extends ContentProvider
     {
         return new Profiled("Delete").run((Single<Integer>) () ->
         {
+            long start = System.nanoTime();
             int count;
             boolean callerIsSyncAdapter = isCallerSyncAdapter(uri);
             boolean applyingBatch = applyingBatch();
@@ -262,6 +297,7 @@ abstract class SQLiteContentProvider extends ContentProvider
             {
                 count = deleteInTransaction(db, uri, selection, selectionArgs, callerIsSyncAdapter);
             }
+            mStatistics.histogram(statisticsKey("delete", uri)).record(System.nanoTime() - start);
             return count;
         });
     }
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A second stage ranking of search results. The n-gram search only tells which fraction of the query n-grams a task contains. This class takes the words of
+ * the query into account and prefers results with
+ * <ul>
+ * <li>matches in more important fields (title &gt; location &gt; description &gt; property),</li>
+ * <li>whole word or word prefix matches,</li>
+ * <li>query words close to each other,</li>
+ * </ul>
+ * while still accepting words with small typos.
+ * <p>
+ * This is considerably more expensive than the n-gram score, so it's meant to be applied to the top results only.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class SearchReranker
+{
+    final static double TITLE_WEIGHT = 1.0;
+    final static double LOCATION_WEIGHT = 0.7;
+    final static double DESCRIPTION_WEIGHT = 0.5;
+    final static double PROPERTY_WEIGHT = 0.3;
+
+    private final static double EXACT_MATCH = 1.0;
+    private final static double PREFIX_MATCH = 0.8;
+    private final static double TYPO_MATCH = 0.6;
+    private final static double SUBSTRING_MATCH = 0.3;
+
+    /**
+     * The weight of the proximity of the query words.
+     */
+    private final static double PROXIMITY_WEIGHT = 0.1;
+
+    /**
+     * The weight of the original n-gram score.
+     */
+    private final static double NGRAM_SCORE_WEIGHT = 0.5;
+
+    /**
+     * Query words shorter than this are not matched with typos.
+     */
+    private final static int MIN_TYPO_LENGTH = 4;
+
+    private final String[] mQueryWords;
+
+
+    SearchReranker(String query)
+    {
+        mQueryWords = words(query);
+    }
+
+
+    /**
+     * Calculates the refined score of a search result.
+     *
+     * @param ngramScore
+     *         The score of the n-gram search.
+     * @param title
+     *         The title of the task, may be <code>null</code>.
+     * @param location
+     *         The location of the task, may be <code>null</code>.
+     * @param description
+     *         The description of the task, may be <code>null</code>.
+     * @param properties
+     *         The searchable texts of the properties of the task.
+     *
+     * @return The refined score.
+     */
+    double score(double ngramScore, String title, String location, String description, String... properties)
+    {
+        if (mQueryWords.length == 0)
+        {
+            return ngramScore;
+        }
+
+        double[] termScores = new double[mQueryWords.length];
+        double proximity = fieldScore(title, TITLE_WEIGHT, termScores);
+        proximity = Math.max(proximity, fieldScore(location, LOCATION_WEIGHT, termScores));
+        proximity = Math.max(proximity, fieldScore(description, DESCRIPTION_WEIGHT, termScores));
+        for (String property : properties)
+        {
+            proximity = Math.max(proximity, fieldScore(property, PROPERTY_WEIGHT, termScores));
+        }
+
+        double relevance = 0;
+        for (double termScore : termScores)
+        {
+            relevance += termScore;
+        }
+        relevance /= mQueryWords.length;
+
+        return NGRAM_SCORE_WEIGHT * ngramScore + (1 - NGRAM_SCORE_WEIGHT) * relevance + PROXIMITY_WEIGHT * proximity;
+    }
+
+
+    /**
+     * Matches the query words with the words of the given field and updates the best score of each query word.
+     *
+     * @return The weighted proximity of the matching query words in this field.
+     */
+    private double fieldScore(String text, double weight, double[] termScores)
+    {
+        if (text == null || text.isEmpty())
+        {
+            return 0;
+        }
+
+        String[] words = words(text);
+        int matches = 0;
+        int minPosition = Integer.MAX_VALUE;
+        int maxPosition = -1;
+        for (int i = 0; i < mQueryWords.length; ++i)
+        {
+            String queryWord = mQueryWords[i];
+            double best = 0;
+            int bestPosition = -1;
+            for (int position = 0; position < words.length && best < EXACT_MATCH; ++position)
+            {
+                double match = match(queryWord, words[position]);
+                if (match > best)
+                {
+                    best = match;
+                    bestPosition = position;
+                }
+            }
+
+            if (bestPosition >= 0)
+            {
+                termScores[i] = Math.max(termScores[i], weight * best);
+                matches++;
+                minPosition = Math.min(minPosition, bestPosition);
+                maxPosition = Math.max(maxPosition, bestPosition);
+            }
+        }
+
+        if (matches < 2)
+        {
+            return 0;
+        }
+        // 1.0 if all matching words are adjacent, less the more words are in between
+        return weight * (matches - 1) / Math.max(matches - 1, maxPosition - minPosition) * matches / mQueryWords.length;
+    }
+
+
+    /**
+     * Returns how well the given query word matches the given word.
+     */
+    private static double match(String queryWord, String word)
+    {
+        if (word.startsWith(queryWord))
+        {
+            return word.length() == queryWord.length() ? EXACT_MATCH : PREFIX_MATCH;
+        }
+
+        if (queryWord.length() >= MIN_TYPO_LENGTH)
+        {
+            int maxDistance = queryWord.length() < 8 ? 1 : 2;
+            // compare with the whole word and with a prefix of the same length, to find typos in partially typed words
+            int distance = Math.min(editDistance(queryWord, word, maxDistance),
+                    word.length() > queryWord.length() ? editDistance(queryWord, word.substring(0, queryWord.length()), maxDistance) : Integer.MAX_VALUE);
+            if (distance <= maxDistance)
+            {
+                return TYPO_MATCH - 0.2 * (distance - 1);
+            }
+        }
+
+        return word.contains(queryWord) ? SUBSTRING_MATCH : 0;
+    }
+
+
+    /**
+     * Calculates the edit distance of two Strings, but only up to the given maximum. Swapping two adjacent characters counts as a single edit, since that's a
+     * very common typo.
+     *
+     * @return The edit distance or {@link Integer#MAX_VALUE} if the distance is larger than {@code maxDistance}.
+     */
+    static int editDistance(String a, String b, int maxDistance)
+    {
+        if (Math.abs(a.length() - b.length()) > maxDistance)
+        {
+            return Integer.MAX_VALUE;
+        }
+
+        int[] beforePrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); ++j)
+        {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); ++i)
+        {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); ++j)
+            {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+                {
+                    // transposition
+                    current[j] = Math.min(current[j], beforePrevious[j - 2] + 1);
+                }
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > maxDistance && (i == a.length() || rowMin > maxDistance + 1))
+            {
+                // the distance can't get below the maximum anymore
+                return Integer.MAX_VALUE;
+            }
+            int[] temp = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = temp;
+        }
+        return previous[b.length()] <= maxDistance ? previous[b.length()] : Integer.MAX_VALUE;
+    }
+
+
+    /**
+     * Splits the given text into lower case words.
+     */
+    private static String[] words(String text)
+    {
+        if (text == null)
+        {
+            return new String[0];
+        }
+        List<String> result = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.getDefault()).split("[^\\p{L}\\p{N}]+"))
+        {
+            if (!word.isEmpty())
+            {
+                result.add(word);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+}
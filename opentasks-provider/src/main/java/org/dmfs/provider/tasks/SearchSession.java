@@ -0,0 +1,220 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A short-lived search session. It remembers which tasks contain which n-grams, so subsequent queries of the same session only need to look up the n-grams
+ * they didn't have before. When typing a search query, each new character adds only a few n-grams, so most of the work of the previous query can be reused.
+ * <p>
+ * Note, the hits don't depend on the query that loaded them, so sessions can be shared by any queries.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class SearchSession
+{
+    /**
+     * The maximum number of n-gram hits we keep per session. This limits the memory a session can take.
+     */
+    private final static int MAX_HITS = 20000;
+
+    private final Map<String, Set<Long>> mHits = new HashMap<>(128);
+    private final long mGeneration;
+    private int mHitCount;
+    private long mLastAccess;
+
+
+    SearchSession(long generation)
+    {
+        mGeneration = generation;
+        mLastAccess = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Returns the generation of the data this session was created for.
+     */
+    long generation()
+    {
+        return mGeneration;
+    }
+
+
+    /**
+     * Returns the time of the last access to this session in milliseconds since the epoch.
+     */
+    synchronized long lastAccess()
+    {
+        return mLastAccess;
+    }
+
+
+    /**
+     * Returns the n-grams of the given set this session doesn't know yet.
+     *
+     * @param ngrams
+     *         The n-grams of a query.
+     *
+     * @return The n-grams that need to be looked up in the database.
+     */
+    synchronized Set<String> missing(Set<String> ngrams)
+    {
+        mLastAccess = System.currentTimeMillis();
+        Set<String> missing = new HashSet<>(ngrams);
+        missing.removeAll(mHits.keySet());
+        return missing;
+    }
+
+
+    /**
+     * Stores the hits of the given n-grams. N-grams which are not contained in {@code hits} are stored as having no hits at all.
+     * <p>
+     * If storing the hits would exceed the size limit of this session, all n-grams not in {@code ngrams} are removed first. If that's still not sufficient,
+     * nothing is stored.
+     *
+     * @param ngrams
+     *         The n-grams of the current query.
+     * @param hits
+     *         The task ids for each of the n-grams that have been looked up.
+     *
+     * @return {@code true} if the hits have been stored, {@code false} if the session is too small to hold all of them.
+     */
+    synchronized boolean put(Set<String> ngrams, Map<String, Set<Long>> hits)
+    {
+        int newHits = 0;
+        for (Set<Long> taskIds : hits.values())
+        {
+            newHits += taskIds.size();
+        }
+
+        if (mHitCount + newHits > MAX_HITS)
+        {
+            // drop everything we don't need for the current query
+            mHits.keySet().retainAll(ngrams);
+            mHitCount = 0;
+            for (Set<Long> taskIds : mHits.values())
+            {
+                mHitCount += taskIds.size();
+            }
+
+            if (mHitCount + newHits > MAX_HITS)
+            {
+                return false;
+            }
+        }
+
+        for (String ngram : ngrams)
+        {
+            if (!mHits.containsKey(ngram))
+            {
+                Set<Long> taskIds = hits.get(ngram);
+                mHits.put(ngram, taskIds == null ? Collections.<Long>emptySet() : taskIds);
+            }
+        }
+        mHitCount += newHits;
+        return true;
+    }
+
+
+    /**
+     * Returns the number of n-grams of the given set each task contains. Tasks which don't contain any of the n-grams are not returned.
+     *
+     * @param ngrams
+     *         The n-grams of the query. All of them must be known to this session.
+     *
+     * @return A {@link Map} from task id to the number of n-gram hits.
+     */
+    synchronized Map<Long, Integer> hitCounts(Set<String> ngrams)
+    {
+        Map<Long, Integer> result = new HashMap<>(256);
+        for (String ngram : ngrams)
+        {
+            Set<Long> taskIds = mHits.get(ngram);
+            if (taskIds == null)
+            {
+                throw new IllegalStateException(String.format("N-gram \"%s\" has not been looked up", ngram));
+            }
+            for (Long taskId : taskIds)
+            {
+                Integer count = result.get(taskId);
+                result.put(taskId, count == null ? 1 : count + 1);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the smallest n-gram of the given set each task contains, in the order of SQLite's {@code BINARY} collation, i.e. by code points. This matches
+     * the {@code min(ngram_text)} of a regular search query. Tasks which don't contain any of the n-grams are not returned.
+     *
+     * @param ngrams
+     *         The n-grams of the query. All of them must be known to this session.
+     *
+     * @return A {@link Map} from task id to the smallest n-gram hit.
+     */
+    synchronized Map<Long, String> minHits(Set<String> ngrams)
+    {
+        Map<Long, String> result = new HashMap<>(256);
+        for (String ngram : ngrams)
+        {
+            Set<Long> taskIds = mHits.get(ngram);
+            if (taskIds == null)
+            {
+                throw new IllegalStateException(String.format("N-gram \"%s\" has not been looked up", ngram));
+            }
+            for (Long taskId : taskIds)
+            {
+                String min = result.get(taskId);
+                if (min == null || compareCodePoints(ngram, min) < 0)
+                {
+                    result.put(taskId, ngram);
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Compares two strings by their code points. Unlike {@link String#compareTo(String)}, which compares UTF-16 chars, this results in the same order as
+     * comparing the UTF-8 bytes.
+     */
+    private static int compareCodePoints(String a, String b)
+    {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length())
+        {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb)
+            {
+                return ca < cb ? -1 : 1;
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+}
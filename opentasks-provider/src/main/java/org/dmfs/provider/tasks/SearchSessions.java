@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The {@link SearchSession}s of a {@link TaskProvider}. Sessions expire after a short time of inactivity and they are dropped whenever the data changes.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class SearchSessions
+{
+    /**
+     * The maximum number of sessions we keep at a time.
+     */
+    private final static int MAX_SESSIONS = 4;
+
+    /**
+     * The time after which an unused session expires.
+     */
+    private final static long SESSION_TIMEOUT = 60 * 1000;
+
+    private final Map<String, SearchSession> mSessions = new LinkedHashMap<String, SearchSession>(MAX_SESSIONS * 2, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Entry<String, SearchSession> eldest)
+        {
+            return size() > MAX_SESSIONS;
+        }
+    };
+
+    private long mGeneration;
+
+
+    /**
+     * Returns the {@link SearchSession} with the given token, creating a new one if no valid session exists.
+     *
+     * @param token
+     *         The session token provided by the client.
+     *
+     * @return A {@link SearchSession}.
+     */
+    synchronized SearchSession session(String token)
+    {
+        long now = System.currentTimeMillis();
+
+        // remove expired sessions
+        Iterator<SearchSession> iterator = mSessions.values().iterator();
+        while (iterator.hasNext())
+        {
+            if (iterator.next().lastAccess() + SESSION_TIMEOUT < now)
+            {
+                iterator.remove();
+            }
+        }
+
+        SearchSession session = mSessions.get(token);
+        if (session == null || session.generation() != mGeneration)
+        {
+            session = new SearchSession(mGeneration);
+            mSessions.put(token, session);
+        }
+        return session;
+    }
+
+
+    /**
+     * Drops all sessions. Call this whenever the searchable data may have changed.
+     */
+    synchronized void invalidate()
+    {
+        mGeneration++;
+        mSessions.clear();
+    }
+}
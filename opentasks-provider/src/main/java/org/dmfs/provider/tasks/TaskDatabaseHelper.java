@@ -19,8 +19,10 @@ package org.dmfs.provider.tasks;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import org.dmfs.jems.optional.adapters.First;
@@ -51,13 +53,15 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
 {
 
     /**
-     * Interface of a listener that's called when the database has been created or migrated.
+     * Interface of a listener that's called when the database has been created, migrated or opened.
      */
     public interface OnDatabaseOperationListener
     {
         void onDatabaseCreated(SQLiteDatabase db);
 
         void onDatabaseUpdate(SQLiteDatabase db, int oldVersion, int newVersion);
+
+        void onDatabaseOpened(SQLiteDatabase db);
     }
 
 
@@ -71,7 +75,7 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
     /**
      * The database version.
      */
-    private static final int DATABASE_VERSION = 23;
+    private static final int DATABASE_VERSION = 31;
 
 
     /**
@@ -99,6 +103,16 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
 
         String INSTANCE_CATEGORY_VIEW = "Instance_Cagetory_View";
 
+        String INSTANCE_LIST_ROWS = "Instance_List_Rows";
+
+        String TASK_HIERARCHY = "Task_Hierarchy";
+
+        String UPCOMING_TRIGGERS = "Upcoming_Triggers";
+
+        String PENDING_LIST_DELETIONS = "Pending_List_Deletions";
+
+        String TOMBSTONES = "Tombstones";
+
         String CATEGORIES = "Categories";
 
         String CATEGORIES_MAPPING = "Categories_Mapping";
@@ -125,6 +139,71 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
     }
 
 
+    /**
+     * Columns of the internal closure table of the task hierarchy. It contains a row for each ancestor of each task.
+     */
+    public interface TaskHierarchy
+    {
+        String ANCESTOR_ID = "ancestor_id";
+
+        String DESCENDANT_ID = "descendant_id";
+
+        String DISTANCE = Tasks.HIERARCHY_DISTANCE;
+    }
+
+
+    /**
+     * Columns of the internal table of deleted lists whose tasks have not been removed yet, see {@link ListCleaner}.
+     */
+    public interface PendingListDeletions
+    {
+        String LIST_ID = "list_id";
+
+        /**
+         * A selection of the rows of {@link Tables#TASKS} which don't belong to a deleted list. Lookups in the raw table need this, because the tasks of
+         * deleted lists are only hidden by the views until the {@link ListCleaner} has removed them.
+         */
+        String NOT_PENDING_SELECTION = Tasks.LIST_ID + " not in (select " + LIST_ID + " from " + Tables.PENDING_LIST_DELETIONS + ")";
+    }
+
+
+    /**
+     * Columns of the internal table of tasks which have been marked as deleted, see {@link Maintenance}.
+     */
+    public interface Tombstones
+    {
+        String TASK_ID = "task_id";
+
+        /**
+         * The time in milliseconds since the epoch when the task has been marked as deleted.
+         */
+        String DELETED_TIME = "deleted_time";
+    }
+
+
+    /**
+     * Columns of the internal table of upcoming start and due notifications. It contains a row for each start and due date of each open instance.
+     */
+    public interface UpcomingTriggers
+    {
+        String INSTANCE_ID = "instance_id";
+
+        String TRIGGER_TYPE = "trigger_type";
+
+        String TRIGGER_TIME = "trigger_time";
+
+        /**
+         * {@link #TRIGGER_TYPE} of a trigger at the start of an instance.
+         */
+        int TYPE_START = 0;
+
+        /**
+         * {@link #TRIGGER_TYPE} of a trigger at the due date of an instance.
+         */
+        int TYPE_DUE = 1;
+    }
+
+
     /**
      * SQL command to create a view that combines tasks with some data from the list they belong to.
      */
@@ -285,6 +364,236 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
                     + TaskContract.Instances.INSTANCE_ORIGINAL_TIME + " INTEGER DEFAULT 0, "
                     + TaskContract.Instances.DISTANCE_FROM_CURRENT + " INTEGER DEFAULT 0);";
 
+    /**
+     * SQL command to create the instance list rows table. It contains a denormalized copy of the {@link TaskContract.Instances#LIST_ROW_COLUMNS} of each
+     * instance, which is all task lists need. It's kept up to date by the triggers below.
+     */
+    private final static String SQL_CREATE_INSTANCE_LIST_ROWS_TABLE =
+            "CREATE TABLE " + Tables.INSTANCE_LIST_ROWS + " ( " +
+                    TaskContract.Instances._ID + " INTEGER PRIMARY KEY, "
+                    + TaskContract.Instances.TASK_ID + " INTEGER NOT NULL, "
+                    + TaskContract.Instances.INSTANCE_START + " INTEGER, "
+                    + TaskContract.Instances.INSTANCE_DUE + " INTEGER, "
+                    + TaskContract.Instances.INSTANCE_DURATION + " INTEGER, "
+                    + TaskContract.Instances.INSTANCE_START_SORTING + " INTEGER, "
+                    + TaskContract.Instances.INSTANCE_DUE_SORTING + " INTEGER, "
+                    + TaskContract.Instances.DISTANCE_FROM_CURRENT + " INTEGER, "
+                    + TaskContract.Instances.LIST_ID + " INTEGER, "
+                    + TaskContract.Instances.TITLE + " TEXT, "
+                    + TaskContract.Instances.DESCRIPTION + " TEXT, "
+                    + TaskContract.Instances.IS_ALLDAY + " INTEGER, "
+                    + TaskContract.Instances.TZ + " TEXT, "
+                    + TaskContract.Instances.STATUS + " INTEGER, "
+                    + TaskContract.Instances.COMPLETED + " INTEGER, "
+                    + TaskContract.Instances.IS_CLOSED + " INTEGER, "
+                    + TaskContract.Instances.PRIORITY + " INTEGER, "
+                    + TaskContract.Instances.PERCENT_COMPLETE + " INTEGER, "
+                    + TaskContract.Instances.PINNED + " INTEGER, "
+                    + TaskContract.Instances._DELETED + " INTEGER, "
+                    + TaskContract.Instances.LIST_COLOR + " INTEGER, "
+                    + TaskContract.Instances.ACCOUNT_NAME + " TEXT, "
+                    + TaskContract.Instances.ACCOUNT_TYPE + " TEXT, "
+                    + TaskContract.Instances.VISIBLE + " INTEGER);";
+
+    /**
+     * SQL statement to (re-)populate the instance list rows table. The caller has to append a where clause (or at least a ";").
+     */
+    private final static String SQL_REPLACE_INSTANCE_LIST_ROWS =
+            "INSERT OR REPLACE INTO " + Tables.INSTANCE_LIST_ROWS + " SELECT "
+                    + Tables.INSTANCES + "." + TaskContract.Instances._ID + ", "
+                    + Tables.INSTANCES + "." + TaskContract.Instances.TASK_ID + ", "
+                    + Tables.INSTANCES + "." + TaskContract.Instances.INSTANCE_START + ", "
+                    + Tables.INSTANCES + "." + TaskContract.Instances.INSTANCE_DUE + ", "
+                    + Tables.INSTANCES + "." + TaskContract.Instances.INSTANCE_DURATION + ", "
+                    + Tables.INSTANCES + "." + TaskContract.Instances.INSTANCE_START_SORTING + ", "
+                    + Tables.INSTANCES + "." + TaskContract.Instances.INSTANCE_DUE_SORTING + ", "
+                    + Tables.INSTANCES + "." + TaskContract.Instances.DISTANCE_FROM_CURRENT + ", "
+                    + Tables.TASKS + "." + Tasks.LIST_ID + ", "
+                    + Tables.TASKS + "." + Tasks.TITLE + ", "
+                    + Tables.TASKS + "." + Tasks.DESCRIPTION + ", "
+                    + Tables.TASKS + "." + Tasks.IS_ALLDAY + ", "
+                    + Tables.TASKS + "." + Tasks.TZ + ", "
+                    + Tables.TASKS + "." + Tasks.STATUS + ", "
+                    + Tables.TASKS + "." + Tasks.COMPLETED + ", "
+                    + Tables.TASKS + "." + Tasks.IS_CLOSED + ", "
+                    + Tables.TASKS + "." + Tasks.PRIORITY + ", "
+                    + Tables.TASKS + "." + Tasks.PERCENT_COMPLETE + ", "
+                    + Tables.TASKS + "." + Tasks.PINNED + ", "
+                    + Tables.TASKS + "." + Tasks._DELETED + ", "
+                    + Tables.LISTS + "." + TaskLists.LIST_COLOR + ", "
+                    + Tables.LISTS + "." + TaskLists.ACCOUNT_NAME + ", "
+                    + Tables.LISTS + "." + TaskLists.ACCOUNT_TYPE + ", "
+                    + Tables.LISTS + "." + TaskLists.VISIBLE
+                    + " FROM " + Tables.INSTANCES
+                    + " JOIN " + Tables.TASKS + " ON (" + Tables.TASKS + "." + Tasks._ID + "=" + Tables.INSTANCES + "." + TaskContract.Instances.TASK_ID + ")"
+                    + " JOIN " + Tables.LISTS + " ON (" + Tables.TASKS + "." + Tasks.LIST_ID + "=" + Tables.LISTS + "." + TaskLists._ID + ")";
+
+    /**
+     * SQL command to create a trigger that adds the list row of a new instance.
+     */
+    private final static String SQL_CREATE_INSTANCE_LIST_ROWS_INSERT_TRIGGER =
+            "CREATE TRIGGER instance_list_rows_insert_trigger AFTER INSERT ON " + Tables.INSTANCES + " BEGIN "
+                    + SQL_REPLACE_INSTANCE_LIST_ROWS + " WHERE " + Tables.INSTANCES + "." + TaskContract.Instances._ID + " = NEW." + TaskContract.Instances._ID + ";"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that updates the list row of an updated instance when any of the instance columns of the list row changes.
+     */
+    private final static String SQL_CREATE_INSTANCE_LIST_ROWS_UPDATE_TRIGGER =
+            "CREATE TRIGGER instance_list_rows_update_trigger AFTER UPDATE OF "
+                    + TaskContract.Instances.TASK_ID + ", " + TaskContract.Instances.INSTANCE_START + ", " + TaskContract.Instances.INSTANCE_DUE + ", "
+                    + TaskContract.Instances.INSTANCE_DURATION + ", " + TaskContract.Instances.INSTANCE_START_SORTING + ", "
+                    + TaskContract.Instances.INSTANCE_DUE_SORTING + ", " + TaskContract.Instances.DISTANCE_FROM_CURRENT + " ON " + Tables.INSTANCES + " BEGIN "
+                    + SQL_REPLACE_INSTANCE_LIST_ROWS + " WHERE " + Tables.INSTANCES + "." + TaskContract.Instances._ID + " = NEW." + TaskContract.Instances._ID + ";"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that removes the list row of a removed instance. This also covers removed tasks and lists, since their instances are
+     * removed by the respective cleanup triggers.
+     */
+    private final static String SQL_CREATE_INSTANCE_LIST_ROWS_DELETE_TRIGGER =
+            "CREATE TRIGGER instance_list_rows_delete_trigger AFTER DELETE ON " + Tables.INSTANCES + " BEGIN "
+                    + " DELETE FROM " + Tables.INSTANCE_LIST_ROWS + " WHERE " + TaskContract.Instances._ID + " = OLD." + TaskContract.Instances._ID + ";"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that updates the list rows of all instances of a task when any of the relevant task columns changes.
+     */
+    private final static String SQL_CREATE_INSTANCE_LIST_ROWS_TASK_UPDATE_TRIGGER =
+            "CREATE TRIGGER instance_list_rows_task_update_trigger AFTER UPDATE OF "
+                    + Tasks.LIST_ID + ", " + Tasks.TITLE + ", " + Tasks.DESCRIPTION + ", " + Tasks.IS_ALLDAY + ", " + Tasks.TZ + ", " + Tasks.STATUS + ", "
+                    + Tasks.COMPLETED + ", " + Tasks.IS_CLOSED + ", " + Tasks.PRIORITY + ", " + Tasks.PERCENT_COMPLETE + ", " + Tasks.PINNED + ", "
+                    + Tasks._DELETED + " ON " + Tables.TASKS + " BEGIN "
+                    + SQL_REPLACE_INSTANCE_LIST_ROWS + " WHERE " + Tables.INSTANCES + "." + TaskContract.Instances.TASK_ID + " = NEW." + Tasks._ID + ";"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that updates the list rows of all instances in a list when any of the relevant list columns changes.
+     */
+    private final static String SQL_CREATE_INSTANCE_LIST_ROWS_LIST_UPDATE_TRIGGER =
+            "CREATE TRIGGER instance_list_rows_list_update_trigger AFTER UPDATE OF "
+                    + TaskLists.LIST_COLOR + ", " + TaskLists.ACCOUNT_NAME + ", " + TaskLists.ACCOUNT_TYPE + ", " + TaskLists.VISIBLE + " ON " + Tables.LISTS
+                    + " BEGIN "
+                    + " UPDATE " + Tables.INSTANCE_LIST_ROWS + " SET "
+                    + TaskContract.Instances.LIST_COLOR + " = NEW." + TaskLists.LIST_COLOR + ", "
+                    + TaskContract.Instances.ACCOUNT_NAME + " = NEW." + TaskLists.ACCOUNT_NAME + ", "
+                    + TaskContract.Instances.ACCOUNT_TYPE + " = NEW." + TaskLists.ACCOUNT_TYPE + ", "
+                    + TaskContract.Instances.VISIBLE + " = NEW." + TaskLists.VISIBLE
+                    + " WHERE " + TaskContract.Instances.LIST_ID + " = NEW." + TaskLists._ID + ";"
+                    + " END;";
+
+    /**
+     * SQL command to create the task hierarchy closure table.
+     */
+    private final static String SQL_CREATE_TASK_HIERARCHY_TABLE =
+            "CREATE TABLE " + Tables.TASK_HIERARCHY + " ( "
+                    + TaskHierarchy.ANCESTOR_ID + " INTEGER NOT NULL, "
+                    + TaskHierarchy.DESCENDANT_ID + " INTEGER NOT NULL, "
+                    + TaskHierarchy.DISTANCE + " INTEGER NOT NULL, "
+                    + "PRIMARY KEY (" + TaskHierarchy.ANCESTOR_ID + ", " + TaskHierarchy.DESCENDANT_ID + "));";
+
+    /**
+     * SQL command to create a trigger that adds the ancestors of a new task with a parent.
+     */
+    private final static String SQL_CREATE_TASK_HIERARCHY_INSERT_TRIGGER =
+            "CREATE TRIGGER task_hierarchy_insert_trigger AFTER INSERT ON " + Tables.TASKS + " WHEN NEW." + Tasks.PARENT_ID + " IS NOT NULL BEGIN "
+                    + " INSERT OR IGNORE INTO " + Tables.TASK_HIERARCHY
+                    + " (" + TaskHierarchy.ANCESTOR_ID + ", " + TaskHierarchy.DESCENDANT_ID + ", " + TaskHierarchy.DISTANCE + ")"
+                    + " SELECT " + TaskHierarchy.ANCESTOR_ID + ", NEW." + Tasks._ID + ", " + TaskHierarchy.DISTANCE + " + 1 FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.DESCENDANT_ID + " = NEW." + Tasks.PARENT_ID
+                    + " UNION ALL SELECT NEW." + Tasks.PARENT_ID + ", NEW." + Tasks._ID + ", 1;"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that moves the subtree of a task when its parent changes. The subtree is detached from all old ancestors of the task
+     * and attached to the new parent and all of its ancestors. This covers all writers of {@link Tasks#PARENT_ID}, including relations and sync adapters.
+     */
+    private final static String SQL_CREATE_TASK_HIERARCHY_UPDATE_TRIGGER =
+            "CREATE TRIGGER task_hierarchy_update_trigger AFTER UPDATE OF " + Tasks.PARENT_ID + " ON " + Tables.TASKS
+                    + " WHEN OLD." + Tasks.PARENT_ID + " IS NOT NEW." + Tasks.PARENT_ID + " BEGIN "
+                    + " DELETE FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.ANCESTOR_ID + " IN (SELECT " + TaskHierarchy.ANCESTOR_ID + " FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.DESCENDANT_ID + " = NEW." + Tasks._ID + ")"
+                    + " AND (" + TaskHierarchy.DESCENDANT_ID + " = NEW." + Tasks._ID
+                    + " OR " + TaskHierarchy.DESCENDANT_ID + " IN (SELECT " + TaskHierarchy.DESCENDANT_ID + " FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.ANCESTOR_ID + " = NEW." + Tasks._ID + "));"
+                    + " INSERT OR IGNORE INTO " + Tables.TASK_HIERARCHY
+                    + " (" + TaskHierarchy.ANCESTOR_ID + ", " + TaskHierarchy.DESCENDANT_ID + ", " + TaskHierarchy.DISTANCE + ")"
+                    + " SELECT a." + TaskHierarchy.ANCESTOR_ID + ", d." + TaskHierarchy.DESCENDANT_ID
+                    + ", a." + TaskHierarchy.DISTANCE + " + d." + TaskHierarchy.DISTANCE + " + 1"
+                    + " FROM (SELECT " + TaskHierarchy.ANCESTOR_ID + ", " + TaskHierarchy.DISTANCE + " FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.DESCENDANT_ID + " = NEW." + Tasks.PARENT_ID
+                    + " UNION ALL SELECT NEW." + Tasks.PARENT_ID + ", 0) a,"
+                    + " (SELECT " + TaskHierarchy.DESCENDANT_ID + ", " + TaskHierarchy.DISTANCE + " FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.ANCESTOR_ID + " = NEW." + Tasks._ID
+                    + " UNION ALL SELECT NEW." + Tasks._ID + ", 0) d"
+                    // don't create any loops if a task has been moved into its own subtree
+                    + " WHERE NEW." + Tasks.PARENT_ID + " IS NOT NULL AND a." + TaskHierarchy.ANCESTOR_ID + " != d." + TaskHierarchy.DESCENDANT_ID + ";"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that removes a removed task from the hierarchy. Its subtree is detached from its ancestors, just like the children
+     * of a removed task are orphaned.
+     */
+    private final static String SQL_CREATE_TASK_HIERARCHY_DELETE_TRIGGER =
+            "CREATE TRIGGER task_hierarchy_delete_trigger AFTER DELETE ON " + Tables.TASKS + " BEGIN "
+                    + " DELETE FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.ANCESTOR_ID + " IN (SELECT " + TaskHierarchy.ANCESTOR_ID + " FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.DESCENDANT_ID + " = OLD." + Tasks._ID + ")"
+                    + " AND " + TaskHierarchy.DESCENDANT_ID + " IN (SELECT " + TaskHierarchy.DESCENDANT_ID + " FROM " + Tables.TASK_HIERARCHY
+                    + " WHERE " + TaskHierarchy.ANCESTOR_ID + " = OLD." + Tasks._ID + ");"
+                    + " DELETE FROM " + Tables.TASK_HIERARCHY + " WHERE " + TaskHierarchy.ANCESTOR_ID + " = OLD." + Tasks._ID
+                    + " OR " + TaskHierarchy.DESCENDANT_ID + " = OLD." + Tasks._ID + ";"
+                    + " END;";
+
+    /**
+     * SQL command to create the table of upcoming start and due notifications.
+     */
+    private final static String SQL_CREATE_UPCOMING_TRIGGERS_TABLE =
+            "CREATE TABLE " + Tables.UPCOMING_TRIGGERS + " ( "
+                    + UpcomingTriggers.INSTANCE_ID + " INTEGER NOT NULL, "
+                    + UpcomingTriggers.TRIGGER_TYPE + " INTEGER NOT NULL, "
+                    + UpcomingTriggers.TRIGGER_TIME + " INTEGER NOT NULL);";
+
+    /**
+     * SQL command to create a trigger that adds the triggers of a new instance.
+     */
+    private final static String SQL_CREATE_UPCOMING_TRIGGERS_INSERT_TRIGGER =
+            "CREATE TRIGGER upcoming_triggers_insert_trigger AFTER INSERT ON " + Tables.INSTANCES + " BEGIN "
+                    + insertUpcomingTriggers(Tables.INSTANCES + "." + TaskContract.Instances._ID + " = NEW." + TaskContract.Instances._ID)
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that recomputes the triggers of an instance when its start or due date changes.
+     */
+    private final static String SQL_CREATE_UPCOMING_TRIGGERS_UPDATE_TRIGGER =
+            "CREATE TRIGGER upcoming_triggers_update_trigger AFTER UPDATE OF "
+                    + TaskContract.Instances.INSTANCE_START_SORTING + ", " + TaskContract.Instances.INSTANCE_DUE_SORTING + " ON " + Tables.INSTANCES + " BEGIN "
+                    + " DELETE FROM " + Tables.UPCOMING_TRIGGERS + " WHERE " + UpcomingTriggers.INSTANCE_ID + " = OLD." + TaskContract.Instances._ID + ";"
+                    + insertUpcomingTriggers(Tables.INSTANCES + "." + TaskContract.Instances._ID + " = NEW." + TaskContract.Instances._ID)
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that removes the triggers of a removed instance. This also covers removed tasks and lists, since their instances are
+     * removed by the respective cleanup triggers.
+     */
+    private final static String SQL_CREATE_UPCOMING_TRIGGERS_DELETE_TRIGGER =
+            "CREATE TRIGGER upcoming_triggers_delete_trigger AFTER DELETE ON " + Tables.INSTANCES + " BEGIN "
+                    + " DELETE FROM " + Tables.UPCOMING_TRIGGERS + " WHERE " + UpcomingTriggers.INSTANCE_ID + " = OLD." + TaskContract.Instances._ID + ";"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that recomputes the triggers of all instances of a task when the task is closed, reopened or deleted.
+     */
+    private final static String SQL_CREATE_UPCOMING_TRIGGERS_TASK_UPDATE_TRIGGER =
+            "CREATE TRIGGER upcoming_triggers_task_update_trigger AFTER UPDATE OF " + Tasks.IS_CLOSED + ", " + Tasks._DELETED + " ON " + Tables.TASKS
+                    + " WHEN OLD." + Tasks.IS_CLOSED + " IS NOT NEW." + Tasks.IS_CLOSED + " OR OLD." + Tasks._DELETED + " IS NOT NEW." + Tasks._DELETED
+                    + " BEGIN "
+                    + " DELETE FROM " + Tables.UPCOMING_TRIGGERS + " WHERE " + UpcomingTriggers.INSTANCE_ID + " IN (SELECT " + TaskContract.Instances._ID
+                    + " FROM " + Tables.INSTANCES + " WHERE " + TaskContract.Instances.TASK_ID + " = NEW." + Tasks._ID + ");"
+                    + insertUpcomingTriggers(Tables.INSTANCES + "." + TaskContract.Instances.TASK_ID + " = NEW." + Tasks._ID)
+                    + " END;";
+
     /**
      * SQL command to create a trigger to clean up data of removed tasks.
      */
@@ -304,6 +613,69 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
                     + " DELETE FROM " + Tables.TASKS + " WHERE " + Tasks.LIST_ID + "= old." + TaskLists._ID + ";"
                     + " END;";
 
+    /**
+     * SQL command to create the table of deleted lists whose tasks still need to be removed.
+     */
+    private final static String SQL_CREATE_PENDING_LIST_DELETIONS_TABLE =
+            "CREATE TABLE " + Tables.PENDING_LIST_DELETIONS + " ( "
+                    + PendingListDeletions.LIST_ID + " INTEGER PRIMARY KEY);";
+
+    /**
+     * SQL command to create a trigger which defers the clean up of removed lists to the {@link ListCleaner}. It only hides the instance list rows of the list
+     * right away. All other data of the list is hidden by the views, which don't return tasks without a list.
+     */
+    private final static String SQL_CREATE_LISTS_DEFERRED_CLEANUP_TRIGGER =
+            "CREATE TRIGGER list_deferred_cleanup_trigger AFTER DELETE ON " + Tables.LISTS
+                    + " BEGIN "
+                    + " INSERT OR IGNORE INTO " + Tables.PENDING_LIST_DELETIONS + " (" + PendingListDeletions.LIST_ID + ") VALUES (old." + TaskLists._ID + ");"
+                    + " DELETE FROM " + Tables.INSTANCE_LIST_ROWS + " WHERE " + TaskContract.Instances.LIST_ID + " = old." + TaskLists._ID + ";"
+                    + " END;";
+
+    /**
+     * The current time in milliseconds since the epoch in SQL.
+     */
+    private final static String SQL_NOW = "CAST(strftime('%s', 'now') AS INTEGER) * 1000";
+
+    /**
+     * SQL command to create the table of tombstones.
+     */
+    private final static String SQL_CREATE_TOMBSTONES_TABLE =
+            "CREATE TABLE " + Tables.TOMBSTONES + " ( "
+                    + Tombstones.TASK_ID + " INTEGER PRIMARY KEY, "
+                    + Tombstones.DELETED_TIME + " INTEGER NOT NULL);";
+
+    /**
+     * SQL command to create a trigger that records the deletion time of tasks which are inserted as deleted, e.g. when a deleted task is moved to another
+     * list.
+     */
+    private final static String SQL_CREATE_TOMBSTONES_INSERT_TRIGGER =
+            "CREATE TRIGGER tombstones_insert_trigger AFTER INSERT ON " + Tables.TASKS + " WHEN NEW." + Tasks._DELETED + " = 1"
+                    + " BEGIN "
+                    + " INSERT OR REPLACE INTO " + Tables.TOMBSTONES + " (" + Tombstones.TASK_ID + ", " + Tombstones.DELETED_TIME + ")"
+                    + " VALUES (NEW." + Tasks._ID + ", " + SQL_NOW + ");"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that records the deletion time of a task when it's marked as deleted and forgets it when it's restored.
+     */
+    private final static String SQL_CREATE_TOMBSTONES_UPDATE_TRIGGER =
+            "CREATE TRIGGER tombstones_update_trigger AFTER UPDATE OF " + Tasks._DELETED + " ON " + Tables.TASKS
+                    + " WHEN OLD." + Tasks._DELETED + " IS NOT NEW." + Tasks._DELETED
+                    + " BEGIN "
+                    + " DELETE FROM " + Tables.TOMBSTONES + " WHERE " + Tombstones.TASK_ID + " = NEW." + Tasks._ID + ";"
+                    + " INSERT INTO " + Tables.TOMBSTONES + " (" + Tombstones.TASK_ID + ", " + Tombstones.DELETED_TIME + ")"
+                    + " SELECT NEW." + Tasks._ID + ", " + SQL_NOW + " WHERE NEW." + Tasks._DELETED + " = 1;"
+                    + " END;";
+
+    /**
+     * SQL command to create a trigger that removes the tombstone of a removed task.
+     */
+    private final static String SQL_CREATE_TOMBSTONES_DELETE_TRIGGER =
+            "CREATE TRIGGER tombstones_delete_trigger AFTER DELETE ON " + Tables.TASKS + " WHEN OLD." + Tasks._DELETED + " = 1"
+                    + " BEGIN "
+                    + " DELETE FROM " + Tables.TOMBSTONES + " WHERE " + Tombstones.TASK_ID + " = OLD." + Tasks._ID + ";"
+                    + " END;";
+
     /**
      * SQL command to drop the clean up trigger.
      */
@@ -539,6 +911,34 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
     private final static String SQL_DROP_PROPERTIES_TABLE = "DROP TABLE " + Tables.PROPERTIES + ";";
 
 
+    /**
+     * Returns the SQL statements to add the start and due triggers of all open instances which match the given condition.
+     *
+     * @param where
+     *         A condition on the {@link Tables#INSTANCES} table.
+     *
+     * @return The SQL statements, each one terminated by a ";".
+     */
+    private static String insertUpcomingTriggers(String where)
+    {
+        return insertUpcomingTriggers(UpcomingTriggers.TYPE_START, TaskContract.Instances.INSTANCE_START_SORTING, where)
+                + insertUpcomingTriggers(UpcomingTriggers.TYPE_DUE, TaskContract.Instances.INSTANCE_DUE_SORTING, where);
+    }
+
+
+    private static String insertUpcomingTriggers(int type, String timeColumn, String where)
+    {
+        return " INSERT INTO " + Tables.UPCOMING_TRIGGERS
+                + " (" + UpcomingTriggers.INSTANCE_ID + ", " + UpcomingTriggers.TRIGGER_TYPE + ", " + UpcomingTriggers.TRIGGER_TIME + ")"
+                + " SELECT " + Tables.INSTANCES + "." + TaskContract.Instances._ID + ", " + type + ", " + Tables.INSTANCES + "." + timeColumn
+                + " FROM " + Tables.INSTANCES
+                + " JOIN " + Tables.TASKS + " ON (" + Tables.TASKS + "." + Tasks._ID + "=" + Tables.INSTANCES + "." + TaskContract.Instances.TASK_ID + ")"
+                + " WHERE " + Tables.INSTANCES + "." + timeColumn + " IS NOT NULL"
+                + " AND " + Tables.TASKS + "." + Tasks.IS_CLOSED + " = 0 AND " + Tables.TASKS + "." + Tasks._DELETED + " = 0"
+                + " AND " + where + ";";
+    }
+
+
     /**
      * Builds a string that creates an index on the given table for the given columns.
      *
@@ -581,6 +981,11 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
 
     private final OnDatabaseOperationListener mListener;
 
+    /**
+     * Whether the database needs to be converted to incremental vacuum after the upgrade.
+     */
+    private boolean mConvertToIncrementalVacuum;
+
 
     TaskDatabaseHelper(Context context, OnDatabaseOperationListener listener)
     {
@@ -589,6 +994,48 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
     }
 
 
+    /**
+     * Enables incremental vacuum. This only takes effect on new databases, existing databases are converted once after the upgrade to version 30, see {@link
+     * #onOpen(SQLiteDatabase)}.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db)
+    {
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
+    }
+
+
+    /**
+     * Completes the migration to incremental vacuum and notifies the listener when the database has been opened, which is when the database is used for the
+     * first time.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db)
+    {
+        super.onOpen(db);
+        if (mConvertToIncrementalVacuum)
+        {
+            mConvertToIncrementalVacuum = false;
+            // VACUUM applies the auto_vacuum mode set in onConfigure, it can't run in the upgrade transaction, so it's done right after the upgrade
+            long start = System.currentTimeMillis();
+            try
+            {
+                db.execSQL("VACUUM;");
+                Log.i(TAG, "converted database to incremental vacuum in " + (System.currentTimeMillis() - start) + " ms");
+            }
+            catch (SQLException e)
+            {
+                // not essential, the database just doesn't shrink
+                Log.e(TAG, "could not convert database to incremental vacuum", e);
+            }
+        }
+        if (mListener != null)
+        {
+            mListener.onDatabaseOpened(db);
+        }
+    }
+
+
     /**
      * Creates the tables, views, triggers and indices.
      * <p>
@@ -601,10 +1048,6 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
         // create task list table
         db.execSQL(SQL_CREATE_LISTS_TABLE);
 
-        // trigger that removes tasks of a list that has been removed
-        db.execSQL("CREATE TRIGGER task_list_cleanup_trigger AFTER DELETE ON " + Tables.LISTS + " BEGIN DELETE FROM " + Tables.TASKS + " WHERE "
-                + TaskContract.Tasks.LIST_ID + "= old." + TaskContract.TaskLists._ID + "; END");
-
         // create task table
         db.execSQL(SQL_CREATE_TASKS_TABLE);
 
@@ -662,6 +1105,12 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
                 TaskContract.Categories.NAME));
         db.execSQL(createIndexString(Tables.CATEGORIES, false, TaskContract.Categories.NAME));
         db.execSQL(createIndexString(Tables.SYNCSTATE, true, TaskContract.SyncState.ACCOUNT_NAME, TaskContract.SyncState.ACCOUNT_TYPE));
+        db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks.ORIGINAL_INSTANCE_ID));
+        db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks.ORIGINAL_INSTANCE_SYNC_ID));
+        db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks._SYNC_ID));
+        db.execSQL(createIndexString(Tables.PROPERTIES, false, TaskContract.Property.Relation.RELATED_ID, TaskContract.Property.Relation.MIMETYPE));
+        db.execSQL(createIndexString(Tables.PROPERTIES, false, TaskContract.Property.Relation.RELATED_UID, TaskContract.Property.Relation.MIMETYPE));
+        db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks._UID));
 
         // trigger that removes properties of a task that has been removed
         db.execSQL(SQL_CREATE_TASKS_CLEANUP_TRIGGER);
@@ -669,8 +1118,6 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
         // trigger that removes alarms when an alarm property was deleted
         db.execSQL(SQL_CREATE_ALARM_PROPERTY_CLEANUP_TRIGGER);
 
-        // trigger that removes tasks when a list was removed
-        db.execSQL(SQL_CREATE_LISTS_CLEANUP_TRIGGER);
 
         // trigger that counts the alarms for tasks
         db.execSQL(SQL_CREATE_ALARM_COUNT_CREATE_TRIGGER);
@@ -680,6 +1127,19 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
         // add cleanup trigger for orphaned properties
         db.execSQL(SQL_CREATE_TASK_PROPERTY_CLEANUP_TRIGGER);
 
+        // create the instance list rows table
+        createInstanceListRows(db);
+
+        // create the task hierarchy table
+        createTaskHierarchy(db);
+
+        // create the upcoming triggers table
+        createUpcomingTriggers(db);
+
+        // create the table of pending list deletions and the trigger that fills it
+        createPendingListDeletions(db);
+        createTombstones(db);
+
         // initialize FTS
         FTSDatabaseHelper.onCreate(db);
 
@@ -690,6 +1150,108 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
     }
 
 
+    /**
+     * Creates the instance list rows table with its triggers and indices.
+     */
+    private void createInstanceListRows(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_INSTANCE_LIST_ROWS_TABLE);
+        db.execSQL(SQL_CREATE_INSTANCE_LIST_ROWS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_INSTANCE_LIST_ROWS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_INSTANCE_LIST_ROWS_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_INSTANCE_LIST_ROWS_TASK_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_INSTANCE_LIST_ROWS_LIST_UPDATE_TRIGGER);
+        db.execSQL(createIndexString(Tables.INSTANCE_LIST_ROWS, false, TaskContract.Instances.INSTANCE_DUE_SORTING));
+        db.execSQL(createIndexString(Tables.INSTANCE_LIST_ROWS, false, TaskContract.Instances.INSTANCE_START_SORTING));
+        db.execSQL(createIndexString(Tables.INSTANCE_LIST_ROWS, false, TaskContract.Instances.TASK_ID));
+        db.execSQL(createIndexString(Tables.INSTANCE_LIST_ROWS, false, TaskContract.Instances.LIST_ID));
+    }
+
+
+    /**
+     * Creates the task hierarchy table with its triggers and indices.
+     */
+    private void createTaskHierarchy(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_TASK_HIERARCHY_TABLE);
+        db.execSQL(SQL_CREATE_TASK_HIERARCHY_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_TASK_HIERARCHY_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_TASK_HIERARCHY_DELETE_TRIGGER);
+        db.execSQL(createIndexString(Tables.TASK_HIERARCHY, false, TaskHierarchy.DESCENDANT_ID));
+    }
+
+
+    /**
+     * Creates the upcoming triggers table with its triggers and indices.
+     */
+    private void createUpcomingTriggers(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_UPCOMING_TRIGGERS_TABLE);
+        db.execSQL(SQL_CREATE_UPCOMING_TRIGGERS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_UPCOMING_TRIGGERS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_UPCOMING_TRIGGERS_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_UPCOMING_TRIGGERS_TASK_UPDATE_TRIGGER);
+        db.execSQL(createIndexString(Tables.UPCOMING_TRIGGERS, false, UpcomingTriggers.TRIGGER_TIME));
+        db.execSQL(createIndexString(Tables.UPCOMING_TRIGGERS, false, UpcomingTriggers.INSTANCE_ID));
+    }
+
+
+    /**
+     * Creates the pending list deletions table with the trigger which defers the clean up of removed lists and the index the clean up relies on.
+     */
+    private void createPendingListDeletions(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_PENDING_LIST_DELETIONS_TABLE);
+        db.execSQL(SQL_CREATE_LISTS_DEFERRED_CLEANUP_TRIGGER);
+        db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks.LIST_ID));
+    }
+
+
+    /**
+     * Creates the tombstones table with its triggers.
+     */
+    private void createTombstones(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_TOMBSTONES_TABLE);
+        db.execSQL(SQL_CREATE_TOMBSTONES_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_TOMBSTONES_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_TOMBSTONES_DELETE_TRIGGER);
+    }
+
+
+    /**
+     * Populates the task hierarchy table with the ancestors of all existing tasks, one level at a time.
+     */
+    private void populateTaskHierarchy(SQLiteDatabase db)
+    {
+        db.execSQL("INSERT OR IGNORE INTO " + Tables.TASK_HIERARCHY
+                + " (" + TaskHierarchy.ANCESTOR_ID + ", " + TaskHierarchy.DESCENDANT_ID + ", " + TaskHierarchy.DISTANCE + ")"
+                + " SELECT " + Tasks.PARENT_ID + ", " + Tasks._ID + ", 1 FROM " + Tables.TASKS + " WHERE " + Tasks.PARENT_ID + " IS NOT NULL;");
+
+        SQLiteStatement nextLevel = db.compileStatement("INSERT OR IGNORE INTO " + Tables.TASK_HIERARCHY
+                + " (" + TaskHierarchy.ANCESTOR_ID + ", " + TaskHierarchy.DESCENDANT_ID + ", " + TaskHierarchy.DISTANCE + ")"
+                + " SELECT h." + TaskHierarchy.ANCESTOR_ID + ", t." + Tasks._ID + ", h." + TaskHierarchy.DISTANCE + " + 1"
+                + " FROM " + Tables.TASKS + " t JOIN " + Tables.TASK_HIERARCHY + " h ON (h." + TaskHierarchy.DESCENDANT_ID + " = t." + Tasks.PARENT_ID + ")"
+                + " WHERE h." + TaskHierarchy.DISTANCE + " = ? AND h." + TaskHierarchy.ANCESTOR_ID + " != t." + Tasks._ID + ";");
+        try
+        {
+            // ignored rows don't count, so this terminates even if the existing data contains loops
+            for (long distance = 1; ; ++distance)
+            {
+                nextLevel.bindLong(1, distance);
+                if (nextLevel.executeUpdateDelete() == 0)
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            nextLevel.close();
+        }
+    }
+
+
     /**
      * Manages the database schema migration.
      */
@@ -883,6 +1445,70 @@ public class TaskDatabaseHelper extends SQLiteOpenHelper
             db.execSQL(SQL_CREATE_INSTANCE_CLIENT_VIEW);
         }
 
+        if (oldVersion < 24)
+        {
+            // indices for frequent queries which used to require full table scans, see QueryPlanAdvisor
+            db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks.ORIGINAL_INSTANCE_ID));
+            db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks.ORIGINAL_INSTANCE_SYNC_ID));
+            db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks._SYNC_ID));
+            db.execSQL(createIndexString(Tables.PROPERTIES, false, TaskContract.Property.Relation.RELATED_ID, TaskContract.Property.Relation.MIMETYPE));
+            db.execSQL(createIndexString(Tables.PROPERTIES, false, TaskContract.Property.Relation.RELATED_UID, TaskContract.Property.Relation.MIMETYPE));
+        }
+
+        if (oldVersion < 25)
+        {
+            // add the instance list rows table and populate it with the existing instances
+            createInstanceListRows(db);
+            db.execSQL(SQL_REPLACE_INSTANCE_LIST_ROWS + ";");
+        }
+
+        if (oldVersion < 26)
+        {
+            // relations are resolved by UID, see RelationResolver
+            db.execSQL(createIndexString(Tables.TASKS, false, TaskContract.Tasks._UID));
+        }
+
+        if (oldVersion < 27)
+        {
+            // add the task hierarchy table and populate it with the existing tasks
+            createTaskHierarchy(db);
+            populateTaskHierarchy(db);
+        }
+
+        if (oldVersion < 28)
+        {
+            // add the upcoming triggers table and populate it with the existing instances
+            createUpcomingTriggers(db);
+            db.execSQL(insertUpcomingTriggers(UpcomingTriggers.TYPE_START, TaskContract.Instances.INSTANCE_START_SORTING, "1=1"));
+            db.execSQL(insertUpcomingTriggers(UpcomingTriggers.TYPE_DUE, TaskContract.Instances.INSTANCE_DUE_SORTING, "1=1"));
+        }
+
+        if (oldVersion < 29)
+        {
+            // removing a list no longer removes its tasks in the same transaction, see ListCleaner
+            db.execSQL("DROP TRIGGER IF EXISTS task_list_cleanup_trigger;");
+            db.execSQL("DROP TRIGGER IF EXISTS list_cleanup_trigger;");
+            createPendingListDeletions(db);
+        }
+
+        if (oldVersion < 30)
+        {
+            // add the tombstones table, the deletion time of existing tombstones is unknown, so their age is counted from now on
+            createTombstones(db);
+            db.execSQL("INSERT INTO " + Tables.TOMBSTONES + " (" + Tombstones.TASK_ID + ", " + Tombstones.DELETED_TIME + ")"
+                    + " SELECT " + Tasks._ID + ", " + SQL_NOW + " FROM " + Tables.TASKS + " WHERE " + Tasks._DELETED + " = 1;");
+
+            // databases created before version 30 don't use incremental vacuum yet, they are converted once the upgrade is complete
+            mConvertToIncrementalVacuum = true;
+        }
+
+        if (oldVersion < 31)
+        {
+            // the list row of an instance is only updated if one of the columns it contains changes
+            db.execSQL("DROP TRIGGER IF EXISTS instance_list_rows_update_trigger;");
+            db.execSQL(SQL_CREATE_INSTANCE_LIST_ROWS_UPDATE_TRIGGER);
+        }
+
         // upgrade FTS
         FTSDatabaseHelper.onUpgrade(db, oldVersion, newVersion);
 
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.utils.TaskCopyStatement;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.Locale;
+
+
+/**
+ * Moves tasks to another list with a few set based statements instead of passing each task through the processor chain.
+ * <p>
+ * This has the same semantics as {@link org.dmfs.provider.tasks.processors.tasks.Moving}. Sync adapters are not expected to support moving tasks, so
+ * every moved task that has been synced leaves a deleted copy with the old sync values in the old list. The moved tasks lose their sync values and
+ * become dirty, so they look like new tasks to the sync adapter of the new list. Recurring tasks are always moved together with all of their
+ * exceptions.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class TaskMover
+{
+    private final static String MOVED_TABLE = "temp.moved_tasks";
+    private final static String TASK_ID = "task_id";
+    private final static String DELETED_ID = "deleted_id";
+
+    private final static String MOVED_IDS = String.format(Locale.ENGLISH, "(select %s from %s)", TASK_ID, MOVED_TABLE);
+
+    /**
+     * Adds the masters and all exceptions of the moved tasks which are not in the new list yet.
+     */
+    private final static String SQL_ADD_SERIES = String.format(Locale.ENGLISH,
+            "insert or ignore into %1$s (%2$s) select %3$s from %4$s where %5$s != ? and (%3$s in (select %6$s from %4$s where %3$s in %7$s) "
+                    + "or %6$s in (select coalesce(%6$s, %3$s) from %4$s where %3$s in %7$s))",
+            MOVED_TABLE, TASK_ID, Tasks._ID, Tables.TASKS, Tasks.LIST_ID, Tasks.ORIGINAL_INSTANCE_ID, MOVED_IDS);
+
+    /**
+     * Selects the moved tasks which have been synced and therefore need a deleted copy.
+     */
+    private final static String SQL_SYNCED = String.format(Locale.ENGLISH,
+            "select %1$s from %2$s where %1$s in %3$s and (%4$s is not null or %5$s is not null or %6$s is not null)",
+            Tasks._ID, Tables.TASKS, MOVED_IDS, Tasks._SYNC_ID, Tasks.ORIGINAL_INSTANCE_SYNC_ID, Tasks.SYNC_VERSION);
+
+    /**
+     * Links the deleted copies of exceptions to the deleted copy of their master, just like the sync adapter would see them if the series was deleted.
+     */
+    private final static String SQL_LINK_DELETED_EXCEPTIONS = String.format(Locale.ENGLISH,
+            "update %1$s set %2$s = (select %3$s from %4$s where %5$s = %1$s.%2$s) where %6$s in (select %3$s from %4$s where %3$s is not null) "
+                    + "and %2$s is not null",
+            Tables.TASKS, Tasks.ORIGINAL_INSTANCE_ID, DELETED_ID, MOVED_TABLE, TASK_ID, Tasks._ID);
+
+    /**
+     * Moves the tasks and clears all sync values.
+     */
+    private final static String SQL_MOVE = String.format(Locale.ENGLISH,
+            "update %1$s set %2$s = ?, %3$s = 1, %4$s = ?, %5$s = null, %6$s = null, %7$s = null, %8$s = null, %9$s = null, %10$s = null, %11$s = null, "
+                    + "%12$s = null, %13$s = null, %14$s = null, %15$s = null where %16$s in %17$s",
+            Tables.TASKS, Tasks.LIST_ID, Tasks._DIRTY, Tasks.LAST_MODIFIED, Tasks.SYNC1, Tasks.SYNC2, Tasks.SYNC3, Tasks.SYNC4, Tasks.SYNC5, Tasks.SYNC6,
+            Tasks.SYNC7, Tasks.SYNC8, Tasks._SYNC_ID, Tasks.SYNC_VERSION, Tasks.ORIGINAL_INSTANCE_SYNC_ID, Tasks._ID, MOVED_IDS);
+
+
+    /**
+     * Moves all tasks matching the given selection to the given list.
+     *
+     * @param db
+     *         The database, this must be called within a transaction.
+     * @param selection
+     *         The selection on {@link Tables#TASKS_VIEW}.
+     * @param selectionArgs
+     *         The arguments of the selection.
+     * @param listId
+     *         The id of the list to move the tasks to.
+     *
+     * @return The number of tasks that match the selection, including the tasks which are in the given list already.
+     */
+    int move(SQLiteDatabase db, String selection, String[] selectionArgs, long listId)
+    {
+        int count = (int) DatabaseUtils.queryNumEntries(db, Tables.TASKS_VIEW, selection, selectionArgs);
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        db.execSQL(String.format(Locale.ENGLISH, "create temp table if not exists %s (%s integer primary key, %s integer)", MOVED_TABLE, TASK_ID,
+                DELETED_ID));
+        try
+        {
+            db.execSQL(String.format(Locale.ENGLISH, "insert into %s (%s) select %s from %s where %s", MOVED_TABLE, TASK_ID, Tasks._ID, Tables.TASKS_VIEW,
+                    DatabaseUtils.concatenateWhere(selection, Tasks.LIST_ID + " != " + listId)), selectionArgs == null ? new Object[0] : selectionArgs);
+            db.execSQL(SQL_ADD_SERIES, new Object[] { listId });
+
+            insertDeletedCopies(db);
+
+            db.execSQL(SQL_LINK_DELETED_EXCEPTIONS);
+            db.execSQL(SQL_MOVE, new Object[] { listId, System.currentTimeMillis() });
+        }
+        finally
+        {
+            db.execSQL(String.format(Locale.ENGLISH, "delete from %s", MOVED_TABLE));
+        }
+        return count;
+    }
+
+
+    /**
+     * Inserts a deleted copy of each moved task that has been synced into its old list. The new row ids are stored in the moved tasks table.
+     */
+    private void insertDeletedCopies(SQLiteDatabase db)
+    {
+        SQLiteStatement insert = db.compileStatement(new TaskCopyStatement(Tasks._ID + " = ?", Tasks._DELETED, Tasks._DIRTY).value(db));
+        SQLiteStatement link = db.compileStatement(
+                String.format(Locale.ENGLISH, "update %s set %s = ? where %s = ?", MOVED_TABLE, DELETED_ID, TASK_ID));
+        try (Cursor cursor = db.rawQuery(SQL_SYNCED, null))
+        {
+            while (cursor.moveToNext())
+            {
+                long id = cursor.getLong(0);
+                insert.bindLong(1, id);
+                link.bindLong(1, insert.executeInsert());
+                link.bindLong(2, id);
+                link.executeUpdateDelete();
+            }
+        }
+        finally
+        {
+            insert.close();
+            link.close();
+        }
+    }
+}
@@ -35,12 +35,15 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Trace;
 import android.text.TextUtils;
 import android.util.Log;
 
-import org.dmfs.iterables.EmptyIterable;
+import org.dmfs.iterables.SingletonIterable;
 import org.dmfs.provider.tasks.TaskDatabaseHelper.OnDatabaseOperationListener;
 import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.TaskHierarchy;
+import org.dmfs.provider.tasks.handler.CategoryHandler;
 import org.dmfs.provider.tasks.handler.PropertyHandler;
 import org.dmfs.provider.tasks.handler.PropertyHandlerFactory;
 import org.dmfs.provider.tasks.model.ContentValuesListAdapter;
@@ -48,14 +51,17 @@ import org.dmfs.provider.tasks.model.ContentValuesTaskAdapter;
 import org.dmfs.provider.tasks.model.CursorContentValuesInstanceAdapter;
 import org.dmfs.provider.tasks.model.CursorContentValuesListAdapter;
 import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
+import org.dmfs.provider.tasks.model.EntityAdapter;
 import org.dmfs.provider.tasks.model.InstanceAdapter;
 import org.dmfs.provider.tasks.model.ListAdapter;
 import org.dmfs.provider.tasks.model.TaskAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
+import org.dmfs.provider.tasks.processors.Instrumented;
 import org.dmfs.provider.tasks.processors.instances.Detaching;
 import org.dmfs.provider.tasks.processors.instances.TaskValueDelegate;
 import org.dmfs.provider.tasks.processors.lists.ListCommitProcessor;
 import org.dmfs.provider.tasks.processors.tasks.AutoCompleting;
+import org.dmfs.provider.tasks.processors.tasks.Dispatching;
 import org.dmfs.provider.tasks.processors.tasks.Instantiating;
 import org.dmfs.provider.tasks.processors.tasks.Moving;
 import org.dmfs.provider.tasks.processors.tasks.Originating;
@@ -64,6 +70,7 @@ import org.dmfs.provider.tasks.processors.tasks.Reparenting;
 import org.dmfs.provider.tasks.processors.tasks.Searchable;
 import org.dmfs.provider.tasks.processors.tasks.TaskCommitProcessor;
 import org.dmfs.provider.tasks.processors.tasks.Validating;
+import org.dmfs.provider.tasks.utils.RowValues;
 import org.dmfs.tasks.contract.TaskContract;
 import org.dmfs.tasks.contract.TaskContract.Alarms;
 import org.dmfs.tasks.contract.TaskContract.Categories;
@@ -78,10 +85,16 @@ import org.dmfs.tasks.contract.TaskContract.TaskListSyncColumns;
 import org.dmfs.tasks.contract.TaskContract.TaskLists;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -109,6 +122,10 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     private static final int TASK_ID = 102;
     private static final int INSTANCES = 103;
     private static final int INSTANCE_ID = 104;
+    private static final int INSTANCE_LIST_ROWS = 105;
+    private static final int INSTANCES_AGGREGATE = 106;
+    private static final int TASK_DESCENDANTS = 107;
+    private static final int TASK_ANCESTORS = 108;
     private static final int CATEGORIES = 1001;
     private static final int CATEGORY_ID = 1002;
     private static final int PROPERTIES = 1003;
@@ -122,6 +139,26 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     private static final int OPERATIONS = 100000;
 
     private final static Set<String> TASK_LIST_SYNC_COLUMNS = new HashSet<String>(Arrays.asList(TaskLists.SYNC_ADAPTER_COLUMNS));
+
+    /**
+     * The aggregate columns of the instances aggregate {@link Uri} and their respective SQL expressions.
+     */
+    private final static Map<String, String> INSTANCE_AGGREGATES = new HashMap<String, String>();
+
+    static
+    {
+        INSTANCE_AGGREGATES.put(Instances._COUNT, "count(*) as " + Instances._COUNT);
+        INSTANCE_AGGREGATES.put(Instances.AGGREGATE_TASK_COUNT, "count(distinct " + Instances.TASK_ID + ") as " + Instances.AGGREGATE_TASK_COUNT);
+        INSTANCE_AGGREGATES.put(Instances.AGGREGATE_MIN_DUE, "min(" + Instances.INSTANCE_DUE_SORTING + ") as " + Instances.AGGREGATE_MIN_DUE);
+        INSTANCE_AGGREGATES.put(Instances.AGGREGATE_MAX_DUE, "max(" + Instances.INSTANCE_DUE_SORTING + ") as " + Instances.AGGREGATE_MAX_DUE);
+    }
+
+    /**
+     * The columns an instances aggregate query can be grouped by.
+     */
+    private final static Set<String> GROUPABLE_INSTANCE_COLUMNS = new HashSet<String>(
+            Arrays.asList(Instances.LIST_ID, Instances.ACCOUNT_NAME, Instances.ACCOUNT_TYPE, Instances.STATUS, Instances.BUCKET));
+
     private static final String TAG = "TaskProvider";
 
     /**
@@ -154,6 +191,16 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
      */
     Handler mAsyncHandler;
 
+    /**
+     * Removes the tasks of deleted lists in the background.
+     */
+    private ListCleaner mListCleaner;
+
+    /**
+     * Purges old tombstones, cleans up the search index and vacuums the database periodically.
+     */
+    private Maintenance mMaintenance;
+
     /**
      * Boolean to track if there are changes within a transaction.
      * <p>
@@ -161,6 +208,11 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
      */
     private AtomicBoolean mChanged = new AtomicBoolean(false);
 
+    /**
+     * Whether the background work has been started. The database is opened again after it has been closed, but the work must start only once.
+     */
+    private final AtomicBoolean mBackgroundWorkStarted = new AtomicBoolean(false);
+
     /**
      * This is a per transaction/thread flag which indicates whether new lists with an unknown account have been added.
      * If this holds true at the end of a transaction a window should be shown to ask the user for access to that account.
@@ -169,71 +221,134 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
     /**
      * The currently known accounts. This may be accessed from various threads, hence the AtomicReference.
-     * By statring with an empty set, we can always guarantee a non-null reference.
+     * This is {@code null} until the account listener has been registered and called, see {@link #knownAccounts()}.
+     */
+    private AtomicReference<Set<Account>> mAccountCache = new AtomicReference<>();
+
+    /**
+     * The currently active search sessions. These are dropped whenever a transaction changed any data.
+     */
+    private final SearchSessions mSearchSessions = new SearchSessions();
+
+    /**
+     * The number of top search results to re-rank if requested.
+     */
+    private final static int SEARCH_RERANK_TOP_K = 50;
+
+
+    /**
+     * Resolves the relations of synced tasks when a transaction ends.
+     */
+    private final RelationResolver mRelationResolver;
+
+    /**
+     * The metadata of all task lists.
+     */
+    private final ListMetadataCache mListCache = new ListMetadataCache();
+
+    /**
+     * Moves tasks to other lists in bulk.
      */
-    private AtomicReference<Set<Account>> mAccountCache = new AtomicReference<>(Collections.emptySet());
+    private final TaskMover mTaskMover = new TaskMover();
 
 
     public TaskProvider()
     {
-        // for now we don't have anything specific to execute before the transaction ends.
-        super(EmptyIterable.instance());
+        this(new RelationResolver());
+    }
+
+
+    private TaskProvider(RelationResolver relationResolver)
+    {
+        super(new SingletonIterable<>(relationResolver));
+        mRelationResolver = relationResolver;
     }
 
 
     @Override
     public boolean onCreate()
     {
-        mAuthority = AuthorityUtil.taskAuthority(getContext());
-
-        mTaskProcessorChain = new Validating(
-                new AutoCompleting(new Relating(new Reparenting(new Instantiating(new Searchable(new Moving(new Originating(new TaskCommitProcessor()))))))));
+        // onCreate runs whenever the process starts, so keep it short and defer everything else until the database is opened, see onDatabaseOpened
+        long start = System.nanoTime();
+        Trace.beginSection("TaskProvider.onCreate");
+        try
+        {
+            mAuthority = AuthorityUtil.taskAuthority(getContext());
 
-        mListProcessorChain = new org.dmfs.provider.tasks.processors.lists.Validating(new ListCommitProcessor());
+            Trace.beginSection("processor chains");
+            // every stage is instrumented, so the latency histograms show which stage of a chain is slow
+            EntityProcessor<TaskAdapter> tasks = instrumented("tasks.TaskCommitProcessor", new TaskCommitProcessor());
+            tasks = instrumented("tasks.Originating", new Originating(tasks));
+            // updates skip all stages which don't depend on any of the changed fields
+            tasks = instrumented("tasks.Dispatching", new Dispatching(tasks,
+                    new Dispatching.Stage(Relating.UPDATE_DEPENDENCIES, delegate -> instrumented("tasks.Relating", new Relating(delegate, mRelationResolver))),
+                    new Dispatching.Stage(Reparenting.UPDATE_DEPENDENCIES, delegate -> instrumented("tasks.Reparenting", new Reparenting(delegate))),
+                    new Dispatching.Stage(Instantiating.UPDATE_DEPENDENCIES, delegate -> instrumented("tasks.Instantiating", new Instantiating(delegate))),
+                    new Dispatching.Stage(Searchable.UPDATE_DEPENDENCIES, delegate -> instrumented("tasks.Searchable", new Searchable(delegate))),
+                    new Dispatching.Stage(Moving.UPDATE_DEPENDENCIES, delegate -> instrumented("tasks.Moving", new Moving(delegate)))));
+            tasks = instrumented("tasks.AutoCompleting", new AutoCompleting(tasks));
+            mTaskProcessorChain = instrumented("tasks.Validating", new Validating(tasks, mListCache));
 
-        mInstanceProcessorChain = new org.dmfs.provider.tasks.processors.instances.Validating(
-                new Detaching(new TaskValueDelegate(mTaskProcessorChain), mTaskProcessorChain));
+            mListProcessorChain = instrumented("lists.Validating",
+                    new org.dmfs.provider.tasks.processors.lists.Validating(instrumented("lists.ListCommitProcessor", new ListCommitProcessor(mListCache))));
 
-        mUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
-        mUriMatcher.addURI(mAuthority, TaskContract.TaskLists.CONTENT_URI_PATH, LISTS);
+            EntityProcessor<InstanceAdapter> instances = instrumented("instances.Detaching",
+                    new Detaching(instrumented("instances.TaskValueDelegate", new TaskValueDelegate(mTaskProcessorChain)), mTaskProcessorChain));
+            mInstanceProcessorChain = instrumented("instances.Validating", new org.dmfs.provider.tasks.processors.instances.Validating(instances));
+            Trace.endSection();
 
-        mUriMatcher.addURI(mAuthority, TaskContract.TaskLists.CONTENT_URI_PATH + "/#", LIST_ID);
+            Trace.beginSection("uri matcher");
+            mUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+            mUriMatcher.addURI(mAuthority, TaskContract.TaskLists.CONTENT_URI_PATH, LISTS);
 
-        mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH, TASKS);
-        mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH + "/#", TASK_ID);
+            mUriMatcher.addURI(mAuthority, TaskContract.TaskLists.CONTENT_URI_PATH + "/#", LIST_ID);
 
-        mUriMatcher.addURI(mAuthority, TaskContract.Instances.CONTENT_URI_PATH, INSTANCES);
-        mUriMatcher.addURI(mAuthority, TaskContract.Instances.CONTENT_URI_PATH + "/#", INSTANCE_ID);
+            mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH, TASKS);
+            mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH + "/#", TASK_ID);
+            mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH + "/#/" + TaskContract.Tasks.DESCENDANTS_URI_PATH, TASK_DESCENDANTS);
+            mUriMatcher.addURI(mAuthority, TaskContract.Tasks.CONTENT_URI_PATH + "/#/" + TaskContract.Tasks.ANCESTORS_URI_PATH, TASK_ANCESTORS);
 
-        mUriMatcher.addURI(mAuthority, TaskContract.Properties.CONTENT_URI_PATH, PROPERTIES);
-        mUriMatcher.addURI(mAuthority, TaskContract.Properties.CONTENT_URI_PATH + "/#", PROPERTY_ID);
+            mUriMatcher.addURI(mAuthority, TaskContract.Instances.CONTENT_URI_PATH, INSTANCES);
+            mUriMatcher.addURI(mAuthority, TaskContract.Instances.CONTENT_URI_PATH + "/#", INSTANCE_ID);
+            mUriMatcher.addURI(mAuthority, TaskContract.Instances.LIST_ROWS_URI_PATH, INSTANCE_LIST_ROWS);
+            mUriMatcher.addURI(mAuthority, TaskContract.Instances.AGGREGATE_URI_PATH, INSTANCES_AGGREGATE);
 
-        mUriMatcher.addURI(mAuthority, TaskContract.Categories.CONTENT_URI_PATH, CATEGORIES);
-        mUriMatcher.addURI(mAuthority, TaskContract.Categories.CONTENT_URI_PATH + "/#", CATEGORY_ID);
+            mUriMatcher.addURI(mAuthority, TaskContract.Properties.CONTENT_URI_PATH, PROPERTIES);
+            mUriMatcher.addURI(mAuthority, TaskContract.Properties.CONTENT_URI_PATH + "/#", PROPERTY_ID);
 
-        mUriMatcher.addURI(mAuthority, TaskContract.Alarms.CONTENT_URI_PATH, ALARMS);
-        mUriMatcher.addURI(mAuthority, TaskContract.Alarms.CONTENT_URI_PATH + "/#", ALARM_ID);
+            mUriMatcher.addURI(mAuthority, TaskContract.Categories.CONTENT_URI_PATH, CATEGORIES);
+            mUriMatcher.addURI(mAuthority, TaskContract.Categories.CONTENT_URI_PATH + "/#", CATEGORY_ID);
 
-        mUriMatcher.addURI(mAuthority, TaskContract.Tasks.SEARCH_URI_PATH, SEARCH);
+            mUriMatcher.addURI(mAuthority, TaskContract.Alarms.CONTENT_URI_PATH, ALARMS);
+            mUriMatcher.addURI(mAuthority, TaskContract.Alarms.CONTENT_URI_PATH + "/#", ALARM_ID);
 
-        mUriMatcher.addURI(mAuthority, TaskContract.SyncState.CONTENT_URI_PATH, SYNCSTATE);
-        mUriMatcher.addURI(mAuthority, TaskContract.SyncState.CONTENT_URI_PATH + "/#", SYNCSTATE_ID);
+            mUriMatcher.addURI(mAuthority, TaskContract.Tasks.SEARCH_URI_PATH, SEARCH);
 
-        ContentOperation.register(mUriMatcher, mAuthority, OPERATIONS);
+            mUriMatcher.addURI(mAuthority, TaskContract.SyncState.CONTENT_URI_PATH, SYNCSTATE);
+            mUriMatcher.addURI(mAuthority, TaskContract.SyncState.CONTENT_URI_PATH + "/#", SYNCSTATE_ID);
 
-        boolean result = super.onCreate();
+            ContentOperation.register(mUriMatcher, mAuthority, OPERATIONS);
+            Trace.endSection();
 
-        // create a HandlerThread to perform async operations
-        HandlerThread thread = new HandlerThread("backgroundHandler");
-        thread.start();
-        mAsyncHandler = new Handler(thread.getLooper());
+            boolean result = super.onCreate();
 
-        AccountManager accountManager = AccountManager.get(getContext());
-        accountManager.addOnAccountsUpdatedListener(this, mAsyncHandler, true);
+            Trace.beginSection("background handler");
+            // create a HandlerThread to perform async operations
+            HandlerThread thread = new HandlerThread("backgroundHandler");
+            thread.start();
+            mAsyncHandler = new Handler(thread.getLooper());
 
-        updateNotifications();
+            mListCleaner = new ListCleaner(getDatabaseHelper(), mAsyncHandler, statistics().histogram("cleanup.chunk"));
+            mMaintenance = new Maintenance(getDatabaseHelper(), mAsyncHandler, mAuthority);
+            Trace.endSection();
 
-        return result;
+            return result;
+        }
+        finally
+        {
+            Trace.endSection();
+            statistics().histogram("startup.onCreate").record(System.nanoTime() - start);
+        }
     }
 
 
@@ -269,6 +384,390 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     }
 
 
+    /**
+     * Return true if the URI requests to load the extended properties in batches, see {@link TaskContract#LOAD_PROPERTIES_BATCHED}.
+     *
+     * @param uri
+     *         The {@link Uri} to check.
+     *
+     * @return <code>true</code> if the URI requests to load extended properties in batches, <code>false</code> otherwise.
+     */
+    public boolean shouldBatchProperties(Uri uri)
+    {
+        return TaskContract.LOAD_PROPERTIES_BATCHED.equals(uri.getQueryParameter(TaskContract.LOAD_PROPERTIES));
+    }
+
+
+    /**
+     * Returns the projection to query if the properties are loaded in batches. {@link TaskColumns#ENCODED_PROPERTIES} is not a database column, so it's
+     * removed, while the task id column is added if necessary.
+     *
+     * @param projection
+     *         The projection given by the caller, may be <code>null</code>.
+     * @param taskIdColumn
+     *         The column that contains the task id.
+     *
+     * @return The projection to query.
+     */
+    private String[] batchPropertiesProjection(String[] projection, String taskIdColumn)
+    {
+        if (projection == null)
+        {
+            return null;
+        }
+        List<String> result = new ArrayList<>(Arrays.asList(projection));
+        result.remove(TaskColumns.ENCODED_PROPERTIES);
+        if (!result.contains(taskIdColumn) && !result.contains("*"))
+        {
+            result.add(taskIdColumn);
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+
+    /**
+     * Get the minimum search score from the given search {@link Uri}.
+     *
+     * @param uri
+     *         The search {@link Uri}.
+     *
+     * @return The minimum score given in {@link Tasks#SEARCH_MIN_SCORE_PARAMETER} or the default minimum score if the parameter is absent.
+     */
+    private float searchMinScore(Uri uri)
+    {
+        String param = uri.getQueryParameter(Tasks.SEARCH_MIN_SCORE_PARAMETER);
+        if (param == null)
+        {
+            return FTSDatabaseHelper.DEFAULT_SEARCH_RESULTS_MIN_SCORE;
+        }
+        try
+        {
+            float minScore = Float.parseFloat(param);
+            if (minScore > 0 && minScore <= 1)
+            {
+                return minScore;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid minimum score in uri " + uri);
+    }
+
+
+    /**
+     * Get the limit clause from the given search {@link Uri}.
+     *
+     * @param uri
+     *         The search {@link Uri}.
+     *
+     * @return The limit clause or <code>null</code> if the Uri doesn't contain a {@link Tasks#SEARCH_LIMIT_PARAMETER}.
+     */
+    private String searchLimit(Uri uri)
+    {
+        String limit = uri.getQueryParameter(Tasks.SEARCH_LIMIT_PARAMETER);
+        if (limit == null)
+        {
+            return null;
+        }
+        String offset = uri.getQueryParameter(Tasks.SEARCH_OFFSET_PARAMETER);
+        try
+        {
+            // parse the values to make sure we don't inject anything into the query
+            int limitValue = Integer.parseInt(limit);
+            int offsetValue = offset == null ? 0 : Integer.parseInt(offset);
+            if (limitValue > 0 && offsetValue >= 0)
+            {
+                return offsetValue + "," + limitValue;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid limit or offset in uri " + uri);
+    }
+
+
+    /**
+     * Returns the SQL expression of the {@link Instances#BUCKET} column requested by the given {@link Uri}, without an alias.
+     *
+     * @param uri
+     *         A list rows or aggregate {@link Uri}.
+     *
+     * @return The expression or <code>null</code> if the Uri doesn't contain a {@link Instances#BUCKET_BY_PARAMETER}.
+     */
+    private String bucketExpression(Uri uri)
+    {
+        String column = uri.getQueryParameter(Instances.BUCKET_BY_PARAMETER);
+        if (column == null)
+        {
+            return null;
+        }
+        if (!Instances.INSTANCE_DUE.equals(column) && !Instances.INSTANCE_START.equals(column))
+        {
+            throw new IllegalArgumentException("Can not create time range buckets of column " + column);
+        }
+        String boundaries = uri.getQueryParameter(Instances.BUCKET_BOUNDARIES_PARAMETER);
+        if (boundaries == null)
+        {
+            throw new IllegalArgumentException("Missing time range boundaries in uri " + uri);
+        }
+        if (boundaries.isEmpty())
+        {
+            // a single time range
+            return "case when " + column + " is null then -1 else 0 end";
+        }
+
+        // all-day values are floating, they have to be compared with the local time of each boundary
+        TimeZone timeZone = TimeZone.getDefault();
+        StringBuilder timed = new StringBuilder(256);
+        StringBuilder allDay = new StringBuilder(256);
+        String[] values = boundaries.split(",");
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < values.length; ++i)
+        {
+            long boundary;
+            try
+            {
+                // parse the value to make sure we don't inject anything into the query
+                boundary = Long.parseLong(values[i]);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Invalid time range boundaries in uri " + uri);
+            }
+            if (boundary < previous)
+            {
+                throw new IllegalArgumentException("Time range boundaries must be ascending in uri " + uri);
+            }
+            previous = boundary;
+            timed.append(" when ").append(column).append(" < ").append(boundary).append(" then ").append(i);
+            allDay.append(" when ").append(column).append(" < ").append(boundary + timeZone.getOffset(boundary)).append(" then ").append(i);
+        }
+        return "case when " + column + " is null then -1 when " + Instances.IS_ALLDAY + " = 0 then (case" + timed + " else " + values.length + " end) else (case"
+                + allDay + " else " + values.length + " end) end";
+    }
+
+
+    /**
+     * Replaces the aggregate columns and the {@link Instances#BUCKET} column in the given projection of an instances aggregate query by the respective SQL
+     * expressions. Any other column is taken literally, those are usually the group-by columns.
+     *
+     * @param projection
+     *         The projection given by the caller, may be <code>null</code>.
+     * @param bucket
+     *         The expression of the {@link Instances#BUCKET} column or <code>null</code>.
+     *
+     * @return The projection to query.
+     */
+    private String[] aggregateProjection(String[] projection, String bucket)
+    {
+        if (projection == null)
+        {
+            projection = new String[] { Instances._COUNT, Instances.AGGREGATE_TASK_COUNT, Instances.AGGREGATE_MIN_DUE, Instances.AGGREGATE_MAX_DUE };
+        }
+        String[] result = new String[projection.length];
+        for (int i = 0; i < projection.length; ++i)
+        {
+            String aggregate = INSTANCE_AGGREGATES.get(projection[i]);
+            if (aggregate == null && bucket != null && Instances.BUCKET.equals(projection[i]))
+            {
+                aggregate = bucket + " as " + Instances.BUCKET;
+            }
+            result[i] = aggregate == null ? projection[i] : aggregate;
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the GROUP BY clause of an instances aggregate query. Only the {@link #GROUPABLE_INSTANCE_COLUMNS} are accepted, {@link Instances#BUCKET}
+     * requires a {@link Instances#BUCKET_BY_PARAMETER}.
+     *
+     * @param uri
+     *         An aggregate {@link Uri}.
+     * @param bucket
+     *         The expression of the {@link Instances#BUCKET} column or <code>null</code>.
+     *
+     * @return The GROUP BY clause or <code>null</code> to aggregate all instances.
+     */
+    private String aggregateGroupBy(Uri uri, String bucket)
+    {
+        String groupBy = uri.getQueryParameter(Instances.AGGREGATE_GROUP_BY_PARAMETER);
+        if (groupBy == null || groupBy.trim().isEmpty())
+        {
+            return null;
+        }
+        StringBuilder result = new StringBuilder(groupBy.length() + 64);
+        for (String column : groupBy.split(","))
+        {
+            column = column.trim();
+            if (!GROUPABLE_INSTANCE_COLUMNS.contains(column))
+            {
+                throw new IllegalArgumentException("Can not group by " + column + " in uri " + uri);
+            }
+            if (result.length() > 0)
+            {
+                result.append(", ");
+            }
+            if (Instances.BUCKET.equals(column))
+            {
+                if (bucket == null)
+                {
+                    throw new IllegalArgumentException("Grouping by " + Instances.BUCKET + " requires " + Instances.BUCKET_BY_PARAMETER + " in uri " + uri);
+                }
+                result.append(bucket);
+            }
+            else
+            {
+                result.append(column);
+            }
+        }
+        return result.toString();
+    }
+
+
+    /**
+     * Returns whether the given {@link Uri} requests a page of the result, i.e. whether it contains a {@link TaskContract#LIMIT} or a {@link
+     * TaskContract#CONTINUE_AFTER} parameter.
+     */
+    private boolean isPaged(Uri uri)
+    {
+        return uri.getQueryParameter(TaskContract.LIMIT) != null || uri.getQueryParameter(TaskContract.CONTINUE_AFTER) != null;
+    }
+
+
+    /**
+     * Returns the sort order of a paged query. Pages are ranges of the paging key, so the result is always sorted by the paging key. A different sort order is
+     * rejected, as is loading the properties with one row per property, which would split the rows of a task or instance across pages.
+     *
+     * @param uri
+     *         A tasks or instances {@link Uri}.
+     * @param sortOrder
+     *         The sort order requested by the caller, may be <code>null</code>.
+     * @param keyOrder
+     *         The order of the paging key.
+     *
+     * @return The sort order of the page.
+     */
+    private String pageSortOrder(Uri uri, String sortOrder, String keyOrder)
+    {
+        if (shouldLoadProperties(uri) && !shouldBatchProperties(uri))
+        {
+            throw new IllegalArgumentException("Paging requires " + TaskContract.LOAD_PROPERTIES_BATCHED + " properties in uri " + uri);
+        }
+        if (sortOrder != null && sortOrder.trim().length() > 0 && !keyOrder.equalsIgnoreCase(sortOrder.trim()))
+        {
+            throw new IllegalArgumentException("Paged results are sorted by " + keyOrder + ", can't sort by " + sortOrder + " in uri " + uri);
+        }
+        return keyOrder;
+    }
+
+
+    /**
+     * Get the page limit from the given {@link Uri}.
+     *
+     * @param uri
+     *         A tasks or instances {@link Uri}.
+     *
+     * @return The limit or <code>null</code> if the Uri doesn't contain a {@link TaskContract#LIMIT}.
+     */
+    private String pageLimit(Uri uri)
+    {
+        String limit = uri.getQueryParameter(TaskContract.LIMIT);
+        if (limit == null)
+        {
+            return null;
+        }
+        try
+        {
+            // parse the value to make sure we don't inject anything into the query
+            int limitValue = Integer.parseInt(limit);
+            if (limitValue > 0)
+            {
+                return String.valueOf(limitValue);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid limit in uri " + uri);
+    }
+
+
+    /**
+     * Appends a selection for the instances after the {@link TaskContract#CONTINUE_AFTER} token of the given {@link Uri} (if any). The selection is a range
+     * on {@link Instances#INSTANCE_DUE_SORTING}, so it's answered by seeking the respective index. Instances without due date come first.
+     *
+     * @param sqlBuilder
+     *         The {@link SQLiteQueryBuilder} to append the selection to.
+     * @param uri
+     *         An instances {@link Uri}.
+     */
+    private void selectInstancesPage(SQLiteQueryBuilder sqlBuilder, Uri uri)
+    {
+        String token = uri.getQueryParameter(TaskContract.CONTINUE_AFTER);
+        if (token == null)
+        {
+            return;
+        }
+        int separator = token.indexOf(':');
+        try
+        {
+            // parse the values to make sure we don't inject anything into the query
+            long id = Long.parseLong(token.substring(separator + 1));
+            if (separator == 0)
+            {
+                // the last instance had no due date, continue with the remaining instances without due date and all instances with due date
+                sqlBuilder.appendWhere(" AND (" + Instances.INSTANCE_DUE_SORTING + " is not null or " + Instances._ID + " > " + id + ")");
+                return;
+            }
+            if (separator > 0)
+            {
+                long due = Long.parseLong(token.substring(0, separator));
+                sqlBuilder.appendWhere(" AND " + Instances.INSTANCE_DUE_SORTING + " >= " + due + " AND (" + Instances.INSTANCE_DUE_SORTING + " > " + due
+                        + " or " + Instances._ID + " > " + id + ")");
+                return;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // fall through
+        }
+        throw new IllegalArgumentException("Invalid continuation token in uri " + uri);
+    }
+
+
+    /**
+     * Appends a selection for the tasks after the {@link TaskContract#CONTINUE_AFTER} token of the given {@link Uri} (if any).
+     *
+     * @param sqlBuilder
+     *         The {@link SQLiteQueryBuilder} to append the selection to.
+     * @param uri
+     *         A tasks {@link Uri}.
+     */
+    private void selectTasksPage(SQLiteQueryBuilder sqlBuilder, Uri uri)
+    {
+        String token = uri.getQueryParameter(TaskContract.CONTINUE_AFTER);
+        if (token == null)
+        {
+            return;
+        }
+        try
+        {
+            // parse the value to make sure we don't inject anything into the query
+            sqlBuilder.appendWhere(" AND " + Tasks._ID + " > " + Long.parseLong(token));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid continuation token in uri " + uri);
+        }
+    }
+
+
     /**
      * Get the account name from the given {@link Uri}.
      *
@@ -428,6 +927,18 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     }
 
 
+    /**
+     * Returns a selection of all descendants of the task in the given {@link Uri}.
+     */
+    protected StringBuilder selectDescendants(Uri uri)
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(Tasks._ID).append(" in (select ").append(TaskHierarchy.DESCENDANT_ID).append(" from ").append(Tables.TASK_HIERARCHY);
+        sb.append(" where ").append(TaskHierarchy.ANCESTOR_ID).append("=").append(getId(uri)).append(")");
+        return sb;
+    }
+
+
     protected StringBuilder selectTaskId(Uri uri)
     {
         StringBuilder sb = new StringBuilder(128);
@@ -529,12 +1040,29 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+    {
+        long start = System.nanoTime();
+        Cursor result = queryDatabase(uri, projection, selection, selectionArgs, sortOrder);
+        if (result != null)
+        {
+            // run the query now, so the statistics contain the time it takes, the first access to the cursor would do this anyway
+            result.getCount();
+        }
+        statistics().histogram(statisticsKey("query", uri)).record(System.nanoTime() - start);
+        return result;
+    }
+
+
+    private Cursor queryDatabase(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
     {
         final SQLiteDatabase db = getDatabaseHelper().getWritableDatabase();
         SQLiteQueryBuilder sqlBuilder = new SQLiteQueryBuilder();
         // initialize appendWhere, this allows us to append all other selections with a preceding "AND"
         sqlBuilder.appendWhere(" 1=1 ");
         boolean isSyncAdapter = isCallerSyncAdapter(uri);
+        String limit = null;
+        // the column that contains the task id if the properties are loaded in batches
+        String batchPropertiesColumn = null;
 
         switch (mUriMatcher.match(uri))
         {
@@ -572,7 +1100,13 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 break;
 
             case TASKS:
-                if (shouldLoadProperties(uri))
+                if (shouldBatchProperties(uri))
+                {
+                    // return each task only once, the properties are added in batches
+                    sqlBuilder.setTables(Tables.TASKS_VIEW);
+                    batchPropertiesColumn = Tasks._ID;
+                }
+                else if (shouldLoadProperties(uri))
                 {
                     // extended properties were requested, therefore change to task view that includes these properties
                     sqlBuilder.setTables(Tables.TASKS_PROPERTY_VIEW);
@@ -588,14 +1122,26 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     sqlBuilder.appendWhere(Tasks._DELETED);
                     sqlBuilder.appendWhere("=0");
                 }
-                if (sortOrder == null || sortOrder.length() == 0)
+                if (isPaged(uri))
+                {
+                    sortOrder = pageSortOrder(uri, sortOrder, Tasks._ID);
+                    selectTasksPage(sqlBuilder, uri);
+                    limit = pageLimit(uri);
+                }
+                else if (sortOrder == null || sortOrder.length() == 0)
                 {
                     sortOrder = TaskContract.Tasks.DEFAULT_SORT_ORDER;
                 }
                 break;
 
             case TASK_ID:
-                if (shouldLoadProperties(uri))
+                if (shouldBatchProperties(uri))
+                {
+                    // return each task only once, the properties are added in batches
+                    sqlBuilder.setTables(Tables.TASKS_VIEW);
+                    batchPropertiesColumn = Tasks._ID;
+                }
+                else if (shouldLoadProperties(uri))
                 {
                     // extended properties were requested, therefore change to task view that includes these properties
                     sqlBuilder.setTables(Tables.TASKS_PROPERTY_VIEW);
@@ -618,8 +1164,36 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 }
                 break;
 
+            case TASK_DESCENDANTS:
+            case TASK_ANCESTORS:
+            {
+                // join the closure table to get the entire subtree or all ancestors with a single indexed query
+                boolean descendants = mUriMatcher.match(uri) == TASK_DESCENDANTS;
+                sqlBuilder.setTables(Tables.TASKS_VIEW + " join " + Tables.TASK_HIERARCHY + " on (" + Tasks._ID + "="
+                        + (descendants ? TaskHierarchy.DESCENDANT_ID : TaskHierarchy.ANCESTOR_ID) + ")");
+                selectId(sqlBuilder, descendants ? TaskHierarchy.ANCESTOR_ID : TaskHierarchy.DESCENDANT_ID, uri);
+                if (!isSyncAdapter)
+                {
+                    // do not return deleted rows if caller is not a sync adapter
+                    sqlBuilder.appendWhere(" AND ");
+                    sqlBuilder.appendWhere(Tasks._DELETED);
+                    sqlBuilder.appendWhere("=0");
+                }
+                if (sortOrder == null || sortOrder.length() == 0)
+                {
+                    sortOrder = Tasks.HIERARCHY_DISTANCE;
+                }
+                break;
+            }
+
             case INSTANCES:
-                if (shouldLoadProperties(uri))
+                if (shouldBatchProperties(uri))
+                {
+                    // return each instance only once, the properties are added in batches
+                    sqlBuilder.setTables(Tables.INSTANCE_CLIENT_VIEW);
+                    batchPropertiesColumn = Instances.TASK_ID;
+                }
+                else if (shouldLoadProperties(uri))
                 {
                     // extended properties were requested, therefore change to instance view that includes these properties
                     sqlBuilder.setTables(Tables.INSTANCE_PROPERTY_VIEW);
@@ -635,14 +1209,26 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     sqlBuilder.appendWhere(Tasks._DELETED);
                     sqlBuilder.appendWhere("=0");
                 }
-                if (sortOrder == null || sortOrder.length() == 0)
+                if (isPaged(uri))
+                {
+                    sortOrder = pageSortOrder(uri, sortOrder, Instances.INSTANCE_DUE_SORTING + ", " + Instances._ID);
+                    selectInstancesPage(sqlBuilder, uri);
+                    limit = pageLimit(uri);
+                }
+                else if (sortOrder == null || sortOrder.length() == 0)
                 {
                     sortOrder = TaskContract.Instances.DEFAULT_SORT_ORDER;
                 }
                 break;
 
             case INSTANCE_ID:
-                if (shouldLoadProperties(uri))
+                if (shouldBatchProperties(uri))
+                {
+                    // return each instance only once, the properties are added in batches
+                    sqlBuilder.setTables(Tables.INSTANCE_CLIENT_VIEW);
+                    batchPropertiesColumn = Instances.TASK_ID;
+                }
+                else if (shouldLoadProperties(uri))
                 {
                     // extended properties were requested, therefore change to instance view that includes these properties
                     sqlBuilder.setTables(Tables.INSTANCE_PROPERTY_VIEW);
@@ -665,6 +1251,67 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 }
                 break;
 
+            case INSTANCE_LIST_ROWS:
+                // the narrow, trigger maintained table which contains everything a task list needs
+                sqlBuilder.setTables(Tables.INSTANCE_LIST_ROWS);
+                if (!isSyncAdapter)
+                {
+                    // do not return deleted rows if caller is not a sync adapter
+                    sqlBuilder.appendWhere(" AND ");
+                    sqlBuilder.appendWhere(Tasks._DELETED);
+                    sqlBuilder.appendWhere("=0");
+                }
+                if (isPaged(uri))
+                {
+                    sortOrder = pageSortOrder(uri, sortOrder, Instances.INSTANCE_DUE_SORTING + ", " + Instances._ID);
+                    selectInstancesPage(sqlBuilder, uri);
+                    limit = pageLimit(uri);
+                }
+                else if (sortOrder == null || sortOrder.length() == 0)
+                {
+                    sortOrder = TaskContract.Instances.DEFAULT_SORT_ORDER;
+                }
+                String bucket = bucketExpression(uri);
+                if (bucket != null)
+                {
+                    if (isPaged(uri))
+                    {
+                        throw new IllegalArgumentException("Time range buckets can not be combined with paging in uri " + uri);
+                    }
+                    // add the bucket column and return the instances in the order of their buckets, so clients can split the result in a single pass
+                    String[] bucketProjection = projection == null ? new String[] { "*" } : projection;
+                    projection = Arrays.copyOf(bucketProjection, bucketProjection.length + 1);
+                    projection[bucketProjection.length] = bucket + " as " + Instances.BUCKET;
+                    sortOrder = Instances.BUCKET + ", " + sortOrder;
+                }
+                Cursor listRowsCursor = sqlBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
+                if (listRowsCursor != null)
+                {
+                    // the list rows change whenever the instances change, so listen to the instances uri
+                    listRowsCursor.setNotificationUri(getContext().getContentResolver(), Instances.getContentUri(mAuthority));
+                }
+                return listRowsCursor;
+
+            case INSTANCES_AGGREGATE:
+                // aggregate the list rows, they contain all the columns clients usually group by
+                sqlBuilder.setTables(Tables.INSTANCE_LIST_ROWS);
+                if (!isSyncAdapter)
+                {
+                    // do not count deleted rows if caller is not a sync adapter
+                    sqlBuilder.appendWhere(" AND ");
+                    sqlBuilder.appendWhere(Tasks._DELETED);
+                    sqlBuilder.appendWhere("=0");
+                }
+                String aggregateBucket = bucketExpression(uri);
+                Cursor aggregateCursor = sqlBuilder.query(db, aggregateProjection(projection, aggregateBucket), selection, selectionArgs,
+                        aggregateGroupBy(uri, aggregateBucket), null, sortOrder);
+                if (aggregateCursor != null)
+                {
+                    // the aggregates change whenever the instances change, so listen to the instances uri
+                    aggregateCursor.setNotificationUri(getContext().getContentResolver(), Instances.getContentUri(mAuthority));
+                }
+                return aggregateCursor;
+
             case CATEGORIES:
                 selectAccount(sqlBuilder, uri);
                 sqlBuilder.setTables(Tables.CATEGORIES);
@@ -696,7 +1343,16 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
             case SEARCH:
                 String searchString = uri.getQueryParameter(Tasks.SEARCH_QUERY_PARAMETER);
                 searchString = Uri.decode(searchString);
-                Cursor searchCursor = FTSDatabaseHelper.getTaskSearchCursor(db, searchString, projection, selection, selectionArgs, sortOrder);
+                String sessionToken = uri.getQueryParameter(Tasks.SEARCH_SESSION_PARAMETER);
+                String continuation = uri.getQueryParameter(Tasks.SEARCH_CONTINUATION_PARAMETER);
+                Cursor searchCursor = FTSDatabaseHelper.getTaskSearchCursor(db, searchString,
+                        sessionToken == null ? null : mSearchSessions.session(sessionToken), searchMinScore(uri), continuation, searchLimit(uri),
+                        projection, selection, selectionArgs, sortOrder);
+                if (searchCursor != null && continuation == null && "true".equals(uri.getQueryParameter(Tasks.SEARCH_RERANK_PARAMETER)))
+                {
+                    // refine the order of the top results
+                    searchCursor = new RerankedSearchCursor(searchCursor, new SearchReranker(searchString), SEARCH_RERANK_TOP_K);
+                }
                 if (searchCursor != null)
                 {
                     // attach tasks uri for notifications, that way the search results are updated when a task changes
@@ -708,11 +1364,21 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        Cursor c = sqlBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+        if (batchPropertiesColumn != null)
+        {
+            projection = batchPropertiesProjection(projection, batchPropertiesColumn);
+        }
+
+        Cursor c = sqlBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder, limit);
 
         if (c != null)
         {
             c.setNotificationUri(getContext().getContentResolver(), uri);
+            if (batchPropertiesColumn != null)
+            {
+                // load the properties of all tasks in the result at once
+                c = new BatchedPropertiesCursor(db, c, c.getColumnIndex(batchPropertiesColumn));
+            }
         }
         return c;
     }
@@ -778,15 +1444,21 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                     cursor.close();
                 }
 
+                if (count > 0)
+                {
+                    // the tasks of the deleted lists are already hidden, remove them in the background
+                    mListCleaner.schedule();
+                }
                 break;
 
             }
             /*
              * Task won't be removed, just marked as deleted if the caller isn't a sync adapter. Sync adapters can remove tasks immediately.
              */
+            case TASK_DESCENDANTS:
             case TASK_ID:
-                // add id to selection and fall through
-                selection = updateSelection(selectId(uri), selection);
+                // add id or subtree to selection and fall through
+                selection = updateSelection(mUriMatcher.match(uri) == TASK_DESCENDANTS ? selectDescendants(uri) : selectId(uri), selection);
 
             case TASKS:
             {
@@ -938,7 +1610,7 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 // if the account is unknown we need to ask the user
                 if (Build.VERSION.SDK_INT >= 26 &&
                         !TaskContract.LOCAL_ACCOUNT_TYPE.equals(accountType) &&
-                        !mAccountCache.get().contains(new Account(accountName, accountType)))
+                        !knownAccounts().contains(new Account(accountName, accountType)))
                 {
                     // store the fact that we have an unknown account in this transaction
                     mStaleListCreated.set(true);
@@ -1070,15 +1742,16 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
                 int idCol = cursor.getColumnIndex(TaskContract.TaskLists._ID);
 
+                // copy the list values if we have more than one list to update
+                // we need this, because the processors may change the values
+                RowValues rowValues = new RowValues(values, cursor.getCount() > 1);
                 try
                 {
                     while (cursor.moveToNext())
                     {
                         final long listId = cursor.getLong(idCol);
 
-                        // clone list values if we have more than one list to update
-                        // we need this, because the processors may change the values
-                        final ListAdapter list = new CursorContentValuesListAdapter(listId, cursor, cursor.getCount() > 1 ? new ContentValues(values) : values);
+                        final ListAdapter list = new CursorContentValuesListAdapter(listId, cursor, rowValues.next());
 
                         if (list.hasUpdates())
                         {
@@ -1095,22 +1768,50 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 }
                 break;
             }
+            case TASK_DESCENDANTS:
             case TASK_ID:
                 // update selection and fall through
-                selection = updateSelection(selectId(uri), selection);
+                selection = updateSelection(mUriMatcher.match(uri) == TASK_DESCENDANTS ? selectDescendants(uri) : selectId(uri), selection);
 
             case TASKS:
             {
+                if (values.containsKey(Tasks.LIST_ID))
+                {
+                    // the tasks may move to another account, so their cached accounts are no longer valid
+                    CategoryHandler.clearCache();
+                }
+                if (!isSyncAdapter && values.size() == 1 && values.getAsLong(Tasks.LIST_ID) != null)
+                {
+                    // a plain move, like moving a multi-selection to another list, doesn't need to pass every task through the processor chain
+                    long listId = values.getAsLong(Tasks.LIST_ID);
+                    if (mListCache.list(db, listId) == null)
+                    {
+                        throw new IllegalArgumentException("LIST_ID must refer to an existing TaskList");
+                    }
+                    // record the move like a stage of the processor chain, so moves still show up in the per-stage statistics
+                    long start = System.nanoTime();
+                    count = mTaskMover.move(db, selection, selectionArgs, listId);
+                    statistics().histogram("tasks.TaskMover.update").record(System.nanoTime() - start);
+                    dataChanged = count > 0;
+                    if (dataChanged)
+                    {
+                        postNotifyUri(Instances.getContentUri(mAuthority));
+                        postNotifyUri(Tasks.getContentUri(mAuthority));
+                    }
+                    break;
+                }
+
                 // iterate over all tasks that match the selection
                 final Cursor cursor = db.query(Tables.TASKS_VIEW, null, selection, selectionArgs, null, null, null, null);
 
+                // copy the task values if we have more than one task to update
+                // we need this, because the processors may change the values
+                RowValues rowValues = new RowValues(values, cursor.getCount() > 1);
                 try
                 {
                     while (cursor.moveToNext())
                     {
-                        // clone task values if we have more than one task to update
-                        // we need this, because the processors may change the values
-                        final TaskAdapter task = new CursorContentValuesTaskAdapter(cursor, cursor.getCount() > 1 ? new ContentValues(values) : values);
+                        final TaskAdapter task = new CursorContentValuesTaskAdapter(cursor, rowValues.next());
 
                         if (task.hasUpdates())
                         {
@@ -1140,16 +1841,21 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
 
             case INSTANCES:
             {
+                if (values.containsKey(Tasks.LIST_ID))
+                {
+                    // the tasks may move to another account, so their cached accounts are no longer valid
+                    CategoryHandler.clearCache();
+                }
                 // iterate over all instances that match the selection
 
                 try (Cursor cursor = db.query(Tables.INSTANCE_VIEW, null, selection, selectionArgs, null, null, null, null))
                 {
+                    // copy the instance values if we have more than one instance to update
+                    // we need this, because the processors may change the values
+                    RowValues rowValues = new RowValues(values, cursor.getCount() > 1);
                     while (cursor.moveToNext())
                     {
-                        // clone task values if we have more than one task to update
-                        // we need this, because the processors may change the values
-                        final InstanceAdapter instance = new CursorContentValuesInstanceAdapter(cursor,
-                                cursor.getCount() > 1 ? new ContentValues(values) : values);
+                        final InstanceAdapter instance = new CursorContentValuesInstanceAdapter(cursor, rowValues.next());
 
                         if (instance.hasUpdates())
                         {
@@ -1218,6 +1924,8 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 String newCategorySelection = updateSelection(selectId(uri), selection);
                 validateCategoryValues(values, false, isSyncAdapter);
                 count = db.update(Tables.CATEGORIES, values, newCategorySelection, selectionArgs);
+                // the cached category may be out of date now
+                CategoryHandler.clearCache();
                 break;
             case ALARM_ID:
                 String newAlarmSelection = updateSelection(selectId(uri), selection);
@@ -1233,6 +1941,15 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 }
 
                 operation.run(getContext(), mAsyncHandler, uri, db, values);
+                if (operation == ContentOperation.REBUILD_SEARCH_INDEX)
+                {
+                    // each run rebuilds a chunk of the search index outside of any provider transaction, the handler runs this right after the chunk
+                    mAsyncHandler.post(() ->
+                    {
+                        mSearchSessions.invalidate();
+                        getContext().getContentResolver().notifyChange(Tasks.getContentUri(mAuthority), null, false);
+                    });
+                }
         }
 
         if (dataChanged)
@@ -1246,6 +1963,26 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     }
 
 
+    /**
+     * Returns the currently known accounts. The account listener is registered when the database is opened, so if it hasn't been called yet, the accounts
+     * are loaded right away.
+     */
+    private Set<Account> knownAccounts()
+    {
+        Set<Account> accounts = mAccountCache.get();
+        if (accounts == null)
+        {
+            accounts = new HashSet<>(Arrays.asList(AccountManager.get(getContext()).getAccounts()));
+            if (!mAccountCache.compareAndSet(null, accounts))
+            {
+                // the listener was faster
+                accounts = mAccountCache.get();
+            }
+        }
+        return accounts;
+    }
+
+
     /**
      * Update task due and task start notifications.
      */
@@ -1323,22 +2060,59 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
                 return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Tasks.CONTENT_URI_PATH;
             case TASK_ID:
                 return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/org.dmfs.tasks." + Tasks.CONTENT_URI_PATH;
+            case TASK_DESCENDANTS:
+            case TASK_ANCESTORS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Tasks.CONTENT_URI_PATH;
             case INSTANCES:
                 return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Instances.CONTENT_URI_PATH;
             case INSTANCE_ID:
                 return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/org.dmfs.tasks." + Instances.CONTENT_URI_PATH;
+            case INSTANCE_LIST_ROWS:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Instances.CONTENT_URI_PATH;
+            case INSTANCES_AGGREGATE:
+                return ContentResolver.CURSOR_DIR_BASE_TYPE + "/org.dmfs.tasks." + Instances.AGGREGATE_URI_PATH;
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
     }
 
 
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args)
+    {
+        // run "adb shell dumpsys activity provider <authority>" to get the latencies of all operations and processor stages
+        statistics().dump(writer);
+        mListCleaner.dump(writer);
+        mMaintenance.dump(writer);
+    }
+
+
+    /**
+     * Returns the {@link ListMetadataCache} of this provider.
+     */
+    ListMetadataCache listMetadataCache()
+    {
+        return mListCache;
+    }
+
+
+    private <T extends EntityAdapter<T>> EntityProcessor<T> instrumented(String stage, EntityProcessor<T> processor)
+    {
+        return new Instrumented<>(stage, statistics(), processor);
+    }
+
+
     @Override
     protected void onEndTransaction(boolean callerIsSyncAdapter)
     {
+        // the cached categories are only valid within a transaction, it might have been rolled back
+        CategoryHandler.clearCache();
+        mListCache.onEndTransaction();
         super.onEndTransaction(callerIsSyncAdapter);
         if (mChanged.compareAndSet(true, false))
         {
+            // drop the search sessions before anyone is notified, so reloaded search results reflect the changes
+            mSearchSessions.invalidate();
             updateNotifications();
             Utils.sendActionProviderChangedBroadCast(getContext(), mAuthority);
         }
@@ -1373,6 +2147,30 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
     }
 
 
+    @Override
+    public void onDatabaseOpened(SQLiteDatabase db)
+    {
+        if (!mBackgroundWorkStarted.compareAndSet(false, true))
+        {
+            // the database has been reopened, the background work is already running
+            return;
+        }
+        // the provider is used for the first time, start the background work which has been deferred in onCreate
+        Trace.beginSection("TaskProvider.onDatabaseOpened");
+        try
+        {
+            AccountManager.get(getContext()).addOnAccountsUpdatedListener(this, mAsyncHandler, true);
+            updateNotifications();
+            mMaintenance.schedule();
+            mAsyncHandler.post(() -> ContentOperation.resumeSearchIndexRebuild(getContext()));
+        }
+        finally
+        {
+            Trace.endSection();
+        }
+    }
+
+
     @Override
     public void onDatabaseUpdate(SQLiteDatabase db, int oldVersion, int newVersion)
     {
@@ -1380,6 +2178,11 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
         {
             mAsyncHandler.post(() -> ContentOperation.UPDATE_TIMEZONE.fire(getContext(), null));
         }
+        if (oldVersion < FTSDatabaseHelper.SEARCH_INDEX_VERSION)
+        {
+            // the search index is outdated, rebuild it in chunks without blocking the provider
+            mAsyncHandler.post(() -> ContentOperation.REBUILD_SEARCH_INDEX.fire(getContext(), null));
+        }
     }
 
 
@@ -1396,6 +2199,8 @@ public final class TaskProvider extends SQLiteContentProvider implements OnAccou
         // cache the known accounts so we can check whether we know accounts for which new lists are added
         mAccountCache.set(new HashSet<>(Arrays.asList(accounts)));
         // TODO: we probably can move the cleanup code here and get rid of the Utils class
-        Utils.cleanUpLists(getContext(), getDatabaseHelper().getWritableDatabase(), accounts, mAuthority);
+        Utils.cleanUpLists(getContext(), getDatabaseHelper().getWritableDatabase(), accounts, mAuthority, mListCache);
+        // this also continues any clean up which has been interrupted before
+        mListCleaner.schedule();
     }
 }
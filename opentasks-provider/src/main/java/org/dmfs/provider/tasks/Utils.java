@@ -20,7 +20,6 @@ import android.accounts.Account;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import org.dmfs.iterables.SingletonIterable;
@@ -34,7 +33,6 @@ import org.dmfs.tasks.contract.TaskContract;
 import org.dmfs.tasks.contract.TaskContract.Instances;
 import org.dmfs.tasks.contract.TaskContract.SyncState;
 import org.dmfs.tasks.contract.TaskContract.TaskListColumns;
-import org.dmfs.tasks.contract.TaskContract.TaskListSyncColumns;
 import org.dmfs.tasks.contract.TaskContract.TaskLists;
 import org.dmfs.tasks.contract.TaskContract.Tasks;
 import org.dmfs.tasks.provider.R;
@@ -71,7 +69,7 @@ public class Utils
     }
 
 
-    public static void cleanUpLists(Context context, SQLiteDatabase db, Account[] accounts, String authority)
+    public static void cleanUpLists(Context context, SQLiteDatabase db, Account[] accounts, String authority, ListMetadataCache listCache)
     {
         // make a list of the accounts array
         List<Account> accountList = Arrays.asList(accounts);
@@ -80,37 +78,27 @@ public class Utils
 
         try
         {
-            Cursor c = db.query(Tables.LISTS, new String[] { TaskListColumns._ID, TaskListSyncColumns.ACCOUNT_NAME, TaskListSyncColumns.ACCOUNT_TYPE }, null,
-                    null, null, null, null);
-
             // build a list of all task list ids that no longer have an account
             List<Long> obsoleteLists = new ArrayList<Long>();
-            try
+            for (ListMetadataCache.ListMetadata list : listCache.lists(db))
             {
-                while (c.moveToNext())
+                String accountType = list.accountType;
+                // mark list for removal if it is non-local and the account
+                // is not in accountList
+                if (!TaskContract.LOCAL_ACCOUNT_TYPE.equals(accountType))
                 {
-                    String accountType = c.getString(2);
-                    // mark list for removal if it is non-local and the account
-                    // is not in accountList
-                    if (!TaskContract.LOCAL_ACCOUNT_TYPE.equals(accountType))
+                    Account account = new Account(list.accountName, accountType);
+                    if (!accountList.contains(account))
                     {
-                        Account account = new Account(c.getString(1), accountType);
-                        if (!accountList.contains(account))
-                        {
-                            obsoleteLists.add(c.getLong(0));
-
-                            // remove syncstate for this account right away
-                            db.delete(Tables.SYNCSTATE, SyncState.ACCOUNT_NAME + "=? and " + SyncState.ACCOUNT_TYPE + "=?", new String[] {
-                                    account.name,
-                                    account.type });
-                        }
+                        obsoleteLists.add(list.id);
+
+                        // remove syncstate for this account right away
+                        db.delete(Tables.SYNCSTATE, SyncState.ACCOUNT_NAME + "=? and " + SyncState.ACCOUNT_TYPE + "=?", new String[] {
+                                account.name,
+                                account.type });
                     }
                 }
             }
-            finally
-            {
-                c.close();
-            }
 
             if (obsoleteLists.size() == 0)
             {
@@ -118,7 +106,7 @@ public class Utils
                 return;
             }
 
-            // remove all accounts in the list
+            // remove all lists of the removed accounts, this only hides their tasks, the ListCleaner removes them later
             for (Long id : obsoleteLists)
             {
                 if (id != null)
@@ -132,6 +120,9 @@ public class Utils
         {
             db.endTransaction();
         }
+        // the lists table has been changed outside of the provider's transactions
+        listCache.invalidate();
+
         // notify all observers
 
         ContentResolver cr = context.getContentResolver();
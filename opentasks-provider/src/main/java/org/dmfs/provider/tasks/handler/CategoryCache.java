@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Caches the accounts of tasks and the categories of accounts during a transaction, so assigning the same categories to many tasks doesn't query the
+ * same rows over and over again.
+ * <p>
+ * The cache must not outlive the transaction it has been populated in, because a rollback may remove categories which have been added to the cache.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class CategoryCache
+{
+    /**
+     * A cached category.
+     */
+    static final class CachedCategory
+    {
+        final long id;
+        final String name;
+        final Integer color;
+        final String accountName;
+        final String accountType;
+
+
+        CachedCategory(long id, String name, Integer color, String accountName, String accountType)
+        {
+            this.id = id;
+            this.name = name;
+            this.color = color;
+            this.accountName = accountName;
+            this.accountType = accountType;
+        }
+    }
+
+
+    private final Map<Long, String[]> mTaskAccounts = new HashMap<>(64);
+    private final Map<String, Map<String, CachedCategory>> mCategoriesByName = new HashMap<>(8);
+    private final Map<Long, CachedCategory> mCategoriesById = new HashMap<>(64);
+
+
+    /**
+     * Returns the account name and type of the given task or <code>null</code> if the task is not in the cache.
+     */
+    String[] taskAccount(long taskId)
+    {
+        return mTaskAccounts.get(taskId);
+    }
+
+
+    void putTaskAccount(long taskId, String accountName, String accountType)
+    {
+        mTaskAccounts.put(taskId, new String[] { accountName, accountType });
+    }
+
+
+    /**
+     * Returns the category with the given id of the given account or <code>null</code> if the category is not in the cache.
+     */
+    CachedCategory categoryById(long id, String accountName, String accountType)
+    {
+        CachedCategory category = mCategoriesById.get(id);
+        return category != null && category.accountName.equals(accountName) && category.accountType.equals(accountType) ? category : null;
+    }
+
+
+    /**
+     * Returns the category with the given name of the given account or <code>null</code> if the category is not in the cache.
+     */
+    CachedCategory categoryByName(String name, String accountName, String accountType)
+    {
+        Map<String, CachedCategory> accountCategories = mCategoriesByName.get(accountKey(accountName, accountType));
+        return accountCategories == null ? null : accountCategories.get(name);
+    }
+
+
+    void putCategory(CachedCategory category)
+    {
+        String accountKey = accountKey(category.accountName, category.accountType);
+        Map<String, CachedCategory> accountCategories = mCategoriesByName.get(accountKey);
+        if (accountCategories == null)
+        {
+            accountCategories = new HashMap<>(32);
+            mCategoriesByName.put(accountKey, accountCategories);
+        }
+        accountCategories.put(category.name, category);
+        mCategoriesById.put(category.id, category);
+    }
+
+
+    private static String accountKey(String accountName, String accountType)
+    {
+        // account types can't contain a line feed
+        return accountType + "\n" + accountName;
+    }
+}
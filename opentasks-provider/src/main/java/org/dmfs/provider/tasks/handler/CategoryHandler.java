@@ -43,6 +43,33 @@ public class CategoryHandler extends PropertyHandler
 
     public static final String IS_NEW_CATEGORY = "is_new_category";
 
+    /**
+     * The {@link CategoryCache} of the current transaction. Transactions are bound to a thread, so each thread gets its own cache.
+     */
+    private static final ThreadLocal<CategoryCache> CACHE = new ThreadLocal<>();
+
+
+    /**
+     * Drops all cached tasks and categories of the current thread. This must be called at the end of every transaction, no matter whether it has been
+     * successful or not, and whenever a category is changed or deleted or a task is moved to another list.
+     */
+    public static void clearCache()
+    {
+        CACHE.remove();
+    }
+
+
+    private static CategoryCache cache()
+    {
+        CategoryCache cache = CACHE.get();
+        if (cache == null)
+        {
+            cache = new CategoryCache();
+            CACHE.set(cache);
+        }
+        return cache;
+    }
+
 
     /**
      * Validates the content of the category prior to insert and update transactions.
@@ -79,77 +106,98 @@ public class CategoryHandler extends PropertyHandler
         {
             throw new IllegalArgumentException("No task id was supplied for the category property");
         }
-        String[] queryArgs = { values.getAsString(Properties.TASK_ID) };
-        String[] queryProjection = { Tasks.ACCOUNT_NAME, Tasks.ACCOUNT_TYPE };
-        String querySelection = Tasks._ID + "=?";
-        Cursor taskCursor = db.query(Tables.TASKS_VIEW, queryProjection, querySelection, queryArgs, null, null, null);
-
-        String accountName = null;
-        String accountType = null;
-        try
+        CategoryCache cache = cache();
+        long propertyTaskId = values.getAsLong(Properties.TASK_ID);
+        String[] account = cache.taskAccount(propertyTaskId);
+        if (account == null)
         {
-            if (taskCursor.moveToNext())
+            String[] queryArgs = { values.getAsString(Properties.TASK_ID) };
+            String[] queryProjection = { Tasks.ACCOUNT_NAME, Tasks.ACCOUNT_TYPE };
+            String querySelection = Tasks._ID + "=?";
+            Cursor taskCursor = db.query(Tables.TASKS_VIEW, queryProjection, querySelection, queryArgs, null, null, null);
+            try
             {
-                accountName = taskCursor.getString(0);
-                accountType = taskCursor.getString(1);
-
-                values.put(Categories.ACCOUNT_NAME, accountName);
-                values.put(Categories.ACCOUNT_TYPE, accountType);
+                if (taskCursor.moveToNext())
+                {
+                    account = new String[] { taskCursor.getString(0), taskCursor.getString(1) };
+                    cache.putTaskAccount(propertyTaskId, account[0], account[1]);
+                }
             }
-        }
-        finally
-        {
-            if (taskCursor != null)
+            finally
             {
-                taskCursor.close();
+                if (taskCursor != null)
+                {
+                    taskCursor.close();
+                }
             }
         }
 
+        String accountName = null;
+        String accountType = null;
+        if (account != null)
+        {
+            accountName = account[0];
+            accountType = account[1];
+
+            values.put(Categories.ACCOUNT_NAME, accountName);
+            values.put(Categories.ACCOUNT_TYPE, accountType);
+        }
+
         if (accountName != null && accountType != null)
         {
-            // search for matching categories
-            String[] categoryArgs;
-            Cursor cursor;
+            // search for matching categories, try the cache first
+            boolean byId = values.containsKey(Category.CATEGORY_ID);
+            CategoryCache.CachedCategory category = byId
+                    ? cache.categoryById(values.getAsLong(Category.CATEGORY_ID), accountName, accountType)
+                    : cache.categoryByName(values.getAsString(Category.CATEGORY_NAME), accountName, accountType);
 
-            if (values.containsKey(Categories._ID))
-            {
-                // serach by ID
-                categoryArgs = new String[] { values.getAsString(Category.CATEGORY_ID), accountName, accountType };
-                cursor = db.query(Tables.CATEGORIES, CATEGORY_ID_PROJECTION, CATEGORY_ID_SELECTION, categoryArgs, null, null, null);
-            }
-            else
-            {
-                // search by name
-                categoryArgs = new String[] { values.getAsString(Category.CATEGORY_NAME), accountName, accountType };
-                cursor = db.query(Tables.CATEGORIES, CATEGORY_ID_PROJECTION, CATEGORY_NAME_SELECTION, categoryArgs, null, null, null);
-            }
-            try
+            if (category == null)
             {
-                if (cursor != null && cursor.getCount() == 1)
+                String[] categoryArgs;
+                Cursor cursor;
+
+                if (byId)
                 {
-                    cursor.moveToNext();
-                    Long categoryID = cursor.getLong(0);
-                    String categoryName = cursor.getString(1);
-                    int color = cursor.getInt(2);
-
-                    values.put(Category.CATEGORY_ID, categoryID);
-                    values.put(Category.CATEGORY_NAME, categoryName);
-                    values.put(Category.CATEGORY_COLOR, color);
-                    values.put(IS_NEW_CATEGORY, false);
+                    // serach by ID
+                    categoryArgs = new String[] { values.getAsString(Category.CATEGORY_ID), accountName, accountType };
+                    cursor = db.query(Tables.CATEGORIES, CATEGORY_ID_PROJECTION, CATEGORY_ID_SELECTION, categoryArgs, null, null, null);
                 }
                 else
                 {
-                    values.put(IS_NEW_CATEGORY, true);
+                    // search by name
+                    categoryArgs = new String[] { values.getAsString(Category.CATEGORY_NAME), accountName, accountType };
+                    cursor = db.query(Tables.CATEGORIES, CATEGORY_ID_PROJECTION, CATEGORY_NAME_SELECTION, categoryArgs, null, null, null);
                 }
-            }
-            finally
-            {
-                if (cursor != null)
+                try
+                {
+                    if (cursor != null && cursor.getCount() == 1)
+                    {
+                        cursor.moveToNext();
+                        category = new CategoryCache.CachedCategory(cursor.getLong(0), cursor.getString(1), cursor.isNull(2) ? null : cursor.getInt(2),
+                                accountName, accountType);
+                        cache.putCategory(category);
+                    }
+                }
+                finally
                 {
-                    cursor.close();
+                    if (cursor != null)
+                    {
+                        cursor.close();
+                    }
                 }
             }
 
+            if (category != null)
+            {
+                values.put(Category.CATEGORY_ID, category.id);
+                values.put(Category.CATEGORY_NAME, category.name);
+                values.put(Category.CATEGORY_COLOR, category.color == null ? 0 : category.color);
+                values.put(IS_NEW_CATEGORY, false);
+            }
+            else
+            {
+                values.put(IS_NEW_CATEGORY, true);
+            }
         }
 
         return values;
@@ -243,6 +291,10 @@ public class CategoryHandler extends PropertyHandler
 
             long categoryID = db.insert(Tables.CATEGORIES, "", newCategoryValues);
             values.put(Category.CATEGORY_ID, categoryID);
+
+            // further assignments of this category don't need to look it up
+            cache().putCategory(new CategoryCache.CachedCategory(categoryID, values.getAsString(Category.CATEGORY_NAME),
+                    values.getAsInteger(Category.CATEGORY_COLOR), values.getAsString(Categories.ACCOUNT_NAME), values.getAsString(Categories.ACCOUNT_TYPE)));
         }
 
         // remove redundant values
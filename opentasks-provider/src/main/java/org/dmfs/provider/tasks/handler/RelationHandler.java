@@ -138,8 +138,9 @@ public class RelationHandler extends PropertyHandler
 
     private String resolveTaskStringField(SQLiteDatabase db, String selectionField, String selectionValue, String resultField)
     {
-        Cursor c = db.query(TaskDatabaseHelper.Tables.TASKS, new String[] { resultField }, selectionField + "=?", new String[] { selectionValue }, null, null,
-                null);
+        // ignore the tasks of deleted lists which have not been removed yet
+        Cursor c = db.query(TaskDatabaseHelper.Tables.TASKS, new String[] { resultField },
+                selectionField + "=? and " + TaskDatabaseHelper.PendingListDeletions.NOT_PENDING_SELECTION, new String[] { selectionValue }, null, null, null);
         if (c != null)
         {
             try
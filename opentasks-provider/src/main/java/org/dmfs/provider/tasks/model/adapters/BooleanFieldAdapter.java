@@ -76,7 +76,7 @@ public final class BooleanFieldAdapter<EntityType> extends SimpleFieldAdapter<Bo
     @Override
     public Boolean getFrom(Cursor cursor)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
+        int columnIdx = columnIndex(cursor);
         if (columnIdx < 0)
         {
             throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
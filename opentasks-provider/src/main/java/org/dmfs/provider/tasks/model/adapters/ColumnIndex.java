@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.model.adapters;
+
+import android.database.Cursor;
+
+
+/**
+ * The index of a specific column in {@link Cursor}s.
+ * <p>
+ * Resolving a column name is a map lookup (or worse) on every call, which adds up when adapters read thousands of rows. A cursor returns the same column
+ * name array for all of its rows, so this remembers the index of the last column name array it has seen and resolves the name again only when another
+ * cursor comes along. Note that each cursor has its own array, even cursors of the same query ({@code SQLiteCursor} creates a new one), so this only saves
+ * the lookups within the loop over the rows of one cursor.
+ *
+ * @author Marten Gajda
+ */
+final class ColumnIndex
+{
+    private final String mColumnName;
+    private volatile Binding mBinding;
+
+
+    ColumnIndex(String columnName)
+    {
+        mColumnName = columnName;
+    }
+
+
+    /**
+     * Returns the index of the column in the given {@link Cursor} or <code>-1</code> if the cursor doesn't contain the column.
+     */
+    int of(Cursor cursor)
+    {
+        String[] columnNames = cursor.getColumnNames();
+        Binding binding = mBinding;
+        if (binding == null || binding.columnNames != columnNames)
+        {
+            binding = new Binding(columnNames, cursor.getColumnIndex(mColumnName));
+            mBinding = binding;
+        }
+        return binding.index;
+    }
+
+
+    /**
+     * An immutable pair of a column name array and the column index in it, so it can be replaced atomically.
+     */
+    private static final class Binding
+    {
+        private final String[] columnNames;
+        private final int index;
+
+
+        private Binding(String[] columnNames, int index)
+        {
+            this.columnNames = columnNames;
+            this.index = index;
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.dmfs.provider.tasks.model.adapters;
 import android.content.ContentValues;
 import android.database.Cursor;
 
+import org.dmfs.provider.tasks.utils.TimeZones;
 import org.dmfs.rfc5545.DateTime;
 
 import java.util.TimeZone;
@@ -47,6 +48,8 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
     private final String mTzField;
     private final String mAllDayField;
     private final boolean mAllDayDefault;
+    private final ColumnIndex mTzColumn;
+    private final ColumnIndex mAllDayColumn;
 
 
     /**
@@ -70,6 +73,8 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
         mTzField = tzField;
         mAllDayField = alldayField;
         mAllDayDefault = false;
+        mTzColumn = tzField == null ? null : new ColumnIndex(tzField);
+        mAllDayColumn = alldayField == null ? null : new ColumnIndex(alldayField);
     }
 
 
@@ -90,7 +95,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
             return null;
         }
         String timezone = mTzField == null ? null : values.getAsString(mTzField);
-        DateTime value = new DateTime(timezone == null ? null : TimeZone.getTimeZone(timezone), timestamp);
+        DateTime value = new DateTime(timezone == null ? null : TimeZones.timeZone(timezone), timestamp);
 
         // cache mAlldayField locally
         String allDayField = mAllDayField;
@@ -110,9 +115,9 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
     @Override
     public DateTime getFrom(Cursor cursor)
     {
-        int tsIdx = cursor.getColumnIndex(mTimestampField);
-        int tzIdx = mTzField == null ? -1 : cursor.getColumnIndex(mTzField);
-        int adIdx = mAllDayField == null ? -1 : cursor.getColumnIndex(mAllDayField);
+        int tsIdx = columnIndex(cursor);
+        int tzIdx = mTzField == null ? -1 : mTzColumn.of(cursor);
+        int adIdx = mAllDayField == null ? -1 : mAllDayColumn.of(cursor);
 
         if (tsIdx < 0 || (mTzField != null && tzIdx < 0) || (mAllDayField != null && adIdx < 0))
         {
@@ -128,7 +133,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
         Long timestamp = cursor.getLong(tsIdx);
 
         String timezone = mTzField == null ? null : cursor.getString(tzIdx);
-        DateTime value = new DateTime(timezone == null ? null : TimeZone.getTimeZone(timezone), timestamp);
+        DateTime value = new DateTime(timezone == null ? null : TimeZones.timeZone(timezone), timestamp);
 
         // set the allday flag appropriately
         Integer allDayInt = adIdx < 0 ? null : cursor.getInt(adIdx);
@@ -160,7 +165,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
             }
             timestamp = values.getAsLong(mTimestampField);
         }
-        else if (cursor != null && (tsIdx = cursor.getColumnIndex(mTimestampField)) >= 0)
+        else if (cursor != null && (tsIdx = columnIndex(cursor)) >= 0)
         {
             if (cursor.isNull(tsIdx))
             {
@@ -180,7 +185,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
             {
                 timeZoneId = values.getAsString(mTzField);
             }
-            else if (cursor != null && (tzIdx = cursor.getColumnIndex(mTzField)) >= 0)
+            else if (cursor != null && (tzIdx = mTzColumn.of(cursor)) >= 0)
             {
                 timeZoneId = cursor.getString(tzIdx);
             }
@@ -196,7 +201,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
             {
                 allDay = values.getAsInteger(mAllDayField);
             }
-            else if (cursor != null && (adIdx = cursor.getColumnIndex(mAllDayField)) >= 0)
+            else if (cursor != null && (adIdx = mAllDayColumn.of(cursor)) >= 0)
             {
                 allDay = cursor.getInt(adIdx);
             }
@@ -206,7 +211,7 @@ public final class DateTimeFieldAdapter<EntityType> extends SimpleFieldAdapter<D
             }
         }
 
-        DateTime value = new DateTime(timeZoneId == null ? null : TimeZone.getTimeZone(timeZoneId), timestamp);
+        DateTime value = new DateTime(timeZoneId == null ? null : TimeZones.timeZone(timeZoneId), timestamp);
 
         if (allDay != 0)
         {
@@ -24,6 +24,7 @@ import org.dmfs.iterables.EmptyIterable;
 import org.dmfs.iterables.Split;
 import org.dmfs.iterables.decorators.DelegatingIterable;
 import org.dmfs.jems.iterable.decorators.Mapped;
+import org.dmfs.provider.tasks.utils.TimeZones;
 import org.dmfs.rfc5545.DateTime;
 
 import java.util.TimeZone;
@@ -41,6 +42,7 @@ public final class DateTimeIterableFieldAdapter<EntityType> extends SimpleFieldA
 {
     private final String mDateTimeListFieldName;
     private final String mTimeZoneFieldName;
+    private final ColumnIndex mTimeZoneColumn;
 
 
     /**
@@ -59,6 +61,7 @@ public final class DateTimeIterableFieldAdapter<EntityType> extends SimpleFieldA
         }
         mDateTimeListFieldName = datetimeListFieldName;
         mTimeZoneFieldName = timezoneFieldName;
+        mTimeZoneColumn = timezoneFieldName == null ? null : new ColumnIndex(timezoneFieldName);
     }
 
 
@@ -79,9 +82,9 @@ public final class DateTimeIterableFieldAdapter<EntityType> extends SimpleFieldA
             return EmptyIterable.instance();
         }
 
-        // create a new TimeZone for the given time zone string
+        // get the TimeZone for the given time zone string
         String timezoneString = mTimeZoneFieldName == null ? null : values.getAsString(mTimeZoneFieldName);
-        TimeZone timeZone = timezoneString == null ? null : TimeZone.getTimeZone(timezoneString);
+        TimeZone timeZone = timezoneString == null ? null : TimeZones.timeZone(timezoneString);
 
         return new DateTimeList(timeZone, datetimeList);
     }
@@ -90,8 +93,8 @@ public final class DateTimeIterableFieldAdapter<EntityType> extends SimpleFieldA
     @Override
     public Iterable<DateTime> getFrom(Cursor cursor)
     {
-        int tdLIdx = cursor.getColumnIndex(mDateTimeListFieldName);
-        int tzIdx = mTimeZoneFieldName == null ? -1 : cursor.getColumnIndex(mTimeZoneFieldName);
+        int tdLIdx = columnIndex(cursor);
+        int tzIdx = mTimeZoneFieldName == null ? -1 : mTimeZoneColumn.of(cursor);
 
         if (tdLIdx < 0 || (mTimeZoneFieldName != null && tzIdx < 0))
         {
@@ -106,9 +109,9 @@ public final class DateTimeIterableFieldAdapter<EntityType> extends SimpleFieldA
 
         String datetimeList = cursor.getString(tdLIdx);
 
-        // create a new TimeZone for the given time zone string
+        // get the TimeZone for the given time zone string
         String timezoneString = mTimeZoneFieldName == null ? null : cursor.getString(tzIdx);
-        TimeZone timeZone = timezoneString == null ? null : TimeZone.getTimeZone(timezoneString);
+        TimeZone timeZone = timezoneString == null ? null : TimeZones.timeZone(timezoneString);
 
         return new DateTimeList(timeZone, datetimeList);
     }
@@ -131,7 +134,7 @@ public final class DateTimeIterableFieldAdapter<EntityType> extends SimpleFieldA
             }
             datetimeList = values.getAsString(mDateTimeListFieldName);
         }
-        else if (cursor != null && (tsIdx = cursor.getColumnIndex(mDateTimeListFieldName)) >= 0)
+        else if (cursor != null && (tsIdx = columnIndex(cursor)) >= 0)
         {
             if (cursor.isNull(tsIdx))
             {
@@ -151,7 +154,7 @@ public final class DateTimeIterableFieldAdapter<EntityType> extends SimpleFieldA
             {
                 timeZoneId = values.getAsString(mTimeZoneFieldName);
             }
-            else if (cursor != null && (tzIdx = cursor.getColumnIndex(mTimeZoneFieldName)) >= 0)
+            else if (cursor != null && (tzIdx = mTimeZoneColumn.of(cursor)) >= 0)
             {
                 timeZoneId = cursor.getString(tzIdx);
             }
@@ -161,8 +164,8 @@ public final class DateTimeIterableFieldAdapter<EntityType> extends SimpleFieldA
             }
         }
 
-        // create a new TimeZone for the given time zone string
-        TimeZone timeZone = timeZoneId == null ? null : TimeZone.getTimeZone(timeZoneId);
+        // get the TimeZone for the given time zone string
+        TimeZone timeZone = timeZoneId == null ? null : TimeZones.timeZone(timeZoneId);
 
         return new DateTimeList(timeZone, datetimeList);
     }
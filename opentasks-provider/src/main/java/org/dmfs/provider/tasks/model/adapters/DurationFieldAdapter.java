@@ -75,7 +75,7 @@ public final class DurationFieldAdapter<EntityType> extends SimpleFieldAdapter<D
     @Override
     public Duration getFrom(Cursor cursor)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
+        int columnIdx = columnIndex(cursor);
         if (columnIdx < 0)
         {
             throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
@@ -71,7 +71,7 @@ public final class IntegerFieldAdapter<EntityType> extends SimpleFieldAdapter<In
     @Override
     public Integer getFrom(Cursor cursor)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
+        int columnIdx = columnIndex(cursor);
         if (columnIdx < 0)
         {
             throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
@@ -85,7 +85,7 @@ public final class RRuleFieldAdapter<EntityType> extends SimpleFieldAdapter<Recu
     @Override
     public RecurrenceRule getFrom(Cursor cursor)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
+        int columnIdx = columnIndex(cursor);
         if (columnIdx < 0)
         {
             throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
@@ -32,6 +32,10 @@ import android.database.Cursor;
  */
 public abstract class SimpleFieldAdapter<FieldType, EntityType> implements FieldAdapter<FieldType, EntityType>
 {
+    /**
+     * The {@link ColumnIndex} of {@link #fieldName()}, created on first use because the field name is not known before the subclass has been initialized.
+     */
+    private volatile ColumnIndex mColumnIndex;
 
     /**
      * Returns the sole field name of this adapter.
@@ -41,6 +45,21 @@ public abstract class SimpleFieldAdapter<FieldType, EntityType> implements Field
     abstract String fieldName();
 
 
+    /**
+     * Returns the index of {@link #fieldName()} in the given {@link Cursor} or <code>-1</code> if the cursor doesn't contain that column.
+     */
+    int columnIndex(Cursor cursor)
+    {
+        ColumnIndex columnIndex = mColumnIndex;
+        if (columnIndex == null)
+        {
+            columnIndex = new ColumnIndex(fieldName());
+            mColumnIndex = columnIndex;
+        }
+        return columnIndex.of(cursor);
+    }
+
+
     @Override
     public boolean existsIn(ContentValues values)
     {
@@ -58,7 +77,7 @@ public abstract class SimpleFieldAdapter<FieldType, EntityType> implements Field
     @Override
     public boolean existsIn(Cursor cursor)
     {
-        int columnIdx = cursor.getColumnIndex(fieldName());
+        int columnIdx = columnIndex(cursor);
         return columnIdx >= 0 && !cursor.isNull(columnIdx);
     }
 
@@ -71,7 +71,7 @@ public final class StringFieldAdapter<EntityType> extends SimpleFieldAdapter<Str
     @Override
     public String getFrom(Cursor cursor)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
+        int columnIdx = columnIndex(cursor);
         if (columnIdx < 0)
         {
             throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
@@ -70,7 +70,7 @@ public final class UrlFieldAdapter<EntityType> extends SimpleFieldAdapter<URI, E
     @Override
     public URI getFrom(Cursor cursor)
     {
-        int columnIdx = cursor.getColumnIndex(mFieldName);
+        int columnIdx = columnIndex(cursor);
         if (columnIdx < 0)
         {
             throw new IllegalArgumentException("The column '" + mFieldName + "' is missing in cursor.");
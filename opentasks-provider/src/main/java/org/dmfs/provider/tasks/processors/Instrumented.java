@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.processors;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.provider.tasks.model.EntityAdapter;
+import org.dmfs.provider.tasks.utils.LatencyHistogram;
+import org.dmfs.provider.tasks.utils.LatencyStatistics;
+
+
+/**
+ * An {@link EntityProcessor} which records the latency of a stage of a processor chain in a {@link LatencyStatistics}.
+ * <p>
+ * Each stage calls the next stage, so the time spent in nested {@link Instrumented} stages is subtracted. This way the histograms show the time spent in
+ * each stage itself, no matter where in the chain it is.
+ *
+ * @author Marten Gajda
+ */
+public final class Instrumented<T extends EntityAdapter<T>> implements EntityProcessor<T>
+{
+    /**
+     * The time spent in nested stages of the current thread.
+     */
+    private final static ThreadLocal<long[]> NESTED_NANOS = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
+
+    private final EntityProcessor<T> mDelegate;
+    private final LatencyHistogram mInsertHistogram;
+    private final LatencyHistogram mUpdateHistogram;
+    private final LatencyHistogram mDeleteHistogram;
+
+
+    /**
+     * Creates an {@link Instrumented} stage.
+     *
+     * @param stage
+     *         The name of the stage.
+     * @param statistics
+     *         The {@link LatencyStatistics} to record the latencies in.
+     * @param delegate
+     *         The actual stage.
+     */
+    public Instrumented(String stage, LatencyStatistics statistics, EntityProcessor<T> delegate)
+    {
+        mDelegate = delegate;
+        mInsertHistogram = statistics.histogram(stage + ".insert");
+        mUpdateHistogram = statistics.histogram(stage + ".update");
+        mDeleteHistogram = statistics.histogram(stage + ".delete");
+    }
+
+
+    @Override
+    public T insert(SQLiteDatabase db, T entityAdapter, boolean isSyncAdapter)
+    {
+        long[] nested = NESTED_NANOS.get();
+        long outerNested = nested[0];
+        nested[0] = 0;
+        long start = System.nanoTime();
+        try
+        {
+            return mDelegate.insert(db, entityAdapter, isSyncAdapter);
+        }
+        finally
+        {
+            record(mInsertHistogram, nested, outerNested, start);
+        }
+    }
+
+
+    @Override
+    public T update(SQLiteDatabase db, T entityAdapter, boolean isSyncAdapter)
+    {
+        long[] nested = NESTED_NANOS.get();
+        long outerNested = nested[0];
+        nested[0] = 0;
+        long start = System.nanoTime();
+        try
+        {
+            return mDelegate.update(db, entityAdapter, isSyncAdapter);
+        }
+        finally
+        {
+            record(mUpdateHistogram, nested, outerNested, start);
+        }
+    }
+
+
+    @Override
+    public void delete(SQLiteDatabase db, T entityAdapter, boolean isSyncAdapter)
+    {
+        long[] nested = NESTED_NANOS.get();
+        long outerNested = nested[0];
+        nested[0] = 0;
+        long start = System.nanoTime();
+        try
+        {
+            mDelegate.delete(db, entityAdapter, isSyncAdapter);
+        }
+        finally
+        {
+            record(mDeleteHistogram, nested, outerNested, start);
+        }
+    }
+
+
+    private static void record(LatencyHistogram histogram, long[] nested, long outerNested, long start)
+    {
+        long elapsed = System.nanoTime() - start;
+        histogram.record(elapsed - nested[0]);
+        // to the enclosing stage all of this was nested
+        nested[0] = outerNested + elapsed;
+    }
+}
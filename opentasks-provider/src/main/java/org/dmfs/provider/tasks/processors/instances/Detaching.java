@@ -28,13 +28,14 @@ import org.dmfs.jems.optional.elementary.NullSafe;
 import org.dmfs.jems.predicate.composite.AnyOf;
 import org.dmfs.jems.predicate.composite.Not;
 import org.dmfs.provider.tasks.TaskDatabaseHelper;
-import org.dmfs.provider.tasks.model.CursorContentValuesInstanceAdapter;
 import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
 import org.dmfs.provider.tasks.model.InstanceAdapter;
 import org.dmfs.provider.tasks.model.TaskAdapter;
 import org.dmfs.provider.tasks.model.adapters.IntegerFieldAdapter;
 import org.dmfs.provider.tasks.model.adapters.LongFieldAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
+import org.dmfs.provider.tasks.utils.TaskCopyStatement;
+import org.dmfs.provider.tasks.utils.TimeZones;
 import org.dmfs.provider.tasks.utils.Timestamps;
 import org.dmfs.rfc5545.DateTime;
 import org.dmfs.rfc5545.Duration;
@@ -46,7 +47,7 @@ import org.dmfs.rfc5545.recurrenceset.RecurrenceSetIterator;
 import org.dmfs.tasks.contract.TaskContract;
 
 import java.util.HashSet;
-import java.util.TimeZone;
+import java.util.Locale;
 
 import static java.util.Arrays.asList;
 
@@ -59,9 +60,36 @@ import static java.util.Arrays.asList;
 public final class Detaching implements EntityProcessor<InstanceAdapter>
 {
 
+    /**
+     * Selects the overrides of the master given as the only argument which have closed instances before the current one.
+     */
+    private final static String DETACHABLE = String.format(Locale.ENGLISH,
+            "(select i.%%s from %1$s i join %2$s t on (i.%3$s = t.%4$s) where i.%5$s < 0 and t.%6$s = ?)",
+            TaskDatabaseHelper.Tables.INSTANCES, TaskDatabaseHelper.Tables.TASKS, TaskContract.Instances.TASK_ID, TaskContract.Tasks._ID,
+            TaskContract.Instances.DISTANCE_FROM_CURRENT, TaskContract.Tasks.ORIGINAL_INSTANCE_ID);
+
+    private final static String DETACHABLE_TASKS = String.format(Locale.ENGLISH, DETACHABLE, TaskContract.Instances.TASK_ID);
+
+    private final static String SQL_WIPE_INSTANCE_ORIGINAL_TIME = String.format(Locale.ENGLISH, "update %s set %s = null where %s in %s",
+            TaskDatabaseHelper.Tables.INSTANCES, TaskContract.Instances.INSTANCE_ORIGINAL_TIME, TaskContract.Instances._ID,
+            String.format(Locale.ENGLISH, DETACHABLE, TaskContract.Instances._ID));
+
+    private final static String SQL_DETACH_OVERRIDES = String.format(Locale.ENGLISH,
+            "update %1$s set %2$s = null, %3$s = null, %4$s = null, %5$s = null, %6$s = null, %7$s = null, %8$s = null, %9$s = null, %10$s = null, "
+                    + "%11$s = null, %12$s = null, %13$s = 1, %14$s = null, %15$s = null, %16$s = null where %17$s in %18$s",
+            TaskDatabaseHelper.Tables.TASKS, TaskContract.Tasks._SYNC_ID, TaskContract.Tasks.SYNC_VERSION, TaskContract.Tasks.SYNC1,
+            TaskContract.Tasks.SYNC2, TaskContract.Tasks.SYNC3, TaskContract.Tasks.SYNC4, TaskContract.Tasks.SYNC5, TaskContract.Tasks.SYNC6,
+            TaskContract.Tasks.SYNC7, TaskContract.Tasks.SYNC8, TaskContract.Tasks._UID, TaskContract.Tasks._DIRTY, TaskContract.Tasks.ORIGINAL_INSTANCE_ID,
+            TaskContract.Tasks.ORIGINAL_INSTANCE_SYNC_ID, TaskContract.Tasks.ORIGINAL_INSTANCE_TIME, TaskContract.Tasks._ID, DETACHABLE_TASKS);
+
     private final EntityProcessor<InstanceAdapter> mDelegate;
     private final EntityProcessor<TaskAdapter> mTaskDelegate;
 
+    /**
+     * The statement to insert the deleted clones. It depends on the columns of the tasks table, so it's created on first use.
+     */
+    private volatile String mInsertClones;
+
 
     public Detaching(EntityProcessor<InstanceAdapter> delegate, EntityProcessor<TaskAdapter> taskDelegate)
     {
@@ -129,19 +157,7 @@ public final class Detaching implements EntityProcessor<InstanceAdapter>
         DateTime instanceOriginalTime = entityAdapter.valueOf(InstanceAdapter.INSTANCE_ORIGINAL_TIME);
 
         // detach instances which are completed
-        try (Cursor instances = db.query(TaskDatabaseHelper.Tables.INSTANCE_VIEW,
-                null,
-                String.format("%s < 0 and %s == ?", TaskContract.Instances.DISTANCE_FROM_CURRENT, TaskContract.Instances.ORIGINAL_INSTANCE_ID),
-                new String[] { String.valueOf(masterId) },
-                null,
-                null,
-                null))
-        {
-            while (instances.moveToNext())
-            {
-                detachSingle(db, new CursorContentValuesInstanceAdapter(instances, new ContentValues()));
-            }
-        }
+        detachCompleted(db, masterId);
 
         // move the master to the first incomplete task
         try (Cursor task = db.query(TaskDatabaseHelper.Tables.TASKS_VIEW,
@@ -245,7 +261,7 @@ public final class Detaching implements EntityProcessor<InstanceAdapter>
                         }
                         else if (masterTask.valueOf(TaskAdapter.TIMEZONE_RAW) != null)
                         {
-                            start = start.shiftTimeZone(TimeZone.getTimeZone(masterTask.valueOf(TaskAdapter.TIMEZONE_RAW)));
+                            start = start.shiftTimeZone(TimeZones.timeZone(masterTask.valueOf(TaskAdapter.TIMEZONE_RAW)));
                         }
                         updateStart(masterTask, start);
                     }
@@ -284,54 +300,33 @@ public final class Detaching implements EntityProcessor<InstanceAdapter>
 
 
     /**
-     * Detach the given instance.
+     * Detach all closed instances of the given master.
      * <p>
-     * - clone the override into a new deleted task (set _DELETED == 1)
-     * - detach the original override by removing the ORIGINAL_INSTANCE_ID, ORIGINAL_INSTANCE_SYNC_ID, ORIGINAL_INSTANCE_START and ORIGINAL_INSTANCE_ALLDAY
-     * (i.e. all columns which relate this to the original)
-     * - wipe _SYNC_ID, _UID and all sync columns (make this an unsynced task)
+     * - clone the overrides into new deleted tasks (set _DELETED == 1)
+     * - detach the original overrides by removing the ORIGINAL_INSTANCE_ID, ORIGINAL_INSTANCE_SYNC_ID and ORIGINAL_INSTANCE_TIME
+     * (i.e. all columns which relate them to the original)
+     * - wipe _SYNC_ID, _UID and all sync columns (make them unsynced tasks)
+     * <p>
+     * This takes three statements, no matter how many instances are detached.
      */
-    private void detachSingle(SQLiteDatabase db, InstanceAdapter entityAdapter)
+    private void detachCompleted(SQLiteDatabase db, long masterId)
     {
-        TaskAdapter original = entityAdapter.taskAdapter();
-        TaskAdapter cloneAdapter = original.duplicate();
-
-        // first prepare the original to resemble the same instance but as a new, detached task
-        original.set(TaskAdapter.SYNC_ID, null);
-        original.set(TaskAdapter.SYNC_VERSION, null);
-        original.set(TaskAdapter.SYNC1, null);
-        original.set(TaskAdapter.SYNC2, null);
-        original.set(TaskAdapter.SYNC3, null);
-        original.set(TaskAdapter.SYNC4, null);
-        original.set(TaskAdapter.SYNC5, null);
-        original.set(TaskAdapter.SYNC6, null);
-        original.set(TaskAdapter.SYNC7, null);
-        original.set(TaskAdapter.SYNC8, null);
-        original.set(TaskAdapter._UID, null);
-        original.set(TaskAdapter._DIRTY, true);
-        original.set(TaskAdapter.ORIGINAL_INSTANCE_ID, null);
-        original.set(TaskAdapter.ORIGINAL_INSTANCE_SYNC_ID, null);
-        original.set(TaskAdapter.ORIGINAL_INSTANCE_TIME, null);
-        original.unset(TaskAdapter.COMPLETED);
-        original.commit(db);
-
-        // wipe INSTANCE_ORIGINAL_TIME from instances entry
-        ContentValues noOriginalTime = new ContentValues();
-        noOriginalTime.putNull(TaskContract.Instances.INSTANCE_ORIGINAL_TIME);
-        db.update(TaskDatabaseHelper.Tables.INSTANCES, noOriginalTime, "_ID = ?", new String[] { String.valueOf(entityAdapter.id()) });
-
-        // reset the clone to be a deleted instance
-        cloneAdapter.set(TaskAdapter._DELETED, true);
-        // remove joined field values
-        cloneAdapter.unset(TaskAdapter.LIST_ACCESS_LEVEL);
-        cloneAdapter.unset(TaskAdapter.LIST_COLOR);
-        cloneAdapter.unset(TaskAdapter.LIST_NAME);
-        cloneAdapter.unset(TaskAdapter.LIST_OWNER);
-        cloneAdapter.unset(TaskAdapter.LIST_VISIBLE);
-        cloneAdapter.unset(TaskAdapter.ACCOUNT_NAME);
-        cloneAdapter.unset(TaskAdapter.ACCOUNT_TYPE);
-        cloneAdapter.commit(db);
-
-        // note, we don't have to create an instance for the clone because it's deleted
+        Object[] args = { masterId };
+
+        // wipe INSTANCE_ORIGINAL_TIME from the instances entries
+        db.execSQL(SQL_WIPE_INSTANCE_ORIGINAL_TIME, args);
+
+        // insert deleted clones, note we don't have to create instances for the clones because they are deleted
+        String insertClones = mInsertClones;
+        if (insertClones == null)
+        {
+            insertClones = new TaskCopyStatement(String.format(Locale.ENGLISH, "%s in %s", TaskContract.Tasks._ID, DETACHABLE_TASKS),
+                    TaskContract.Tasks._DELETED).value(db);
+            mInsertClones = insertClones;
+        }
+        db.execSQL(insertClones, args);
+
+        // turn the originals into new, detached tasks, this must come last, because it removes the reference to the master
+        db.execSQL(SQL_DETACH_OVERRIDES, args);
     }
 }
@@ -18,6 +18,7 @@ package org.dmfs.provider.tasks.processors.lists;
 
 import android.database.sqlite.SQLiteDatabase;
 
+import org.dmfs.provider.tasks.ListMetadataCache;
 import org.dmfs.provider.tasks.TaskDatabaseHelper;
 import org.dmfs.provider.tasks.model.ListAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
@@ -25,17 +26,26 @@ import org.dmfs.tasks.contract.TaskContract;
 
 
 /**
- * A processor that performs the actual operations on task lists.
+ * A processor that performs the actual operations on task lists. It invalidates the {@link ListMetadataCache} whenever a list changes.
  *
  * @author Marten Gajda
  */
 public final class ListCommitProcessor implements EntityProcessor<ListAdapter>
 {
+    private final ListMetadataCache mListCache;
+
+
+    public ListCommitProcessor(ListMetadataCache listCache)
+    {
+        mListCache = listCache;
+    }
+
 
     @Override
     public ListAdapter insert(SQLiteDatabase db, ListAdapter list, boolean isSyncAdapter)
     {
         list.commit(db);
+        mListCache.invalidate();
         return list;
     }
 
@@ -44,6 +54,7 @@ public final class ListCommitProcessor implements EntityProcessor<ListAdapter>
     public ListAdapter update(SQLiteDatabase db, ListAdapter list, boolean isSyncAdapter)
     {
         list.commit(db);
+        mListCache.invalidate();
         return list;
     }
 
@@ -52,5 +63,6 @@ public final class ListCommitProcessor implements EntityProcessor<ListAdapter>
     public void delete(SQLiteDatabase db, ListAdapter list, boolean isSyncAdapter)
     {
         db.delete(TaskDatabaseHelper.Tables.LISTS, TaskContract.TaskLists._ID + "=" + list.id(), null);
+        mListCache.invalidate();
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.processors.tasks;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.jems.function.Function;
+import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
+import org.dmfs.provider.tasks.processors.EntityProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A processor chain which routes task updates only to the stages that depend on any of the updated fields.
+ * <p>
+ * Each {@link Stage} declares the fields it depends on. When the chain is built, every field is assigned a bit and every stage gets a mask of the bits of its
+ * fields. On update the bit set of the changed fields is computed once and each stage whose mask doesn't intersect with it is bypassed. So an update which
+ * only touches fields no stage depends on (like sync columns or {@code _dirty}) goes straight to the delegate.
+ * <p>
+ * Inserts and deletes always pass all stages.
+ *
+ * @author Marten Gajda
+ */
+public final class Dispatching implements EntityProcessor<TaskAdapter>
+{
+    /**
+     * A stage of a {@link Dispatching} chain.
+     */
+    public static final class Stage
+    {
+        private final Iterable<FieldAdapter<?, TaskAdapter>> mDependencies;
+        private final Function<EntityProcessor<TaskAdapter>, EntityProcessor<TaskAdapter>> mStageFunction;
+
+
+        /**
+         * Creates a {@link Stage}.
+         *
+         * @param dependencies
+         *         The fields this stage needs to see updates of.
+         * @param stageFunction
+         *         A {@link Function} which creates the stage processor for the given delegate.
+         */
+        public Stage(Iterable<FieldAdapter<?, TaskAdapter>> dependencies, Function<EntityProcessor<TaskAdapter>, EntityProcessor<TaskAdapter>> stageFunction)
+        {
+            mDependencies = dependencies;
+            mStageFunction = stageFunction;
+        }
+    }
+
+
+    /**
+     * The bit set of the changed fields of the task which is currently being updated by this thread.
+     */
+    private final static ThreadLocal<long[]> CHANGED_FIELDS = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
+
+    private final FieldAdapter<?, TaskAdapter>[] mFields;
+    private final EntityProcessor<TaskAdapter> mChain;
+
+
+    /**
+     * Creates a {@link Dispatching} chain.
+     *
+     * @param delegate
+     *         The innermost processor which receives all operations.
+     * @param stages
+     *         The {@link Stage}s of this chain, outermost first.
+     */
+    @SuppressWarnings("unchecked")
+    public Dispatching(EntityProcessor<TaskAdapter> delegate, Stage... stages)
+    {
+        List<FieldAdapter<?, TaskAdapter>> fields = new ArrayList<>(Long.SIZE);
+        long[] masks = new long[stages.length];
+        for (int i = 0; i < stages.length; ++i)
+        {
+            for (FieldAdapter<?, TaskAdapter> field : stages[i].mDependencies)
+            {
+                int bit = fields.indexOf(field);
+                if (bit < 0)
+                {
+                    bit = fields.size();
+                    fields.add(field);
+                }
+                if (bit >= Long.SIZE)
+                {
+                    throw new IllegalArgumentException("Stages must not depend on more than " + Long.SIZE + " fields");
+                }
+                masks[i] |= 1L << bit;
+            }
+        }
+        mFields = fields.toArray(new FieldAdapter[fields.size()]);
+
+        EntityProcessor<TaskAdapter> chain = delegate;
+        for (int i = stages.length - 1; i >= 0; --i)
+        {
+            chain = new Hop(masks[i], stages[i].mStageFunction.value(chain), chain);
+        }
+        mChain = chain;
+    }
+
+
+    @Override
+    public TaskAdapter insert(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+    {
+        return mChain.insert(db, task, isSyncAdapter);
+    }
+
+
+    @Override
+    public TaskAdapter update(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+    {
+        long changed = 0;
+        for (int i = 0, count = mFields.length; i < count; ++i)
+        {
+            if (task.isUpdated(mFields[i]))
+            {
+                changed |= 1L << i;
+            }
+        }
+
+        long[] changedFields = CHANGED_FIELDS.get();
+        // a stage might update another task, so restore the previous bit set when we're done
+        long previous = changedFields[0];
+        changedFields[0] = changed;
+        try
+        {
+            return mChain.update(db, task, isSyncAdapter);
+        }
+        finally
+        {
+            changedFields[0] = previous;
+        }
+    }
+
+
+    @Override
+    public void delete(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+    {
+        mChain.delete(db, task, isSyncAdapter);
+    }
+
+
+    /**
+     * A link of the chain which updates through its stage only if any of the fields in its mask have changed. Otherwise it updates the next link directly.
+     */
+    private static final class Hop implements EntityProcessor<TaskAdapter>
+    {
+        private final long mMask;
+        private final EntityProcessor<TaskAdapter> mStage;
+        private final EntityProcessor<TaskAdapter> mNext;
+
+
+        private Hop(long mask, EntityProcessor<TaskAdapter> stage, EntityProcessor<TaskAdapter> next)
+        {
+            mMask = mask;
+            mStage = stage;
+            mNext = next;
+        }
+
+
+        @Override
+        public TaskAdapter insert(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+        {
+            return mStage.insert(db, task, isSyncAdapter);
+        }
+
+
+        @Override
+        public TaskAdapter update(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+        {
+            return (CHANGED_FIELDS.get()[0] & mMask) != 0 ? mStage.update(db, task, isSyncAdapter) : mNext.update(db, task, isSyncAdapter);
+        }
+
+
+        @Override
+        public void delete(SQLiteDatabase db, TaskAdapter task, boolean isSyncAdapter)
+        {
+            mStage.delete(db, task, isSyncAdapter);
+        }
+    }
+}
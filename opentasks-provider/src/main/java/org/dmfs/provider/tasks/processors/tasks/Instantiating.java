@@ -20,6 +20,7 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import org.dmfs.iterables.elementary.Seq;
 import org.dmfs.jems.function.elementary.DiffMap;
 import org.dmfs.jems.iterable.composite.Diff;
 import org.dmfs.jems.iterable.decorators.Mapped;
@@ -33,6 +34,7 @@ import org.dmfs.provider.tasks.TaskDatabaseHelper;
 import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
 import org.dmfs.provider.tasks.model.TaskAdapter;
 import org.dmfs.provider.tasks.model.adapters.BooleanFieldAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
 import org.dmfs.provider.tasks.utils.InstanceValuesIterable;
 import org.dmfs.provider.tasks.utils.Limited;
@@ -41,7 +43,9 @@ import org.dmfs.provider.tasks.utils.Range;
 import org.dmfs.provider.tasks.utils.RowIterator;
 import org.dmfs.tasks.contract.TaskContract;
 
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
 
 import static org.dmfs.provider.tasks.model.TaskAdapter.IS_CLOSED;
 
@@ -76,6 +80,20 @@ public final class Instantiating implements EntityProcessor<TaskAdapter>
     private final static BooleanFieldAdapter<TaskAdapter> UPDATE_REQUESTED = new BooleanFieldAdapter<TaskAdapter>(
             "org.dmfs.tasks.TaskInstanceProcessor.UPDATE_REQUESTED");
 
+    /**
+     * The fields an update needs to change to require an update of the instances.
+     */
+    public final static Iterable<FieldAdapter<?, TaskAdapter>> UPDATE_DEPENDENCIES = new Seq<>(
+            TaskAdapter.DTSTART,
+            TaskAdapter.DUE,
+            TaskAdapter.DURATION,
+            TaskAdapter.STATUS,
+            TaskAdapter.RDATE,
+            TaskAdapter.RRULE,
+            TaskAdapter.EXDATE,
+            IS_CLOSED,
+            UPDATE_REQUESTED);
+
     // for now we only expand the next upcoming instance
     private final static int UPCOMING_INSTANCE_COUNT_LIMIT = 1;
 
@@ -359,11 +377,11 @@ public final class Instantiating implements EntityProcessor<TaskAdapter>
                         values.put(TaskContract.Instances.DISTANCE_FROM_CURRENT, distance);
                     }
 
-                    ContentValues updates = updatedOnly(values, existingInstances);
-                    if (updates.size() > 0)
+                    removeUnchanged(values, existingInstances);
+                    if (values.size() > 0)
                     {
                         db.update(TaskDatabaseHelper.Tables.INSTANCES,
-                                updates,
+                                values,
                                 String.format(Locale.ENGLISH, "%s = %d", TaskContract.Instances._ID, existingInstances.getLong(idIdx)),
                                 null);
                     }
@@ -373,11 +391,16 @@ public final class Instantiating implements EntityProcessor<TaskAdapter>
     }
 
 
-    private static ContentValues updatedOnly(ContentValues newValues, Cursor oldValues)
+    /**
+     * Removes all values which equal the values in the given {@link Cursor}. This modifies the given values in place, so updating many instances doesn't
+     * create a copy of each instance's values.
+     */
+    private static void removeUnchanged(ContentValues newValues, Cursor oldValues)
     {
-        ContentValues result = new ContentValues(newValues);
-        for (String key : newValues.keySet())
+        Iterator<Map.Entry<String, Object>> entries = newValues.valueSet().iterator();
+        while (entries.hasNext())
         {
+            String key = entries.next().getKey();
             int columnIdx = oldValues.getColumnIndex(key);
             if (columnIdx < 0)
             {
@@ -385,13 +408,12 @@ public final class Instantiating implements EntityProcessor<TaskAdapter>
             }
             if (oldValues.isNull(columnIdx) && newValues.get(key) == null)
             {
-                result.remove(key);
+                entries.remove();
             }
             else if (!oldValues.isNull(columnIdx) && newValues.get(key) != null && oldValues.getLong(columnIdx) == newValues.getAsLong(key))
             {
-                result.remove(key);
+                entries.remove();
             }
         }
-        return result;
     }
 }
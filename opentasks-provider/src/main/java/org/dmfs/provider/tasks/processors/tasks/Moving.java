@@ -20,9 +20,11 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import org.dmfs.iterables.elementary.Seq;
 import org.dmfs.provider.tasks.TaskDatabaseHelper;
 import org.dmfs.provider.tasks.model.CursorContentValuesTaskAdapter;
 import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
 import org.dmfs.tasks.contract.TaskContract;
 
@@ -38,6 +40,12 @@ import org.dmfs.tasks.contract.TaskContract;
  */
 public final class Moving implements EntityProcessor<TaskAdapter>
 {
+    /**
+     * The fields an update needs to change to require this processor.
+     */
+    public final static Iterable<FieldAdapter<?, TaskAdapter>> UPDATE_DEPENDENCIES = new Seq<>(
+            TaskAdapter.LIST_ID);
+
     private final EntityProcessor<TaskAdapter> mDelegate;
 
 
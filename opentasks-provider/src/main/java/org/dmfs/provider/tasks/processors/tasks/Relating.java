@@ -17,11 +17,13 @@
 package org.dmfs.provider.tasks.processors.tasks;
 
 import android.content.ContentValues;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import org.dmfs.iterables.elementary.Seq;
+import org.dmfs.provider.tasks.RelationResolver;
 import org.dmfs.provider.tasks.TaskDatabaseHelper;
 import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
 import org.dmfs.tasks.contract.TaskContract;
 
@@ -30,8 +32,8 @@ import org.dmfs.tasks.contract.TaskContract;
  * A processor that updates relations for new tasks.
  * <p>
  * In general there is no guarantee that a related task is already in the database when a task is
- * inserted. In such a case we can not set the {@link TaskContract.Property.Relation#RELATED_ID} value. This processor updates the {@link
- * TaskContract.Property.Relation#RELATED_ID} when a task is inserted.
+ * inserted. In such a case we can not set the {@link TaskContract.Property.Relation#RELATED_ID} value. This processor hands the UID of every synced task to a
+ * {@link RelationResolver} which updates the {@link TaskContract.Property.Relation#RELATED_ID} and the parent ids when the transaction ends.
  * <p>
  * It also updates {@link TaskContract.Property.Relation#RELATED_UID} when a tasks
  * is synced the first time and a UID has been set.
@@ -41,12 +43,20 @@ import org.dmfs.tasks.contract.TaskContract;
  */
 public final class Relating implements EntityProcessor<TaskAdapter>
 {
+    /**
+     * The fields an update needs to change to require this processor. Only a new {@code _uid} has to be propagated to relations.
+     */
+    public final static Iterable<FieldAdapter<?, TaskAdapter>> UPDATE_DEPENDENCIES = new Seq<>(
+            TaskAdapter._UID);
+
     private final EntityProcessor<TaskAdapter> mDelegate;
+    private final RelationResolver mRelationResolver;
 
 
-    public Relating(EntityProcessor<TaskAdapter> delegate)
+    public Relating(EntityProcessor<TaskAdapter> delegate, RelationResolver relationResolver)
     {
         mDelegate = delegate;
+        mRelationResolver = relationResolver;
     }
 
 
@@ -66,38 +76,8 @@ public final class Relating implements EntityProcessor<TaskAdapter>
 
         if (uid != null)
         {
-            ContentValues v = new ContentValues(1);
-            v.put(TaskContract.Property.Relation.RELATED_ID, result.id());
-
-            int updates = db.update(TaskDatabaseHelper.Tables.PROPERTIES, v,
-                    TaskContract.Property.Relation.MIMETYPE + "= ? AND " + TaskContract.Property.Relation.RELATED_UID + "=?", new String[] {
-                            TaskContract.Property.Relation.CONTENT_ITEM_TYPE, uid });
-
-            if (updates > 0)
-            {
-                // there were other relations pointing towards this task, update PARENT_IDs if necessary
-                ContentValues parentIdValues = new ContentValues(1);
-                parentIdValues.put(TaskContract.Tasks.PARENT_ID, result.id());
-                // iterate over all tasks which refer to this as their parent and update their PARENT_ID
-                try (Cursor c = db.query(
-                        TaskDatabaseHelper.Tables.PROPERTIES, new String[] { TaskContract.Property.Relation.TASK_ID },
-                        String.format("%s = ? and %s = ? and %s = ?",
-                                TaskContract.Property.Relation.MIMETYPE,
-                                TaskContract.Property.Relation.RELATED_ID,
-                                TaskContract.Property.Relation.RELATED_TYPE),
-                        new String[] {
-                                TaskContract.Property.Relation.CONTENT_ITEM_TYPE,
-                                String.valueOf(result.id()),
-                                String.valueOf(TaskContract.Property.Relation.RELTYPE_PARENT) },
-                        null, null, null))
-                {
-                    while (c.moveToNext())
-                    {
-                        db.update(TaskDatabaseHelper.Tables.TASKS, parentIdValues, TaskContract.Tasks._ID + " = ?", new String[] { c.getString(0) });
-                    }
-                }
-                // TODO, way also may have to do this for all the siblings of these tasks.
-            }
+            // the relations are resolved when the transaction ends, so tasks of the same tree can be synced in any order
+            mRelationResolver.resolveLater(uid);
         }
         return result;
     }
@@ -19,8 +19,10 @@ package org.dmfs.provider.tasks.processors.tasks;
 import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 
+import org.dmfs.iterables.elementary.Seq;
 import org.dmfs.provider.tasks.TaskDatabaseHelper;
 import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
 import org.dmfs.tasks.contract.TaskContract;
 
@@ -32,6 +34,12 @@ import org.dmfs.tasks.contract.TaskContract;
  */
 public final class Reparenting implements EntityProcessor<TaskAdapter>
 {
+    /**
+     * The fields an update needs to change to require this processor.
+     */
+    public final static Iterable<FieldAdapter<?, TaskAdapter>> UPDATE_DEPENDENCIES = new Seq<>(
+            TaskAdapter.PARENT_ID);
+
     private final EntityProcessor<TaskAdapter> mDelegate;
 
 
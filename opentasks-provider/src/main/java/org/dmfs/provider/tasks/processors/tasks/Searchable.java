@@ -18,8 +18,10 @@ package org.dmfs.provider.tasks.processors.tasks;
 
 import android.database.sqlite.SQLiteDatabase;
 
+import org.dmfs.iterables.elementary.Seq;
 import org.dmfs.provider.tasks.FTSDatabaseHelper;
 import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
 import org.dmfs.provider.tasks.utils.Profiled;
 
@@ -31,6 +33,14 @@ import org.dmfs.provider.tasks.utils.Profiled;
  */
 public final class Searchable implements EntityProcessor<TaskAdapter>
 {
+    /**
+     * The fields an update needs to change to require an update of the search index.
+     */
+    public final static Iterable<FieldAdapter<?, TaskAdapter>> UPDATE_DEPENDENCIES = new Seq<>(
+            TaskAdapter.TITLE,
+            TaskAdapter.LOCATION,
+            TaskAdapter.DESCRIPTION);
+
     private final EntityProcessor<TaskAdapter> mDelegate;
 
 
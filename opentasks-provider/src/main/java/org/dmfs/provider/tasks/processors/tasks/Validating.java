@@ -16,10 +16,9 @@
 
 package org.dmfs.provider.tasks.processors.tasks;
 
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
-import org.dmfs.provider.tasks.TaskDatabaseHelper;
+import org.dmfs.provider.tasks.ListMetadataCache;
 import org.dmfs.provider.tasks.model.TaskAdapter;
 import org.dmfs.provider.tasks.processors.EntityProcessor;
 import org.dmfs.rfc5545.Duration;
@@ -33,15 +32,14 @@ import org.dmfs.tasks.contract.TaskContract;
  */
 public final class Validating implements EntityProcessor<TaskAdapter>
 {
-    private static final String[] TASKLIST_ID_PROJECTION = { TaskContract.TaskLists._ID };
-    private static final String TASKLISTS_ID_SELECTION = TaskContract.TaskLists._ID + "=";
-
     private final EntityProcessor<TaskAdapter> mDelegate;
+    private final ListMetadataCache mListCache;
 
 
-    public Validating(EntityProcessor<TaskAdapter> delegate)
+    public Validating(EntityProcessor<TaskAdapter> delegate, ListMetadataCache listCache)
     {
         mDelegate = delegate;
+        mListCache = listCache;
     }
 
 
@@ -57,22 +55,10 @@ public final class Validating implements EntityProcessor<TaskAdapter>
             throw new IllegalArgumentException("LIST_ID is required on INSERT");
         }
 
-        // TODO: get rid of this query and use a cache instead
         // TODO: ensure that the list is writable unless the caller is a sync adapter
-        Cursor cursor = db.query(TaskDatabaseHelper.Tables.LISTS, TASKLIST_ID_PROJECTION, TASKLISTS_ID_SELECTION + listId, null, null, null, null);
-        try
+        if (mListCache.list(db, listId) == null)
         {
-            if (cursor == null || cursor.getCount() != 1)
-            {
-                throw new IllegalArgumentException("LIST_ID must refer to an existing TaskList");
-            }
-        }
-        finally
-        {
-            if (cursor != null)
-            {
-                cursor.close();
-            }
+            throw new IllegalArgumentException("LIST_ID must refer to an existing TaskList");
         }
         return mDelegate.insert(db, task, isSyncAdapter);
     }
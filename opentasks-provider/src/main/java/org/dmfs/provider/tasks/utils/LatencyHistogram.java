@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A lock-free histogram of latencies in nanoseconds.
+ * <p>
+ * Like an HDR histogram it uses log-linear buckets: every power of two is split into {@value #SUB_BUCKETS} buckets of equal width, so the relative error
+ * of any percentile is at most 1/{@value #SUB_BUCKETS}. The maximum is tracked exactly. Recording is a single atomic increment, so this can be used on
+ * hot paths by many threads.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class LatencyHistogram
+{
+    private final static int SUB_BUCKET_BITS = 3;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Enough buckets to cover all positive long values.
+     */
+    private final static int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+
+    /**
+     * Records the given latency.
+     *
+     * @param nanos
+     *         The latency in nanoseconds, negative values are recorded as 0.
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        mBuckets.incrementAndGet(bucket(value));
+        mCount.incrementAndGet();
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value))
+        {
+            max = mMax.get();
+        }
+    }
+
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long count()
+    {
+        return mCount.get();
+    }
+
+
+    /**
+     * Returns the largest recorded value in nanoseconds.
+     */
+    public long max()
+    {
+        return mMax.get();
+    }
+
+
+    /**
+     * Returns the given percentile in nanoseconds. The result is the upper bound of the bucket which contains the percentile, but never more than {@link
+     * #max()}.
+     *
+     * @param percentile
+     *         The percentile in the range [0, 100].
+     *
+     * @return The percentile or 0 if nothing has been recorded yet.
+     */
+    public long percentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("percentile must be in [0, 100] but was " + percentile);
+        }
+
+        // the buckets may change while we iterate, so we count them ourselves instead of relying on mCount
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            buckets[i] = mBuckets.get(i);
+            total += buckets[i];
+        }
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i)
+        {
+            seen += buckets[i];
+            if (seen >= rank)
+            {
+                return Math.min(lowestValue(i + 1) - 1, max());
+            }
+        }
+        return max();
+    }
+
+
+    static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+
+    static long lowestValue(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        if (bucket >= BUCKETS)
+        {
+            return Long.MAX_VALUE;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+}
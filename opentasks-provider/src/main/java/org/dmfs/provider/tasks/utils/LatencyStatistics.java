@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.utils;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A registry of named {@link LatencyHistogram}s.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+public final class LatencyStatistics
+{
+    private final ConcurrentMap<String, LatencyHistogram> mHistograms = new ConcurrentHashMap<>(64);
+
+
+    /**
+     * Returns the {@link LatencyHistogram} with the given name, creating it if necessary.
+     */
+    public LatencyHistogram histogram(String name)
+    {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram == null)
+        {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(name, newHistogram);
+            if (histogram == null)
+            {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+
+    /**
+     * Writes count, p50, p99 and max of all histograms which contain any values, sorted by name.
+     *
+     * @param writer
+     *         The {@link PrintWriter} to write to.
+     */
+    public void dump(PrintWriter writer)
+    {
+        writer.println(String.format(Locale.ENGLISH, "%-48s %10s %12s %12s %12s", "latency [µs]", "count", "p50", "p99", "max"));
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(mHistograms).entrySet())
+        {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.count() == 0)
+            {
+                continue;
+            }
+            writer.println(String.format(Locale.ENGLISH, "%-48s %10d %12.1f %12.1f %12.1f", entry.getKey(), histogram.count(),
+                    histogram.percentile(50) / 1000.0, histogram.percentile(99) / 1000.0, histogram.max() / 1000.0));
+        }
+    }
+}
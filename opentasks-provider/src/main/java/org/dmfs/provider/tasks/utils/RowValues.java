@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks.utils;
+
+import android.content.ContentValues;
+
+
+/**
+ * The {@link ContentValues} of a bulk update, one row at a time.
+ * <p>
+ * Processors may change the values they are given, so every row needs a fresh copy of the caller's values, unless only a single row is updated. Instead of
+ * allocating a copy for each row, all rows share the same copy, which is reset to the caller's values for every row. Hence the values returned by {@link
+ * #next()} are only valid until the next call.
+ *
+ * @author Marten Gajda
+ */
+public final class RowValues
+{
+    private final ContentValues mValues;
+    private final boolean mCopy;
+    private ContentValues mRowValues;
+
+
+    /**
+     * Creates {@link RowValues} for the given values.
+     *
+     * @param values
+     *         The values of the update.
+     * @param multipleRows
+     *         Whether the update affects more than one row. If not, the given values are returned as is.
+     */
+    public RowValues(ContentValues values, boolean multipleRows)
+    {
+        mValues = values;
+        mCopy = multipleRows;
+    }
+
+
+    /**
+     * Returns the values for the next row.
+     */
+    public ContentValues next()
+    {
+        if (!mCopy)
+        {
+            return mValues;
+        }
+        if (mRowValues == null)
+        {
+            mRowValues = new ContentValues(mValues);
+        }
+        else
+        {
+            mRowValues.clear();
+            mRowValues.putAll(mValues);
+        }
+        return mRowValues;
+    }
+}
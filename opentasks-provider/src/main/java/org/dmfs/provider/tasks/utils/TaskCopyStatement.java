@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks.utils;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.jems.function.Function;
+import org.dmfs.provider.tasks.TaskDatabaseHelper.Tables;
+import org.dmfs.tasks.contract.TaskContract.Tasks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A {@link Function} which returns an SQL statement that inserts a copy of each task matching a given condition. The copies get new row ids and all
+ * other columns are copied as they are, except for the given flag columns, which are set to {@code 1}.
+ * <p>
+ * The column list is taken from the actual table, so the statement doesn't need to be changed when columns are added.
+ *
+ * @author Marten Gajda
+ */
+public final class TaskCopyStatement implements Function<SQLiteDatabase, String>
+{
+    private final String mCondition;
+    private final List<String> mFlags;
+
+
+    /**
+     * Creates a {@link TaskCopyStatement}.
+     *
+     * @param condition
+     *         The condition of the tasks to copy, it may contain argument placeholders.
+     * @param flags
+     *         The columns to set to {@code 1} in the copies.
+     */
+    public TaskCopyStatement(String condition, String... flags)
+    {
+        mCondition = condition;
+        mFlags = Arrays.asList(flags);
+    }
+
+
+    @Override
+    public String value(SQLiteDatabase db)
+    {
+        StringBuilder columns = new StringBuilder(1024);
+        StringBuilder values = new StringBuilder(1024);
+        for (String column : new TableColumns(Tables.TASKS).value(db))
+        {
+            if (Tasks._ID.equals(column))
+            {
+                continue;
+            }
+            if (columns.length() > 0)
+            {
+                columns.append(", ");
+                values.append(", ");
+            }
+            columns.append(column);
+            values.append(mFlags.contains(column) ? "1" : column);
+        }
+        return String.format(Locale.ENGLISH, "insert into %s (%s) select %s from %s where %s", Tables.TASKS, columns, values, Tables.TASKS, mCondition);
+    }
+}
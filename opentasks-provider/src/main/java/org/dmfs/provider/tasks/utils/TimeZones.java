@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.utils;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A cache of {@link TimeZone}s by id.
+ * <p>
+ * {@link TimeZone#getTimeZone(String)} is synchronized and returns a new clone on every call, which is expensive when reading many rows. The provider
+ * never modifies a {@link TimeZone}, so all rows can share the same instance.
+ *
+ * @author Marten Gajda
+ */
+public final class TimeZones
+{
+    /**
+     * The maximum number of cached time zones. There are only a few hundred valid ids, this just protects against clients storing arbitrary ids.
+     */
+    private final static int MAX_SIZE = 1024;
+
+    private final static ConcurrentMap<String, TimeZone> CACHE = new ConcurrentHashMap<>(32);
+
+
+    private TimeZones()
+    {
+    }
+
+
+    /**
+     * Returns the {@link TimeZone} with the given id. The result must not be modified.
+     *
+     * @param id
+     *         A time zone id.
+     *
+     * @return The {@link TimeZone}, which is GMT if the id is unknown.
+     */
+    public static TimeZone timeZone(String id)
+    {
+        TimeZone result = CACHE.get(id);
+        if (result == null)
+        {
+            result = TimeZone.getTimeZone(id);
+            if (CACHE.size() < MAX_SIZE)
+            {
+                TimeZone cached = CACHE.putIfAbsent(id, result);
+                if (cached != null)
+                {
+                    result = cached;
+                }
+            }
+        }
+        return result;
+    }
+}
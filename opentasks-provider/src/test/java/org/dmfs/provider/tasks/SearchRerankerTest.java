@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * @author Marten Gajda
+ */
+public class SearchRerankerTest
+{
+    @Test
+    public void testFieldWeight()
+    {
+        SearchReranker reranker = new SearchReranker("meeting");
+        double title = reranker.score(1, "meeting", null, null);
+        double location = reranker.score(1, null, "meeting", null);
+        double description = reranker.score(1, null, null, "meeting");
+        double property = reranker.score(1, null, null, null, "meeting");
+
+        assertThat(title, greaterThan(location));
+        assertThat(location, greaterThan(description));
+        assertThat(description, greaterThan(property));
+    }
+
+
+    @Test
+    public void testWordMatches()
+    {
+        SearchReranker reranker = new SearchReranker("meet");
+        double exact = reranker.score(1, "meet the team", null, null);
+        double prefix = reranker.score(1, "meeting the team", null, null);
+        double substring = reranker.score(1, "unmeetable team", null, null);
+
+        assertThat(exact, greaterThan(prefix));
+        assertThat(prefix, greaterThan(substring));
+    }
+
+
+    @Test
+    public void testTypos()
+    {
+        SearchReranker reranker = new SearchReranker("meeitng");
+        assertThat(reranker.score(0.5, "meeting", null, null), greaterThan(reranker.score(0.5, "mating", null, null)));
+        // partially typed words with a typo
+        assertThat(new SearchReranker("meetn").score(0.5, "meeting", null, null), greaterThan(0.5 * 0.5));
+    }
+
+
+    @Test
+    public void testProximity()
+    {
+        SearchReranker reranker = new SearchReranker("team meeting");
+        double adjacent = reranker.score(1, "weekly team meeting", null, null);
+        double distant = reranker.score(1, "team lunch after the weekly meeting", null, null);
+
+        assertThat(adjacent, greaterThan(distant));
+    }
+
+
+    @Test
+    public void testNgramScore()
+    {
+        SearchReranker reranker = new SearchReranker("meeting");
+        assertThat(reranker.score(1, "meeting", null, null), greaterThan(reranker.score(0.5, "meeting", null, null)));
+        // empty queries don't change the score
+        assertThat(new SearchReranker(" ").score(0.5, "meeting", null, null), is(0.5));
+    }
+
+
+    @Test
+    public void testEditDistance()
+    {
+        assertThat(SearchReranker.editDistance("meeting", "meeting", 2), is(0));
+        assertThat(SearchReranker.editDistance("meeting", "meting", 2), is(1));
+        assertThat(SearchReranker.editDistance("meeting", "meetnig", 2), is(1));
+        assertThat(SearchReranker.editDistance("meeting", "metting", 2), is(1));
+        assertThat(SearchReranker.editDistance("meetings", "meting", 2), is(2));
+        assertThat(SearchReranker.editDistance("meeting", "mating", 1), is(Integer.MAX_VALUE));
+        assertThat(SearchReranker.editDistance("meeting", "me", 2), is(Integer.MAX_VALUE));
+    }
+
+
+    /**
+     * Measures the time it takes to re-rank the top 50 results. This only runs when the system property {@code benchmark} is {@code true}, e.g. {@code
+     * ./gradlew :opentasks-provider:testDebugUnitTest -Pbenchmark=true}.
+     */
+    @Test
+    public void testBenchmark()
+    {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        int k = 50;
+        String[][] candidates = new String[k][];
+        for (int i = 0; i < k; ++i)
+        {
+            candidates[i] = new String[] {
+                    "Prepare the quarterly team meeting " + i,
+                    "Conference room " + i + ", second floor",
+                    "Collect the agenda items from everyone, book the room and send out the invitations to the team in time. Remember item " + i };
+        }
+
+        // warm up
+        for (int i = 0; i < 200; ++i)
+        {
+            rerank(new SearchReranker("team meetnig"), candidates);
+        }
+
+        int runs = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; ++i)
+        {
+            rerank(new SearchReranker("team meetnig"), candidates);
+        }
+        System.out.println(String.format(Locale.ENGLISH, "Re-ranking %d results takes %.1f µs", k, (System.nanoTime() - start) / 1000.0 / runs));
+    }
+
+
+    private static double rerank(SearchReranker reranker, String[][] candidates)
+    {
+        double sum = 0;
+        for (String[] candidate : candidates)
+        {
+            sum += reranker.score(0.5, candidate[0], candidate[1], candidate[2]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.handler;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * @author Marten Gajda
+ */
+public class CategoryCacheTest
+{
+    @Test
+    public void testTaskAccount()
+    {
+        CategoryCache cache = new CategoryCache();
+        assertThat(cache.taskAccount(1), nullValue());
+
+        cache.putTaskAccount(1, "name", "type");
+        assertThat(cache.taskAccount(1), is(new String[] { "name", "type" }));
+        assertThat(cache.taskAccount(2), nullValue());
+    }
+
+
+    @Test
+    public void testCategories()
+    {
+        CategoryCache cache = new CategoryCache();
+        CategoryCache.CachedCategory category = new CategoryCache.CachedCategory(10, "work", 0xff0000, "name", "type");
+        cache.putCategory(category);
+
+        assertThat(cache.categoryById(10, "name", "type"), sameInstance(category));
+        assertThat(cache.categoryByName("work", "name", "type"), sameInstance(category));
+
+        // categories are scoped to their account
+        assertThat(cache.categoryById(10, "other", "type"), nullValue());
+        assertThat(cache.categoryByName("work", "name", "other"), nullValue());
+        assertThat(cache.categoryByName("home", "name", "type"), nullValue());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.model.adapters;
+
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * @author Marten Gajda
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ColumnIndexTest
+{
+    @Test
+    public void testOf()
+    {
+        ColumnIndex columnIndex = new ColumnIndex("b");
+        MatrixCursor cursor1 = new MatrixCursor(new String[] { "a", "b", "c" });
+        MatrixCursor cursor2 = new MatrixCursor(new String[] { "b", "c" });
+        MatrixCursor cursor3 = new MatrixCursor(new String[] { "a", "c" });
+
+        assertThat(columnIndex.of(cursor1), is(1));
+        assertThat(columnIndex.of(cursor1), is(1));
+        assertThat(columnIndex.of(cursor2), is(0));
+        assertThat(columnIndex.of(cursor3), is(-1));
+        assertThat(columnIndex.of(cursor1), is(1));
+    }
+
+
+    @Test
+    public void testFieldAdapter()
+    {
+        FieldAdapter<String, ?> adapter = new StringFieldAdapter<>("b");
+        MatrixCursor cursor1 = new MatrixCursor(new String[] { "a", "b" });
+        cursor1.addRow(new Object[] { "1", "2" });
+        MatrixCursor cursor2 = new MatrixCursor(new String[] { "b" });
+        cursor2.addRow(new Object[] { "3" });
+        cursor1.moveToFirst();
+        cursor2.moveToFirst();
+
+        assertThat(adapter.getFrom(cursor1), is("2"));
+        assertThat(adapter.getFrom(cursor2), is("3"));
+        assertThat(adapter.getFrom(cursor1), is("2"));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.processors.tasks;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.dmfs.iterables.elementary.Seq;
+import org.dmfs.provider.tasks.model.TaskAdapter;
+import org.dmfs.provider.tasks.model.adapters.FieldAdapter;
+import org.dmfs.provider.tasks.processors.EntityProcessor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+
+/**
+ * @author Marten Gajda
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DispatchingTest
+{
+    @Test
+    public void testUpdateRoutesToDependentStages()
+    {
+        List<String> calls = new ArrayList<>();
+        EntityProcessor<TaskAdapter> dispatching = dispatching(calls);
+
+        TaskAdapter task = mock(TaskAdapter.class);
+        doReturn(true).when(task).isUpdated(TaskAdapter.DUE);
+
+        assertThat(dispatching.update(null, task, false), sameInstance(task));
+        assertThat(calls, is(Arrays.asList("dates", "commit")));
+    }
+
+
+    @Test
+    public void testUpdateWithoutDependentChanges()
+    {
+        List<String> calls = new ArrayList<>();
+        EntityProcessor<TaskAdapter> dispatching = dispatching(calls);
+
+        TaskAdapter task = mock(TaskAdapter.class);
+        doReturn(true).when(task).isUpdated(TaskAdapter._DIRTY);
+
+        assertThat(dispatching.update(null, task, false), sameInstance(task));
+        assertThat(calls, is(Arrays.asList("commit")));
+    }
+
+
+    @Test
+    public void testUpdateSharedDependency()
+    {
+        List<String> calls = new ArrayList<>();
+        EntityProcessor<TaskAdapter> dispatching = dispatching(calls);
+
+        TaskAdapter task = mock(TaskAdapter.class);
+        doReturn(true).when(task).isUpdated(TaskAdapter.STATUS);
+
+        dispatching.update(null, task, false);
+        assertThat(calls, is(Arrays.asList("title", "dates", "commit")));
+    }
+
+
+    @Test
+    public void testInsertAndDelete()
+    {
+        List<String> calls = new ArrayList<>();
+        EntityProcessor<TaskAdapter> dispatching = dispatching(calls);
+
+        TaskAdapter task = mock(TaskAdapter.class);
+
+        assertThat(dispatching.insert(null, task, false), sameInstance(task));
+        assertThat(calls, is(Arrays.asList("title", "dates", "commit")));
+
+        calls.clear();
+        dispatching.delete(null, task, false);
+        assertThat(calls, is(Arrays.asList("title", "dates", "commit")));
+    }
+
+
+    private static EntityProcessor<TaskAdapter> dispatching(List<String> calls)
+    {
+        return new Dispatching(new Recording("commit", calls, null),
+                new Dispatching.Stage(new Seq<FieldAdapter<?, TaskAdapter>>(TaskAdapter.TITLE, TaskAdapter.STATUS),
+                        delegate -> new Recording("title", calls, delegate)),
+                new Dispatching.Stage(new Seq<FieldAdapter<?, TaskAdapter>>(TaskAdapter.DUE, TaskAdapter.STATUS),
+                        delegate -> new Recording("dates", calls, delegate)));
+    }
+
+
+    /**
+     * An {@link EntityProcessor} which records its calls and passes them on to its delegate, if any.
+     */
+    private static final class Recording implements EntityProcessor<TaskAdapter>
+    {
+        private final String mName;
+        private final List<String> mCalls;
+        private final EntityProcessor<TaskAdapter> mDelegate;
+
+
+        private Recording(String name, List<String> calls, EntityProcessor<TaskAdapter> delegate)
+        {
+            mName = name;
+            mCalls = calls;
+            mDelegate = delegate;
+        }
+
+
+        @Override
+        public TaskAdapter insert(SQLiteDatabase db, TaskAdapter entityAdapter, boolean isSyncAdapter)
+        {
+            mCalls.add(mName);
+            return mDelegate == null ? entityAdapter : mDelegate.insert(db, entityAdapter, isSyncAdapter);
+        }
+
+
+        @Override
+        public TaskAdapter update(SQLiteDatabase db, TaskAdapter entityAdapter, boolean isSyncAdapter)
+        {
+            mCalls.add(mName);
+            return mDelegate == null ? entityAdapter : mDelegate.update(db, entityAdapter, isSyncAdapter);
+        }
+
+
+        @Override
+        public void delete(SQLiteDatabase db, TaskAdapter entityAdapter, boolean isSyncAdapter)
+        {
+            mCalls.add(mName);
+            if (mDelegate != null)
+            {
+                mDelegate.delete(db, entityAdapter, isSyncAdapter);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.provider.tasks.utils;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * @author Marten Gajda
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testEmpty()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.count(), is(0L));
+        assertThat(histogram.max(), is(0L));
+        assertThat(histogram.percentile(50), is(0L));
+    }
+
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; ++i)
+        {
+            histogram.record(i * 1000);
+        }
+
+        assertThat(histogram.count(), is(1000L));
+        assertThat(histogram.max(), is(1000000L));
+        // the relative error is at most 1/8
+        assertThat(histogram.percentile(50), allOf(greaterThanOrEqualTo(500000L), lessThanOrEqualTo(562500L)));
+        assertThat(histogram.percentile(99), allOf(greaterThanOrEqualTo(990000L), lessThanOrEqualTo(1000000L)));
+        assertThat(histogram.percentile(100), is(1000000L));
+    }
+
+
+    @Test
+    public void testNegative()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertThat(histogram.count(), is(1L));
+        assertThat(histogram.percentile(100), is(0L));
+    }
+
+
+    @Test
+    public void testBuckets()
+    {
+        for (long value : new long[] { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE })
+        {
+            int bucket = LatencyHistogram.bucket(value);
+            assertThat(LatencyHistogram.lowestValue(bucket), lessThanOrEqualTo(value));
+            assertThat(LatencyHistogram.lowestValue(bucket + 1), greaterThanOrEqualTo(value));
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalPercentile()
+    {
+        new LatencyHistogram().percentile(101);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.dmfs.provider.tasks.utils;
+
+import android.content.ContentValues;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+
+/**
+ * @author Marten Gajda
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RowValuesTest
+{
+    @Test
+    public void testSingleRow()
+    {
+        ContentValues values = new ContentValues();
+        values.put("title", "test");
+
+        assertThat(new RowValues(values, false).next(), sameInstance(values));
+    }
+
+
+    @Test
+    public void testMultipleRows()
+    {
+        ContentValues values = new ContentValues();
+        values.put("title", "test");
+        values.put("priority", 1);
+
+        RowValues rowValues = new RowValues(values, true);
+        // track all instances returned for 10k rows
+        Set<ContentValues> allocated = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 10000; ++i)
+        {
+            ContentValues row = rowValues.next();
+            assertThat(row, not(sameInstance(values)));
+            assertThat(row, is(values));
+
+            // processors may change the values of each row
+            row.put("title", "changed " + i);
+            row.remove("priority");
+            row.put("dirty", 1);
+            allocated.add(row);
+        }
+
+        assertThat(allocated.size(), is(1));
+        // the caller's values are never changed
+        assertThat(values.size(), is(2));
+        assertThat(values.getAsString("title"), is("test"));
+    }
+}
@@ -31,7 +31,8 @@ public abstract class AbstractGroupingFactory
 {
 
     /**
-     * The projection we use when we load instances. We don't need every detail of a task here. This is used by all groupings.
+     * The projection we use when we load instances. We don't need every detail of a task here. This is used by all groupings. Note, all columns must
+     * be contained in {@link Instances#LIST_ROW_COLUMNS}.
      */
     public final static String[] INSTANCE_PROJECTION = new String[] {
             Instances.INSTANCE_START, Instances.INSTANCE_DURATION, Instances.INSTANCE_DUE,
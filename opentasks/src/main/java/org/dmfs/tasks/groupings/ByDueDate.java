@@ -256,11 +256,14 @@ public class ByDueDate extends AbstractGroupingFactory
     @Override
     ExpandableChildDescriptor makeExpandableChildDescriptor(String authority)
     {
-        return new ExpandableChildDescriptor(Instances.getContentUri(authority), INSTANCE_PROJECTION, Instances.VISIBLE + "=1 and (" + Instances.IS_ALLDAY
+        return new ExpandableChildDescriptor(Instances.getListRowsContentUri(authority), INSTANCE_PROJECTION,
+                Instances.VISIBLE + "=1 and (" + Instances.IS_ALLDAY
                 + "=0 and (((" + Instances.INSTANCE_DUE + ">=?) and (" + Instances.INSTANCE_DUE + "<?)) or ((" + Instances.INSTANCE_DUE + ">=? or "
                 + Instances.INSTANCE_DUE + " is ?) and ? is null))" + "or " + Instances.IS_ALLDAY + "=1 and (((" + Instances.INSTANCE_DUE + ">=?+?) and ("
                 + Instances.INSTANCE_DUE + "<?+?)) or ((" + Instances.INSTANCE_DUE + ">=?+? or " + Instances.INSTANCE_DUE + " is ?) and ? is null)))",
-                Instances.DEFAULT_SORT_ORDER, 0, 1, 0, 1, 1, 0, 9, 1, 10, 0, 9, 1, 1).setViewDescriptor(TASK_VIEW_DESCRIPTOR);
+                Instances.DEFAULT_SORT_ORDER, 0, 1, 0, 1, 1, 0, 9, 1, 10, 0, 9, 1, 1)
+                .setTimeRangeBuckets(Instances.INSTANCE_DUE, Instances.VISIBLE + "=1", 0, 1)
+                .setViewDescriptor(TASK_VIEW_DESCRIPTOR);
     }
 
 
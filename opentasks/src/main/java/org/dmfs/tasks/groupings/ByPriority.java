@@ -260,7 +260,7 @@ public class ByPriority extends AbstractGroupingFactory
     @Override
     ExpandableChildDescriptor makeExpandableChildDescriptor(String authority)
     {
-        return new ExpandableChildDescriptor(Instances.getContentUri(authority), INSTANCE_PROJECTION, Instances.VISIBLE + "=1 and (" + Instances.PRIORITY
+        return new ExpandableChildDescriptor(Instances.getListRowsContentUri(authority), INSTANCE_PROJECTION, Instances.VISIBLE + "=1 and (" + Instances.PRIORITY
                 + ">=? and " + Instances.PRIORITY + " <= ? or ? is null and " + Instances.PRIORITY + " <= ? or " + Instances.PRIORITY + " is ?)",
                 Instances.INSTANCE_DUE_SORTING + " is null, " + Instances.INSTANCE_DUE_SORTING + ", " + Instances.TITLE + " COLLATE NOCASE ASC", 1, 2, 1, 2, 1)
                 .setViewDescriptor(TASK_VIEW_DESCRIPTOR);
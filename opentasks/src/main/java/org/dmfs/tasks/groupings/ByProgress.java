@@ -199,7 +199,7 @@ public class ByProgress extends AbstractGroupingFactory
     @Override
     ExpandableChildDescriptor makeExpandableChildDescriptor(String authority)
     {
-        return new ExpandableChildDescriptor(Instances.getContentUri(authority), INSTANCE_PROJECTION, Instances.VISIBLE + "=1 and ("
+        return new ExpandableChildDescriptor(Instances.getListRowsContentUri(authority), INSTANCE_PROJECTION, Instances.VISIBLE + "=1 and ("
                 + Instances.PERCENT_COMPLETE + ">=? and " + Instances.PERCENT_COMPLETE + " <= ? or ? is null and " + Instances.PERCENT_COMPLETE + " <= ? or "
                 + Instances.PERCENT_COMPLETE + " is ?)", Instances.INSTANCE_DUE_SORTING + " is null, " + Instances.INSTANCE_DUE_SORTING + ", " + Instances.TITLE
                 + " COLLATE NOCASE ASC", 1, 2, 1, 2, 1).setViewDescriptor(TASK_VIEW_DESCRIPTOR);
@@ -56,6 +56,11 @@ import androidx.preference.PreferenceManager;
  */
 public class BySearch extends AbstractGroupingFactory
 {
+    /**
+     * The maximum number of search results to show per search query.
+     */
+    private final static int SEARCH_RESULT_LIMIT = 100;
+
     /**
      * A {@link ViewDescriptor} that knows how to present the tasks in the task list grouped by priority.
      */
@@ -316,7 +321,8 @@ public class BySearch extends AbstractGroupingFactory
     @Override
     public ExpandableChildDescriptor makeExpandableChildDescriptor(String authority)
     {
-        return new SearchChildDescriptor(authority, SearchHistoryDatabaseHelper.SearchHistoryColumns.SEARCH_QUERY, INSTANCE_PROJECTION, null, Tasks.SCORE
+        return new SearchChildDescriptor(authority, SearchHistoryDatabaseHelper.SearchHistoryColumns.SEARCH_QUERY, SEARCH_RESULT_LIMIT, INSTANCE_PROJECTION,
+                null, Tasks.SCORE
                 + ", " + Instances.INSTANCE_DUE_SORTING + " is null, " + Instances.INSTANCE_DUE_SORTING + ", " + Instances.PRIORITY + ", " + Instances.TITLE
                 + " COLLATE NOCASE ASC", null).setViewDescriptor(TASK_VIEW_DESCRIPTOR);
 
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 dmfs GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dmfs.tasks.utils;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+
+/**
+ * A {@link CursorWrapper} that exposes a contiguous range of rows of another {@link Cursor}.
+ * <p>
+ * Multiple subsets may share the same {@link Cursor}, so every subset positions the wrapped {@link Cursor} whenever it moves. Readers must move the subset
+ * before they read a row, like {@link android.widget.CursorTreeAdapter} does. Closing a subset doesn't close the wrapped {@link Cursor}, it's owned by
+ * whoever created the subsets.
+ *
+ * @author Marten Gajda <marten@dmfs.org>
+ */
+final class CursorSubset extends CursorWrapper
+{
+    private final int mOffset;
+    private final int mCount;
+    private int mPosition = -1;
+
+
+    /**
+     * Creates a {@link CursorSubset}.
+     *
+     * @param cursor
+     *         The {@link Cursor} to wrap.
+     * @param offset
+     *         The position of the first row of the subset in the wrapped {@link Cursor}.
+     * @param count
+     *         The number of rows in the subset.
+     */
+    CursorSubset(Cursor cursor, int offset, int count)
+    {
+        super(cursor);
+        mOffset = offset;
+        mCount = count;
+    }
+
+
+    @Override
+    public int getCount()
+    {
+        return mCount;
+    }
+
+
+    @Override
+    public int getPosition()
+    {
+        return mPosition;
+    }
+
+
+    @Override
+    public boolean moveToPosition(int position)
+    {
+        if (position >= mCount)
+        {
+            mPosition = mCount;
+            return false;
+        }
+        if (position < 0)
+        {
+            mPosition = -1;
+            return false;
+        }
+        mPosition = position;
+        return super.moveToPosition(mOffset + position);
+    }
+
+
+    @Override
+    public boolean move(int offset)
+    {
+        return moveToPosition(mPosition + offset);
+    }
+
+
+    @Override
+    public boolean moveToFirst()
+    {
+        return moveToPosition(0);
+    }
+
+
+    @Override
+    public boolean moveToLast()
+    {
+        return moveToPosition(mCount - 1);
+    }
+
+
+    @Override
+    public boolean moveToNext()
+    {
+        return moveToPosition(mPosition + 1);
+    }
+
+
+    @Override
+    public boolean moveToPrevious()
+    {
+        return moveToPosition(mPosition - 1);
+    }
+
+
+    @Override
+    public boolean isFirst()
+    {
+        return mPosition == 0 && mCount != 0;
+    }
+
+
+    @Override
+    public boolean isLast()
+    {
+        return mPosition == mCount - 1 && mCount != 0;
+    }
+
+
+    @Override
+    public boolean isBeforeFirst()
+    {
+        return mCount == 0 || mPosition == -1;
+    }
+
+
+    @Override
+    public boolean isAfterLast()
+    {
+        return mCount == 0 || mPosition == mCount;
+    }
+
+
+    @Override
+    public void close()
+    {
+        // the wrapped cursor is shared with other subsets, we must not close it
+    }
+}
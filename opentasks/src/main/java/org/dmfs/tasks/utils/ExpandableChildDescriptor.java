@@ -21,9 +21,11 @@ import android.database.Cursor;
 import android.net.Uri;
 import androidx.loader.content.CursorLoader;
 
+import org.dmfs.tasks.contract.TaskContract.Instances;
 import org.dmfs.tasks.groupings.filters.AbstractFilter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -46,6 +48,11 @@ public class ExpandableChildDescriptor
 
     private ViewDescriptor mViewDescriptor;
 
+    private String mBucketColumn;
+    private String mBucketSelection;
+    private int mRangeStartColumn;
+    private int mRangeEndColumn;
+
 
     protected ExpandableChildDescriptor()
     {
@@ -203,6 +210,153 @@ public class ExpandableChildDescriptor
     }
 
 
+    /**
+     * Load the children of all groups with a single query, if the groups are time ranges of the given column. Each child row is assigned to a time range by
+     * the provider (see {@link Instances#BUCKET}), so the result can be split into groups in one pass. The time ranges of the groups must not overlap and
+     * groups with a <code>null</code> start and end contain the children which have no value in the given column.
+     * <p>
+     * Note, this requires the {@link Uri} of this descriptor to be a list rows {@link Uri}.
+     *
+     * @param column
+     *         The time column to split by, either {@link Instances#INSTANCE_DUE} or {@link Instances#INSTANCE_START}.
+     * @param selection
+     *         The selection to apply to all children, in addition to any filter. May be <code>null</code>.
+     * @param rangeStartColumn
+     *         The index of the column of the group cursor that contains the start of the time range.
+     * @param rangeEndColumn
+     *         The index of the column of the group cursor that contains the end of the time range.
+     *
+     * @return This instance.
+     */
+    public ExpandableChildDescriptor setTimeRangeBuckets(String column, String selection, int rangeStartColumn, int rangeEndColumn)
+    {
+        mBucketColumn = column;
+        mBucketSelection = selection;
+        mRangeStartColumn = rangeStartColumn;
+        mRangeEndColumn = rangeEndColumn;
+        return this;
+    }
+
+
+    /**
+     * Returns whether the children of all groups can be loaded at once. See {@link #setTimeRangeBuckets(String, String, int, int)}.
+     *
+     * @return <code>true</code> if {@link #getBucketCursorLoader(Context, long[], AbstractFilter)} can be used.
+     */
+    public boolean hasTimeRangeBuckets()
+    {
+        return mBucketColumn != null;
+    }
+
+
+    /**
+     * Returns the ascending, distinct boundaries of the time ranges in the given group cursor.
+     *
+     * @param groups
+     *         The group {@link Cursor}.
+     *
+     * @return An array of boundaries.
+     */
+    public long[] getBucketBoundaries(Cursor groups)
+    {
+        long[] boundaries = new long[groups.getCount() * 2];
+        int count = 0;
+        for (int i = 0; groups.moveToPosition(i); ++i)
+        {
+            if (!groups.isNull(mRangeStartColumn))
+            {
+                boundaries[count++] = groups.getLong(mRangeStartColumn);
+            }
+            if (!groups.isNull(mRangeEndColumn))
+            {
+                boundaries[count++] = groups.getLong(mRangeEndColumn);
+            }
+        }
+        Arrays.sort(boundaries, 0, count);
+
+        // remove duplicates, adjacent ranges share their boundaries
+        int distinct = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            if (distinct == 0 || boundaries[distinct - 1] != boundaries[i])
+            {
+                boundaries[distinct++] = boundaries[i];
+            }
+        }
+        return Arrays.copyOf(boundaries, distinct);
+    }
+
+
+    /**
+     * Returns the first and the last bucket of the group at the current position of the given group cursor.
+     *
+     * @param groups
+     *         The group {@link Cursor}, pointing to the group.
+     * @param boundaries
+     *         The boundaries as returned by {@link #getBucketBoundaries(Cursor)}.
+     *
+     * @return An array containing the first and the last bucket or <code>null</code> if the group doesn't contain any children or its range is unknown.
+     */
+    public int[] getBuckets(Cursor groups, long[] boundaries)
+    {
+        boolean noStart = groups.isNull(mRangeStartColumn);
+        boolean noEnd = groups.isNull(mRangeEndColumn);
+        if (noStart)
+        {
+            // only a group without start and end contains the children without a value, no other group has a lower limit
+            return noEnd ? new int[] { -1, -1 } : null;
+        }
+
+        int start = Arrays.binarySearch(boundaries, groups.getLong(mRangeStartColumn));
+        int end = noEnd ? boundaries.length : Arrays.binarySearch(boundaries, groups.getLong(mRangeEndColumn));
+        if (start < 0 || end < 0)
+        {
+            // the boundaries are out of date
+            return null;
+        }
+        // the bucket of a value is the number of boundaries less than or equal to the value
+        return new int[] { start + 1, end };
+    }
+
+
+    /**
+     * Get a new {@link CursorLoader} that loads the children of all groups, sorted by the time range they belong to. See {@link #setTimeRangeBuckets(String,
+     * String, int, int)}.
+     *
+     * @param context
+     *         A {@link Context}.
+     * @param boundaries
+     *         The boundaries as returned by {@link #getBucketBoundaries(Cursor)}.
+     * @param filter
+     *         An additional {@link AbstractFilter} to apply to the selection, may be <code>null</code>.
+     *
+     * @return A new {@link CursorLoader} instance.
+     */
+    public CursorLoader getBucketCursorLoader(Context context, long[] boundaries, AbstractFilter filter)
+    {
+        StringBuilder selectionBuilder = new StringBuilder(120);
+        List<String> selectionArgList = new ArrayList<String>();
+        if (mBucketSelection != null)
+        {
+            selectionBuilder.append("(").append(mBucketSelection).append(")");
+        }
+        if (filter != null)
+        {
+            if (selectionBuilder.length() > 0)
+            {
+                selectionBuilder.append(" and ");
+            }
+            selectionBuilder.append("(");
+            filter.getSelection(selectionBuilder);
+            selectionBuilder.append(")");
+            filter.getSelectionArgs(selectionArgList);
+        }
+
+        return new CursorLoader(context, Instances.getBucketedListRowsContentUri(mUri.getAuthority(), mBucketColumn, boundaries), mProjection,
+                selectionBuilder.length() == 0 ? null : selectionBuilder.toString(), selectionArgList.toArray(new String[selectionArgList.size()]), mSortOrder);
+    }
+
+
     /**
      * Set a view descriptor to use to display the children.
      *
@@ -100,6 +100,17 @@ public class ExpandableGroupDescriptor
     }
 
 
+    /**
+     * Get the {@link ExpandableChildDescriptor} that knows how to load the children of the groups.
+     *
+     * @return The {@link ExpandableChildDescriptor}.
+     */
+    public ExpandableChildDescriptor getChildDescriptor()
+    {
+        return mChildDescriptor;
+    }
+
+
     /**
      * Set the {@link ViewDescriptor} that knows how to populate the group views.
      *
@@ -27,9 +27,11 @@ import android.view.ViewGroup;
 import android.widget.CursorTreeAdapter;
 import android.widget.ExpandableListView;
 
+import org.dmfs.tasks.contract.TaskContract.Instances;
 import org.dmfs.tasks.groupings.cursorloaders.EmptyCursorLoaderFactory;
 import org.dmfs.tasks.groupings.filters.AbstractFilter;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -41,7 +43,8 @@ import androidx.loader.content.Loader;
 /**
  * An adapter that adapts an {@link ExpandableGroupDescriptor} to an {@link ExpandableListView}.
  * <p>
- * It supports asynchronous loading of the group children.
+ * It supports asynchronous loading of the group children. If the children are split into time ranges (see {@link
+ * ExpandableChildDescriptor#setTimeRangeBuckets(String, String, int, int)}) the children of all groups are loaded by a single loader.
  * <p>
  * TODO: manage loader ids to avoid clashes with other instances using the {@link LoaderManager}.
  *
@@ -49,6 +52,11 @@ import androidx.loader.content.Loader;
  */
 public class ExpandableGroupDescriptorAdapter extends CursorTreeAdapter implements LoaderManager.LoaderCallbacks<Cursor>
 {
+    /**
+     * The id of the loader that loads the children of all groups at once.
+     */
+    private final static int BUCKETS_LOADER_ID = -2;
+
     private final Context mContext;
     private final LayoutInflater mLayoutInflater;
     private final LoaderManager mLoaderManager;
@@ -58,6 +66,8 @@ public class ExpandableGroupDescriptorAdapter extends CursorTreeAdapter implemen
     private OnChildLoadedListener mOnChildLoadedListener;
     private AbstractFilter mChildCursorFilter;
     private Handler mHandler = new Handler();
+    private long[] mBucketBoundaries;
+    private boolean mBucketReloadPending;
 
 
     public ExpandableGroupDescriptorAdapter(@NonNull Cursor cursor, @NonNull Context context, @NonNull LoaderManager loaderManager, @NonNull ExpandableGroupDescriptor descriptor)
@@ -108,6 +118,13 @@ public class ExpandableGroupDescriptorAdapter extends CursorTreeAdapter implemen
     @Override
     public Loader<Cursor> onCreateLoader(int pos, Bundle arguments)
     {
+        if (pos == BUCKETS_LOADER_ID)
+        {
+            ExpandableChildDescriptor childDescriptor = mDescriptor.getChildDescriptor();
+            mBucketBoundaries = childDescriptor.getBucketBoundaries(getCursor());
+            return childDescriptor.getBucketCursorLoader(mContext, mBucketBoundaries, mChildCursorFilter);
+        }
+
         // the child cursor is no longer valid
         mLoadedGroups.remove(pos);
 
@@ -134,7 +151,11 @@ public class ExpandableGroupDescriptorAdapter extends CursorTreeAdapter implemen
     {
         int pos = loader.getId();
 
-        if (pos < getGroupCount())
+        if (pos == BUCKETS_LOADER_ID)
+        {
+            onBucketsLoaded(cursor);
+        }
+        else if (pos < getGroupCount())
         {
             // the child cursor has been loaded
             mLoadedGroups.add(pos);
@@ -148,6 +169,76 @@ public class ExpandableGroupDescriptorAdapter extends CursorTreeAdapter implemen
     }
 
 
+    /**
+     * Splits the children of all groups and sets the children cursor of each group.
+     *
+     * @param cursor
+     *         The children, sorted by {@link Instances#BUCKET}.
+     */
+    private void onBucketsLoaded(Cursor cursor)
+    {
+        Cursor groups = getCursor();
+        int groupCount = getGroupCount();
+        if (groups == null || mBucketBoundaries == null)
+        {
+            return;
+        }
+
+        // map each bucket to its group, the bucket of values without a time is -1
+        ExpandableChildDescriptor childDescriptor = mDescriptor.getChildDescriptor();
+        int[] bucketGroups = new int[mBucketBoundaries.length + 2];
+        Arrays.fill(bucketGroups, -1);
+        boolean[] valid = new boolean[groupCount];
+        for (int i = 0; i < groupCount && groups.moveToPosition(i); ++i)
+        {
+            int[] buckets = childDescriptor.getBuckets(groups, mBucketBoundaries);
+            if (buckets != null)
+            {
+                valid[i] = true;
+                for (int bucket = buckets[0]; bucket <= buckets[1]; ++bucket)
+                {
+                    bucketGroups[bucket + 1] = i;
+                }
+            }
+        }
+
+        // the rows are sorted by bucket and the buckets of each group are adjacent, so each group is a contiguous range of rows
+        int[] offsets = new int[groupCount];
+        int[] counts = new int[groupCount];
+        int bucketColumn = cursor.getColumnIndex(Instances.BUCKET);
+        for (int row = 0; cursor.moveToPosition(row); ++row)
+        {
+            int bucket = cursor.getInt(bucketColumn) + 1;
+            int group = bucket >= 0 && bucket < bucketGroups.length ? bucketGroups[bucket] : -1;
+            if (group >= 0)
+            {
+                if (counts[group]++ == 0)
+                {
+                    offsets[group] = row;
+                }
+            }
+        }
+        cursor.moveToPosition(-1);
+
+        for (int i = 0; i < groupCount; ++i)
+        {
+            if (!valid[i])
+            {
+                // the groups have changed since the loader was created, this group will be loaded with the next reload
+                continue;
+            }
+            Cursor children = new CursorSubset(cursor, offsets[i], counts[i]);
+            mLoadedGroups.add(i);
+            setChildrenCursor(i, children);
+
+            if (mOnChildLoadedListener != null)
+            {
+                mOnChildLoadedListener.onChildLoaded(i, children);
+            }
+        }
+    }
+
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader)
     {
@@ -185,7 +276,11 @@ public class ExpandableGroupDescriptorAdapter extends CursorTreeAdapter implemen
     {
         // the child cursor is no longer valid
         mLoadedGroups.remove(position);
-        if (position < getGroupCount())
+        if (mDescriptor.getChildDescriptor().hasTimeRangeBuckets())
+        {
+            reloadBuckets();
+        }
+        else if (position < getGroupCount())
         {
             mHandler.post(new Runnable()
             {
@@ -205,6 +300,16 @@ public class ExpandableGroupDescriptorAdapter extends CursorTreeAdapter implemen
 
     public void reloadLoadedGroups()
     {
+        if (mDescriptor.getChildDescriptor().hasTimeRangeBuckets())
+        {
+            if (!mLoadedGroups.isEmpty())
+            {
+                mLoadedGroups.clear();
+                reloadBuckets();
+            }
+            return;
+        }
+
         // we operate on a copy of the set to avoid concurrent modification when a group is loaded before we're done here
         for (Integer i : new HashSet<Integer>(mLoadedGroups))
         {
@@ -218,6 +323,32 @@ public class ExpandableGroupDescriptorAdapter extends CursorTreeAdapter implemen
     }
 
 
+    /**
+     * Reloads the children of all groups. Multiple calls before the reload is executed result in a single reload.
+     */
+    private void reloadBuckets()
+    {
+        if (mBucketReloadPending)
+        {
+            return;
+        }
+        mBucketReloadPending = true;
+        mHandler.post(new Runnable()
+        {
+
+            @Override
+            public void run()
+            {
+                mBucketReloadPending = false;
+                if (getGroupCount() > 0)
+                {
+                    mLoaderManager.restartLoader(BUCKETS_LOADER_ID, null, ExpandableGroupDescriptorAdapter.this);
+                }
+            }
+        });
+    }
+
+
     @Override
     protected View newChildView(Context context, Cursor cursor, boolean isLastChild, ViewGroup parent)
     {
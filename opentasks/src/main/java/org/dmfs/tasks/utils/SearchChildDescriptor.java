@@ -18,6 +18,8 @@ package org.dmfs.tasks.utils;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
 
 import androidx.loader.content.CursorLoader;
 
@@ -34,21 +36,26 @@ public class SearchChildDescriptor extends ExpandableChildDescriptor
 {
     private String mAuthority;
     private String mQueryColumn;
+    private int mLimit;
 
 
     /**
      * Create a new {@link SearchChildDescriptor} using the given values.
      *
+     * @param limit
+     *         The maximum number of search results to load.
      * @param projection
      * @param selection
      * @param sortOrder
      * @param selectionColumns
      */
-    public SearchChildDescriptor(String authority, String queryColumn, String[] projection, String selection, String sortOrder, int... selectionColumns)
+    public SearchChildDescriptor(String authority, String queryColumn, int limit, String[] projection, String selection, String sortOrder,
+                                 int... selectionColumns)
     {
         super();
         mAuthority = authority;
         mQueryColumn = queryColumn;
+        mLimit = limit;
         mProjection = projection;
         mSelection = selection;
         mSelectionColumns = selectionColumns;
@@ -72,7 +79,17 @@ public class SearchChildDescriptor extends ExpandableChildDescriptor
     public CursorLoader getCursorLoader(Context context, Cursor cursor, AbstractFilter filter)
     {
         CursorLoader cursorLoader = super.getCursorLoader(context, cursor, filter);
-        cursorLoader.setUri(Tasks.getSearchUri(mAuthority, cursor.getString(cursor.getColumnIndex(mQueryColumn))));
+        Uri searchUri = Tasks.getSearchUri(mAuthority, cursor.getString(cursor.getColumnIndex(mQueryColumn)), mLimit)
+                .buildUpon()
+                .appendQueryParameter(Tasks.SEARCH_RERANK_PARAMETER, "true")
+                .build();
+        int idColumn = cursor.getColumnIndex(BaseColumns._ID);
+        if (idColumn >= 0)
+        {
+            // the row of the current search doesn't change while typing, so its id identifies the search session
+            searchUri = searchUri.buildUpon().appendQueryParameter(Tasks.SEARCH_SESSION_PARAMETER, "search-" + cursor.getLong(idColumn)).build();
+        }
+        cursorLoader.setUri(searchUri);
 
         return cursorLoader;
     }